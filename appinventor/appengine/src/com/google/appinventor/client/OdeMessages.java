@@ -2584,6 +2584,10 @@ public interface OdeMessages extends Messages {
   @Description("")
   String FontSizeProperties();
 
+  @DefaultMessage("FrameRate")
+  @Description("")
+  String FrameRateProperties();
+
   @DefaultMessage("FontTypeface")
   @Description("")
   String FontTypefaceProperties();
@@ -2684,6 +2688,26 @@ public interface OdeMessages extends Messages {
   @Description("")
   String PaintColorProperties();
 
+  @DefaultMessage("PendingRequests")
+  @Description("")
+  String PendingRequestsProperties();
+
+  @DefaultMessage("ActiveCalls")
+  @Description("")
+  String ActiveCallsProperties();
+
+  @DefaultMessage("QueuedCalls")
+  @Description("")
+  String QueuedCallsProperties();
+
+  @DefaultMessage("CompletedCalls")
+  @Description("")
+  String CompletedCallsProperties();
+
+  @DefaultMessage("RejectedCalls")
+  @Description("")
+  String RejectedCallsProperties();
+
   @DefaultMessage("PhoneNumber")
   @Description("")
   String PhoneNumberProperties();
@@ -6243,6 +6267,62 @@ public interface OdeMessages extends Messages {
   @Description("<p>Use the Endpoint URL field to specify a Uniform Resource Locator (URL) of a SPARQL endpoint to read and write data on the web. For example, if you want to query structured content from DBpedia, use <code>http://dbpedia.org/sparql</code>.</p><p>There are a number of public endpoints listed at <a href=\"http://datahub.io/dataset?res_format=api%2Fsparql\" target='_new'>DataHub.io</a></p>")
   String EndpointURLProperties();
 
+  @DefaultMessage("LocalStore")
+  @Description("<p>Name of an on-device store that keeps the data of this component between runs of the app. Data added to the component is written to the store as it is added, and is available again, without being read from a file, the next time the app starts. If empty, the data is only kept in memory.</p>")
+  String LocalStoreProperties();
+
+  @DefaultMessage("PendingDataCount")
+  @Description("<p>Number of statements added to this component that have not yet been sent to the endpoint by SyncDataToWeb.</p>")
+  String PendingDataCountProperties();
+
+  @DefaultMessage("UpdateBatchSize")
+  @Description("<p>Maximum number of statements sent to the endpoint in one update by SyncDataToWeb. Statements about the same subject are always sent together. If 0, all pending statements are sent in one update.</p>")
+  String UpdateBatchSizeProperties();
+
+  @DefaultMessage("SyncDataToWeb")
+  @Description("Sends the statements added to this component since they were last sent to the endpoint, in updates of at most UpdateBatchSize statements. Failed updates are retried, and statements that could not be sent are kept for the next call.")
+  String SyncDataToWebMethods();
+
+  @DefaultMessage("SyncProgress")
+  @Description("Reports that a batch of statements was sent to the endpoint by SyncDataToWeb.")
+  String SyncProgressEvents();
+
+  @DefaultMessage("FinishedSyncingDataToWeb")
+  @Description("Event for FinishedSyncingDataToWeb")
+  String FinishedSyncingDataToWebEvents();
+
+  @DefaultMessage("FailedToSyncDataToWeb")
+  @Description("Event for FailedToSyncDataToWeb")
+  String FailedToSyncDataToWebEvents();
+
+  @DefaultMessage("ExecutePagedSPARQLQuery")
+  @Description("Execute a SPARQL SELECT query on the set EndpointURL of this Linked Data component, retrieving its results one page at a time. The first page is retrieved immediately, and each following page when RetrieveNextResultsPage is called.")
+  String ExecutePagedSPARQLQueryMethods();
+
+  @DefaultMessage("RetrieveNextResultsPage")
+  @Description("Retrieves the next page of results of the last query executed with ExecutePagedSPARQLQuery.")
+  String RetrieveNextResultsPageMethods();
+
+  @DefaultMessage("RetrievedResultsPage")
+  @Description("This event is raised when a page of the results of a query executed with ExecutePagedSPARQLQuery has been received.")
+  String RetrievedResultsPageEvents();
+
+  @DefaultMessage("CacheDuration")
+  @Description("<p>Number of seconds for which the results of a query are kept on the device and reused when the same query is sent to the same endpoint again, even after the app restarts. If 0, every query is sent to the endpoint.</p>")
+  String CacheDurationProperties();
+
+  @DefaultMessage("CacheSize")
+  @Description("<p>Maximum size, in kilobytes, of the query results kept on the device by all the Linked Data components of the app. When it is exceeded, the least recently used results are removed.</p>")
+  String CacheSizeProperties();
+
+  @DefaultMessage("CacheHits")
+  @Description("<p>Number of queries sent by this component that were answered from results kept on the device.</p>")
+  String CacheHitsProperties();
+
+  @DefaultMessage("CacheMisses")
+  @Description("<p>Number of queries sent by this component to the endpoint because no results for them were kept on the device.</p>")
+  String CacheMissesProperties();
+
   @DefaultMessage("FailedToAddDataToWeb")
   @Description("Event for FailedToAddDataToWeb")
   String FailedToAddDataToWebEvents();
@@ -6319,6 +6399,10 @@ public interface OdeMessages extends Messages {
   @Description("Execute a SPARQL query on the set EndpointURL of this Linked Data component. Currently only supports SELECT queries, and converts all integer types into Long and decimal types into Double.")
   String ExecuteSPARQLQueryMethods();
 
+  @DefaultMessage("ExecuteLocalSPARQLQuery")
+  @Description("Execute a SPARQL query on the data held by this Linked Data component, without contacting the EndpointURL. SELECT, ASK, CONSTRUCT and DESCRIBE queries are supported.")
+  String ExecuteLocalSPARQLQueryMethods();
+
   @DefaultMessage("FeedDataToWeb")
   @Description("Attempts to feed the statements contained within this Linked Data component into the endpoint (most likely CSPARQL).")
   String FeedDataToWebMethods();
@@ -6487,6 +6571,14 @@ public interface OdeMessages extends Messages {
   @Description("Indicates whether the scheduled export task is currentenabled.")
   String ScheduleExportEnabledProperties();
 
+  @DefaultMessage("WriteBufferInterval")
+  @Description("Longest time in seconds a sensor sample waits before it is written to the sensor db")
+  String WriteBufferIntervalProperties();
+
+  @DefaultMessage("WriteBufferSize")
+  @Description("Number of sensor samples that are written to the sensor db together")
+  String WriteBufferSizeProperties();
+
   @DefaultMessage("FinishedInitServiceValues")
   @Description("Indicates that SensorDB is bound to SensorDBPipeline and re-initialize values from the pipeline e.g. archive_period, export_period, clearbackup_period, ..etc. App Inventor's user should use this event to update UI that needs values from the background service")
   String FinishedInitServiceValuesEvents();
@@ -6519,6 +6611,10 @@ public interface OdeMessages extends Messages {
   @Description("Enable export db schedule task with specified period in seconds")
   String ScheduleExportMethods();
 
+  @DefaultMessage("SetWriteBuffer")
+  @Description("Set how many sensor samples are collected before they are written to the sensor db together, and the longest time in seconds a sample may wait before it is written")
+  String SetWriteBufferMethods();
+
   @DefaultMessage("StopClearDbBackup")
   @Description("Disable clear backup task")
   String StopClearDbBackupMethods();
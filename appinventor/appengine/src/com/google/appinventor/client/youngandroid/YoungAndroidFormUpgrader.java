@@ -311,6 +311,9 @@ public final class YoungAndroidFormUpgrader {
       } else if (componentType.equals("SemanticWebListPicker")) {
         srcCompVersion = upgradeSemanticWebListPickerProperties(componentProperties, srcCompVersion);
 
+      } else if (componentType.equals("SensorDB")) {
+        srcCompVersion = upgradeSensorDBProperties(componentProperties, srcCompVersion);
+
       } else if (componentType.equals("Sound")) {
         srcCompVersion = upgradeSoundProperties(componentProperties, srcCompVersion);
 
@@ -680,6 +683,11 @@ public final class YoungAndroidFormUpgrader {
       componentProperties.put("TextAlignment", def);
       srcCompVersion = 10;
     }
+    if (srcCompVersion < 11) {
+      // No properties need to be modified to upgrade to version 11.
+      // The FrameRate property was added.
+      srcCompVersion = 11;
+    }
     return srcCompVersion;
   }
 
@@ -1208,6 +1216,34 @@ public final class YoungAndroidFormUpgrader {
       componentProperties.remove("BaseURL");
       srcCompVersion = 3;
     }
+    if ( srcCompVersion < 4 ) {
+      // The ExecuteLocalSPARQLQuery method was added.
+      // No properties need to be modified to upgrade to version 4.
+      srcCompVersion = 4;
+    }
+    if ( srcCompVersion < 5 ) {
+      // The LocalStore property was added.
+      // No properties need to be modified to upgrade to version 5.
+      srcCompVersion = 5;
+    }
+    if ( srcCompVersion < 6 ) {
+      // The SyncDataToWeb method was added.
+      // The SyncProgress, FinishedSyncingDataToWeb and FailedToSyncDataToWeb events were added.
+      // The PendingDataCount and UpdateBatchSize properties were added.
+      // No properties need to be modified to upgrade to version 6.
+      srcCompVersion = 6;
+    }
+    if ( srcCompVersion < 7 ) {
+      // The ExecutePagedSPARQLQuery and RetrieveNextResultsPage methods were added.
+      // The RetrievedResultsPage event was added.
+      // No properties need to be modified to upgrade to version 7.
+      srcCompVersion = 7;
+    }
+    if ( srcCompVersion < 8 ) {
+      // The CacheDuration, CacheSize, CacheHits and CacheMisses properties were added.
+      // No properties need to be modified to upgrade to version 8.
+      srcCompVersion = 8;
+    }
     return srcCompVersion;
   }
 
@@ -1237,6 +1273,12 @@ public final class YoungAndroidFormUpgrader {
       srcCompVersion = 3;
     }
 
+    if (srcCompVersion < 4) {
+      // The CacheDuration, CacheHits and CacheMisses properties were added.
+      // No properties need to be modified to upgrade to version 4.
+      srcCompVersion = 4;
+    }
+
     return srcCompVersion;
   }
 
@@ -1251,6 +1293,17 @@ public final class YoungAndroidFormUpgrader {
     return srcCompVersion;
   }
 
+  private static int upgradeSensorDBProperties(Map<String, JSONValue> componentProperties,
+      int srcCompVersion) {
+    if (srcCompVersion < 2) {
+      // The SetWriteBuffer method was added.
+      // The WriteBufferSize and WriteBufferInterval properties were added.
+      // No properties need to be modified to upgrade to version 2.
+      srcCompVersion = 2;
+    }
+    return srcCompVersion;
+  }
+
   private static int upgradeSoundProperties(Map<String, JSONValue> componentProperties,
       int srcCompVersion) {
     if (srcCompVersion < 2) {
@@ -1471,6 +1524,12 @@ public final class YoungAndroidFormUpgrader {
       // No properties need to be modified to upgrade to version 4.
       srcCompVersion = 4;
     }
+    if (srcCompVersion < 5) {
+      // The PendingRequests, ActiveCalls, QueuedCalls, CompletedCalls and RejectedCalls
+      // properties were added.
+      // No properties need to be modified to upgrade to version 5.
+      srcCompVersion = 5;
+    }
     return srcCompVersion;
   }
 
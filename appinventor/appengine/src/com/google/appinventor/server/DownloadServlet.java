@@ -127,14 +127,15 @@ public class DownloadServlet extends OdeServlet {
         String projectTitle = (uriComponents.length > PROJECT_TITLE_INDEX) ?
             uriComponents[PROJECT_TITLE_INDEX] : null;
         final boolean includeProjectHistory = true;
-        String zipName = (projectTitle == null) ? null :
-            StringUtils.normalizeForFilename(projectTitle) + ".aia";
+        String zipName = (projectTitle == null)
+            ? StorageIoInstanceHolder.INSTANCE.getProjectName(userId, projectId) + ".aia"
+            : StringUtils.normalizeForFilename(projectTitle) + ".aia";
         // If the requester is an Admin, we include any Yail files in the
         // project in the export
         boolean includeYail = userInfoProvider.getIsAdmin();
-        ProjectSourceZip zipFile = fileExporter.exportProjectSourceZip(userId,
-            projectId, includeProjectHistory, false, zipName, includeYail, false);
-        downloadableFile = zipFile.getRawFile();
+        streamProjectSourceZip(resp, zipName, userId, projectId, includeProjectHistory,
+            false, includeYail);
+        return;
 
       } else if (downloadKind.equals(ServerLayout.DOWNLOAD_PROJECT_SOURCE_SCREEN)) {
         // Download project source screen files as a zip.
@@ -205,9 +206,9 @@ public class DownloadServlet extends OdeServlet {
         } else {
           zipName = "u" + projectUserId + "_p" + projectId + ".aia";
         }
-        ProjectSourceZip zipFile = fileExporter.exportProjectSourceZip(projectUserId,
-            projectId, /* include history*/ true, /* include keystore */ true, zipName, true, false);
-        downloadableFile = zipFile.getRawFile();
+        streamProjectSourceZip(resp, zipName, projectUserId, projectId,
+            /* include history*/ true, /* include keystore */ true, true);
+        return;
 
       } else if (downloadKind.equals(ServerLayout.DOWNLOAD_ALL_PROJECTS_SOURCE)) {
         // Download all project source files as a zip of zips.
@@ -254,4 +255,37 @@ public class DownloadServlet extends OdeServlet {
     out.write(content);
     out.close();
   }
+
+  /*
+   * Writes the project source zip straight to the response as its files are
+   * read from storage, instead of building the whole zip in memory first. The
+   * length of the zip isn't known up front, so no content length is set.
+   * A failure partway through aborts the response rather than truncating it.
+   */
+  private void streamProjectSourceZip(HttpServletResponse resp, String zipName, String userId,
+      long projectId, boolean includeProjectHistory, boolean includeAndroidKeystore,
+      boolean includeYail) throws IOException {
+    // Set http response information
+    resp.setStatus(HttpServletResponse.SC_OK);
+    resp.setHeader("content-disposition", "attachment; filename=\"" + zipName + "\"");
+    resp.setContentType(StorageUtil.getContentTypeForFilePath(zipName));
+
+    // Attach download data
+    ServletOutputStream out = resp.getOutputStream();
+    boolean finished = false;
+    try {
+      fileExporter.exportProjectSourceZip(userId, projectId, includeProjectHistory,
+          includeAndroidKeystore, includeYail, false, out);
+      finished = true;
+    } finally {
+      // If reading the project fails partway, the response must not end as if the zip were
+      // complete. If nothing has been sent yet, the response is reset and the exception turns
+      // into an error status. Otherwise the output is left open, so that the exception aborts
+      // the connection, and the zip, whose directory was never written, can't be opened.
+      if (!finished && !resp.isCommitted()) {
+        resp.reset();
+      }
+    }
+    out.close();
+  }
 }
@@ -10,6 +10,7 @@ import com.google.appinventor.shared.rpc.project.ProjectSourceZip;
 import com.google.appinventor.shared.rpc.project.RawFile;
 
 import java.io.IOException;
+import java.io.OutputStream;
 
 import javax.annotation.Nullable;
 
@@ -56,6 +57,28 @@ public interface FileExporter {
                                           boolean includeYail,
                                           boolean fatalError)
       throws IOException;
+
+  /**
+   * Exports the project source files as a zip written directly to the given
+   * stream, without building the zip in memory. The stream is not closed.
+   *
+   * @param userId the userId
+   * @param projectId the project id belonging to the userId
+   * @param includeProjectHistory indicates whether to include a file
+   *        containing the project's history in the zip
+   * @param includeAndroidKeystore indicates whether to include the user's android.keystore file
+   * @param includeYail indicates whether to include the YAIL files
+   * @param fatalError set to true to cause missing GCS file to throw exception
+   * @param out the stream the zip is written to
+   * @return the number of files in the zip
+   * @throws IllegalArgumentException if download request cannot be fulfilled
+   *         (no source files), in which case nothing has been written to out
+   * @throws IOException if files cannot be written
+   */
+  int exportProjectSourceZip(String userId, long projectId, boolean includeProjectHistory,
+                             boolean includeAndroidKeystore, boolean includeYail,
+                             boolean fatalError, OutputStream out)
+      throws IOException;
   
   ProjectSourceZip exportProjectSourceScreenZip(String userId, long projectId,
       																		@Nullable String zipName)
@@ -0,0 +1,30 @@
+package com.google.appinventor.server;
+
+import java.io.IOException;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * OntologyRefreshServlet -- Refresh the ontology snapshots used by the
+ * LinkedData designer
+ *
+ * This Servlet is called from the task queue when {@link SemWebServiceImpl}
+ * finds an out of date snapshot while starting up. It is restricted to admin
+ * users only, but the task queue manager operates with admin privileges, so
+ * it can always call it. Instances that are already running keep their
+ * ontologies; new instances load the refreshed snapshots.
+ */
+public class OntologyRefreshServlet extends OdeServlet {
+  // Logging support
+  private static final Logger LOG = Logger.getLogger(OntologyRefreshServlet.class.getName());
+
+  @Override
+  public void doPost(HttpServletRequest req, HttpServletResponse resp)
+      throws IOException {
+    int updated = new OntologySnapshotStore().refresh(
+        OntologySnapshotStore.getConfiguredOntologies());
+    LOG.info("Updated " + updated + " ontology snapshots");
+  }
+}
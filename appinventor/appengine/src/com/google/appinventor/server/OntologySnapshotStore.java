@@ -0,0 +1,371 @@
+package com.google.appinventor.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.google.appengine.api.ThreadManager;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskAlreadyExistsException;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.appengine.tools.cloudstorage.GcsFileMetadata;
+import com.google.appengine.tools.cloudstorage.GcsFileOptions;
+import com.google.appengine.tools.cloudstorage.GcsFilename;
+import com.google.appengine.tools.cloudstorage.GcsOutputChannel;
+import com.google.appengine.tools.cloudstorage.GcsService;
+import com.google.appengine.tools.cloudstorage.GcsServiceFactory;
+import com.google.appengine.tools.cloudstorage.RetryParams;
+import com.google.appinventor.server.flags.Flag;
+import com.google.appinventor.server.storage.ObjectifyStorageIo;
+import com.google.appinventor.shared.rpc.semweb.SemWebConstants;
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+
+/**
+ * Keeps a snapshot of each ontology used by the LinkedData designer in
+ * Google Cloud Storage, so that new instances of {@link SemWebServiceImpl}
+ * do not have to fetch and parse every ontology from its origin server.
+ *
+ * Each snapshot is the ontology serialized as gzipped Turtle, which keeps
+ * the namespace prefixes, together with the ETag and Last-Modified headers
+ * the origin server returned for it. Refreshing a snapshot sends a
+ * conditional request with those headers, so an unchanged ontology is not
+ * downloaded or parsed again.
+ *
+ * Snapshots older than semweb.refresh.hours are refreshed by a task queue
+ * task (see {@link OntologyRefreshServlet}), so that no user request waits
+ * for the origin servers once a snapshot exists.
+ */
+final class OntologySnapshotStore {
+  private static final Logger LOG = Logger.getLogger(OntologySnapshotStore.class.getName());
+
+  private static final String SNAPSHOT_PREFIX = "semweb/";
+  private static final String SNAPSHOT_SUFFIX = ".ttl.gz";
+  private static final String SNAPSHOT_FORMAT = "TTL";
+  private static final String ETAG = "etag";
+  private static final String LAST_MODIFIED = "last-modified";
+  private static final String ACCEPT = "application/rdf+xml,text/turtle,text/n3";
+
+  // The maximum number of ontologies fetched or parsed at the same time.
+  private static final int MAX_THREADS = 8;
+
+  static final String REFRESH_URL = "/semweb/refresh";
+
+  // How old a snapshot may get before it is refreshed. 0 disables refreshing.
+  private static final Flag<Integer> refreshHours = Flag.createFlag("semweb.refresh.hours", 24);
+
+  private final GcsService gcsService =
+      GcsServiceFactory.createGcsService(RetryParams.getDefaultInstance());
+  private final String bucket;
+
+  /**
+   * Creates a store that keeps the snapshots in the given bucket.
+   *
+   * @param bucket Name of the GCS bucket, or the empty string to fetch the
+   * ontologies every time
+   */
+  OntologySnapshotStore(String bucket) {
+    this.bucket = bucket;
+  }
+
+  /**
+   * Creates a store that keeps the snapshots in the bucket used for project
+   * files.
+   */
+  OntologySnapshotStore() {
+    this(ObjectifyStorageIo.getGcsBucketName());
+  }
+
+  /**
+   * Returns the URIs of the ontologies listed in SemWebConstants.properties.
+   */
+  static String[] getConfiguredOntologies() {
+    Properties props = new Properties();
+    try {
+      props.load(SemWebConstants.class.getResourceAsStream("SemWebConstants.properties"));
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Unable to read SemWebConstants.properties", e);
+    }
+    List<String> ontologies = new ArrayList<String>();
+    for (String uri : props.getProperty("ontologies", "").split(",")) {
+      if (!uri.trim().isEmpty()) {
+        ontologies.add(uri.trim());
+      }
+    }
+    return ontologies.toArray(new String[ontologies.size()]);
+  }
+
+  /**
+   * Loads the given ontologies in parallel, from their snapshots when they
+   * exist, otherwise from their origin servers, in which case a snapshot is
+   * saved for the next instance. Ontologies that cannot be loaded are logged
+   * and left out.
+   *
+   * @param ontologies URIs of the ontologies
+   * @return One model per ontology that could be loaded, in the given order
+   */
+  List<Model> load(String[] ontologies) {
+    List<Callable<Model>> tasks = new ArrayList<Callable<Model>>();
+    for (final String uri : ontologies) {
+      tasks.add(new Callable<Model>() {
+        @Override
+        public Model call() throws Exception {
+          Model model = readSnapshot(uri);
+          return model != null ? model : fetch(uri, null);
+        }
+      });
+    }
+    return runAll(ontologies, tasks);
+  }
+
+  /**
+   * Checks the origin server of each ontology for a newer version and
+   * updates the snapshots of the ones that changed.
+   *
+   * @param ontologies URIs of the ontologies
+   * @return The number of snapshots that were updated
+   */
+  int refresh(String[] ontologies) {
+    List<Callable<Model>> tasks = new ArrayList<Callable<Model>>();
+    for (final String uri : ontologies) {
+      tasks.add(new Callable<Model>() {
+        @Override
+        public Model call() throws Exception {
+          return fetch(uri, getMetadata(uri));
+        }
+      });
+    }
+    return runAll(ontologies, tasks).size();
+  }
+
+  /**
+   * Queues a task that refreshes the snapshots if any of them is older than
+   * semweb.refresh.hours. At most one task is queued per refresh period, no
+   * matter how many instances start.
+   */
+  void scheduleRefreshIfStale(String[] ontologies) {
+    long period = refreshHours.get() * 3600L * 1000L;
+    if (period <= 0) {
+      return;
+    }
+    long now = System.currentTimeMillis();
+    if (!isStale(ontologies, now - period)) {
+      return;
+    }
+    try {
+      QueueFactory.getDefaultQueue().add(TaskOptions.Builder.withUrl(REFRESH_URL)
+          .taskName("semweb-refresh-" + now / period));
+    } catch (TaskAlreadyExistsException e) {
+      // Another instance has already queued the refresh.
+    } catch (RuntimeException e) {
+      LOG.log(Level.WARNING, "Unable to queue the refresh of the ontology snapshots", e);
+    }
+  }
+
+  /**
+   * Returns true if the snapshot of any of the given ontologies is missing
+   * or was written before the given time.
+   */
+  boolean isStale(String[] ontologies, long notBeforeMillis) {
+    if (bucket.isEmpty()) {
+      return false;
+    }
+    for (String uri : ontologies) {
+      GcsFileMetadata metadata = getMetadata(uri);
+      if (metadata == null || metadata.getLastModified() == null
+          || metadata.getLastModified().before(new Date(notBeforeMillis))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private List<Model> runAll(String[] ontologies, List<Callable<Model>> tasks) {
+    List<Model> models = new ArrayList<Model>();
+    if (tasks.isEmpty()) {
+      return models;
+    }
+    // Threads of an App Engine instance must be created through the
+    // ThreadManager, and only live as long as the current request.
+    ExecutorService executor = Executors.newFixedThreadPool(
+        Math.min(tasks.size(), MAX_THREADS), ThreadManager.currentRequestThreadFactory());
+    try {
+      List<Future<Model>> futures = executor.invokeAll(tasks);
+      for (int i = 0; i < futures.size(); i++) {
+        try {
+          Model model = futures.get(i).get();
+          if (model != null) {
+            models.add(model);
+          }
+        } catch (ExecutionException e) {
+          LOG.log(Level.WARNING, "Unable to read ontology " + ontologies[i], e.getCause());
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      executor.shutdownNow();
+    }
+    return models;
+  }
+
+  /**
+   * Fetches an ontology from its origin server and saves a snapshot of it.
+   *
+   * @param uri URI of the ontology
+   * @param snapshot Metadata of the current snapshot, used to make a
+   * conditional request, or null
+   * @return The ontology, or null if it did not change since the snapshot
+   */
+  private Model fetch(String uri, GcsFileMetadata snapshot) throws IOException {
+    // we use this instead of Model.read(String) because Jena would
+    // use Apache HTTP commons, which attempts to read the jssecacerts file.
+    // AppEngine throws an AccessControlException that is never caught
+    // and ultimately will cause this to fail. By using our own connection
+    // we bypass this issue.
+    HttpURLConnection conn = (HttpURLConnection) new URL(uri).openConnection();
+    conn.addRequestProperty("Accept", ACCEPT);
+    conn.setDoInput(true);
+    if (snapshot != null) {
+      Map<String, String> headers = snapshot.getOptions().getUserMetadata();
+      if (headers.containsKey(ETAG)) {
+        conn.addRequestProperty("If-None-Match", headers.get(ETAG));
+      }
+      if (headers.containsKey(LAST_MODIFIED)) {
+        conn.addRequestProperty("If-Modified-Since", headers.get(LAST_MODIFIED));
+      }
+    }
+    conn.connect();
+    try {
+      if (conn.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+        LOG.info("Ontology " + uri + " has not changed");
+        return null;
+      }
+      String lang = getLang(conn.getContentType());
+      if (lang == null) {
+        throw new IOException("Unexpected content type '" + conn.getContentType()
+            + "' returned by server.");
+      }
+      Model model = ModelFactory.createDefaultModel();
+      InputStream in = conn.getInputStream();
+      try {
+        model.read(in, uri, lang);
+      } finally {
+        in.close();
+      }
+      writeSnapshot(uri, model, conn.getHeaderField("ETag"), conn.getHeaderField("Last-Modified"));
+      return model;
+    } finally {
+      conn.disconnect();
+    }
+  }
+
+  /**
+   * Returns the Jena language name for the given content type, or null if
+   * the content type is not supported.
+   */
+  private static String getLang(String contentType) {
+    if (contentType == null) {
+      return null;
+    }
+    int i = contentType.indexOf(';');
+    String type = (i < 0 ? contentType : contentType.substring(0, i)).trim();
+    if (type.equals("application/rdf+xml")) {
+      return "RDF/XML";
+    } else if (type.equals("text/turtle")) {
+      return "TTL";
+    } else if (type.equals("text/n3")) {
+      return "N3";
+    } else if (type.equals("text/plain")) {
+      // for non-compliant servers that return turtle as plain text
+      return "TTL";
+    }
+    return null;
+  }
+
+  private Model readSnapshot(String uri) {
+    if (bucket.isEmpty()) {
+      return null;
+    }
+    try {
+      GcsFilename filename = getSnapshotFilename(uri);
+      if (gcsService.getMetadata(filename) == null) {
+        return null;
+      }
+      Model model = ModelFactory.createDefaultModel();
+      InputStream in = new GZIPInputStream(
+          Channels.newInputStream(gcsService.openReadChannel(filename, 0)));
+      try {
+        model.read(in, uri, SNAPSHOT_FORMAT);
+      } finally {
+        in.close();
+      }
+      return model;
+    } catch (Exception e) {
+      // Fall back to the origin server.
+      LOG.log(Level.WARNING, "Unable to read the snapshot of ontology " + uri, e);
+      return null;
+    }
+  }
+
+  private void writeSnapshot(String uri, Model model, String etag, String lastModified) {
+    if (bucket.isEmpty()) {
+      return;
+    }
+    GcsFileOptions.Builder options = new GcsFileOptions.Builder().mimeType("application/x-gzip");
+    if (etag != null) {
+      options.addUserMetadata(ETAG, etag);
+    }
+    if (lastModified != null) {
+      options.addUserMetadata(LAST_MODIFIED, lastModified);
+    }
+    try {
+      GcsOutputChannel channel =
+          gcsService.createOrReplace(getSnapshotFilename(uri), options.build());
+      OutputStream out = new GZIPOutputStream(Channels.newOutputStream(channel));
+      try {
+        model.write(out, SNAPSHOT_FORMAT);
+      } finally {
+        out.close();
+      }
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Unable to write the snapshot of ontology " + uri, e);
+    }
+  }
+
+  private GcsFileMetadata getMetadata(String uri) {
+    if (bucket.isEmpty()) {
+      return null;
+    }
+    try {
+      return gcsService.getMetadata(getSnapshotFilename(uri));
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Unable to read the snapshot metadata of ontology " + uri, e);
+      return null;
+    }
+  }
+
+  private GcsFilename getSnapshotFilename(String uri) {
+    return new GcsFilename(bucket, SNAPSHOT_PREFIX
+        + Hashing.md5().hashString(uri, Charsets.UTF_8) + SNAPSHOT_SUFFIX);
+  }
+}
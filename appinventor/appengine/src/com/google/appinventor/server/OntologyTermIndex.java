@@ -0,0 +1,281 @@
+package com.google.appinventor.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import com.hp.hpl.jena.rdf.model.Literal;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.Property;
+import com.hp.hpl.jena.rdf.model.RDFNode;
+import com.hp.hpl.jena.rdf.model.ResIterator;
+import com.hp.hpl.jena.rdf.model.Resource;
+import com.hp.hpl.jena.rdf.model.StmtIterator;
+
+/**
+ * An in-memory index over the labels of ontology terms (classes or
+ * properties), used to answer the autocomplete searches of the LinkedData
+ * designer without running a SPARQL regex filter over the whole ontology
+ * model.
+ *
+ * Each label is split into lowercase words, and the words are kept in a
+ * sorted array so that all words starting with a given prefix are found with
+ * a binary search. A term matches a search if every word of the search text
+ * is a prefix of some word of one of its labels. Matches are ranked by how
+ * well the label matches: an exact match first, then labels starting with the
+ * search text, then the rest, with shorter labels before longer ones.
+ *
+ * Only labels without a language tag or in English are indexed. The index is
+ * immutable; to refresh it, build a new one and replace the old one.
+ */
+final class OntologyTermIndex {
+
+  private static final String SKOS_PREF_LABEL =
+      "http://www.w3.org/2004/02/skos/core#prefLabel";
+  private static final String RDFS_LABEL = "http://www.w3.org/2000/01/rdf-schema#label";
+
+  private static final int RANK_EXACT = 0;
+  private static final int RANK_LABEL_PREFIX = 1;
+  private static final int RANK_WORD_PREFIX = 2;
+
+  /**
+   * A label of an indexed term.
+   */
+  static final class Term {
+    final String uri;
+    final String label;
+    final String prefix;
+    final String lowerLabel;
+
+    Term(String uri, String label, String prefix) {
+      this.uri = uri;
+      this.label = label;
+      this.prefix = prefix;
+      this.lowerLabel = label.toLowerCase(Locale.ENGLISH);
+    }
+  }
+
+  // The distinct words of all labels, sorted, and for each word the indices
+  // of the terms whose label contains it.
+  private final String[] words;
+  private final int[][] termsByWord;
+  private final Term[] terms;
+
+  private OntologyTermIndex(String[] words, int[][] termsByWord, Term[] terms) {
+    this.words = words;
+    this.termsByWord = termsByWord;
+    this.terms = terms;
+  }
+
+  /**
+   * Builds an index of the labels of all resources in the model that have
+   * one of the given types.
+   *
+   * @param model Model containing the ontologies
+   * @param typeUris URIs of the types whose instances are indexed, for example
+   * owl:Class and rdfs:Class
+   * @return The new index
+   */
+  static OntologyTermIndex build(Model model, String... typeUris) {
+    Property rdfType = model.createProperty("http://www.w3.org/1999/02/22-rdf-syntax-ns#type");
+    Property[] labelProperties = new Property[] {
+        model.createProperty(RDFS_LABEL), model.createProperty(SKOS_PREF_LABEL) };
+
+    Set<Resource> resources = new HashSet<Resource>();
+    for (String typeUri : typeUris) {
+      ResIterator it = model.listSubjectsWithProperty(rdfType, model.createResource(typeUri));
+      try {
+        while (it.hasNext()) {
+          Resource r = it.next();
+          if (r.isURIResource()) {
+            resources.add(r);
+          }
+        }
+      } finally {
+        it.close();
+      }
+    }
+
+    List<Term> terms = new ArrayList<Term>();
+    Map<String, List<Integer>> postings = new HashMap<String, List<Integer>>();
+    for (Resource r : resources) {
+      String uri = r.getURI();
+      String prefix = model.qnameFor(uri);
+      Set<String> labels = new HashSet<String>();
+      for (Property labelProperty : labelProperties) {
+        StmtIterator it = model.listStatements(r, labelProperty, (RDFNode) null);
+        try {
+          while (it.hasNext()) {
+            RDFNode node = it.next().getObject();
+            if (node.isLiteral() && isEnglishOrUntagged((Literal) node)) {
+              labels.add(((Literal) node).getLexicalForm());
+            }
+          }
+        } finally {
+          it.close();
+        }
+      }
+      for (String label : labels) {
+        int termIndex = terms.size();
+        terms.add(new Term(uri, label, prefix));
+        for (String word : new HashSet<String>(tokenize(label))) {
+          List<Integer> list = postings.get(word);
+          if (list == null) {
+            list = new ArrayList<Integer>();
+            postings.put(word, list);
+          }
+          list.add(termIndex);
+        }
+      }
+    }
+
+    String[] words = postings.keySet().toArray(new String[postings.size()]);
+    Arrays.sort(words);
+    int[][] termsByWord = new int[words.length][];
+    for (int i = 0; i < words.length; i++) {
+      List<Integer> list = postings.get(words[i]);
+      termsByWord[i] = new int[list.size()];
+      for (int j = 0; j < termsByWord[i].length; j++) {
+        termsByWord[i][j] = list.get(j);
+      }
+    }
+    return new OntologyTermIndex(words, termsByWord, terms.toArray(new Term[terms.size()]));
+  }
+
+  /**
+   * Returns the number of indexed labels.
+   */
+  int size() {
+    return terms.length;
+  }
+
+  /**
+   * Searches the index.
+   *
+   * @param text Text entered by the user
+   * @param limit Maximum number of results
+   * @return The best matching terms, at most one per URI, best match first
+   */
+  List<Term> search(String text, int limit) {
+    List<String> queryWords = tokenize(text);
+    if (queryWords.isEmpty()) {
+      return Collections.emptyList();
+    }
+
+    // Intersect the terms matching each word of the search text.
+    Set<Integer> candidates = null;
+    for (String queryWord : queryWords) {
+      Set<Integer> matches = termsWithWordPrefix(queryWord);
+      if (candidates == null) {
+        candidates = matches;
+      } else {
+        candidates.retainAll(matches);
+      }
+      if (candidates.isEmpty()) {
+        return Collections.emptyList();
+      }
+    }
+
+    // Keep the best ranked label of each URI.
+    final String lowerText = text.trim().toLowerCase(Locale.ENGLISH);
+    Map<String, Term> best = new HashMap<String, Term>();
+    final Map<Term, Integer> ranks = new HashMap<Term, Integer>();
+    for (int termIndex : candidates) {
+      Term term = terms[termIndex];
+      int rank = rank(term, lowerText);
+      Term current = best.get(term.uri);
+      if (current == null || compare(term, rank, current, ranks.get(current)) < 0) {
+        best.put(term.uri, term);
+        ranks.put(term, rank);
+      }
+    }
+
+    List<Term> results = new ArrayList<Term>(best.values());
+    Collections.sort(results, new Comparator<Term>() {
+      @Override
+      public int compare(Term a, Term b) {
+        return OntologyTermIndex.compare(a, ranks.get(a), b, ranks.get(b));
+      }
+    });
+    return results.size() > limit ? results.subList(0, limit) : results;
+  }
+
+  private Set<Integer> termsWithWordPrefix(String prefix) {
+    Set<Integer> result = new HashSet<Integer>();
+    int i = Arrays.binarySearch(words, prefix);
+    if (i < 0) {
+      i = -i - 1;
+    }
+    for (; i < words.length && words[i].startsWith(prefix); i++) {
+      for (int termIndex : termsByWord[i]) {
+        result.add(termIndex);
+      }
+    }
+    return result;
+  }
+
+  private static int rank(Term term, String lowerText) {
+    if (term.lowerLabel.equals(lowerText)) {
+      return RANK_EXACT;
+    } else if (term.lowerLabel.startsWith(lowerText)) {
+      return RANK_LABEL_PREFIX;
+    }
+    return RANK_WORD_PREFIX;
+  }
+
+  private static int compare(Term a, int rankA, Term b, int rankB) {
+    if (rankA != rankB) {
+      return rankA - rankB;
+    }
+    if (a.label.length() != b.label.length()) {
+      return a.label.length() - b.label.length();
+    }
+    int result = a.label.compareToIgnoreCase(b.label);
+    return result != 0 ? result : a.uri.compareTo(b.uri);
+  }
+
+  private static boolean isEnglishOrUntagged(Literal literal) {
+    String lang = literal.getLanguage();
+    return lang == null || lang.isEmpty() || lang.equalsIgnoreCase("en")
+        || lang.toLowerCase(Locale.ENGLISH).startsWith("en-");
+  }
+
+  /**
+   * Splits text into lowercase words, at non-alphanumeric characters and at
+   * camel case boundaries, so that "birthDate" and "birth date" both contain
+   * the words "birth" and "date".
+   */
+  static List<String> tokenize(String text) {
+    List<String> result = new ArrayList<String>();
+    StringBuilder word = new StringBuilder();
+    char previous = 0;
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (!Character.isLetterOrDigit(c)) {
+        addWord(result, word);
+      } else {
+        if (Character.isUpperCase(c) && Character.isLowerCase(previous)) {
+          addWord(result, word);
+        }
+        word.append(Character.toLowerCase(c));
+      }
+      previous = c;
+    }
+    addWord(result, word);
+    return result;
+  }
+
+  private static void addWord(List<String> words, StringBuilder word) {
+    if (word.length() > 0) {
+      words.add(word.toString());
+      word.setLength(0);
+    }
+  }
+}
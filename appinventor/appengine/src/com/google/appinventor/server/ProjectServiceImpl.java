@@ -30,6 +30,7 @@ import com.google.appinventor.shared.rpc.project.UserProject;
 import com.google.appinventor.shared.rpc.project.youngandroid.YoungAndroidProjectNode;
 import com.google.appinventor.shared.util.Base64Util;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
@@ -42,6 +43,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.channels.Channels;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -238,19 +240,7 @@ public class ProjectServiceImpl extends OdeRemoteServiceServlet implements Proje
    */
   @Override
   public List<UserProject> getProjectInfos() {
-    String userId = userInfoProvider.getUserId();
-    List<Long> projectIds = storageIo.getProjects(userId);
-    List<UserProject> projectInfos = Lists.newArrayListWithExpectedSize(projectIds.size());
-    for (Long projectId : projectIds) {
-      UserProject up = makeUserProject(userId, projectId);
-      if (up != null) {
-        projectInfos.add(up);
-      } else {
-        LOG.log(Level.WARNING, "ProjectId " + projectId +
-          " is missing at the lower level.");
-      }
-    }
-    return projectInfos;
+    return storageIo.getUserProjects(userInfoProvider.getUserId());
   }
 
   /**
@@ -409,14 +399,29 @@ public class ProjectServiceImpl extends OdeRemoteServiceServlet implements Proje
    */
   @Override
   public List<FileDescriptorWithContent> load(List<FileDescriptor> files) {
-    List<FileDescriptorWithContent> result = Lists.newArrayList();
     final String userId = userInfoProvider.getUserId();
+    // Load the files of each project with one batch request.
+    Map<Long, List<String>> fileIdsByProject = Maps.newLinkedHashMap();
+    for (FileDescriptor file : files) {
+      List<String> fileIds = fileIdsByProject.get(file.getProjectId());
+      if (fileIds == null) {
+        fileIds = Lists.newArrayList();
+        fileIdsByProject.put(file.getProjectId(), fileIds);
+      }
+      fileIds.add(file.getFileId());
+    }
+    Map<Long, Map<String, String>> contentsByProject = Maps.newHashMap();
+    for (Map.Entry<Long, List<String>> entry : fileIdsByProject.entrySet()) {
+      long projectId = entry.getKey();
+      contentsByProject.put(projectId,
+          getProjectRpcImpl(userId, projectId).load(userId, projectId, entry.getValue()));
+    }
+    List<FileDescriptorWithContent> result = Lists.newArrayList();
     for (FileDescriptor file : files) {
       long projectId = file.getProjectId();
       String fileId = file.getFileId();
       result.add(new FileDescriptorWithContent(
-          projectId, fileId,
-          getProjectRpcImpl(userId, projectId).load(userId, projectId, fileId)));
+          projectId, fileId, contentsByProject.get(projectId).get(fileId)));
     }
     return result;
   }
@@ -478,11 +483,20 @@ public class ProjectServiceImpl extends OdeRemoteServiceServlet implements Proje
       BlocksTruncatedException {
     validateSessionId(sessionId);
     final String userId = userInfoProvider.getUserId();
-    long date = 0;
+    // Save the files of each project with one batch request.
+    Map<Long, Map<String, String>> contentsByProject = Maps.newLinkedHashMap();
     for (FileDescriptorWithContent fileAndContent : filesAndContent) {
-     long projectId = fileAndContent.getProjectId();
-     date = getProjectRpcImpl(userId, projectId).
-         save(userId, projectId, fileAndContent.getFileId(), fileAndContent.getContent());
+      Map<String, String> contents = contentsByProject.get(fileAndContent.getProjectId());
+      if (contents == null) {
+        contents = Maps.newLinkedHashMap();
+        contentsByProject.put(fileAndContent.getProjectId(), contents);
+      }
+      contents.put(fileAndContent.getFileId(), fileAndContent.getContent());
+    }
+    long date = 0;
+    for (Map.Entry<Long, Map<String, String>> entry : contentsByProject.entrySet()) {
+      long projectId = entry.getKey();
+      date = getProjectRpcImpl(userId, projectId).save(userId, projectId, entry.getValue());
     }
     return date;
   }
@@ -8,6 +8,7 @@ package com.google.appinventor.server;
 
 import com.google.appinventor.server.encryption.EncryptionException;
 import com.google.appinventor.server.project.utils.Security;
+import com.google.appinventor.server.project.youngandroid.YoungAndroidProjectService;
 import com.google.appinventor.server.storage.StorageIo;
 import com.google.appinventor.server.storage.StorageIoInstanceHolder;
 import com.google.appinventor.shared.storage.StorageUtil;
@@ -42,7 +43,7 @@ public class ReceiveBuildServlet extends OdeServlet {
   @Override
   public void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
     // URIs for receivebuild requests are structured as follows:
-    //   /<baseurl>/receivebuild/encryptedUserAndProjectId/fileId
+    //   /<baseurl>/receivebuild/encryptedUserAndProjectId/fileId?sourceHash=hash
     String uriComponents[] = req.getRequestURI().split("/", 5);
 
     // TODO(lizlooney,user) If the URI doesn't contain enough components, the following lines
@@ -62,6 +63,7 @@ public class ReceiveBuildServlet extends OdeServlet {
     odeFilter.setUserFromUserId(userId);
     try {
       String buildFileDirPath = uriComponents[4];
+      boolean receivedApk = false;
       ZipInputStream zipInputStream = new ZipInputStream(req.getInputStream());
       while (true) {
         ZipEntry zipEntry = zipInputStream.getNextEntry();
@@ -79,8 +81,17 @@ public class ReceiveBuildServlet extends OdeServlet {
           LOG.info("Saving build output files: " + filePath);
           storageIo.addOutputFilesToProject(userId, projectId, filePath);
           storageIo.uploadRawFileForce(projectId, filePath, userId, fileBytes);
+          receivedApk |= fileName.endsWith(".apk");
         }
       }
+      // Record what the APK was built from, so that building the same source again reuses it.
+      String sourceHash = req.getParameter("sourceHash");
+      if (receivedApk && sourceHash != null) {
+        String filePath =
+            buildFileDirPath + "/" + YoungAndroidProjectService.BUILD_SOURCE_HASH_FILE;
+        storageIo.addOutputFilesToProject(userId, projectId, filePath);
+        storageIo.uploadRawFileForce(projectId, filePath, userId, sourceHash.getBytes("UTF-8"));
+      }
     } finally {
       odeFilter.removeUser();
     }
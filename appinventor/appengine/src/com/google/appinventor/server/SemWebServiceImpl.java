@@ -1,6 +1,5 @@
 package com.google.appinventor.server;
 
-import java.io.IOException;
 import java.io.PrintWriter;
 import java.net.HttpURLConnection;
 import java.net.URL;
@@ -8,7 +7,6 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Properties;
 
 import org.apache.jena.larq.IndexBuilderString;
 import org.apache.jena.larq.IndexWriterFactory;
@@ -22,18 +20,10 @@ import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.SerialMergeScheduler;
 import org.apache.lucene.store.RAMDirectory;
 
-import com.google.appinventor.shared.rpc.semweb.SemWebConstants;
 import com.google.appinventor.shared.rpc.semweb.SemWebService;
 import com.hp.hpl.jena.ontology.OntClass;
 import com.hp.hpl.jena.ontology.OntModel;
 import com.hp.hpl.jena.ontology.OntProperty;
-import com.hp.hpl.jena.query.Query;
-import com.hp.hpl.jena.query.QueryExecution;
-import com.hp.hpl.jena.query.QueryExecutionFactory;
-import com.hp.hpl.jena.query.QueryFactory;
-import com.hp.hpl.jena.query.QuerySolution;
-import com.hp.hpl.jena.query.ResultSetFactory;
-import com.hp.hpl.jena.query.ResultSetRewindable;
 import com.hp.hpl.jena.rdf.model.Model;
 import com.hp.hpl.jena.rdf.model.ModelFactory;
 import com.hp.hpl.jena.util.iterator.ExtendedIterator;
@@ -59,6 +49,28 @@ public class SemWebServiceImpl extends OdeRemoteServiceServlet implements
    */
   private static final transient Model ontologyModel;
 
+  /**
+   * Maximum number of results returned by a search.
+   */
+  private static final int MAX_SEARCH_RESULTS = 50;
+
+  private static final String[] CLASS_TYPES = {
+    "http://www.w3.org/2002/07/owl#Class",
+    "http://www.w3.org/2000/01/rdf-schema#Class"
+  };
+
+  private static final String[] PROPERTY_TYPES = {
+    "http://www.w3.org/2002/07/owl#ObjectProperty",
+    "http://www.w3.org/2002/07/owl#DatatypeProperty",
+    "http://www.w3.org/1999/02/22-rdf-syntax-ns#Property"
+  };
+
+  /**
+   * Indexes of the labels of the classes and properties in ontologyModel.
+   */
+  private static volatile OntologyTermIndex classIndex;
+  private static volatile OntologyTermIndex propertyIndex;
+
   /**
    * Sets up the ontology model and performs lucene indexing
    */
@@ -73,55 +85,34 @@ public class SemWebServiceImpl extends OdeRemoteServiceServlet implements
     log.addAppender(x);
     log.setLevel(Level.DEBUG);
 
-    // read properties file
+    // load the ontologies, from their snapshots where possible
     log.info("Initializing Lucene index for OWL ontologies...");
-    Properties props = new Properties();
-    try {
-      props.load(SemWebConstants.class.getResourceAsStream("SemWebConstants.properties"));
-    } catch (IOException e1) {
-      e1.printStackTrace();
-    }
-    String ontologiesList = props.getProperty("ontologies", "");
-    String ontologies[] = ontologiesList.split(",");
-
-    // create the ontology model and load ontologies
+    String ontologies[] = OntologySnapshotStore.getConfiguredOntologies();
+    OntologySnapshotStore snapshots = new OntologySnapshotStore();
     ontologyModel = ModelFactory.createDefaultModel();
-    //ontologyModel.register(larqBuilder);
-    for(int i=0;i<ontologies.length;i++) {
-      log.debug("Reading <"+ontologies[i]+"> ...");
-      try {
-        // we use this instead of Model.read(String) because Jena would
-        // use Apache HTTP commons, which attempts to read the jssecacerts file.
-        // AppEngine throws an AccessControlException that is never caught
-        // and ultimately will cause this to fail. By using our own connection
-        // we bypass this issue.
-        HttpURLConnection conn = (HttpURLConnection)new URL(ontologies[i]).openConnection();
-        conn.addRequestProperty("Accept", "application/rdf+xml,text/turtle,text/n3");
-        conn.setDoInput(true);
-        conn.connect();
-        String contentType = conn.getContentType();
-        if(contentType.equals("application/rdf+xml")) {
-          ontologyModel.read(conn.getInputStream(), ontologies[i]);
-        } else if(contentType.equals("text/turtle")) {
-          ontologyModel.read(conn.getInputStream(), ontologies[i], "TTL");
-        } else if(contentType.equals("text/n3")) {
-          ontologyModel.read(conn.getInputStream(), ontologies[i], "N3");
-        } else if(contentType.equals("text/plain")) {
-          // for non-compliant servers that return turtle as plain text
-          try {
-            ontologyModel.read(conn.getInputStream(), ontologies[i], "TTL");
-          } catch(Exception e) {
-            log.warn("Unexpected content type 'text/plain' returned by server.");
-          }
-        } else {
-          log.warn("Unexpected content type '"+contentType+"' returned by server.");
-        }
-      } catch(Exception e) {
-        Logger.getRootLogger().warn("Unable to read ontology "+ontologies[i], e);
-      }
+    for (Model model : snapshots.load(ontologies)) {
+      ontologyModel.add(model);
+      ontologyModel.setNsPrefixes(model.getNsPrefixMap());
     }
-    log.info("Lucene initialization completed in " + (System.currentTimeMillis()-start) + " ms.");
+    snapshots.scheduleRefreshIfStale(ontologies);
     ontologyModel.removeNsPrefix("");
+    refreshIndexes();
+    log.info("Lucene initialization completed in " + (System.currentTimeMillis()-start) + " ms.");
+  }
+
+  /**
+   * Rebuilds the search indexes from the current contents of the ontology
+   * model. Searches use the old indexes until the new ones are ready.
+   */
+  static void refreshIndexes() {
+    long start = System.currentTimeMillis();
+    OntologyTermIndex classes = OntologyTermIndex.build(ontologyModel, CLASS_TYPES);
+    OntologyTermIndex properties = OntologyTermIndex.build(ontologyModel, PROPERTY_TYPES);
+    classIndex = classes;
+    propertyIndex = properties;
+    Logger.getRootLogger().info("Indexed " + classes.size() + " class labels and "
+        + properties.size() + " property labels in "
+        + (System.currentTimeMillis() - start) + " ms.");
   }
 
   public void initialize() {
@@ -145,85 +136,33 @@ public class SemWebServiceImpl extends OdeRemoteServiceServlet implements
   }
 
   /**
-   * Processes the results of a query (assumes label, uri variables) and
-   * generates objects to be sent back to the client.
-   * @param queryText SPARQL query to be executed over the ontologies
+   * Converts the results of a search into objects to be sent back to the
+   * client.
+   * @param terms Matching terms, best match first
    * @return
    */
-  private List<Map<String, String>> processQuery(String queryText) {
-    final Logger log = Logger.getRootLogger();
+  private List<Map<String, String>> toEntries(List<OntologyTermIndex.Term> terms) {
     final List<Map<String, String>> pairs = new ArrayList<Map<String, String>>();
-    Query query = QueryFactory.create(queryText);
-    QueryExecution qe = QueryExecutionFactory.create(query, ontologyModel);
-    if(query.isSelectType()) {
-      // handle SELECT queries
-      ResultSetRewindable rs = ResultSetFactory.makeRewindable(qe.execSelect());
-      while(rs.hasNext()) {
-        // convert the query solution into a more compact representation
-        QuerySolution qs = rs.nextSolution();
-        String label = null;
-        if ( qs.getLiteral("label") != null ) {
-          label = qs.getLiteral("label").getString();
-        } else if( qs.get( "label" ) != null ) {
-          label = qs.get( "label" ).toString();
-        } else if( qs.getResource( "uri" ) != null ) {
-          label = qs.getResource( "uri" ).getURI();
-          int idx = Math.max(label.lastIndexOf("/"), label.lastIndexOf("#"));
-          label = label.substring(idx+1);
-        } else {
-          // uri was null so this entry is pretty useless.
-          continue;
-        }
-        final String value = qs.getResource("uri").getURI();
-        final String prefix = ontologyModel.qnameFor(value);
-        log.info(label+","+value+","+prefix);
-        pairs.add(createEntry(label, value, prefix));
-      }
-      if ( pairs.size() == 0 ) {
-        Map<String, String> nullPair = new HashMap<String, String>();
-        nullPair.put("label", "No results found");
-        nullPair.put("value", "");
-        pairs.add(nullPair);
-      }
-      log.info("Finished query");
-    } else {
-      log.warn("Unexpected query type");
+    for (OntologyTermIndex.Term term : terms) {
+      pairs.add(createEntry(term.label, term.uri, term.prefix));
+    }
+    if ( pairs.size() == 0 ) {
+      Map<String, String> nullPair = new HashMap<String, String>();
+      nullPair.put("label", "No results found");
+      nullPair.put("value", "");
+      pairs.add(nullPair);
     }
     return pairs;
   }
 
   @Override
   public List<Map<String, String>> searchClasses(String text) {
-    // TODO: Escape the incoming text
-    String queryText = "PREFIX pf: <http://jena.hpl.hp.com/ARQ/property#> "+
-        "PREFIX rdfs: <http://www.w3.org/2000/01/rdf-schema#> "+
-        "PREFIX skos: <http://www.w3.org/2004/02/skos/core#> "+
-        "PREFIX owl: <http://www.w3.org/2002/07/owl#> "+
-        "SELECT DISTINCT ?uri (SAMPLE(?lbl) AS ?label) WHERE { "+
-        "{ ?uri a owl:Class } UNION { ?uri a rdfs:Class }" +
-        "{ ?uri rdfs:label ?lbl } UNION { ?uri skos:prefLabel ?lbl } " +
-        "FILTER(lang(?lbl) = \"\" || langMatches(lang(?lbl), \"EN\")) . " +
-        "FILTER(regex(?lbl, \""+text+"\", \"i\")) "+
-        "} GROUP BY ?uri ORDER BY ?label";
-    return processQuery(queryText);
+    return toEntries(classIndex.search(text, MAX_SEARCH_RESULTS));
   }
 
   @Override
   public List<Map<String, String>> searchProperties(String text) {
-    // TODO: Escape the incoming text
-    String queryText = "PREFIX pf: <http://jena.hpl.hp.com/ARQ/property#> "+
-        "PREFIX rdfs: <http://www.w3.org/2000/01/rdf-schema#> "+
-        "PREFIX rdf: <http://www.w3.org/1999/02/22-rdf-syntax-ns#> "+
-        "PREFIX skos: <http://www.w3.org/2004/02/skos/core#> "+
-        "PREFIX owl: <http://www.w3.org/2002/07/owl#> "+
-        "SELECT DISTINCT ?uri (SAMPLE(?lbl) AS ?label) WHERE { "+
-        "{ ?uri a owl:ObjectProperty } UNION { ?uri a owl:DatatypeProperty } " +
-        "UNION { ?uri a rdf:Property } " +
-        "{ ?uri rdfs:label ?lbl } UNION { ?uri skos:prefLabel ?lbl } " +
-        "FILTER(lang(?lbl) = \"\" || langMatches(lang(?lbl), \"EN\")) . " +
-        "FILTER(regex(?lbl, \""+text+"\", \"i\")) "+
-        "} GROUP BY ?uri ORDER BY ?label";
-    return processQuery(queryText);
+    return toEntries(propertyIndex.search(text, MAX_SEARCH_RESULTS));
   }
 
   @Override
@@ -0,0 +1,38 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server;
+
+import com.google.appinventor.server.storage.StorageIo;
+import com.google.appinventor.server.storage.StorageIoInstanceHolder;
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * SharedContentSweepServlet -- Delete asset content no project refers to
+ *
+ * Assets with the same content are stored once and shared. This Servlet is
+ * called from the task queue after a file stops referring to such content,
+ * or some time after the content was last handed out, and deletes the
+ * content if no file refers to it any more. It is restricted to admin users
+ * only, but the task queue manager operates with admin privileges, so it can
+ * always call it.
+ */
+public class SharedContentSweepServlet extends OdeServlet {
+  private final StorageIo storageIo = StorageIoInstanceHolder.INSTANCE;
+
+  @Override
+  public void doPost(HttpServletRequest req, HttpServletResponse resp)
+      throws IOException {
+    String hash = req.getParameter("hash");
+    if (hash != null && !hash.isEmpty()) {
+      storageIo.sweepSharedContent(hash);
+    }
+  }
+}
@@ -18,6 +18,7 @@ import com.google.appinventor.shared.storage.StorageUtil;
 import com.google.appinventor.shared.util.Base64Util;
 
 import java.util.List;
+import java.util.Map;
 
 /**
  * The base class for classes that provide project services for a specific
@@ -192,6 +193,19 @@ public abstract class CommonProjectService {
     return storageIo.downloadFile(userId, projectId, fileId, StorageUtil.DEFAULT_CHARSET);
   }
 
+  /**
+   * Loads the contents of several files of a project at once.
+   *
+   * @param userId the user id
+   * @param projectId  project root node ID
+   * @param fileIds  project nodes whose sources should be loaded
+   *
+   * @return  map from file ID to content, in the order of fileIds
+   */
+  public Map<String, String> load(String userId, long projectId, List<String> fileIds) {
+    return storageIo.downloadFiles(userId, projectId, fileIds, StorageUtil.DEFAULT_CHARSET);
+  }
+
   /**
    * Loads the file information associated with a node in the project tree. The
    * actual return value depends on the file kind. Source (text) files should
@@ -279,6 +293,20 @@ public abstract class CommonProjectService {
     }
   }
 
+  /**
+   * Saves the contents of several files of a project at once, updating the
+   * project modification date once. Like {@link #save(String, long, String, String)},
+   * this always sets force to true.
+   *
+   * @param userId the user id
+   * @param projectId  project root node ID
+   * @param contents  map from file ID to content to be saved
+   * @return modification date for project
+   */
+  public long save(String userId, long projectId, Map<String, String> contents) {
+    return storageIo.uploadFilesForce(projectId, userId, contents, StorageUtil.DEFAULT_CHARSET);
+  }
+
   /**
    * Saves the content of the file associated with a node in the project tree.
    * if force is false, an error is thrown if an attempt is made to save a
@@ -0,0 +1,295 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server.project.youngandroid;
+
+import com.google.appengine.api.ThreadManager;
+import com.google.common.annotations.VisibleForTesting;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The build servers that builds can be sent to, and what is known about their health and load.
+ *
+ * <p>The status of each build server is read from its health page, which reports the number of
+ * active and queued build tasks and the maximum number of simultaneous builds in the
+ * X-Build-Active-Tasks, X-Build-Queued-Tasks and X-Build-Max-Tasks headers. A status is reused
+ * for {@link #STATUS_TTL_MILLIS}; builds sent meanwhile are counted locally, so that a burst of
+ * builds is spread over the servers. A server that rejected a build because it was full, or
+ * could not be reached, is tried last until its status is read again.</p>
+ *
+ * <p>The servers whose status is stale are probed in parallel, so that a request waits for at
+ * most one probe however many servers there are. A server that another request is already
+ * probing keeps its last known status meanwhile.</p>
+ *
+ * <p>A pool of one server never reads its status, so that a single build server costs nothing
+ * extra.</p>
+ */
+final class BuildServerPool {
+  // Logging support
+  private static final Logger LOG = Logger.getLogger(BuildServerPool.class.getName());
+
+  // How long the status of a server is reused
+  @VisibleForTesting
+  static final long STATUS_TTL_MILLIS = 10 * 1000;
+
+  private static final int PROBE_TIMEOUT_MILLIS = 2000;
+
+  /**
+   * Reads the status of a build server.
+   */
+  interface Prober {
+    /**
+     * Returns the status of the given server, or {@code null} if it is not healthy.
+     */
+    Status probe(String host);
+  }
+
+  /**
+   * The load of a build server.
+   */
+  static final class Status {
+    final int activeTasks;
+    final int queuedTasks;
+    // 0 means unlimited
+    final int maxTasks;
+
+    Status(int activeTasks, int queuedTasks, int maxTasks) {
+      this.activeTasks = activeTasks;
+      this.queuedTasks = queuedTasks;
+      this.maxTasks = maxTasks;
+    }
+  }
+
+  // What is known about a server
+  private static final class ServerState {
+    Status status;  // null if the server is not healthy
+    long checkedMillis = 0;  // when the status was read, 0 if never
+    int sentBuilds;  // builds sent since the status was read
+    boolean avoid;  // set when the server was full or unreachable
+    boolean probing;  // set while a request is reading the status
+  }
+
+  private final List<String> hosts;
+  private final Prober prober;
+  private final long ttlMillis;
+  // null to use the threads of the current request
+  private final ThreadFactory threadFactory;
+
+  // Guarded by this
+  private final Map<String, ServerState> states = new HashMap<String, ServerState>();
+
+  /**
+   * Creates a pool of the build servers in the given comma separated list of host[:port].
+   */
+  BuildServerPool(String hostList) {
+    this(parseHosts(hostList), new HealthPageProber(), STATUS_TTL_MILLIS, null);
+  }
+
+  @VisibleForTesting
+  BuildServerPool(List<String> hosts, Prober prober, long ttlMillis,
+      ThreadFactory threadFactory) {
+    if (hosts.isEmpty()) {
+      throw new IllegalArgumentException("No build server hosts");
+    }
+    this.hosts = hosts;
+    this.prober = prober;
+    this.ttlMillis = ttlMillis;
+    this.threadFactory = threadFactory;
+    for (String host : hosts) {
+      states.put(host, new ServerState());
+    }
+  }
+
+  @VisibleForTesting
+  static List<String> parseHosts(String hostList) {
+    List<String> hosts = new ArrayList<String>();
+    for (String host : hostList.split(",")) {
+      host = host.trim();
+      if (!host.isEmpty() && !hosts.contains(host)) {
+        hosts.add(host);
+      }
+    }
+    return hosts;
+  }
+
+  /**
+   * Returns the build servers in the order they should be tried: healthy servers first, the
+   * least loaded one first, followed by the servers that are full, unreachable or unhealthy.
+   */
+  List<String> getHostsByLoad() {
+    if (hosts.size() == 1) {
+      return hosts;
+    }
+    long now = System.currentTimeMillis();
+    List<String> staleHosts = new ArrayList<String>();
+    synchronized (this) {
+      for (String host : hosts) {
+        ServerState state = states.get(host);
+        if (!state.probing && now - state.checkedMillis >= ttlMillis) {
+          state.probing = true;
+          staleHosts.add(host);
+        }
+      }
+    }
+    if (!staleHosts.isEmpty()) {
+      probe(staleHosts, now);
+    }
+    List<String> ordered = new ArrayList<String>(hosts);
+    synchronized (this) {
+      final Map<String, Double> loads = new HashMap<String, Double>();
+      for (String host : hosts) {
+        loads.put(host, load(states.get(host)));
+      }
+      // The sort is stable, so servers with the same load keep the configured order.
+      Collections.sort(ordered, new Comparator<String>() {
+        @Override
+        public int compare(String a, String b) {
+          return Double.compare(loads.get(a), loads.get(b));
+        }
+      });
+    }
+    return ordered;
+  }
+
+  /**
+   * Reads the status of the given servers in parallel. Probing is done without holding the lock,
+   * since it goes to the network.
+   */
+  private void probe(List<String> staleHosts, long now) {
+    // Threads of an App Engine instance must be created through the
+    // ThreadManager, and only live as long as the current request.
+    ExecutorService executor = Executors.newFixedThreadPool(staleHosts.size(),
+        threadFactory != null ? threadFactory : ThreadManager.currentRequestThreadFactory());
+    try {
+      List<Future<Status>> futures = new ArrayList<Future<Status>>();
+      for (final String host : staleHosts) {
+        futures.add(executor.submit(new Callable<Status>() {
+          @Override
+          public Status call() {
+            return prober.probe(host);
+          }
+        }));
+      }
+      for (int i = 0; i < staleHosts.size(); i++) {
+        String host = staleHosts.get(i);
+        Status status = null;
+        try {
+          status = futures.get(i).get();
+        } catch (ExecutionException e) {
+          LOG.log(Level.WARNING, "Unable to read the status of build server " + host,
+              e.getCause());
+        }
+        synchronized (this) {
+          ServerState state = states.get(host);
+          state.status = status;
+          state.checkedMillis = now;
+          state.sentBuilds = 0;
+          state.avoid = false;
+        }
+      }
+    } catch (InterruptedException e) {
+      // The servers that were not probed keep their last known status.
+      Thread.currentThread().interrupt();
+    } finally {
+      executor.shutdownNow();
+      synchronized (this) {
+        for (String host : staleHosts) {
+          states.get(host).probing = false;
+        }
+      }
+    }
+  }
+
+  // Requires this to be locked
+  private static double load(ServerState state) {
+    if (state.status == null || state.avoid) {
+      return Double.POSITIVE_INFINITY;
+    }
+    int busy = state.status.activeTasks + state.status.queuedTasks + state.sentBuilds;
+    // A server without a limit counts as having one build slot per build.
+    return state.status.maxTasks > 0 ? (double) busy / state.status.maxTasks : busy;
+  }
+
+  /**
+   * Records that a build was sent to the given server.
+   */
+  synchronized void buildSent(String host) {
+    ServerState state = states.get(host);
+    if (state != null) {
+      state.sentBuilds++;
+    }
+  }
+
+  /**
+   * Records that the given server is full or could not be reached, so that it is tried last
+   * until its status is read again.
+   */
+  synchronized void serverUnavailable(String host) {
+    ServerState state = states.get(host);
+    if (state != null) {
+      state.avoid = true;
+    }
+  }
+
+  /**
+   * Reads the status of a build server from its health page.
+   */
+  private static final class HealthPageProber implements Prober {
+    @Override
+    public Status probe(String host) {
+      try {
+        URL url = new URL("http://" + host + "/buildserver/health");
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(PROBE_TIMEOUT_MILLIS);
+        connection.setReadTimeout(PROBE_TIMEOUT_MILLIS);
+        try {
+          if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+            LOG.info("Build server " + host + " is not healthy: " + connection.getResponseCode());
+            return null;
+          }
+          return new Status(intHeader(connection, "X-Build-Active-Tasks"),
+              intHeader(connection, "X-Build-Queued-Tasks"),
+              intHeader(connection, "X-Build-Max-Tasks"));
+        } finally {
+          connection.disconnect();
+        }
+      } catch (IOException e) {
+        LOG.info("Build server " + host + " could not be reached: " + e.getMessage());
+        return null;
+      }
+    }
+
+    // Build servers that do not report their load look idle.
+    private static int intHeader(HttpURLConnection connection, String name) {
+      String value = connection.getHeaderField(name);
+      if (value != null) {
+        try {
+          return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+          // ignored
+        }
+      }
+      return 0;
+    }
+  }
+}
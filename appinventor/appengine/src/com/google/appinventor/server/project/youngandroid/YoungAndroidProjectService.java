@@ -6,6 +6,11 @@
 
 package com.google.appinventor.server.project.youngandroid;
 
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheService.IdentifiableValue;
+import com.google.appengine.api.memcache.MemcacheService.SetPolicy;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
 import com.google.appengine.api.utils.SystemProperty;
 import com.google.apphosting.api.ApiProxy;
 import com.google.appinventor.common.utils.StringUtils;
@@ -28,7 +33,6 @@ import com.google.appinventor.shared.rpc.project.NewProjectParameters;
 import com.google.appinventor.shared.rpc.project.Project;
 import com.google.appinventor.shared.rpc.project.ProjectNode;
 import com.google.appinventor.shared.rpc.project.ProjectRootNode;
-import com.google.appinventor.shared.rpc.project.ProjectSourceZip;
 import com.google.appinventor.shared.rpc.project.RawFile;
 import com.google.appinventor.shared.rpc.project.TextFile;
 import com.google.appinventor.shared.rpc.project.youngandroid.NewYoungAndroidProjectParameters;
@@ -49,7 +53,9 @@ import com.google.appinventor.shared.youngandroid.YoungAndroidSourceAnalyzer;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
 import com.google.common.collect.Maps;
+import com.google.common.io.BaseEncoding;
 import com.google.common.io.CharStreams;
+import com.google.common.io.CountingOutputStream;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -62,12 +68,17 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.StringReader;
 import java.io.UnsupportedEncodingException;
+import java.net.ConnectException;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
@@ -82,7 +93,6 @@ import java.util.logging.Logger;
  */
 public final class YoungAndroidProjectService extends CommonProjectService {
 
-  private static int currentProgress = 0;
   private static final Logger LOG = Logger.getLogger(YoungAndroidProjectService.class.getName());
 
   // The value of this flag can be changed in appengine-web.xml
@@ -112,11 +122,33 @@ public final class YoungAndroidProjectService extends CommonProjectService {
   // Build folder path
   private static final String BUILD_FOLDER = "build";
 
+  // Chunk size used when streaming the project source zip to the build server
+  private static final int BUILD_REQUEST_CHUNK_SIZE = 64 * 1024;
+
+  // How long the id of a build job is remembered, and how long to wait for its progress
+  private static final int BUILD_JOB_EXPIRATION_SECS = 60 * 60;
+  // How long a build is claimed while the project is sent to the build server
+  private static final int BUILD_REQUEST_EXPIRATION_SECS = 2 * 60;
+  // How many times to try claiming a build while other requests change its job record
+  private static final int BUILD_CLAIM_ATTEMPTS = 3;
+  private static final int BUILD_STATUS_TIMEOUT_MILLIS = 5000;
+
+  // Holds the build server job of each user's project and build target
+  private final MemcacheService memcache = MemcacheServiceFactory.getMemcacheService();
+
   public static final String PROJECT_KEYSTORE_LOCATION = "android.keystore";
 
-  // host[:port] to use for connecting to the build server
+  // Build output file holding the hash of the source the build was made from
+  public static final String BUILD_SOURCE_HASH_FILE = "source.hash";
+
+  // host[:port] to use for connecting to the build server, or a comma separated list of them
+  // to spread builds over several build servers
   private static final Flag<String> buildServerHost =
       Flag.createFlag("build.server.host", "localhost:9990");
+
+  // Guarded by YoungAndroidProjectService.class
+  private static BuildServerPool buildServerPool;
+  private static String buildServerPoolHosts;
   // host[:port] to tell build server app host url
   private static final Flag<String> appengineHost =
       Flag.createFlag("appengine.host", "");
@@ -360,6 +392,10 @@ public final class YoungAndroidProjectService extends CommonProjectService {
     newProject.setProjectType(YoungAndroidProjectNode.YOUNG_ANDROID_PROJECT_TYPE);
     newProject.setProjectHistory(oldProjectHistory);
 
+    // Assets are copied once the new project exists, so that their content can be shared by both
+    // projects rather than copied.
+    Map<String, String> assetsToCopy = Maps.newLinkedHashMap();
+
     // Get the old project's source files and add them to new project, modifying where necessary.
     for (String oldSourceFileName : storageIo.getProjectSourceFiles(userId, oldProjectId)) {
       String newSourceFileName;
@@ -387,6 +423,8 @@ public final class YoungAndroidProjectService extends CommonProjectService {
         // We've determined (above) that the contents of the file must change for the new project.
         // Use newContents when adding the file to the new project.
         newProject.addTextFile(new TextFile(newSourceFileName, newContents));
+      } else if (oldSourceFileName.startsWith(ASSETS_FOLDER + '/')) {
+        assetsToCopy.put(oldSourceFileName, newSourceFileName);
       } else {
         // If we get here, we know that the contents of the file can just be copied from the old
         // project. Since it might be a binary file, we copy it as a raw file (that works for both
@@ -397,8 +435,19 @@ public final class YoungAndroidProjectService extends CommonProjectService {
     }
 
     // Create the new project and return the new project's id.
-    return storageIo.createProject(userId, newProject, getProjectSettings(icon, vcode, vname, mapskey,
-        useslocation, aname, sizing));
+    long newProjectId = storageIo.createProject(userId, newProject, getProjectSettings(icon, vcode,
+        vname, mapskey, useslocation, aname, sizing));
+    try {
+      for (Map.Entry<String, String> asset : assetsToCopy.entrySet()) {
+        storageIo.copySourceFile(userId, oldProjectId, asset.getKey(), newProjectId,
+            asset.getValue());
+      }
+    } catch (RuntimeException e) {
+      // Don't leave the user with a project that is missing some of its assets.
+      storageIo.deleteProject(userId, newProjectId);
+      throw e;
+    }
+    return newProjectId;
   }
 
   @Override
@@ -940,39 +989,196 @@ public final class YoungAndroidProjectService extends CommonProjectService {
   @Override
   public RpcResult build(User user, long projectId, String nonce, String target) {
     String userId = user.getUserId();
-    String projectName = storageIo.getProjectName(userId, projectId);
     String outputFileDir = BUILD_FOLDER + '/' + target;
 
     // Store the userId and projectId based on the nonce
 
     storageIo.storeNonce(nonce, userId, projectId);
 
+    List<String> buildOutputFiles = storageIo.getProjectOutputFiles(userId, projectId);
+    String buildJobKey = getBuildJobKey(userId, projectId, target);
+    String sourceHash = getSourceHash(user, projectId, target);
+    String pending = new BuildJobRecord(BuildJobRecord.PENDING, "-", sourceHash).toString();
+    boolean claimed = false;
+    if (sourceHash != null) {
+      // If nothing changed since the last successful build, its output is still good. The
+      // client gets it from getBuildResult as if the build had just finished.
+      if (isBuiltFromSource(userId, projectId, outputFileDir, buildOutputFiles, sourceHash)) {
+        LOG.info("Reusing the build output of project " + projectId + " for " + target);
+        return new RpcResult(true, "Building " + storageIo.getProjectName(userId, projectId), "");
+      }
+      // Claim the build while the project is sent, so that a repeated request does not start
+      // another one. The claim only succeeds if the job record is still the one read here, so
+      // of two requests for the same source only one starts a build.
+      for (int attempt = 0; !claimed && attempt < BUILD_CLAIM_ATTEMPTS; attempt++) {
+        if (attempt > 0) {
+          // The request that took the claim may have deleted the output meanwhile.
+          buildOutputFiles = storageIo.getProjectOutputFiles(userId, projectId);
+        }
+        IdentifiableValue current = memcache.getIdentifiable(buildJobKey);
+        BuildJobRecord job =
+            BuildJobRecord.parse(current == null ? null : (String) current.getValue());
+        // If the same source is being built right now, wait for that build instead. A pending
+        // record means another request is sending the build and has yet to delete the old
+        // output, so it counts whatever the output is.
+        if (job != null && sourceHash.equals(job.sourceHash)
+            && (job.isPending()
+                || (!buildOutputFiles.contains(outputFileDir + "/build.out")
+                    && queryBuildProgress(job) != null))) {
+          LOG.info("Project " + projectId + " is already being built for " + target);
+          return new RpcResult(true, "Building " + storageIo.getProjectName(userId, projectId),
+              "");
+        }
+        Expiration expiration = Expiration.byDeltaSeconds(BUILD_REQUEST_EXPIRATION_SECS);
+        claimed = current == null
+            ? memcache.put(buildJobKey, pending, expiration, SetPolicy.ADD_ONLY_IF_NOT_PRESENT)
+            : memcache.putIfUntouched(buildJobKey, current, pending, expiration);
+      }
+      if (!claimed) {
+        // Memcache is failing or very busy; build anyway.
+        LOG.warning("Can't claim the build of project " + projectId + " for " + target);
+      }
+    }
+    if (!claimed) {
+      memcache.put(buildJobKey, pending, Expiration.byDeltaSeconds(BUILD_REQUEST_EXPIRATION_SECS));
+    }
+
     // Delete the existing build output files, if any, so that future attempts to get it won't get
     // old versions.
-    List<String> buildOutputFiles = storageIo.getProjectOutputFiles(userId, projectId);
     for (String buildOutputFile : buildOutputFiles) {
       storageIo.deleteFile(userId, projectId, buildOutputFile);
     }
+
+    // Try the build servers from the least to the most loaded one, until one accepts the build.
+    BuildServerPool pool = getBuildServerPool();
+    RpcResult result = null;
+    for (String host : pool.getHostsByLoad()) {
+      try {
+        result = buildOnServer(host, user, projectId, outputFileDir, buildJobKey, sourceHash);
+        if (result.succeeded()) {
+          pool.buildSent(host);
+        }
+        break;
+      } catch (BuildServerUnavailableException e) {
+        pool.serverUnavailable(host);
+        result = e.result;
+      }
+    }
+    if (result == null || !result.succeeded()) {
+      memcache.delete(buildJobKey);
+    }
+    return result;
+  }
+
+  /*
+   * Returns whether the output files hold a successful build of the source with the given hash.
+   */
+  private boolean isBuiltFromSource(String userId, long projectId, String outputFileDir,
+      List<String> outputFiles, String sourceHash) {
+    String hashFile = outputFileDir + "/" + BUILD_SOURCE_HASH_FILE;
+    if (!outputFiles.contains(hashFile) || !outputFiles.contains(outputFileDir + "/build.out")) {
+      return false;
+    }
+    boolean hasApk = false;
+    for (String outputFile : outputFiles) {
+      if (outputFile.startsWith(outputFileDir + "/") && outputFile.endsWith(".apk")) {
+        hasApk = true;
+        break;
+      }
+    }
+    return hasApk
+        && sourceHash.equals(storageIo.downloadFile(userId, projectId, hashFile, "UTF-8").trim());
+  }
+
+  /**
+   * Returns a hash of everything that goes into a build of the given project: the source files,
+   * including the YAIL and the assets, the user's keystore, the build target and the version of
+   * App Inventor. Returns {@code null} if the hash can't be computed.
+   *
+   * <p>The hash is computed from the hashes of the stored files rather than from the project
+   * zip, since the zip holds the time it was written. Only the files whose hash isn't kept by
+   * the storage are read.</p>
+   */
+  @VisibleForTesting
+  String getSourceHash(User user, long projectId, String target) {
+    String userId = user.getUserId();
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-1");
+      updateDigest(digest, user.getUserEmail());
+      updateDigest(digest, target);
+      updateDigest(digest, YaVersion.YOUNG_ANDROID_VERSION + " " + GitBuildId.getVersion());
+      Map<String, String> fileHashes = storageIo.getProjectSourceFileHashes(userId, projectId);
+      List<String> sourceFiles = new ArrayList<String>(fileHashes.keySet());
+      Collections.sort(sourceFiles);
+      for (String sourceFile : sourceFiles) {
+        String fileHash = fileHashes.get(sourceFile);
+        if (fileHash == null) {
+          fileHash = BaseEncoding.base16().lowerCase().encode(MessageDigest.getInstance("SHA-256")
+              .digest(storageIo.downloadRawFile(userId, projectId, sourceFile)));
+        }
+        updateDigest(digest, sourceFile);
+        updateDigest(digest, fileHash);
+      }
+      if (storageIo.getUserFiles(userId).contains(StorageUtil.ANDROID_KEYSTORE_FILENAME)) {
+        updateDigest(digest,
+            storageIo.downloadRawUserFile(userId, StorageUtil.ANDROID_KEYSTORE_FILENAME));
+      }
+      return BaseEncoding.base16().lowerCase().encode(digest.digest());
+    } catch (NoSuchAlgorithmException e) {
+      LOG.warning("Can't hash the source of project " + projectId + ": " + e);
+      return null;
+    } catch (RuntimeException e) {
+      LOG.warning("Can't hash the source of project " + projectId + ": " + e);
+      return null;
+    }
+  }
+
+  // Each value is preceded by its length, so that different files can't hash the same.
+  private static void updateDigest(MessageDigest digest, String value) {
+    try {
+      updateDigest(digest, value == null ? new byte[0] : value.getBytes("UTF-8"));
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static void updateDigest(MessageDigest digest, byte[] value) {
+    digest.update(ByteBuffer.allocate(4).putInt(value.length).array());
+    digest.update(value);
+  }
+
+  /*
+   * Sends the project to the given build server. Throws BuildServerUnavailableException if the
+   * build server is full or can't be reached, so that the build can be sent to another one.
+   */
+  private RpcResult buildOnServer(String host, User user, long projectId, String outputFileDir,
+      String buildJobKey, String sourceHash) throws BuildServerUnavailableException {
+    String userId = user.getUserId();
+    String projectName = storageIo.getProjectName(userId, projectId);
     URL buildServerUrl = null;
-    ProjectSourceZip zipFile = null;
+    CountingOutputStream zipOutputStream = null;
+    int queuePosition = 0;
     try {
       buildServerUrl = new URL(getBuildServerUrlStr(
+          host,
           user.getUserEmail(),
           userId,
           projectId,
-          outputFileDir));
+          outputFileDir,
+          sourceHash));
       HttpURLConnection connection = (HttpURLConnection) buildServerUrl.openConnection();
       connection.setDoOutput(true);
       connection.setRequestMethod("POST");
+      // Send the zip as it is written rather than buffering the whole request body first.
+      connection.setChunkedStreamingMode(BUILD_REQUEST_CHUNK_SIZE);
 
-      BufferedOutputStream bufferedOutputStream = new BufferedOutputStream(connection.getOutputStream());
+      zipOutputStream = new CountingOutputStream(
+          new BufferedOutputStream(connection.getOutputStream()));
       FileExporter fileExporter = new FileExporterImpl();
-      zipFile = fileExporter.exportProjectSourceZip(userId, projectId, false,
-          /* includeAndroidKeystore */ true,
-          projectName + ".aia", true, true);
-      bufferedOutputStream.write(zipFile.getContent());
-      bufferedOutputStream.flush();
-      bufferedOutputStream.close();
+      fileExporter.exportProjectSourceZip(userId, projectId, false,
+          /* includeAndroidKeystore */ true, true, true, zipOutputStream);
+      zipOutputStream.flush();
+      zipOutputStream.close();
 
       int responseCode = 0;
       try {
@@ -1011,12 +1217,41 @@ public final class YoungAndroidProjectService extends CommonProjectService {
           LOG.severe(error);
         }
 
-        return new RpcResult(responseCode, "", StringUtils.escape(error));
+        RpcResult result = new RpcResult(responseCode, "", StringUtils.escape(error));
+        if (responseCode == HttpURLConnection.HTTP_UNAVAILABLE) {
+          LOG.info("Build server " + host + " is at maximum capacity.");
+          throw new BuildServerUnavailableException(result);
+        }
+        return result;
+      }
+      // Remember the server along with the job, so that the progress is asked from the server
+      // doing the build.
+      String jobId = connection.getHeaderField("X-Build-Job-Id");
+      if (jobId != null) {
+        memcache.put(buildJobKey, new BuildJobRecord(host, jobId, sourceHash).toString(),
+            Expiration.byDeltaSeconds(BUILD_JOB_EXPIRATION_SECS));
+      } else {
+        // The build server doesn't report the job, so the build can't be followed.
+        memcache.delete(buildJobKey);
+      }
+      // A full build server queues the build rather than rejecting it, and tells where.
+      String queuePositionHeader = connection.getHeaderField("X-Build-Queue-Position");
+      if (queuePositionHeader != null) {
+        try {
+          queuePosition = Integer.parseInt(queuePositionHeader.trim());
+        } catch (NumberFormatException e) {
+          // that's ok, the position is not known
+        }
       }
     } catch (MalformedURLException e) {
       CrashReport.createAndLogError(LOG, null,
           buildErrorMsg("MalformedURLException", buildServerUrl, userId, projectId), e);
       return new RpcResult(false, "", e.getMessage());
+    } catch (ConnectException e) {
+      CrashReport.createAndLogError(LOG, null,
+          buildErrorMsg("ConnectException", buildServerUrl, userId, projectId), e);
+      throw new BuildServerUnavailableException(new RpcResult(false, "",
+          " Can not contact the BuildServer at " + buildServerUrl.getHost()));
     } catch (IOException e) {
       CrashReport.createAndLogError(LOG, null,
           buildErrorMsg("IOException", buildServerUrl, userId, projectId), e);
@@ -1024,7 +1259,8 @@ public final class YoungAndroidProjectService extends CommonProjectService {
     } catch (CouldNotFetchException e) {
         CrashReport.createAndLogError(LOG, null,
                 buildErrorMsg("CouldNotFetchException", buildServerUrl, userId, projectId), e);
-      return new RpcResult(false, "", " Can not contact the BuildServer at " + buildServerUrl.getHost());
+      throw new BuildServerUnavailableException(new RpcResult(false, "",
+          " Can not contact the BuildServer at " + buildServerUrl.getHost()));
     } catch (EncryptionException e) {
       CrashReport.createAndLogError(LOG, null,
           buildErrorMsg("EncryptionException", buildServerUrl, userId, projectId), e);
@@ -1033,8 +1269,8 @@ public final class YoungAndroidProjectService extends CommonProjectService {
       // In particular, we often see RequestTooLargeException (if the zip is too
       // big) and ApiProxyException. There may be others.
       Throwable wrappedException = e;
-      if (e instanceof ApiProxy.RequestTooLargeException && zipFile != null) {
-        int zipFileLength = zipFile.getContent().length;
+      if (e instanceof ApiProxy.RequestTooLargeException && zipOutputStream != null) {
+        long zipFileLength = zipOutputStream.getCount();
         if (zipFileLength >= (5 * 1024 * 1024) /* 5 MB */) {
           wrappedException = new IllegalArgumentException(
               "Sorry, can't package projects larger than 5MB."
@@ -1048,6 +1284,10 @@ public final class YoungAndroidProjectService extends CommonProjectService {
           buildErrorMsg("RuntimeException", buildServerUrl, userId, projectId), wrappedException);
       return new RpcResult(false, "", wrappedException.getMessage());
     }
+    if (queuePosition > 0) {
+      return new RpcResult(true, "Building " + projectName + " (waiting for the build server, "
+          + "position " + queuePosition + " in its queue)", "");
+    }
     return new RpcResult(true, "Building " + projectName, "");
   }
 
@@ -1060,10 +1300,10 @@ public final class YoungAndroidProjectService extends CommonProjectService {
   // Note that this is a function rather than just a constant because we assume it will get
   // a little more complicated when we want to get the URL from an App Engine config file or
   // command line argument.
-  private String getBuildServerUrlStr(String userName, String userId,
-                                      long projectId, String fileName)
+  private String getBuildServerUrlStr(String host, String userName, String userId,
+                                      long projectId, String fileName, String sourceHash)
       throws UnsupportedEncodingException, EncryptionException {
-    return "http://" + buildServerHost.get() + "/buildserver/build-all-from-zip-async"
+    return "http://" + host + "/buildserver/build-all-from-zip-async"
            + "?uname=" + URLEncoder.encode(userName, "UTF-8")
            + (sendGitVersion.get()
                ? "&gitBuildVersion="
@@ -1073,10 +1313,24 @@ public final class YoungAndroidProjectService extends CommonProjectService {
            + URLEncoder.encode("http://" + getCurrentHost() + ServerLayout.ODE_BASEURL_NOAUTH
                                + ServerLayout.RECEIVE_BUILD_SERVLET + "/"
                                + Security.encryptUserAndProjectId(userId, projectId)
-                               + "/" + fileName,
+                               + "/" + fileName
+                               + (sourceHash != null ? "?sourceHash=" + sourceHash : ""),
                                "UTF-8");
   }
 
+  /*
+   * Returns the pool of the build servers in the build.server.host flag, which is a comma
+   * separated list of host[:port].
+   */
+  private static synchronized BuildServerPool getBuildServerPool() {
+    String hosts = buildServerHost.get();
+    if (buildServerPool == null || !hosts.equals(buildServerPoolHosts)) {
+      buildServerPool = new BuildServerPool(hosts);
+      buildServerPoolHosts = hosts;
+    }
+    return buildServerPool;
+  }
+
   private String getCurrentHost() {
     if (Server.isProductionServer()) {
       if (appengineHost.get()=="") {
@@ -1125,8 +1379,7 @@ public final class YoungAndroidProjectService extends CommonProjectService {
     String userId = user.getUserId();
     String buildOutputFileName = BUILD_FOLDER + '/' + target + '/' + "build.out";
     List<String> outputFiles = storageIo.getProjectOutputFiles(userId, projectId);
-    updateCurrentProgress(user, projectId, target);
-    RpcResult buildResult = new RpcResult(-1, ""+currentProgress, ""); // Build not finished
+    RpcResult buildResult = null;
     for (String outputFile : outputFiles) {
       if (buildOutputFileName.equals(outputFile)) {
         String outputStr = storageIo.downloadFile(userId, projectId, outputFile, "UTF-8");
@@ -1142,51 +1395,114 @@ public final class YoungAndroidProjectService extends CommonProjectService {
         break;
       }
     }
+    if (buildResult == null) {
+      // Build not finished
+      buildResult = new RpcResult(-1, "" + getBuildProgress(userId, projectId, target), "");
+    }
     return buildResult;
   }
 
   /**
-   * Check if there are any build progress available for the given user's project
+   * Asks the Build Server for the progress of the build of the given user's project.
    *
-   * @param user the User that owns the {@code projectId}.
-   * @param projectId  project id to be built
+   * @param userId the id of the user that owns the {@code projectId}.
+   * @param projectId  project id being built
    * @param target  build target (optional, implementation dependent)
+   * @return the progress in percent, or 0 if it is not known
+   */
+  private int getBuildProgress(String userId, long projectId, String target) {
+    BuildJobRecord job =
+        BuildJobRecord.parse((String) memcache.get(getBuildJobKey(userId, projectId, target)));
+    if (job == null || job.isPending()) {
+      return 0;
+    }
+    Integer progress = queryBuildProgress(job);
+    return progress == null ? 0 : progress;
+  }
+
+  /*
+   * Asks the build server doing the given job for its progress. Returns null if the build server
+   * doesn't know the job or can't be reached.
    */
-  public void updateCurrentProgress(User user, long projectId, String target) {
+  private static Integer queryBuildProgress(BuildJobRecord job) {
     try {
-      String userId = user.getUserId();
-      String projectName = storageIo.getProjectName(userId, projectId);
-      String outputFileDir = BUILD_FOLDER + '/' + target;
-      URL buildServerUrl = null;
-      ProjectSourceZip zipFile = null;
-
-      buildServerUrl = new URL(getBuildServerUrlStr(user.getUserEmail(),
-        userId, projectId, outputFileDir));
-      HttpURLConnection connection = (HttpURLConnection) buildServerUrl.openConnection();
-      connection.setDoOutput(true);
-      connection.setRequestMethod("POST");
+      URL statusUrl = new URL("http://" + job.host + "/buildserver/build-status"
+          + "?jobId=" + URLEncoder.encode(job.jobId, "UTF-8"));
+      HttpURLConnection connection = (HttpURLConnection) statusUrl.openConnection();
+      connection.setConnectTimeout(BUILD_STATUS_TIMEOUT_MILLIS);
+      connection.setReadTimeout(BUILD_STATUS_TIMEOUT_MILLIS);
+      if (connection.getResponseCode() == HttpURLConnection.HTTP_OK) {
+        String content = readContent(connection.getInputStream());
+        if (content != null && !content.isEmpty()) {
+          return Integer.parseInt(content.trim());
+        }
+      }
+    } catch (IOException e) {
+      // that's ok, the progress is not known
+    } catch (NumberFormatException e) {
+      // that's ok, the progress is not known
+    }
+    return null;
+  }
 
-      int responseCode = connection.getResponseCode();
-        if (responseCode == HttpURLConnection.HTTP_OK) {
-          try {
-            String content = readContent(connection.getInputStream());
-            if (content != null && !content.isEmpty()) {
-              LOG.info("The current progress is " + content + "%.");
-              currentProgress = Integer.parseInt(content);
-            }
-          } catch (IOException e) {
-            // No content. That's ok.
-          }
-         }
-      } catch (MalformedURLException e) {
-        // that's ok, nothing to do
-      } catch (IOException e) {
-        // that's ok, nothing to do
-      } catch (EncryptionException e) {
-        // that's ok, nothing to do
-      } catch (RuntimeException e) {
-        // that's ok, nothing to do
+  @VisibleForTesting
+  static String getBuildJobKey(String userId, long projectId, String target) {
+    return "buildjob:" + userId + ":" + projectId + ":" + target;
+  }
+
+  /**
+   * The build server job of a project, as kept in memcache: the build server doing the build,
+   * the id of the job there and the hash of the source being built, separated by spaces. While
+   * the project is being sent, the host is {@link #PENDING}.
+   */
+  @VisibleForTesting
+  static final class BuildJobRecord {
+    static final String PENDING = "-";
+
+    final String host;
+    final String jobId;
+    final String sourceHash;  // null if not known
+
+    BuildJobRecord(String host, String jobId, String sourceHash) {
+      this.host = host;
+      this.jobId = jobId;
+      this.sourceHash = sourceHash;
+    }
+
+    static BuildJobRecord parse(String value) {
+      if (value == null) {
+        return null;
+      }
+      String[] parts = value.split(" ", 3);
+      if (parts.length < 2) {
+        return null;
       }
+      String sourceHash = parts.length == 3 && !parts[2].equals("-") ? parts[2] : null;
+      return new BuildJobRecord(parts[0], parts[1], sourceHash);
+    }
+
+    boolean isPending() {
+      return PENDING.equals(host);
+    }
+
+    @Override
+    public String toString() {
+      return host + " " + jobId + " " + (sourceHash == null ? "-" : sourceHash);
+    }
+  }
+
+  /**
+   * Signals that a build server is full or can't be reached, and holds the result to report if
+   * no other build server takes the build.
+   */
+  private static class BuildServerUnavailableException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    final RpcResult result;
+
+    BuildServerUnavailableException(RpcResult result) {
+      this.result = result;
+    }
   }
 
   /**
@@ -0,0 +1,198 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server.storage;
+
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheService.SetPolicy;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * A read-through cache of project file contents, with a size-bounded LRU
+ * cache in this instance in front of memcache.
+ *
+ * <p>Entries are keyed by a per-project version, which is kept in memcache
+ * and replaced whenever a file of the project is written or deleted. Once the
+ * version changes the old entries are never read again, on this instance or
+ * on any other, and simply age out of both caches. If the version itself is
+ * evicted from memcache a new one is created, which also invalidates every
+ * entry of the project.
+ *
+ * <p>Callers must read the version before reading the file, and must change
+ * the version only after a write has completed, so that stale contents are
+ * never cached under a current version.
+ *
+ * <p>Memcache may fail to store the new version. The version is then deleted
+ * instead, and this instance stops using the old version, in case the delete
+ * failed too.
+ */
+final class FileContentCache {
+
+  private static final String VERSION_KEY_PREFIX = "FileContentVersion:";
+  private static final String ENTRY_KEY_PREFIX = "FileContent:";
+
+  // The number of versions remembered as stale after they could not be replaced
+  private static final int MAX_STALE_VERSIONS = 1000;
+
+  private final MemcacheService memcache;
+
+  // Files larger than this are not cached. Memcache values are limited to 1MB.
+  private final int maxFileBytes;
+
+  // The total size of the contents held by the local cache.
+  private final long maxLocalBytes;
+
+  // All of the fields below are guarded by localCache.
+  private final LinkedHashMap<String, Entry> localCache =
+      new LinkedHashMap<String, Entry>(16, 0.75f, true);
+  private long localBytes = 0;
+  // Versions that could not be replaced in memcache, and must not be used by this instance
+  private final Set<String> staleVersions = Collections.newSetFromMap(
+      new LinkedHashMap<String, Boolean>(16, 0.75f, false) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+          return size() > MAX_STALE_VERSIONS;
+        }
+      });
+
+  /**
+   * Creates a FileContentCache.
+   *
+   * @param memcache  the memcache service
+   * @param maxFileBytes  the size above which files are not cached
+   * @param maxLocalBytes  the total size of the contents cached in this instance
+   */
+  FileContentCache(MemcacheService memcache, int maxFileBytes, long maxLocalBytes) {
+    this.memcache = memcache;
+    this.maxFileBytes = maxFileBytes;
+    this.maxLocalBytes = maxLocalBytes;
+  }
+
+  /**
+   * Returns the current version of the given project's cached files, or null
+   * if memcache is unavailable, in which case nothing should be cached.
+   */
+  String getVersion(long projectId) {
+    String versionKey = VERSION_KEY_PREFIX + projectId;
+    String version = (String) memcache.get(versionKey);
+    if (version == null) {
+      memcache.put(versionKey, UUID.randomUUID().toString(), null,
+          SetPolicy.ADD_ONLY_IF_NOT_PRESENT);
+      version = (String) memcache.get(versionKey);
+    }
+    return version;
+  }
+
+  /**
+   * Invalidates all cached files of the given project.
+   */
+  void invalidate(long projectId) {
+    String versionKey = VERSION_KEY_PREFIX + projectId;
+    String oldVersion = (String) memcache.get(versionKey);
+    if (memcache.put(versionKey, UUID.randomUUID().toString(), null, SetPolicy.SET_ALWAYS)) {
+      return;
+    }
+    // Deleting the version invalidates the entries as well, since a new one is
+    // created when it is missing.
+    memcache.delete(versionKey);
+    if (oldVersion != null) {
+      String oldKeyPrefix = ENTRY_KEY_PREFIX + projectId + ":" + oldVersion + ":";
+      synchronized (localCache) {
+        staleVersions.add(oldVersion);
+        Iterator<Map.Entry<String, Entry>> iterator = localCache.entrySet().iterator();
+        while (iterator.hasNext()) {
+          Map.Entry<String, Entry> cached = iterator.next();
+          if (cached.getKey().startsWith(oldKeyPrefix)) {
+            localBytes -= cached.getValue().content.length;
+            iterator.remove();
+          }
+        }
+      }
+    }
+  }
+
+  private boolean isStale(String version) {
+    synchronized (localCache) {
+      return staleVersions.contains(version);
+    }
+  }
+
+  /**
+   * Returns the cached file, or null if it is not cached.
+   */
+  Entry get(long projectId, String fileName, String version) {
+    if (version == null || isStale(version)) {
+      return null;
+    }
+    String key = entryKey(projectId, fileName, version);
+    synchronized (localCache) {
+      Entry entry = localCache.get(key);
+      if (entry != null) {
+        return entry;
+      }
+    }
+    Entry entry = (Entry) memcache.get(key);
+    if (entry != null) {
+      putLocal(key, entry);
+    }
+    return entry;
+  }
+
+  /**
+   * Caches the contents of a file, read after the given version was obtained.
+   */
+  void put(long projectId, String fileName, String version, String userId, byte[] content) {
+    if (version == null || content.length > maxFileBytes || isStale(version)) {
+      return;
+    }
+    String key = entryKey(projectId, fileName, version);
+    Entry entry = new Entry(userId, content);
+    memcache.put(key, entry);
+    putLocal(key, entry);
+  }
+
+  private void putLocal(String key, Entry entry) {
+    synchronized (localCache) {
+      Entry previous = localCache.put(key, entry);
+      if (previous != null) {
+        localBytes -= previous.content.length;
+      }
+      localBytes += entry.content.length;
+      // Evict the least recently used entries.
+      Iterator<Map.Entry<String, Entry>> iterator = localCache.entrySet().iterator();
+      while (localBytes > maxLocalBytes && iterator.hasNext()) {
+        localBytes -= iterator.next().getValue().content.length;
+        iterator.remove();
+      }
+    }
+  }
+
+  private static String entryKey(long projectId, String fileName, String version) {
+    return ENTRY_KEY_PREFIX + projectId + ":" + version + ":" + fileName;
+  }
+
+  /**
+   * The cached contents of a file and the user who owns it.
+   */
+  static final class Entry implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    final String userId;
+    final byte[] content;
+
+    Entry(String userId, byte[] content) {
+      this.userId = userId;
+      this.content = content;
+    }
+  }
+}
@@ -19,6 +19,7 @@ import com.google.appengine.api.memcache.Expiration;
 import com.google.appengine.api.memcache.MemcacheService.SetPolicy;
 import com.google.appengine.api.taskqueue.Queue;
 import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskAlreadyExistsException;
 import com.google.appengine.api.taskqueue.TaskOptions;
 import com.google.apphosting.api.ApiProxy;
 import com.google.appinventor.server.CrashReport;
@@ -30,6 +31,7 @@ import com.google.appinventor.server.storage.StoredData.FileData;
 import com.google.appinventor.server.storage.StoredData.MotdData;
 import com.google.appinventor.server.storage.StoredData.NonceData;
 import com.google.appinventor.server.storage.StoredData.ProjectData;
+import com.google.appinventor.server.storage.StoredData.SharedContentData;
 import com.google.appinventor.server.storage.StoredData.SplashData;
 import com.google.appinventor.server.storage.StoredData.UserData;
 import com.google.appinventor.server.storage.StoredData.UserFileData;
@@ -51,6 +53,7 @@ import com.google.appinventor.shared.storage.StorageUtil;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
+import com.google.common.io.BaseEncoding;
 import com.google.common.io.ByteSource;
 import com.google.common.io.ByteStreams;
 
@@ -62,6 +65,7 @@ import com.googlecode.objectify.Query;
 import java.io.ByteArrayOutputStream;
 
 // GCS imports
+import com.google.appengine.tools.cloudstorage.GcsFileMetadata;
 import com.google.appengine.tools.cloudstorage.GcsFileOptions;
 import com.google.appengine.tools.cloudstorage.GcsFilename;
 import com.google.appengine.tools.cloudstorage.GcsInputChannel;
@@ -77,10 +81,16 @@ import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.nio.channels.Channels;
 import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.UUID;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.zip.ZipEntry;
@@ -111,6 +121,34 @@ public class ObjectifyStorageIo implements  StorageIo {
 
   private final MemcacheService memcache = MemcacheServiceFactory.getMemcacheService();
 
+  // Sizes for the cache of project file contents, in kilobytes.
+  private static final Flag<Integer> fileCacheMaxFileKb =
+      Flag.createFlag("file.cache.max.file.kb", 512);
+  private static final Flag<Integer> fileCacheLocalKb =
+      Flag.createFlag("file.cache.local.kb", 16 * 1024);
+
+  private final FileContentCache fileContentCache = new FileContentCache(memcache,
+      fileCacheMaxFileKb.get() * 1024, fileCacheLocalKb.get() * 1024L);
+
+  // The list of a user's projects is cached in memcache under the time the user's projects were
+  // last changed, so that a change makes the cached list unreachable.
+  private static final String USER_PROJECTS_VERSION_KEY_PREFIX = "UserProjectsVersion:";
+  private static final String USER_PROJECTS_KEY_PREFIX = "UserProjects:";
+  private static final int USER_PROJECTS_CACHE_SECS = 60 * 60;
+
+  // Prefix of the GCS names of content shared by all of the files that have it
+  private static final String SHARED_CONTENT_PREFIX = "shared/";
+  // The URL of the task that deletes shared content no file refers to
+  public static final String SHARED_CONTENT_SWEEP_URL = "/storage/sweep";
+  // How long after shared content was last handed out it may be deleted. Any
+  // file given its name has been written by then.
+  private static final long SHARED_CONTENT_GRACE_MILLIS = 24 * 60 * 60 * 1000;
+  // How often the time shared content was last handed out is written
+  private static final long SHARED_CONTENT_STAMP_MILLIS = 60 * 60 * 1000;
+  // How long after a file stops referring to shared content it is swept, so
+  // that queries on the files see the change
+  private static final long SHARED_CONTENT_SWEEP_DELAY_MILLIS = 10 * 60 * 1000;
+
   private final GcsService gcsService;
 
   private static final String GCS_BUCKET_NAME;
@@ -119,6 +157,10 @@ public class ObjectifyStorageIo implements  StorageIo {
 
   private final boolean useGcs = Flag.createFlag("use.gcs", true).get();
 
+  // The size of the read-ahead buffer used when streaming GCS files into an exported zip.
+  private static final Flag<Integer> exportPrefetchBufferSize =
+      Flag.createFlag("export.prefetch.buffer.size", 256 * 1024);
+
   private final boolean conversionEnabled = false; // We are converting GCS <=> Blobstore
 
   // Use this class to define the work of a job that can be
@@ -165,6 +207,7 @@ public class ObjectifyStorageIo implements  StorageIo {
     ObjectifyService.register(ProjectData.class);
     ObjectifyService.register(UserProjectData.class);
     ObjectifyService.register(FileData.class);
+    ObjectifyService.register(SharedContentData.class);
     ObjectifyService.register(UserFileData.class);
     ObjectifyService.register(MotdData.class);
     ObjectifyService.register(RendezvousData.class);
@@ -196,6 +239,14 @@ public class ObjectifyStorageIo implements  StorageIo {
     GCS_BUCKET_NAME = gcsBucket;
   }
 
+  /**
+   * Returns the name of the GCS bucket that holds project files, or the empty
+   * string if no bucket is configured.
+   */
+  public static String getGcsBucketName() {
+    return GCS_BUCKET_NAME;
+  }
+
   ObjectifyStorageIo() {
     RetryParams retryParams = new RetryParams.Builder().initialRetryDelayMillis(100)
       .retryMaxAttempts(10)
@@ -524,6 +575,8 @@ public class ObjectifyStorageIo implements  StorageIo {
       final String projectSettings) {
     final Result<Long> projectId = new Result<Long>();
     final List<FileData> addedFiles = new ArrayList<FileData>();
+    // GCS files written by attempts of the first job that failed
+    final List<String> abandonedGcsNames = new ArrayList<String>();
 
     try {
       // first job is on the project entity, creating the ProjectData object
@@ -531,6 +584,14 @@ public class ObjectifyStorageIo implements  StorageIo {
       runJobWithRetries(new JobRetryHelper() {
         @Override
         public void run(Objectify datastore) throws ObjectifyException {
+          // Each attempt gets a new project id, so no file refers to the GCS
+          // files of an earlier attempt.
+          for (FileData addedFile : addedFiles) {
+            if (isTrue(addedFile.isGCS)) {
+              abandonedGcsNames.add(addedFile.gcsName);
+            }
+          }
+          addedFiles.clear();
           long date = System.currentTimeMillis();
           ProjectData pd = new ProjectData();
           pd.id = null;  // let Objectify auto-generate the project id
@@ -592,22 +653,20 @@ public class ObjectifyStorageIo implements  StorageIo {
           datastore.put(upd);
         }
       }, true);
+      userProjectsChanged(userId);
     } catch (ObjectifyException e) {
       for (FileData addedFile : addedFiles) {
         if (isTrue(addedFile.isGCS)) {  // Do something
-          if (addedFile.gcsName != null) {
-            try {
-              gcsService.delete(new GcsFilename(GCS_BUCKET_NAME, addedFile.gcsName));
-            } catch (IOException ee) {
-              LOG.log(Level.WARNING, "Unable to delete " + addedFile.gcsName +
-                " from GCS while aborting project creation.", ee);
-          }
+          releaseGcsFile(addedFile.gcsName);
         }
       }
       // clear addedFiles in case we end up here more than once
       addedFiles.clear();
       throw CrashReport.createAndLogError(LOG, null,
           collectUserProjectErrorInfo(userId, projectId.t), e);
+    } finally {
+      for (String gcsName : abandonedGcsNames) {
+        releaseGcsFile(gcsName);
       }
     }
     return projectId.t;
@@ -628,11 +687,11 @@ public class ObjectifyStorageIo implements  StorageIo {
     file.userId = userId;
     if (useGCSforFile(fileName, content.length)) {
       file.isGCS = true;
-      file.gcsName = makeGCSfileName(fileName, projectKey.getId());
-      GcsOutputChannel outputChannel =
-        gcsService.createOrReplace(new GcsFilename(GCS_BUCKET_NAME, file.gcsName), GcsFileOptions.getDefaultInstance());
-      outputChannel.write(ByteBuffer.wrap(content));
-      outputChannel.close();
+      file.gcsName = useSharedContent(fileName) ? acquireSharedContent(content) : null;
+      if (file.gcsName == null) {
+        file.gcsName = makeGCSfileName(fileName, projectKey.getId());
+        writeGcsFile(file.gcsName, content);
+      }
     } else {
       file.content = content;
     }
@@ -656,6 +715,7 @@ public class ObjectifyStorageIo implements  StorageIo {
           // delete any FileData objects associated with this project
         }
       }, true);
+      userProjectsChanged(userId);
       // second job deletes the project files and ProjectData in the project's
       // entity group
       runJobWithRetries(new JobRetryHelper() {
@@ -675,17 +735,14 @@ public class ObjectifyStorageIo implements  StorageIo {
           datastore.delete(projectKey);
         }
       }, true);
+      fileContentCache.invalidate(projectId);
       // have to delete the blobs outside of the user and project jobs
       for (String blobKeyString: blobKeys) {
         deleteBlobstoreFile(blobKeyString);
       }
       // Now delete the gcs files
       for (String gcsName: gcsPaths) {
-        try {
-          gcsService.delete(new GcsFilename(GCS_BUCKET_NAME, gcsName));
-        } catch (IOException e) {
-          LOG.log(Level.WARNING, "Unable to delete " + gcsName + " from GCS while deleting project", e);
-        }
+        releaseGcsFile(gcsName);
       }
     } catch (ObjectifyException e) {
       throw CrashReport.createAndLogError(LOG, null,
@@ -707,6 +764,7 @@ public class ObjectifyStorageIo implements  StorageIo {
           }
         }
       }, true);
+      userProjectsChanged(userId);
     } catch (ObjectifyException e) {
        throw CrashReport.createAndLogError(LOG, null, collectUserErrorInfo(userId), e);
     }
@@ -724,6 +782,7 @@ public class ObjectifyStorageIo implements  StorageIo {
           }
         }
       }, true);
+      userProjectsChanged(userId);
     } catch (ObjectifyException e) {
        throw CrashReport.createAndLogError(LOG, null,"error in setProjectAttributionId",  e);
     }
@@ -749,6 +808,80 @@ public class ObjectifyStorageIo implements  StorageIo {
     return projects;
   }
 
+  @Override
+  public List<UserProject> getUserProjects(final String userId) {
+    String cacheKey = null;
+    Long version = getUserProjectsVersion(userId);
+    if (version != null) {
+      cacheKey = USER_PROJECTS_KEY_PREFIX + userId + ":" + version;
+      @SuppressWarnings("unchecked")
+      ArrayList<UserProject> cached = (ArrayList<UserProject>) memcache.get(cacheKey);
+      if (cached != null) {
+        return cached;
+      }
+    }
+    final ArrayList<UserProject> userProjects = new ArrayList<UserProject>();
+    try {
+      runJobWithRetries(new JobRetryHelper() {
+        @Override
+        public void run(Objectify datastore) {
+          userProjects.clear();
+          List<Key<ProjectData>> projectKeys = new ArrayList<Key<ProjectData>>();
+          for (UserProjectData upd :
+              datastore.query(UserProjectData.class).ancestor(userKey(userId))) {
+            projectKeys.add(projectKey(upd.projectId));
+          }
+          Map<Key<ProjectData>, ProjectData> found = datastore.get(projectKeys);  // batch get
+          for (Key<ProjectData> projectKey : projectKeys) {
+            ProjectData pd = found.get(projectKey);
+            if (pd == null) {
+              LOG.log(Level.WARNING, "ProjectId " + projectKey.getId()
+                  + " is missing at the lower level.");
+              continue;
+            }
+            userProjects.add(new UserProject(pd.id, pd.name, pd.type, pd.dateCreated,
+                pd.dateModified, pd.galleryId, pd.attributionId));
+          }
+        }
+      }, false);
+    } catch (ObjectifyException e) {
+      throw CrashReport.createAndLogError(LOG, null, collectUserErrorInfo(userId), e);
+    }
+    if (cacheKey != null) {
+      try {
+        memcache.put(cacheKey, userProjects, Expiration.byDeltaSeconds(USER_PROJECTS_CACHE_SECS));
+      } catch (IllegalArgumentException e) {
+        // The list is too large for memcache; it is read from the datastore every time.
+        LOG.log(Level.INFO, "Not caching the " + userProjects.size() + " projects of " + userId);
+      }
+    }
+    return userProjects;
+  }
+
+  /*
+   * Returns the time the given user's projects were last changed, which keys the cached list of
+   * them, or null if memcache is unavailable, in which case the list should not be cached.
+   */
+  private Long getUserProjectsVersion(String userId) {
+    String versionKey = USER_PROJECTS_VERSION_KEY_PREFIX + userId;
+    Long version = (Long) memcache.get(versionKey);
+    if (version == null) {
+      version = memcache.increment(versionKey, 0, System.currentTimeMillis());
+    }
+    return version;
+  }
+
+  /*
+   * Makes the cached list of the given user's projects out of date. This must be called after
+   * the change has been written, so that the old list is never cached under the new version.
+   * Incrementing keeps versions distinct even for changes made within the same millisecond, and
+   * a version evicted from memcache starts again from the current time.
+   */
+  private void userProjectsChanged(String userId) {
+    memcache.increment(USER_PROJECTS_VERSION_KEY_PREFIX + userId, 1,
+        System.currentTimeMillis());
+  }
+
   @Override
   public String loadProjectSettings(final String userId, final long projectId) {
     final Result<String> settings = new Result<String>();
@@ -1163,6 +1296,9 @@ public class ObjectifyStorageIo implements  StorageIo {
           addFilesToProject(datastore, projectId, FileData.RoleEnum.SOURCE, changeModDate, userId, fileNames);
         }
       }, true);
+      if (changeModDate) {
+        userProjectsChanged(userId);
+      }
     } catch (ObjectifyException e) {
       throw CrashReport.createAndLogError(LOG, null,
           collectProjectErrorInfo(userId, projectId, fileNames[0]), e);
@@ -1222,13 +1358,23 @@ public class ObjectifyStorageIo implements  StorageIo {
   @Override
   public void removeSourceFilesFromProject(final String userId, final long projectId,
       final boolean changeModDate, final String... fileNames) {
+    final List<String> releasedGcsNames = new ArrayList<String>();
     try {
       runJobWithRetries(new JobRetryHelper() {
         @Override
         public void run(Objectify datastore) {
-          removeFilesFromProject(datastore, projectId, FileData.RoleEnum.SOURCE, changeModDate, fileNames);
+          releasedGcsNames.clear();
+          removeFilesFromProject(datastore, projectId, FileData.RoleEnum.SOURCE, changeModDate,
+              releasedGcsNames, fileNames);
         }
       }, true);
+      fileContentCache.invalidate(projectId);
+      for (String gcsName : releasedGcsNames) {
+        releaseGcsFile(gcsName);
+      }
+      if (changeModDate) {
+        userProjectsChanged(userId);
+      }
     } catch (ObjectifyException e) {
       throw CrashReport.createAndLogError(LOG, null,
           collectProjectErrorInfo(userId, projectId, fileNames[0]), e);
@@ -1238,13 +1384,20 @@ public class ObjectifyStorageIo implements  StorageIo {
   @Override
   public void removeOutputFilesFromProject(final String userId, final long projectId,
       final String... fileNames) {
+    final List<String> releasedGcsNames = new ArrayList<String>();
     try {
       runJobWithRetries(new JobRetryHelper() {
         @Override
         public void run(Objectify datastore) {
-          removeFilesFromProject(datastore, projectId, FileData.RoleEnum.TARGET, false, fileNames);
+          releasedGcsNames.clear();
+          removeFilesFromProject(datastore, projectId, FileData.RoleEnum.TARGET, false,
+              releasedGcsNames, fileNames);
         }
       }, true);
+      fileContentCache.invalidate(projectId);
+      for (String gcsName : releasedGcsNames) {
+        releaseGcsFile(gcsName);
+      }
     } catch (ObjectifyException e) {
       throw CrashReport.createAndLogError(LOG, null,
           collectProjectErrorInfo(userId, projectId, fileNames[0]), e);
@@ -1252,7 +1405,8 @@ public class ObjectifyStorageIo implements  StorageIo {
   }
 
   private void removeFilesFromProject(Objectify datastore, long projectId,
-      FileData.RoleEnum role, boolean changeModDate, String... fileNames) {
+      FileData.RoleEnum role, boolean changeModDate, List<String> releasedGcsNames,
+      String... fileNames) {
     Key<ProjectData> projectKey = projectKey(projectId);
     List<Key<FileData>> filesToRemove = new ArrayList<Key<FileData>>();
     for (String fileName : fileNames) {
@@ -1262,6 +1416,9 @@ public class ObjectifyStorageIo implements  StorageIo {
       if (fd != null) {
         if (fd.role.equals(role)) {
           filesToRemove.add(projectFileKey(projectKey, fileName));
+          if (isTrue(fd.isGCS) && isSharedContent(fd.gcsName)) {
+            releasedGcsNames.add(fd.gcsName);
+          }
         } else {
           throw CrashReport.createAndLogError(LOG, null,
               collectProjectErrorInfo(null, projectId, fileName),
@@ -1292,6 +1449,43 @@ public class ObjectifyStorageIo implements  StorageIo {
     return result.t;
   }
 
+  @Override
+  public Map<String, String> getProjectSourceFileHashes(final String userId,
+      final long projectId) {
+    final Result<Map<String, String>> result = new Result<Map<String, String>>();
+    try {
+      runJobWithRetries(new JobRetryHelper() {
+        @Override
+        public void run(Objectify datastore) {
+          result.t = new HashMap<String, String>();
+          for (FileData fd : datastore.query(FileData.class).ancestor(projectKey(projectId))) {
+            if (fd.role.equals(FileData.RoleEnum.SOURCE)) {
+              result.t.put(fd.fileName, knownContentHash(fd));
+            }
+          }
+        }
+      }, false);
+    } catch (ObjectifyException e) {
+      throw CrashReport.createAndLogError(LOG, null,
+          collectUserProjectErrorInfo(userId, projectId), e);
+    }
+    return result.t;
+  }
+
+  /*
+   * Returns the hash of the content of the given file if it can be had
+   * without reading the content from GCS or the Blobstore: content kept in
+   * the entity is hashed, and shared content is named after its hash.
+   */
+  private static String knownContentHash(FileData fd) {
+    if (isTrue(fd.isGCS)) {
+      return isSharedContent(fd.gcsName) ? sharedContentHash(fd.gcsName) : null;
+    } else if (!fd.isBlob) {
+      return contentHash(fd.content == null ? new byte[0] : fd.content);
+    }
+    return null;
+  }
+
   @Override
   public List<String> getProjectOutputFiles(final String userId, final long projectId) {
    final Result<List<String>> result = new Result<List<String>>();
@@ -1386,12 +1580,8 @@ public class ObjectifyStorageIo implements  StorageIo {
       final boolean force, final byte[] content, final boolean doingConversion) throws BlocksTruncatedException {
     validateGCS();
     final Result<Long> modTime = new Result<Long>();
-    final boolean useGCS = useGCSforFile(fileName, content.length);
     final Result<String> oldBlobstoreKey = new Result<String>();
-    final boolean considerBackup = (useGcs?((fileName.contains("src/") && fileName.endsWith(".blk")) // AI1 Blocks Files
-        || (fileName.contains("src/") && fileName.endsWith(".bky")) // Blockly files
-        || (fileName.contains("src/") && fileName.endsWith(".scm"))) // Form Definitions
-      :false);
+    final List<String> releasedGcsNames = new ArrayList<String>();
 
     try {
       runJobWithRetries(new JobRetryHelper() {
@@ -1399,6 +1589,7 @@ public class ObjectifyStorageIo implements  StorageIo {
 
         @Override
         public void run(Objectify datastore) throws ObjectifyException {
+          releasedGcsNames.clear();
           Key<FileData> key = projectFileKey(projectKey(projectId), fileName);
           fd = (FileData) memcache.get(key.getString());
           if (fd == null) {
@@ -1416,77 +1607,10 @@ public class ObjectifyStorageIo implements  StorageIo {
 
           Preconditions.checkState(fd != null);
 
-          if (fd.userId != null && !fd.userId.equals("")) {
-            if (!fd.userId.equals(userId)) {
-              throw CrashReport.createAndLogError(LOG, null,
-                collectUserProjectErrorInfo(userId, projectId),
-                new UnauthorizedAccessException(userId, projectId, null));
-            }
-          }
-
-          if ((content.length < 125) && (fileName.endsWith(".bky"))) { // Likely this is an empty blocks workspace
-            if (!force) {            // force is true if we *really* want to save it!
-              checkForBlocksTruncation(fd); // See if we had previous content and throw and exception if so
-            }
-          }
-
-          if (fd.isBlob) {
-            // mark the old blobstore blob for deletion
-           oldBlobstoreKey.t = fd.blobKey;
-          }
-          if (useGCS) {
-            fd.isGCS = true;
-            fd.gcsName = makeGCSfileName(fileName, projectId);
-            try {
-              GcsOutputChannel outputChannel =
-                gcsService.createOrReplace(new GcsFilename(GCS_BUCKET_NAME, fd.gcsName), GcsFileOptions.getDefaultInstance());
-              outputChannel.write(ByteBuffer.wrap(content));
-              outputChannel.close();
-            } catch (IOException e) {
-              throw CrashReport.createAndLogError(LOG, null,
-                collectProjectErrorInfo(userId, projectId, fileName), e);
-            }
-            // If the content was previously stored in the datastore, clear it out.
-            fd.content = null;
-            fd.isBlob = false;  // in case we are converting from a blob
-            fd.blobstorePath = null;
-          } else {
-            if (isTrue(fd.isGCS)) {     // Was a GCS file, must have gotten smaller
-              try {             // and is now stored in the data store
-                gcsService.delete(new GcsFilename(GCS_BUCKET_NAME, fd.gcsName));
-              } catch (IOException e) {
-                throw CrashReport.createAndLogError(LOG, null,
-                  collectProjectErrorInfo(userId, projectId, fileName), e);
-              }
-              fd.isGCS = false;
-              fd.gcsName = null;
-            }
-            // Note, Don't have to do anything if the file was in the
-            // Blobstore and shrank because the code above (3 lines
-            // into the function) already handles removing the old
-            // contents from the Blobstore.
-            fd.isBlob = false;
-            fd.blobstorePath = null;
-            fd.content = content;
-          }
-          if (considerBackup && !doingConversion) {
-            if ((fd.lastBackup + TWENTYFOURHOURS) < System.currentTimeMillis()) {
-              try {
-                String gcsName = makeGCSfileName(fileName + "." + formattedTime() + ".backup", projectId);
-                GcsOutputChannel outputChannel =
-                    gcsService.createOrReplace((new GcsFilename(GCS_BUCKET_NAME, gcsName)), GcsFileOptions.getDefaultInstance());
-                outputChannel.write(ByteBuffer.wrap(content));
-                outputChannel.close();
-                fd.lastBackup = System.currentTimeMillis();
-              } catch (IOException e) {
-                throw CrashReport.createAndLogError(LOG, null,
-                    collectProjectErrorInfo(userId, projectId, fileName + "(backup)"), e);
-              }
-            }
-          }
-          // Old file not marked with ownership, mark it now
-          if (fd.userId == null || fd.userId.equals("")) {
-            fd.userId = userId;
+          String oldKey = storeFileContent(fd, projectId, fileName, userId, force, content,
+              doingConversion, releasedGcsNames);
+          if (oldKey != null) {
+            oldBlobstoreKey.t = oldKey;
           }
           datastore.put(fd);
           memcache.put(key.getString(), fd); // Store the updated data in memcache
@@ -1509,16 +1633,195 @@ public class ObjectifyStorageIo implements  StorageIo {
       if (oldBlobstoreKey.t != null) {
         deleteBlobstoreFile(oldBlobstoreKey.t);
       }
+      for (String gcsName : releasedGcsNames) {
+        releaseGcsFile(gcsName);
+      }
     } catch (ObjectifyException e) {
       if (e.getMessage().startsWith("Blocks")) { // Convert Exception
         throw new BlocksTruncatedException();
       }
       throw CrashReport.createAndLogError(LOG, null,
           collectProjectErrorInfo(userId, projectId, fileName), e);
+    } finally {
+      // The file may have changed, even if the job failed after writing to
+      // GCS, so cached contents of this project are out of date.
+      fileContentCache.invalidate(projectId);
+      if (!doingConversion) {
+        userProjectsChanged(userId);
+      }
     }
     return modTime.t;
   }
 
+  @Override
+  public long uploadFilesForce(final long projectId, final String userId,
+      final Map<String, String> contents, final String encoding) {
+    validateGCS();
+    final Result<Long> modTime = new Result<Long>();
+    final List<String> oldBlobstoreKeys = new ArrayList<String>();
+    final List<String> releasedGcsNames = new ArrayList<String>();
+    final Map<String, byte[]> rawContents = new LinkedHashMap<String, byte[]>();
+    try {
+      for (Map.Entry<String, String> entry : contents.entrySet()) {
+        rawContents.put(entry.getKey(), entry.getValue().getBytes(encoding));
+      }
+    } catch (UnsupportedEncodingException e) {
+      throw CrashReport.createAndLogError(LOG, null, "Unsupported file content encoding, "
+          + collectUserProjectErrorInfo(userId, projectId), e);
+    }
+
+    try {
+      runJobWithRetries(new JobRetryHelper() {
+        @Override
+        public void run(Objectify datastore) throws ObjectifyException {
+          oldBlobstoreKeys.clear();
+          releasedGcsNames.clear();
+          Key<ProjectData> projectKey = projectKey(projectId);
+          List<Key<FileData>> keys = new ArrayList<Key<FileData>>();
+          for (String fileName : rawContents.keySet()) {
+            keys.add(projectFileKey(projectKey, fileName));
+          }
+          // Read all of the files with a single batch get.
+          Map<Key<FileData>, FileData> found = datastore.get(keys);
+          List<FileData> updated = new ArrayList<FileData>();
+          Map<String, FileData> updatedByKey = new HashMap<String, FileData>();
+          for (Key<FileData> key : keys) {
+            String fileName = key.getName();
+            FileData fd = found.get(key);
+            // <Screen>.yail files are missing when user converts AI1 project to AI2
+            // instead of blowing up, just create a <Screen>.yail file
+            if (fd == null && fileName.endsWith(".yail")) {
+              fd = createProjectFile(datastore, projectKey, FileData.RoleEnum.SOURCE, fileName);
+              fd.userId = userId;
+            }
+            Preconditions.checkState(fd != null);
+            String oldKey = storeFileContent(fd, projectId, fileName, userId, true,
+                rawContents.get(fileName), false, releasedGcsNames);
+            if (oldKey != null) {
+              oldBlobstoreKeys.add(oldKey);
+            }
+            updated.add(fd);
+            updatedByKey.put(key.getString(), fd);
+          }
+          // Write all of the files with a single batch put, and update the
+          // project modification date once.
+          datastore.put(updated);
+          memcache.putAll(updatedByKey); // Store the updated data in memcache
+          modTime.t = updateProjectModDate(datastore, projectId, false);
+        }
+      }, false);
+
+      for (String oldBlobstoreKey : oldBlobstoreKeys) {
+        deleteBlobstoreFile(oldBlobstoreKey);
+      }
+      for (String gcsName : releasedGcsNames) {
+        releaseGcsFile(gcsName);
+      }
+    } catch (ObjectifyException e) {
+      throw CrashReport.createAndLogError(LOG, null,
+          collectUserProjectErrorInfo(userId, projectId), e);
+    } finally {
+      fileContentCache.invalidate(projectId);
+      userProjectsChanged(userId);
+    }
+    return modTime.t;
+  }
+
+  /*
+   * Stores new content in the given file entity, writing it to GCS if the
+   * file belongs there. The caller must put the entity in the datastore.
+   * Returns the key of the blobstore blob that held the old content, which
+   * the caller must delete outside of the job, or null. The GCS files that
+   * held the old content are added to releasedGcsNames, for the caller to
+   * release with releaseGcsFile once the job has succeeded.
+   */
+  private String storeFileContent(FileData fd, long projectId, String fileName, String userId,
+      boolean force, byte[] content, boolean doingConversion, List<String> releasedGcsNames)
+      throws ObjectifyException {
+    final boolean useGCS = useGCSforFile(fileName, content.length);
+    final boolean considerBackup = (useGcs?((fileName.contains("src/") && fileName.endsWith(".blk")) // AI1 Blocks Files
+        || (fileName.contains("src/") && fileName.endsWith(".bky")) // Blockly files
+        || (fileName.contains("src/") && fileName.endsWith(".scm"))) // Form Definitions
+      :false);
+    String oldBlobstoreKey = null;
+
+    if (fd.userId != null && !fd.userId.equals("")) {
+      if (!fd.userId.equals(userId)) {
+        throw CrashReport.createAndLogError(LOG, null,
+          collectUserProjectErrorInfo(userId, projectId),
+          new UnauthorizedAccessException(userId, projectId, null));
+      }
+    }
+
+    if ((content.length < 125) && (fileName.endsWith(".bky"))) { // Likely this is an empty blocks workspace
+      if (!force) {            // force is true if we *really* want to save it!
+        checkForBlocksTruncation(fd); // See if we had previous content and throw and exception if so
+      }
+    }
+
+    if (fd.isBlob) {
+      // mark the old blobstore blob for deletion
+      oldBlobstoreKey = fd.blobKey;
+    }
+    if (useGCS) {
+      String oldGcsName = isTrue(fd.isGCS) ? fd.gcsName : null;
+      fd.isGCS = true;
+      try {
+        fd.gcsName = useSharedContent(fileName) ? acquireSharedContent(content) : null;
+        if (fd.gcsName == null) {
+          fd.gcsName = makeGCSfileName(fileName, projectId);
+          writeGcsFile(fd.gcsName, content);
+        }
+      } catch (IOException e) {
+        throw CrashReport.createAndLogError(LOG, null,
+          collectProjectErrorInfo(userId, projectId, fileName), e);
+      }
+      // A file that isn't shared is overwritten in place, and shared content
+      // that didn't change is still referred to; any other old content is
+      // released.
+      if (oldGcsName != null && !oldGcsName.equals(fd.gcsName)) {
+        releasedGcsNames.add(oldGcsName);
+      }
+      // If the content was previously stored in the datastore, clear it out.
+      fd.content = null;
+      fd.isBlob = false;  // in case we are converting from a blob
+      fd.blobstorePath = null;
+    } else {
+      if (isTrue(fd.isGCS)) {     // Was a GCS file, must have gotten smaller
+        releasedGcsNames.add(fd.gcsName);  // and is now stored in the data store
+        fd.isGCS = false;
+        fd.gcsName = null;
+      }
+      // Note, Don't have to do anything if the file was in the
+      // Blobstore and shrank because the code above (3 lines
+      // into the function) already handles removing the old
+      // contents from the Blobstore.
+      fd.isBlob = false;
+      fd.blobstorePath = null;
+      fd.content = content;
+    }
+    if (considerBackup && !doingConversion) {
+      if ((fd.lastBackup + TWENTYFOURHOURS) < System.currentTimeMillis()) {
+        try {
+          String gcsName = makeGCSfileName(fileName + "." + formattedTime() + ".backup", projectId);
+          GcsOutputChannel outputChannel =
+              gcsService.createOrReplace((new GcsFilename(GCS_BUCKET_NAME, gcsName)), GcsFileOptions.getDefaultInstance());
+          outputChannel.write(ByteBuffer.wrap(content));
+          outputChannel.close();
+          fd.lastBackup = System.currentTimeMillis();
+        } catch (IOException e) {
+          throw CrashReport.createAndLogError(LOG, null,
+              collectProjectErrorInfo(userId, projectId, fileName + "(backup)"), e);
+        }
+      }
+    }
+    // Old file not marked with ownership, mark it now
+    if (fd.userId == null || fd.userId.equals("")) {
+      fd.userId = userId;
+    }
+    return oldBlobstoreKey;
+  }
+
   protected void deleteBlobstoreFile(String blobKeyString) {
     // It would be nice if there were an AppEngineFile.delete() method but alas there isn't, so we
     // have to get the BlobKey and delete via the BlobstoreService.
@@ -1553,6 +1856,214 @@ public class ObjectifyStorageIo implements  StorageIo {
     return (projectId + "/" + fileName);
   }
 
+  /*
+   * Returns whether the content of the given file is stored once and shared
+   * by all of the files that have the same content. This is done for assets,
+   * since the same images and sounds are found in many projects.
+   */
+  private boolean useSharedContent(String fileName) {
+    return useGcs && fileName.contains("assets/");
+  }
+
+  private static boolean isSharedContent(String gcsName) {
+    return gcsName != null && gcsName.startsWith(SHARED_CONTENT_PREFIX);
+  }
+
+  private static Key<SharedContentData> sharedContentKey(String hash) {
+    return new Key<SharedContentData>(SharedContentData.class, hash);
+  }
+
+  // The hash is the path segment after the prefix: shared/<hash>/<uuid>
+  private static String sharedContentHash(String gcsName) {
+    return gcsName.substring(SHARED_CONTENT_PREFIX.length(), gcsName.lastIndexOf('/'));
+  }
+
+  /*
+   * Stores the given content in GCS, unless the same content is already
+   * stored. Returns the GCS name of the content, or null if it can't be
+   * shared, in which case the caller should store the content itself.
+   *
+   * No reference count is kept: the files that have the returned name are
+   * the references, and content no file refers to is deleted by
+   * sweepSharedContent. So a job that fails or is retried after getting the
+   * name leaves nothing to undo.
+   */
+  private String acquireSharedContent(byte[] content) throws IOException {
+    final String hash = contentHash(content);
+    final Key<SharedContentData> key = sharedContentKey(hash);
+    String written = null;
+    SharedContentData found = ObjectifyService.begin().find(key);
+    if (found != null && isRecentlyAcquired(found)) {
+      // A sweep can't delete the content before the files being written now
+      // refer to it, so the entity doesn't need to be written.
+      return found.gcsName;
+    }
+    if (found == null) {
+      // The content is written before the entity that refers to it, so that
+      // it can be read as soon as the entity can be found. Each write uses a
+      // new name, so that it can't be deleted by the sweep of an older copy.
+      written = SHARED_CONTENT_PREFIX + hash + "/" + UUID.randomUUID();
+      writeGcsFile(written, content);
+    }
+    String gcsName = stampSharedContent(key, written);
+    if (written != null && !written.equals(gcsName)) {
+      // Another request stored the same content first, or sharing failed.
+      deleteGcsFile(written);
+    }
+    return gcsName;
+  }
+
+  /*
+   * Makes sure that the shared content with the given GCS name is kept for
+   * a new file that refers to it. Returns false if the content is no longer
+   * stored under that name.
+   */
+  private boolean keepSharedContent(String gcsName) {
+    Key<SharedContentData> key = sharedContentKey(sharedContentHash(gcsName));
+    SharedContentData found = ObjectifyService.begin().find(key);
+    if (found != null && gcsName.equals(found.gcsName) && isRecentlyAcquired(found)) {
+      return true;
+    }
+    return gcsName.equals(stampSharedContent(key, null));
+  }
+
+  private static boolean isRecentlyAcquired(SharedContentData scd) {
+    return scd.acquired > System.currentTimeMillis() - SHARED_CONTENT_STAMP_MILLIS;
+  }
+
+  /*
+   * Records that the shared content with the given key is being handed out
+   * now, creating its entity for the newly written GCS file if there is none,
+   * and schedules a sweep for when the grace period is over, in case no file
+   * refers to it by then. Returns the GCS name of the content, or null if it
+   * no longer exists and writtenGcsName is null, or on failure.
+   */
+  private String stampSharedContent(final Key<SharedContentData> key,
+      final String writtenGcsName) {
+    final Result<String> gcsName = new Result<String>();
+    try {
+      runJobWithRetries(new JobRetryHelper() {
+        @Override
+        public void run(Objectify datastore) {
+          gcsName.t = null;
+          SharedContentData scd = datastore.find(key);
+          if (scd == null) {
+            if (writtenGcsName == null) {
+              return;  // The content was deleted since it was looked up.
+            }
+            scd = new SharedContentData();
+            scd.hash = key.getName();
+            scd.gcsName = writtenGcsName;
+          }
+          scd.acquired = System.currentTimeMillis();
+          datastore.put(scd);
+          gcsName.t = scd.gcsName;
+        }
+      }, true);
+    } catch (ObjectifyException e) {
+      LOG.log(Level.WARNING, "Unable to share content " + key.getName(), e);
+      return null;
+    }
+    scheduleSharedContentSweep(key.getName(), SHARED_CONTENT_GRACE_MILLIS);
+    return gcsName.t;
+  }
+
+  private void scheduleSharedContentSweep(String hash, long delayMillis) {
+    long eta = System.currentTimeMillis() + delayMillis;
+    try {
+      // Sweeps of the same content due at about the same time are queued once.
+      QueueFactory.getDefaultQueue().add(TaskOptions.Builder.withUrl(SHARED_CONTENT_SWEEP_URL)
+          .param("hash", hash).etaMillis(eta)
+          .taskName("sweep-" + hash + "-" + eta / SHARED_CONTENT_SWEEP_DELAY_MILLIS));
+    } catch (TaskAlreadyExistsException e) {
+      // The sweep is already queued.
+    } catch (RuntimeException e) {
+      // The content is kept until the next sweep, which only wastes space.
+      LOG.log(Level.WARNING, "Unable to queue the sweep of shared content " + hash, e);
+    }
+  }
+
+  @Override
+  public void sweepSharedContent(String hash) {
+    final Key<SharedContentData> key = sharedContentKey(hash);
+    Objectify datastore = ObjectifyService.begin();
+    final SharedContentData found = datastore.find(key);
+    if (found == null
+        || found.acquired > System.currentTimeMillis() - SHARED_CONTENT_GRACE_MILLIS) {
+      // Gone, or handed out recently; the sweep scheduled then takes care of it.
+      return;
+    }
+    if (datastore.query(FileData.class).filter("gcsName", found.gcsName).limit(1)
+        .fetchKeys().iterator().hasNext()) {
+      return;
+    }
+    final Result<Boolean> deleted = new Result<Boolean>();
+    try {
+      runJobWithRetries(new JobRetryHelper() {
+        @Override
+        public void run(Objectify datastore) {
+          // Handing the content out again after the query writes the entity,
+          // since the time it was last handed out is older than the stamp
+          // interval, so the content is then kept.
+          SharedContentData scd = datastore.find(key);
+          deleted.t = scd != null && found.gcsName.equals(scd.gcsName)
+              && scd.acquired == found.acquired;
+          if (deleted.t) {
+            datastore.delete(scd);
+          }
+        }
+      }, true);
+    } catch (ObjectifyException e) {
+      LOG.log(Level.WARNING, "Unable to sweep shared content " + hash, e);
+      return;
+    }
+    if (deleted.t) {
+      deleteGcsFile(found.gcsName);
+    }
+  }
+
+  /*
+   * Drops a file's reference to the given GCS file. Shared content is swept
+   * a little later, and deleted then if no file refers to it; any other GCS
+   * file is deleted right away. This must not be called inside a job, and
+   * only once the job that stopped referring to the file has succeeded.
+   */
+  private void releaseGcsFile(String gcsName) {
+    if (gcsName == null) {
+      return;
+    }
+    if (isSharedContent(gcsName)) {
+      scheduleSharedContentSweep(sharedContentHash(gcsName), SHARED_CONTENT_SWEEP_DELAY_MILLIS);
+    } else {
+      deleteGcsFile(gcsName);
+    }
+  }
+
+  private void writeGcsFile(String gcsName, byte[] content) throws IOException {
+    GcsOutputChannel outputChannel = gcsService.createOrReplace(
+        new GcsFilename(GCS_BUCKET_NAME, gcsName), GcsFileOptions.getDefaultInstance());
+    outputChannel.write(ByteBuffer.wrap(content));
+    outputChannel.close();
+  }
+
+  private void deleteGcsFile(String gcsName) {
+    try {
+      gcsService.delete(new GcsFilename(GCS_BUCKET_NAME, gcsName));
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Unable to delete " + gcsName + " from GCS.", e);
+    }
+  }
+
+  private static String contentHash(byte[] content) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      return BaseEncoding.base16().lowerCase().encode(digest.digest(content));
+    } catch (NoSuchAlgorithmException e) {
+      // Every Java platform has SHA-256.
+      throw new IllegalStateException(e);
+    }
+  }
+
   @Override
   public long deleteFile(final String userId, final long projectId, final String fileName) {
     validateGCS();
@@ -1583,6 +2094,8 @@ public class ObjectifyStorageIo implements  StorageIo {
           modTime.t = updateProjectModDate(datastore, projectId, false);
         }
       }, true);
+      fileContentCache.invalidate(projectId);
+      userProjectsChanged(userId);
     } catch (ObjectifyException e) {
       throw CrashReport.createAndLogError(LOG, null,
           collectProjectErrorInfo(userId, projectId, fileName), e);
@@ -1591,15 +2104,83 @@ public class ObjectifyStorageIo implements  StorageIo {
       deleteBlobstoreFile(oldBlobKeyString.t);
     }
     if (oldgcsName.t != null) {
-      try {
-        gcsService.delete(new GcsFilename(GCS_BUCKET_NAME, oldgcsName.t));
-      } catch (IOException e) {
-        LOG.log(Level.WARNING, "Unable to delete " + oldgcsName + " from GCS.", e);
-      }
+      releaseGcsFile(oldgcsName.t);
     }
     return (modTime.t == null) ? 0 : modTime.t;
   }
 
+  @Override
+  public long copySourceFile(final String userId, final long fromProjectId,
+      final String fromFileName, final long toProjectId, final String toFileName) {
+    validateGCS();
+    final Result<FileData> from = new Result<FileData>();
+    try {
+      runJobWithRetries(new JobRetryHelper() {
+        @Override
+        public void run(Objectify datastore) {
+          from.t = datastore.find(projectFileKey(projectKey(fromProjectId), fromFileName));
+        }
+      }, false);
+    } catch (ObjectifyException e) {
+      throw CrashReport.createAndLogError(LOG, null,
+          collectProjectErrorInfo(userId, fromProjectId, fromFileName), e);
+    }
+    if (from.t != null && !Strings.isNullOrEmpty(from.t.userId) && !from.t.userId.equals(userId)) {
+      throw CrashReport.createAndLogError(LOG, null,
+          collectUserProjectErrorInfo(userId, fromProjectId),
+          new UnauthorizedAccessException(userId, fromProjectId, null));
+    }
+    addSourceFilesToProject(userId, toProjectId, false, toFileName);
+    boolean shared = from.t != null && isTrue(from.t.isGCS) && isSharedContent(from.t.gcsName)
+        && useSharedContent(toFileName) && keepSharedContent(from.t.gcsName);
+    if (!shared) {
+      // The content isn't shared, so it is copied.
+      return uploadRawFileForce(toProjectId, toFileName, userId,
+          downloadRawFile(userId, fromProjectId, fromFileName));
+    }
+    final String sharedGcsName = from.t.gcsName;
+
+    // Only the file entity is written; it refers to the same content.
+    final Result<Long> modTime = new Result<Long>();
+    final Result<String> oldBlobstoreKey = new Result<String>();
+    final Result<String> oldGcsName = new Result<String>();
+    try {
+      runJobWithRetries(new JobRetryHelper() {
+        @Override
+        public void run(Objectify datastore) {
+          Key<FileData> key = projectFileKey(projectKey(toProjectId), toFileName);
+          FileData fd = datastore.find(key);
+          Preconditions.checkState(fd != null);
+          oldBlobstoreKey.t = fd.isBlob ? fd.blobKey : null;
+          oldGcsName.t = isTrue(fd.isGCS) ? fd.gcsName : null;
+          fd.isGCS = true;
+          fd.gcsName = sharedGcsName;
+          fd.content = null;
+          fd.isBlob = false;
+          fd.blobstorePath = null;
+          fd.userId = userId;
+          datastore.put(fd);
+          memcache.put(key.getString(), fd); // Store the updated data in memcache
+          modTime.t = updateProjectModDate(datastore, toProjectId, false);
+        }
+      }, false);
+    } catch (ObjectifyException e) {
+      releaseGcsFile(sharedGcsName);
+      throw CrashReport.createAndLogError(LOG, null,
+          collectProjectErrorInfo(userId, toProjectId, toFileName), e);
+    } finally {
+      fileContentCache.invalidate(toProjectId);
+      userProjectsChanged(userId);
+    }
+    if (oldBlobstoreKey.t != null) {
+      deleteBlobstoreFile(oldBlobstoreKey.t);
+    }
+    if (oldGcsName.t != null) {
+      releaseGcsFile(oldGcsName.t);
+    }
+    return modTime.t;
+  }
+
   // TODO(user) - just use "UTF-8" (instead of having an encoding argument),
   // which will never cause UnsupportedEncodingException. (Here and in other
   // methods with the encoding arg.
@@ -1639,7 +2220,20 @@ public class ObjectifyStorageIo implements  StorageIo {
   @Override
   public byte[] downloadRawFile(final String userId, final long projectId, final String fileName) {
     validateGCS();
-    final Result<byte[]> result = new Result<byte[]>();
+    // Get the version before reading the file, so that if the file changes
+    // while we read it we never cache the old contents under the new version.
+    String cacheVersion = fileContentCache.getVersion(projectId);
+    FileContentCache.Entry cached = fileContentCache.get(projectId, fileName, cacheVersion);
+    if (cached != null) {
+      if (cached.userId != null && !cached.userId.equals("")) {
+        if (!cached.userId.equals(userId)) {
+          throw CrashReport.createAndLogError(LOG, null,
+            collectUserProjectErrorInfo(userId, projectId),
+            new UnauthorizedAccessException(userId, projectId, null));
+        }
+      }
+      return cached.content.clone();
+    }
     final Result<FileData> fd = new Result<FileData>();
     try {
       runJobWithRetries(new JobRetryHelper() {
@@ -1657,7 +2251,99 @@ public class ObjectifyStorageIo implements  StorageIo {
           collectProjectErrorInfo(userId, projectId, fileName), e);
     }
     // read the blob/GCS File outside of the job
-    FileData fileData = fd.t;
+    byte[] content = readFileContent(userId, projectId, fileName, fd.t);
+    fileContentCache.put(projectId, fileName, cacheVersion, fd.t.userId, content.clone());
+    return content;
+  }
+
+  @Override
+  public Map<String, String> downloadFiles(final String userId, final long projectId,
+      List<String> fileNames, String encoding) {
+    validateGCS();
+    String cacheVersion = fileContentCache.getVersion(projectId);
+    Map<String, byte[]> contents = new HashMap<String, byte[]>();
+    final List<String> uncachedFileNames = new ArrayList<String>();
+    for (String fileName : fileNames) {
+      FileContentCache.Entry cached = fileContentCache.get(projectId, fileName, cacheVersion);
+      if (cached == null) {
+        uncachedFileNames.add(fileName);
+      } else {
+        if (cached.userId != null && !cached.userId.equals("")) {
+          if (!cached.userId.equals(userId)) {
+            throw CrashReport.createAndLogError(LOG, null,
+              collectUserProjectErrorInfo(userId, projectId),
+              new UnauthorizedAccessException(userId, projectId, null));
+          }
+        }
+        contents.put(fileName, cached.content);
+      }
+    }
+
+    if (!uncachedFileNames.isEmpty()) {
+      final Map<String, FileData> fileData = new HashMap<String, FileData>();
+      try {
+        runJobWithRetries(new JobRetryHelper() {
+          @Override
+          public void run(Objectify datastore) {
+            fileData.clear();
+            Key<ProjectData> projectKey = projectKey(projectId);
+            Map<String, Key<FileData>> keys = new HashMap<String, Key<FileData>>();
+            for (String fileName : uncachedFileNames) {
+              keys.put(projectFileKey(projectKey, fileName).getString(),
+                  projectFileKey(projectKey, fileName));
+            }
+            // Look in memcache first, then get the rest with a single batch get.
+            Map<String, Object> cached = memcache.getAll(keys.keySet());
+            List<Key<FileData>> missing = new ArrayList<Key<FileData>>();
+            for (Map.Entry<String, Key<FileData>> entry : keys.entrySet()) {
+              FileData fd = (FileData) cached.get(entry.getKey());
+              if (fd == null) {
+                missing.add(entry.getValue());
+              } else {
+                fileData.put(fd.fileName, fd);
+              }
+            }
+            if (!missing.isEmpty()) {
+              for (FileData fd : datastore.get(missing).values()) {
+                fileData.put(fd.fileName, fd);
+              }
+            }
+          }
+        }, false); // Transaction not needed
+      } catch (ObjectifyException e) {
+        throw CrashReport.createAndLogError(LOG, null,
+            collectProjectErrorInfo(userId, projectId, uncachedFileNames.get(0)), e);
+      }
+      // read the blob/GCS Files outside of the job
+      for (String fileName : uncachedFileNames) {
+        FileData fd = fileData.get(fileName);
+        byte[] content = readFileContent(userId, projectId, fileName, fd);
+        fileContentCache.put(projectId, fileName, cacheVersion, fd.userId, content.clone());
+        contents.put(fileName, content);
+      }
+    }
+
+    Map<String, String> result = new LinkedHashMap<String, String>();
+    try {
+      for (String fileName : fileNames) {
+        result.put(fileName, new String(contents.get(fileName), encoding));
+      }
+    } catch (UnsupportedEncodingException e) {
+      throw CrashReport.createAndLogError(LOG, null, "Unsupported file content encoding, "
+          + collectUserProjectErrorInfo(userId, projectId), e);
+    }
+    return result;
+  }
+
+  /*
+   * Returns the content of the given file entity, which is null if the file
+   * does not exist, after checking that it belongs to the user. Reads the
+   * content from GCS or the blobstore if necessary, so this must not be called
+   * inside a job.
+   */
+  private byte[] readFileContent(final String userId, final long projectId,
+      final String fileName, FileData fileData) {
+    final Result<byte[]> result = new Result<byte[]>();
     if (fileData != null) {
       if (fileData.userId != null && !fileData.userId.equals("")) {
         if (!fileData.userId.equals(userId)) {
@@ -1810,6 +2496,42 @@ public class ObjectifyStorageIo implements  StorageIo {
                                                  @Nullable String zipName,
                                                  final boolean includeYail,
                                                  final boolean fatalError) throws IOException {
+    ByteArrayOutputStream zipFile = new ByteArrayOutputStream();
+    Result<String> projectName = new Result<String>();
+    int fileCount = writeProjectSourceZip(userId, projectId, includeProjectHistory,
+        includeAndroidKeystore, includeYail, fatalError, zipFile, projectName);
+
+    if (zipName == null) {
+      zipName = projectName.t + ".aia";
+    }
+    ProjectSourceZip projectSourceZip =
+        new ProjectSourceZip(zipName, zipFile.toByteArray(), fileCount);
+    projectSourceZip.setMetadata(projectName.t);
+    return projectSourceZip;
+  }
+
+  @Override
+  public int exportProjectSourceZip(String userId, long projectId,
+                                    boolean includeProjectHistory,
+                                    boolean includeAndroidKeystore,
+                                    boolean includeYail,
+                                    boolean fatalError,
+                                    OutputStream outputStream) throws IOException {
+    return writeProjectSourceZip(userId, projectId, includeProjectHistory,
+        includeAndroidKeystore, includeYail, fatalError, outputStream, new Result<String>());
+  }
+
+  /*
+   * Writes the project source zip to outputStream, one entry at a time, and returns the number
+   * of files in the zip. Nothing is written if the project has no files.
+   */
+  private int writeProjectSourceZip(final String userId, final long projectId,
+                                    final boolean includeProjectHistory,
+                                    final boolean includeAndroidKeystore,
+                                    final boolean includeYail,
+                                    final boolean fatalError,
+                                    OutputStream outputStream,
+                                    final Result<String> projectName) throws IOException {
     validateGCS();
     final Result<Integer> fileCount = new Result<Integer>();
     fileCount.t = 0;
@@ -1820,12 +2542,10 @@ public class ObjectifyStorageIo implements  StorageIo {
     // to avoid problems reading blobs in a transaction with the wrong
     // entity group.
     final List<FileData> fileData = new ArrayList<FileData>();
-    final Result<String> projectName = new Result<String>();
     projectName.t = null;
     String fileName = null;
 
-    ByteArrayOutputStream zipFile = new ByteArrayOutputStream();
-    final ZipOutputStream out = new ZipOutputStream(zipFile);
+    final ZipOutputStream out = new ZipOutputStream(outputStream);
 
     try {
       runJobWithRetries(new JobRetryHelper() {
@@ -1865,9 +2585,16 @@ public class ObjectifyStorageIo implements  StorageIo {
       }, false);
 
       // Process the file contents outside of the job since we can't read
-      // blobs in the job.
+      // blobs in the job. Each file is copied into the zip as it is read, so
+      // only one file (and, for GCS files, a bounded read-ahead buffer) is
+      // held in memory at a time.
       for (FileData fd : fileData) {
         fileName = fd.fileName;
+        if (isTrue(fd.isGCS) && !fd.isBlob) {
+          writeGcsZipEntry(out, fd, fatalError, userId, projectId);
+          fileCount.t++;
+          continue;
+        }
         byte[] data = null;
         if (fd.isBlob) {
           try {
@@ -1879,61 +2606,6 @@ public class ObjectifyStorageIo implements  StorageIo {
             throw CrashReport.createAndLogError(LOG, null,
                 collectProjectErrorInfo(userId, projectId, fileName), e);
           }
-        } else if (isTrue(fd.isGCS)) {
-          try {
-            int count;
-            boolean npfHappened = false;
-            boolean recovered = false;
-            for (count = 0; count < 5; count++) {
-              GcsFilename gcsFileName = new GcsFilename(GCS_BUCKET_NAME, fd.gcsName);
-              int bytesRead = 0;
-              int fileSize = 0;
-              ByteBuffer resultBuffer;
-              try {
-                fileSize = (int) gcsService.getMetadata(gcsFileName).getLength();
-                resultBuffer = ByteBuffer.allocate(fileSize);
-                GcsInputChannel readChannel = gcsService.openReadChannel(gcsFileName, 0);
-                try {
-                  while (bytesRead < fileSize) {
-                    bytesRead += readChannel.read(resultBuffer);
-                    if (bytesRead < fileSize) {
-                      LOG.log(Level.INFO, "readChannel: bytesRead = " + bytesRead + " fileSize = " + fileSize);
-                    }
-                  }
-                  recovered = true;
-                  data = resultBuffer.array();
-                  break;        // We got the data, break out of the loop!
-                } finally {
-                  readChannel.close();
-                }
-              } catch (NullPointerException e) {
-                // This happens if the object in GCS is non-existent, which would happen
-                // when people uploaded a zero length object. As of this change, we now
-                // store zero length objects into GCS, but there are plenty of older objects
-                // that are missing in GCS.
-                LOG.log(Level.WARNING, "exportProjectFile: NPF recorded for " + fd.gcsName);
-                npfHappened = true;
-                resultBuffer = ByteBuffer.allocate(0);
-                data = resultBuffer.array();
-              }
-            }
-
-            // report out on how things went above
-            if (npfHappened) {    // We lost at least once
-              if (recovered) {
-                LOG.log(Level.WARNING, "recovered from NPF in exportProjectFile filename = " + fd.gcsName +
-                  " count = " + count);
-              } else {
-                LOG.log(Level.WARNING, "FATAL NPF in exportProjectFile filename = " + fd.gcsName);
-                if (fatalError) {
-                  throw new IOException("FATAL Error reading file from GCS filename = " + fd.gcsName);
-                }
-              }
-            }
-          } catch (IOException e) {
-            throw CrashReport.createAndLogError(LOG, null,
-              collectProjectErrorInfo(userId, projectId, fileName), e);
-          }
         } else {
           data = fd.content;
         }
@@ -1970,42 +2642,87 @@ public class ObjectifyStorageIo implements  StorageIo {
     }
 
     if (includeAndroidKeystore) {
+      // The keystore is only read in the job. The zip has already been partly sent, so an entry
+      // written by a job that is then retried could not be taken back.
+      final Result<byte[]> keystore = new Result<byte[]>();
       try {
         runJobWithRetries(new JobRetryHelper() {
             @Override
             public void run(Objectify datastore) {
-              try {
-                Key<UserData> userKey = userKey(userId);
-                for (UserFileData ufd : datastore.query(UserFileData.class).ancestor(userKey)) {
-                  if (ufd.fileName.equals(StorageUtil.ANDROID_KEYSTORE_FILENAME) &&
-                      (ufd.content.length > 0)) {
-                    out.putNextEntry(new ZipEntry(StorageUtil.ANDROID_KEYSTORE_FILENAME));
-                    out.write(ufd.content, 0, ufd.content.length);
-                    out.closeEntry();
-                    fileCount.t++;
-                  }
+              keystore.t = null;
+              Key<UserData> userKey = userKey(userId);
+              for (UserFileData ufd : datastore.query(UserFileData.class).ancestor(userKey)) {
+                if (ufd.fileName.equals(StorageUtil.ANDROID_KEYSTORE_FILENAME) &&
+                    (ufd.content.length > 0)) {
+                  keystore.t = ufd.content;
                 }
-              } catch (IOException e) {
-                throw CrashReport.createAndLogError(LOG, null,
-                    collectProjectErrorInfo(userId, projectId,
-                        StorageUtil.ANDROID_KEYSTORE_FILENAME), e);
               }
             }
         }, false);
       } catch (ObjectifyException e) {
         throw CrashReport.createAndLogError(LOG, null, collectUserErrorInfo(userId), e);
       }
+      if (keystore.t != null) {
+        out.putNextEntry(new ZipEntry(StorageUtil.ANDROID_KEYSTORE_FILENAME));
+        out.write(keystore.t, 0, keystore.t.length);
+        out.closeEntry();
+        fileCount.t++;
+      }
     }
 
-    out.close();
+    // Finish rather than close the zip, the caller owns outputStream.
+    out.finish();
+    return fileCount.t;
+  }
 
-    if (zipName == null) {
-      zipName = projectName.t + ".aia";
+  /*
+   * Copies a GCS file into a new zip entry without reading the whole file
+   * into memory. The prefetching read channel fetches the next block of the
+   * file from GCS while the current one is being compressed.
+   */
+  private void writeGcsZipEntry(ZipOutputStream out, FileData fd, boolean fatalError,
+                                String userId, long projectId) throws IOException {
+    try {
+      GcsFilename gcsFileName = new GcsFilename(GCS_BUCKET_NAME, fd.gcsName);
+      // The metadata is null if the object in GCS is non-existent, which would
+      // happen when people uploaded a zero length object. As of this change, we
+      // now store zero length objects into GCS, but there are plenty of older
+      // objects that are missing in GCS.
+      GcsFileMetadata metadata = null;
+      int count;
+      for (count = 0; count < 5 && metadata == null; count++) {
+        metadata = gcsService.getMetadata(gcsFileName);
+        if (metadata == null) {
+          LOG.log(Level.WARNING, "exportProjectFile: NPF recorded for " + fd.gcsName);
+        }
+      }
+
+      // report out on how things went above
+      if (metadata == null) {
+        LOG.log(Level.WARNING, "FATAL NPF in exportProjectFile filename = " + fd.gcsName);
+        if (fatalError) {
+          throw new IOException("FATAL Error reading file from GCS filename = " + fd.gcsName);
+        }
+      } else if (count > 1) {
+        LOG.log(Level.WARNING, "recovered from NPF in exportProjectFile filename = " + fd.gcsName +
+          " count = " + count);
+      }
+
+      out.putNextEntry(new ZipEntry(fd.fileName));
+      if (metadata != null && metadata.getLength() > 0) {
+        GcsInputChannel readChannel = gcsService.openPrefetchingReadChannel(gcsFileName, 0,
+            exportPrefetchBufferSize.get());
+        try {
+          ByteStreams.copy(Channels.newInputStream(readChannel), out);
+        } finally {
+          readChannel.close();
+        }
+      }
+      out.closeEntry();
+    } catch (IOException e) {
+      throw CrashReport.createAndLogError(LOG, null,
+        collectProjectErrorInfo(userId, projectId, fd.fileName), e);
     }
-    ProjectSourceZip projectSourceZip =
-        new ProjectSourceZip(zipName, zipFile.toByteArray(), fileCount.t);
-    projectSourceZip.setMetadata(projectName.t);
-    return projectSourceZip;
   }
 
   @Override
@@ -2464,6 +3181,12 @@ public class ObjectifyStorageIo implements  StorageIo {
     }
   }
 
+  @VisibleForTesting
+  String getGcsFileName(long projectId, String fileName) {
+    FileData fd = ObjectifyService.begin().find(projectFileKey(projectKey(projectId), fileName));
+    return fd != null && isTrue(fd.isGCS) ? fd.gcsName : null;
+  }
+
   @VisibleForTesting
   ProjectData getProject(long projectId) {
     return ObjectifyService.begin().find(projectKey(projectId));
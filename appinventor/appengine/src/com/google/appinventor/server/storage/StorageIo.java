@@ -16,8 +16,10 @@ import com.google.appinventor.shared.rpc.user.User;
 import com.google.appinventor.shared.rpc.user.SplashConfig;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 
 import javax.annotation.Nullable;
@@ -171,6 +173,15 @@ public interface StorageIo {
    */
   List<Long> getProjects(String userId);
 
+  /**
+   * Returns the user's projects, with their names, dates and gallery ids.
+   * Projects whose data is missing are left out.
+   *
+   * @param userId  user ID
+   * @return  list of projects
+   */
+  List<UserProject> getUserProjects(String userId);
+
   /**
    * sets a projects gallery id when it is published
    * @param userId a user Id (the request is made on behalf of this user)*
@@ -389,6 +400,17 @@ public interface StorageIo {
    */
   List<String> getProjectSourceFiles(String userId, long projectId);
 
+  /**
+   * Returns the SHA-256 hashes, in hex, of the content of the source files of
+   * a project, for the files whose hash is known without reading their content
+   * from GCS or the Blobstore. The other source files map to {@code null}.
+   * @param userId a user Id (the request is made on behalf of this user)
+   * @param projectId  project ID
+   *
+   * @return  map from source file ID to content hash or {@code null}
+   */
+  Map<String, String> getProjectSourceFileHashes(String userId, long projectId);
+
   /**
    * Returns a list of output files for a project.
    * @param userId a user Id (the request is made on behalf of this user)
@@ -437,6 +459,19 @@ public interface StorageIo {
    */
   long uploadFileForce(long projectId, String fileId, String userId, String content, String encoding);
 
+  /**
+   * Uploads several files of a project in a single datastore job, updating
+   * the project modification date once. -- forces the save even with trivial
+   * workspaces
+   * @param projectId  project ID
+   * @param userId the user who owns the files
+   * @param contents  map from file ID to file content
+   * @param encoding encoding of contents
+   * @return modification date for project
+   */
+  long uploadFilesForce(long projectId, String userId, Map<String, String> contents,
+      String encoding);
+
   /**
    * Uploads a file.
    * @param projectId  project ID
@@ -459,6 +494,20 @@ public interface StorageIo {
    */
   long uploadRawFileForce(long projectId, String fileId, String userId, byte[] content);
 
+  /**
+   * Copies a source file of one of the user's projects to another of the
+   * user's projects, adding the file to that project. Where the storage
+   * allows it, the content is shared by both files rather than copied.
+   * @param userId the user who owns both projects
+   * @param fromProjectId  ID of the project with the file
+   * @param fromFileId  ID of the file to copy
+   * @param toProjectId  ID of the project to copy the file to
+   * @param toFileId  ID of the copy
+   * @return modification date for the project the file was copied to
+   */
+  long copySourceFile(String userId, long fromProjectId, String fromFileId, long toProjectId,
+      String toFileId);
+
   /**
    * Deletes a file.
    * @param userId a user Id (the request is made on behalf of this user)
@@ -479,6 +528,18 @@ public interface StorageIo {
    */
   String downloadFile(String userId, long projectId, String fileId, String encoding);
 
+  /**
+   * Downloads several text files of a project with a single batch get.
+   * @param userId a user Id (the request is made on behalf of this user)
+   * @param projectId  project ID
+   * @param fileIds  file IDs
+   * @param encoding  encoding of text files
+   *
+   * @return  map from file ID to text file content, in the order of fileIds
+   */
+  Map<String, String> downloadFiles(String userId, long projectId, List<String> fileIds,
+      String encoding);
+
   /**
    * Records a "corruption" record so we can analyze if corruption is
    * happening.
@@ -527,6 +588,30 @@ public interface StorageIo {
                                           boolean includeYail,
                                           boolean fatalError) throws IOException;
 
+  /**
+   * Exports project files as a zip archive written directly to the given
+   * stream, reading one file at a time, so the archive is never held in memory.
+   * The stream is not closed.
+   *
+   * @param userId a user Id (the request is made on behalf of this user)
+   * @param projectId  project ID
+   * @param includeProjectHistory  whether or not to include the project history
+   * @param includeAndroidKeystore  whether or not to include the Android keystore
+   * @param includeYail  whether or not to include the YAIL files
+   * @param fatalError set true to cause missing GCS file to throw exception
+   * @param out  the stream the zip is written to
+   *
+   * @return  the number of files in the zip
+   * @throws IllegalArgumentException if the project has no source files, in
+   *         which case nothing has been written to out
+   */
+  int exportProjectSourceZip(String userId, long projectId,
+                             boolean includeProjectHistory,
+                             boolean includeAndroidKeystore,
+                             boolean includeYail,
+                             boolean fatalError,
+                             OutputStream out) throws IOException;
+
   ProjectSourceZip exportProjectSourceScreenZip(String userId, long projectId,
       @Nullable String zipName) throws IOException;
 
@@ -584,6 +669,10 @@ public interface StorageIo {
   // Called by the task queue to actually upgrade user's projects
   void doUpgrade(String userId);
 
+  // Called by the task queue to delete the shared content with the given hash
+  // if no file refers to it
+  void sweepSharedContent(String hash);
+
   // Retrieve the current Splash Screen Version
   SplashConfig getSplashConfig();
 }
@@ -182,8 +182,9 @@ public class StoredData {
     // GCS file name (sans bucket).
     Boolean isGCS = false;
 
-    // The GCS filename, sans bucket name
-    String gcsName;
+    // The GCS filename, sans bucket name. Indexed so that the files that refer
+    // to shared content can be found.
+    @Indexed String gcsName;
 
     // File settings
     String settings;
@@ -196,6 +197,25 @@ public class StoredData {
                                 // it yet
   }
 
+  // Content stored once in GCS and shared by all of the files that have it. The
+  // gcsName of each such file is the gcsName below; those files are the
+  // references to the content, and no count of them is kept.
+  @Unindexed
+  static final class SharedContentData {
+    // SHA-256 hash of the content, in hex
+    @Id String hash;
+
+    // The GCS filename, sans bucket name. It is different each time the
+    // content is stored anew, after it was deleted.
+    String gcsName;
+
+    // The last time the content was handed out for a file to refer to, in
+    // milliseconds. It is written at most once an hour. The content is
+    // deleted once no file refers to it, but not within a day of this time,
+    // so that files being written are not left without content.
+    long acquired;
+  }
+
   // MOTD data.
   @Unindexed
   static final class MotdData {
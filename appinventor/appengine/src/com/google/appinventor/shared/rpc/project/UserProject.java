@@ -8,12 +8,17 @@ package com.google.appinventor.shared.rpc.project;
 
 import com.google.gwt.user.client.rpc.IsSerializable;
 
+import java.io.Serializable;
+
 /**
  * Bundles user specific information about a project to send it over an RPC.
  *
  * @author lizlooney@google.com (Liz Looney)
  */
-public class UserProject implements IsSerializable {
+public class UserProject implements IsSerializable, Serializable {
+  // For serialization
+  private static final long serialVersionUID = -3287140398541129547L;
+
   /**
    * The project's ID.
    */
@@ -0,0 +1,93 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server;
+
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.Resource;
+
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link OntologyTermIndex}.
+ */
+public class OntologyTermIndexTest extends TestCase {
+  private static final String NS = "http://example.com/ont#";
+  private static final String OWL_CLASS = "http://www.w3.org/2002/07/owl#Class";
+  private static final String RDFS_LABEL = "http://www.w3.org/2000/01/rdf-schema#label";
+
+  private Model model;
+
+  @Override
+  protected void setUp() throws Exception {
+    model = ModelFactory.createDefaultModel();
+    model.setNsPrefix("ex", NS);
+    addClass("Person", "Person", null);
+    addClass("PersonalDevice", "Personal Device", null);
+    addClass("Temperature", "Air Temperature", "en");
+    addClass("Temperature", "Temperatura del aire", "es");
+    addClass("BirthDate", "birthDate", "en-US");
+    // Not a class, so never returned.
+    model.add(model.createResource(NS + "knows"), model.createProperty(RDFS_LABEL), "person");
+  }
+
+  public void testSearchRanksExactMatchFirst() {
+    OntologyTermIndex index = OntologyTermIndex.build(model, OWL_CLASS);
+    assertEquals(Arrays.asList(NS + "Person", NS + "PersonalDevice"),
+        uris(index.search("person", 10)));
+  }
+
+  public void testSearchMatchesWordPrefixes() {
+    OntologyTermIndex index = OntologyTermIndex.build(model, OWL_CLASS);
+    assertEquals(Arrays.asList(NS + "Temperature"), uris(index.search("temp", 10)));
+    assertEquals(Arrays.asList(NS + "Temperature"), uris(index.search("air tem", 10)));
+    assertEquals(Arrays.asList(NS + "BirthDate"), uris(index.search("birth date", 10)));
+    assertTrue(index.search("water", 10).isEmpty());
+    assertTrue(index.search("  ", 10).isEmpty());
+  }
+
+  public void testSearchIgnoresOtherLanguages() {
+    OntologyTermIndex index = OntologyTermIndex.build(model, OWL_CLASS);
+    assertTrue(index.search("aire", 10).isEmpty());
+    assertEquals(4, index.size());
+  }
+
+  public void testSearchReturnsLabelAndPrefix() {
+    OntologyTermIndex index = OntologyTermIndex.build(model, OWL_CLASS);
+    List<OntologyTermIndex.Term> terms = index.search("air", 1);
+    assertEquals(1, terms.size());
+    assertEquals("Air Temperature", terms.get(0).label);
+    assertEquals("ex:Temperature", terms.get(0).prefix);
+  }
+
+  public void testSearchIsLimited() {
+    OntologyTermIndex index = OntologyTermIndex.build(model, OWL_CLASS);
+    assertEquals(Arrays.asList(NS + "Person"), uris(index.search("pers", 1)));
+  }
+
+  private void addClass(String localName, String label, String lang) {
+    Resource r = model.createResource(NS + localName);
+    model.add(r, model.createProperty("http://www.w3.org/1999/02/22-rdf-syntax-ns#type"),
+        model.createResource(OWL_CLASS));
+    if (lang == null) {
+      model.add(r, model.createProperty(RDFS_LABEL), label);
+    } else {
+      model.add(r, model.createProperty(RDFS_LABEL), label, lang);
+    }
+  }
+
+  private static List<String> uris(List<OntologyTermIndex.Term> terms) {
+    String[] uris = new String[terms.size()];
+    for (int i = 0; i < uris.length; i++) {
+      uris[i] = terms.get(i).uri;
+    }
+    return Arrays.asList(uris);
+  }
+}
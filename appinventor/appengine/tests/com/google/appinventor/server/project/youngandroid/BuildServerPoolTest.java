@@ -0,0 +1,121 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server.project.youngandroid;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link BuildServerPool}.
+ *
+ */
+public class BuildServerPoolTest extends TestCase {
+  private static final ThreadFactory THREADS = Executors.defaultThreadFactory();
+
+  private static class FakeProber implements BuildServerPool.Prober {
+    final Map<String, BuildServerPool.Status> statuses =
+        new HashMap<String, BuildServerPool.Status>();
+    final List<String> probed = Collections.synchronizedList(new ArrayList<String>());
+
+    @Override
+    public BuildServerPool.Status probe(String host) {
+      probed.add(host);
+      return statuses.get(host);
+    }
+  }
+
+  private FakeProber prober;
+
+  @Override
+  protected void setUp() throws Exception {
+    prober = new FakeProber();
+  }
+
+  public void testParseHosts() {
+    assertEquals(Arrays.asList("a:9990", "b:9990"),
+        BuildServerPool.parseHosts(" a:9990, b:9990,,a:9990 "));
+  }
+
+  public void testSingleServerIsNotProbed() {
+    BuildServerPool pool = new BuildServerPool(Arrays.asList("a"), prober, 0, THREADS);
+    assertEquals(Arrays.asList("a"), pool.getHostsByLoad());
+    assertTrue(prober.probed.isEmpty());
+  }
+
+  public void testLeastLoadedServerFirst() {
+    prober.statuses.put("a", new BuildServerPool.Status(3, 1, 4));
+    prober.statuses.put("b", new BuildServerPool.Status(1, 0, 4));
+    prober.statuses.put("c", new BuildServerPool.Status(2, 0, 8));
+    BuildServerPool pool = new BuildServerPool(Arrays.asList("a", "b", "c"), prober, 60000,
+        THREADS);
+    assertEquals(Arrays.asList("b", "c", "a"), pool.getHostsByLoad());
+  }
+
+  public void testUnhealthyServerLast() {
+    prober.statuses.put("b", new BuildServerPool.Status(4, 10, 4));
+    BuildServerPool pool = new BuildServerPool(Arrays.asList("a", "b"), prober, 60000, THREADS);
+    assertEquals(Arrays.asList("b", "a"), pool.getHostsByLoad());
+  }
+
+  public void testSentBuildsCountUntilNextProbe() {
+    prober.statuses.put("a", new BuildServerPool.Status(0, 0, 2));
+    prober.statuses.put("b", new BuildServerPool.Status(1, 0, 2));
+    BuildServerPool pool = new BuildServerPool(Arrays.asList("a", "b"), prober, 60000, THREADS);
+    assertEquals("a", pool.getHostsByLoad().get(0));
+    pool.buildSent("a");
+    pool.buildSent("a");
+    assertEquals("b", pool.getHostsByLoad().get(0));
+    assertEquals(2, prober.probed.size());
+  }
+
+  public void testUnavailableServerIsAvoidedUntilNextProbe() {
+    prober.statuses.put("a", new BuildServerPool.Status(0, 0, 2));
+    prober.statuses.put("b", new BuildServerPool.Status(1, 0, 2));
+    BuildServerPool pool = new BuildServerPool(Arrays.asList("a", "b"), prober, 60000, THREADS);
+    pool.getHostsByLoad();
+    pool.serverUnavailable("a");
+    assertEquals(Arrays.asList("b", "a"), pool.getHostsByLoad());
+
+    pool = new BuildServerPool(Arrays.asList("a", "b"), prober, 0, THREADS);
+    pool.getHostsByLoad();
+    pool.serverUnavailable("a");
+    // The status is read again, and a is no longer avoided.
+    assertEquals(Arrays.asList("a", "b"), pool.getHostsByLoad());
+  }
+
+  public void testStaleServersAreProbedInParallel() {
+    final CountDownLatch probing = new CountDownLatch(2);
+    BuildServerPool.Prober slowProber = new BuildServerPool.Prober() {
+      @Override
+      public BuildServerPool.Status probe(String host) {
+        // Each probe waits until the other one has started.
+        probing.countDown();
+        try {
+          if (!probing.await(10, TimeUnit.SECONDS)) {
+            return null;
+          }
+        } catch (InterruptedException e) {
+          return null;
+        }
+        return new BuildServerPool.Status(host.equals("a") ? 1 : 0, 0, 2);
+      }
+    };
+    BuildServerPool pool = new BuildServerPool(Arrays.asList("a", "b"), slowProber, 60000,
+        THREADS);
+    assertEquals(Arrays.asList("b", "a"), pool.getHostsByLoad());
+  }
+}
@@ -0,0 +1,61 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server.project.youngandroid;
+
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appinventor.server.LocalDatastoreTestCase;
+import com.google.appinventor.server.storage.StorageIo;
+import com.google.appinventor.server.storage.StorageIoInstanceHolder;
+import com.google.appinventor.shared.rpc.RpcResult;
+import com.google.appinventor.shared.rpc.project.youngandroid.NewYoungAndroidProjectParameters;
+import com.google.appinventor.shared.rpc.user.User;
+
+/**
+ * Tests for {@link YoungAndroidProjectService}.
+ *
+ */
+public class YoungAndroidProjectServiceTest extends LocalDatastoreTestCase {
+  private static final String USER_ID = "id1";
+  private static final String USER_EMAIL = "noname1@domain.com";
+  private static final String TARGET = "Android";
+  private static final String BUILD_OUT = "build/" + TARGET + "/build.out";
+
+  private StorageIo storageIo;
+  private YoungAndroidProjectService service;
+  private User user;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    storageIo = StorageIoInstanceHolder.INSTANCE;
+    service = new YoungAndroidProjectService(storageIo);
+    user = storageIo.getUser(USER_ID, USER_EMAIL);
+  }
+
+  public void testSecondRequestWaitsForPendingBuildDespiteOldOutput() throws Exception {
+    long projectId = service.newProject(USER_ID, "Project1",
+        new NewYoungAndroidProjectParameters("com.domain.noname.Project1"));
+    // The output of a build of an older version of the source.
+    storageIo.addOutputFilesToProject(USER_ID, projectId, BUILD_OUT);
+    storageIo.uploadFile(projectId, BUILD_OUT, USER_ID, "old build", "UTF-8");
+
+    // The first request has claimed the build of the current source, and is still sending it.
+    MemcacheService memcache = MemcacheServiceFactory.getMemcacheService();
+    String buildJobKey = YoungAndroidProjectService.getBuildJobKey(USER_ID, projectId, TARGET);
+    String pending = new YoungAndroidProjectService.BuildJobRecord(
+        YoungAndroidProjectService.BuildJobRecord.PENDING, "-",
+        service.getSourceHash(user, projectId, TARGET)).toString();
+    memcache.put(buildJobKey, pending);
+
+    // The second request waits for that build instead of starting another one.
+    RpcResult result = service.build(user, projectId, "nonce", TARGET);
+    assertTrue(result.succeeded());
+    assertEquals(pending, memcache.get(buildJobKey));
+    assertTrue(storageIo.getProjectOutputFiles(USER_ID, projectId).contains(BUILD_OUT));
+  }
+}
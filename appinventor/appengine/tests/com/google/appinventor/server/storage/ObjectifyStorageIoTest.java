@@ -9,6 +9,7 @@ package com.google.appinventor.server.storage;
 import com.google.appengine.api.blobstore.BlobKey;
 import com.google.appinventor.server.LocalDatastoreTestCase;
 import com.google.appinventor.server.storage.StoredData.ProjectData;
+import com.google.appinventor.server.storage.StoredData.SharedContentData;
 import com.google.appinventor.shared.rpc.BlocksTruncatedException;
 import com.google.appinventor.shared.rpc.project.Project;
 import com.google.appinventor.shared.rpc.project.RawFile;
@@ -17,6 +18,8 @@ import com.google.appinventor.shared.rpc.project.UserProject;
 import com.google.appinventor.shared.rpc.project.youngandroid.YoungAndroidProjectNode;
 import com.google.appinventor.shared.rpc.user.User;
 import com.google.appinventor.shared.storage.StorageUtil;
+import com.googlecode.objectify.Objectify;
+import com.googlecode.objectify.ObjectifyService;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -24,7 +27,9 @@ import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.ConcurrentModificationException;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Tests for {@link ObjectifyStorageIo}.
@@ -159,8 +164,9 @@ public class ObjectifyStorageIoTest extends LocalDatastoreTestCase {
 
   public void testCreateProjectFailSecond() {
     final String USER_ID = "700";
-    // fail on second job in createProject (3rd job overall)
-    StorageIo throwingStorage = new FailingJobObjectifyStorageIo(3);
+    // fail on second job in createProject (4th job overall, after the job
+    // that shares the content of the two assets, which is the same)
+    StorageIo throwingStorage = new FailingJobObjectifyStorageIo(4);
 
     try {
       throwingStorage.getUser(USER_ID);
@@ -494,6 +500,136 @@ public class ObjectifyStorageIoTest extends LocalDatastoreTestCase {
     }
   }
 
+  public void testUploadDownloadMultipleFiles() {
+    final String USER_ID = "1900";
+    storage.getUser(USER_ID);
+    long projectId = createProject(USER_ID, PROJECT_NAME, FAKE_PROJECT_TYPE, FORM_QUALIFIED_NAME);
+    storage.addSourceFilesToProject(USER_ID, projectId, false, FILE_NAME1, FILE_NAME2);
+
+    Map<String, String> contents = new LinkedHashMap<String, String>();
+    contents.put(FILE_NAME1, FILE_CONTENT1);
+    contents.put(FILE_NAME2, FILE_CONTENT2);
+    long modDate = storage.uploadFilesForce(projectId, USER_ID, contents,
+        StorageUtil.DEFAULT_CHARSET);
+    assertEquals(modDate, storage.getProjectDateModified(USER_ID, projectId));
+
+    Map<String, String> downloaded = storage.downloadFiles(USER_ID, projectId,
+        Arrays.asList(FILE_NAME2, FILE_NAME1), StorageUtil.DEFAULT_CHARSET);
+    assertEquals(Arrays.asList(FILE_NAME2, FILE_NAME1),
+        new ArrayList<String>(downloaded.keySet()));
+    assertEquals(FILE_CONTENT1, downloaded.get(FILE_NAME1));
+    assertEquals(FILE_CONTENT2, downloaded.get(FILE_NAME2));
+  }
+
+  public void testCachedFileIsUpdatedOnAllInstances() throws BlocksTruncatedException {
+    final String USER_ID = "1800";
+    storage.getUser(USER_ID);
+    long projectId = createProject(USER_ID, PROJECT_NAME, FAKE_PROJECT_TYPE, FORM_QUALIFIED_NAME);
+    storage.addSourceFilesToProject(USER_ID, projectId, false, FILE_NAME1);
+    storage.uploadFile(projectId, FILE_NAME1, USER_ID, FILE_CONTENT1, StorageUtil.DEFAULT_CHARSET);
+
+    // A second storage instance has its own local cache, like another App Engine instance.
+    ObjectifyStorageIo otherStorage = new ObjectifyStorageIo();
+    assertEquals(FILE_CONTENT1, otherStorage.downloadFile(USER_ID, projectId, FILE_NAME1,
+        StorageUtil.DEFAULT_CHARSET));
+    assertEquals(FILE_CONTENT1, storage.downloadFile(USER_ID, projectId, FILE_NAME1,
+        StorageUtil.DEFAULT_CHARSET));
+
+    storage.uploadFile(projectId, FILE_NAME1, USER_ID, FILE_CONTENT2, StorageUtil.DEFAULT_CHARSET);
+    assertEquals(FILE_CONTENT2, storage.downloadFile(USER_ID, projectId, FILE_NAME1,
+        StorageUtil.DEFAULT_CHARSET));
+    assertEquals(FILE_CONTENT2, otherStorage.downloadFile(USER_ID, projectId, FILE_NAME1,
+        StorageUtil.DEFAULT_CHARSET));
+  }
+
+  public void testGetUserProjectsReflectsChanges() {
+    final String USER_ID = "2000";
+    storage.getUser(USER_ID);
+    assertTrue(storage.getUserProjects(USER_ID).isEmpty());
+    long projectId1 = createProject(USER_ID, PROJECT_NAME, FAKE_PROJECT_TYPE, FORM_QUALIFIED_NAME);
+    long projectId2 = createProject(USER_ID, "Project2", FAKE_PROJECT_TYPE, FORM_QUALIFIED_NAME);
+
+    List<UserProject> userProjects = storage.getUserProjects(USER_ID);
+    assertEquals(2, userProjects.size());
+    // The second call is answered from memcache.
+    assertEquals(2, storage.getUserProjects(USER_ID).size());
+
+    storage.setProjectGalleryId(USER_ID, projectId2, 42);
+    storage.deleteProject(USER_ID, projectId1);
+    userProjects = storage.getUserProjects(USER_ID);
+    assertEquals(1, userProjects.size());
+    UserProject userProject = userProjects.get(0);
+    assertEquals(projectId2, userProject.getProjectId());
+    assertEquals("Project2", userProject.getProjectName());
+    assertEquals(FAKE_PROJECT_TYPE, userProject.getProjectType());
+    assertEquals(42, userProject.getGalleryId());
+    assertEquals(storage.getProjectDateModified(USER_ID, projectId2),
+        userProject.getDateModified());
+  }
+
+  public void testAssetsWithTheSameContentAreStoredOnce() throws BlocksTruncatedException {
+    final String USER_ID = "2100";
+    storage.getUser(USER_ID);
+    long projectId1 = createProject(USER_ID, PROJECT_NAME, FAKE_PROJECT_TYPE, FORM_QUALIFIED_NAME);
+    long projectId2 = createProject(USER_ID, "Project2", FAKE_PROJECT_TYPE, FORM_QUALIFIED_NAME);
+    storage.addSourceFilesToProject(USER_ID, projectId1, false, ASSET_FILE_NAME1);
+    storage.uploadRawFile(projectId1, ASSET_FILE_NAME1, USER_ID, true, ASSET_FILE_CONTENT1);
+    storage.addSourceFilesToProject(USER_ID, projectId2, false, ASSET_FILE_NAME1);
+    storage.uploadRawFile(projectId2, ASSET_FILE_NAME1, USER_ID, true, ASSET_FILE_CONTENT1);
+    String gcsName = storage.getGcsFileName(projectId1, ASSET_FILE_NAME1);
+    assertTrue(gcsName.startsWith("shared/"));
+    assertEquals(gcsName, storage.getGcsFileName(projectId2, ASSET_FILE_NAME1));
+
+    // A copy refers to the same content.
+    long projectId3 = createProject(USER_ID, "Project3", FAKE_PROJECT_TYPE, FORM_QUALIFIED_NAME);
+    storage.copySourceFile(USER_ID, projectId1, ASSET_FILE_NAME1, projectId3, ASSET_FILE_NAME1);
+    assertEquals(gcsName, storage.getGcsFileName(projectId3, ASSET_FILE_NAME1));
+
+    // The content stays as long as a file refers to it.
+    storage.deleteProject(USER_ID, projectId1);
+    storage.uploadRawFile(projectId2, ASSET_FILE_NAME1, USER_ID, true, new byte[] { (byte) 7 });
+    storage.deleteFile(USER_ID, projectId2, ASSET_FILE_NAME1);
+    assertTrue(Arrays.equals(ASSET_FILE_CONTENT1,
+        storage.downloadRawFile(USER_ID, projectId3, ASSET_FILE_NAME1)));
+
+    // A sweep deletes the content once no file refers to it, if it hasn't
+    // been handed out for a day.
+    String hash = gcsName.substring("shared/".length(), gcsName.lastIndexOf('/'));
+    Objectify datastore = ObjectifyService.begin();
+    SharedContentData scd = datastore.find(SharedContentData.class, hash);
+    scd.acquired = 0;
+    datastore.put(scd);
+    storage.sweepSharedContent(hash);
+    assertNotNull(datastore.find(SharedContentData.class, hash));
+    storage.deleteProject(USER_ID, projectId3);
+    storage.sweepSharedContent(hash);
+    assertNull(datastore.find(SharedContentData.class, hash));
+  }
+
+  public void testSourceFileHashesFollowContent() throws BlocksTruncatedException {
+    final String USER_ID = "2200";
+    storage.getUser(USER_ID);
+    long projectId1 = createProject(USER_ID, PROJECT_NAME, FAKE_PROJECT_TYPE, FORM_QUALIFIED_NAME);
+    long projectId2 = createProject(USER_ID, "Project2", FAKE_PROJECT_TYPE, FORM_QUALIFIED_NAME);
+    for (long projectId : new long[] { projectId1, projectId2 }) {
+      storage.addSourceFilesToProject(USER_ID, projectId, false, FILE_NAME1, ASSET_FILE_NAME1);
+      storage.uploadFile(projectId, FILE_NAME1, USER_ID, FILE_CONTENT1,
+          StorageUtil.DEFAULT_CHARSET);
+      storage.uploadRawFile(projectId, ASSET_FILE_NAME1, USER_ID, true, ASSET_FILE_CONTENT1);
+    }
+    Map<String, String> hashes1 = storage.getProjectSourceFileHashes(USER_ID, projectId1);
+    assertTrue(hashes1.containsKey(FORM_QUALIFIED_NAME));
+    assertNotNull(hashes1.get(FILE_NAME1));
+    assertNotNull(hashes1.get(ASSET_FILE_NAME1));
+    assertEquals(hashes1, storage.getProjectSourceFileHashes(USER_ID, projectId2));
+
+    storage.uploadFile(projectId2, FILE_NAME1, USER_ID, FILE_CONTENT2,
+        StorageUtil.DEFAULT_CHARSET);
+    Map<String, String> hashes2 = storage.getProjectSourceFileHashes(USER_ID, projectId2);
+    assertFalse(hashes1.get(FILE_NAME1).equals(hashes2.get(FILE_NAME1)));
+    assertEquals(hashes1.get(ASSET_FILE_NAME1), hashes2.get(ASSET_FILE_NAME1));
+  }
+
 
   /*
    * Fail on the Nth call to runJobWithRetries, where N is the value of the
@@ -1283,7 +1283,10 @@ Blockly.Versioning.AllUpgradeMaps =
 
     // AI2: No blocks need to be modified to upgrade to version 10
     // The default value of TextAlignment was changed from Normal (left) to Center
-    10: "noUpgrade"
+    10: "noUpgrade",
+
+    // AI2: The FrameRate property was added.
+    11: "noUpgrade"
 
   }, // End Canvas upgraders
 
@@ -1993,6 +1996,15 @@ Blockly.Versioning.AllUpgradeMaps =
 
   }, // End Slider upgraders
 
+  "SensorDB": {
+
+    // The SetWriteBuffer method and the WriteBufferSize and WriteBufferInterval
+    // properties were added.
+    // No blocks need to be modified to upgrade to version 2.
+    2: "noUpgrade"
+
+  }, // End SensorDB upgraders
+
   "Sound": {
 
     // AI1: The Sound.SoundError event was added.
@@ -2259,7 +2271,11 @@ Blockly.Versioning.AllUpgradeMaps =
     3: "ai1CantDoUpgrade", // Just indicates we couldn't do upgrade even if we wanted to
 
     // AI2: Added method XMLTextDecode
-    4: "noUpgrade"
+    4: "noUpgrade",
+
+    // AI2: The PendingRequests, ActiveCalls, QueuedCalls, CompletedCalls and
+    // RejectedCalls properties were added.
+    5: "noUpgrade"
 
   }, // End Web upgraders
 
@@ -2291,10 +2307,39 @@ Blockly.Versioning.AllUpgradeMaps =
 
   }, // End YandexTranslate upgraders
 
+  "LinkedData" : {
+    // Renamed from SemanticWeb.
+    2: "noUpgrade",
+
+    // BaseURL property removed; it is eclipsed by FormID on the LinkedDataForm.
+    3: "noUpgrade",
+
+    // ExecuteLocalSPARQLQuery method added.
+    4: "noUpgrade",
+
+    // LocalStore property added.
+    5: "noUpgrade",
+
+    // SyncDataToWeb method added.
+    // SyncProgress, FinishedSyncingDataToWeb and FailedToSyncDataToWeb events added.
+    // PendingDataCount and UpdateBatchSize properties added.
+    6: "noUpgrade",
+
+    // ExecutePagedSPARQLQuery and RetrieveNextResultsPage methods added.
+    // RetrievedResultsPage event added.
+    7: "noUpgrade",
+
+    // CacheDuration, CacheSize, CacheHits and CacheMisses properties added.
+    8: "noUpgrade"
+  },
+
   "LinkedDataListPicker" : {
     1: "noUpgrade",
     2: "noUpgrade",
-    3: "noUpgrade"
+    3: "noUpgrade",
+
+    // CacheDuration, CacheHits and CacheMisses properties added.
+    4: "noUpgrade"
   }
 
 }
@@ -0,0 +1,110 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver;
+
+import java.util.Iterator;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The state and progress of one asynchronous build, identified by a job id that is returned to
+ * the requester when the build is submitted.
+ *
+ * <p>Jobs are kept in memory, so that reporting the progress of a build is a map lookup. A job
+ * is forgotten {@link #RETENTION_MILLIS} after it finishes; by then the results have been sent
+ * to the requester.</p>
+ */
+public final class BuildJob {
+  enum State { QUEUED, BUILDING, DONE }
+
+  // How long a finished job can still be looked up
+  static final long RETENTION_MILLIS = 10 * 60 * 1000;
+
+  private static final ConcurrentMap<String, BuildJob> jobs =
+      new ConcurrentHashMap<String, BuildJob>();
+
+  private final String id;
+  private volatile State state = State.QUEUED;
+  private volatile int progress = 0;
+  private volatile long finishedMillis = 0;
+
+  private BuildJob(String id) {
+    this.id = id;
+  }
+
+  /**
+   * Creates a queued job with a new id. Finished jobs older than {@link #RETENTION_MILLIS} are
+   * forgotten.
+   */
+  static BuildJob create() {
+    expire(System.currentTimeMillis());
+    BuildJob job = new BuildJob(UUID.randomUUID().toString());
+    jobs.put(job.id, job);
+    return job;
+  }
+
+  /**
+   * Returns the job with the given id, or {@code null} if there is none.
+   */
+  static BuildJob get(String id) {
+    return id == null ? null : jobs.get(id);
+  }
+
+  /**
+   * Returns the number of jobs that can be looked up.
+   */
+  static int count() {
+    return jobs.size();
+  }
+
+  static void expire(long nowMillis) {
+    Iterator<BuildJob> it = jobs.values().iterator();
+    while (it.hasNext()) {
+      BuildJob job = it.next();
+      if (job.state == State.DONE && nowMillis - job.finishedMillis > RETENTION_MILLIS) {
+        it.remove();
+      }
+    }
+  }
+
+  /**
+   * Forgets the job right away, e.g. because it was never run.
+   */
+  void remove() {
+    jobs.remove(id);
+  }
+
+  String getId() {
+    return id;
+  }
+
+  State getState() {
+    return state;
+  }
+
+  /**
+   * Returns the progress of the build, in percent.
+   */
+  int getProgress() {
+    return progress;
+  }
+
+  void setProgress(int progress) {
+    this.progress = progress;
+  }
+
+  void started() {
+    state = State.BUILDING;
+  }
+
+  void finished() {
+    progress = 100;
+    finishedMillis = System.currentTimeMillis();
+    state = State.DONE;
+  }
+}
@@ -0,0 +1,283 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Logger;
+
+/**
+ * An {@link Executor} used for executing build tasks, each on its own thread.
+ *
+ * <p>This Executor allows only a certain number of simultaneous tasks. Additional tasks are held
+ * in a bounded queue and are rejected only when that queue is full.</p>
+ *
+ * <p>When a running task finishes, the next queued task is chosen as follows:
+ * <ol>
+ * <li>tasks whose user has the fewest builds already running go first, so that one user
+ *     pressing Build repeatedly cannot starve everyone else;</li>
+ * <li>then small projects go before large ones, since they finish quickly. A large project that
+ *     has waited longer than the priority wait limit is treated like a small one, so it is not
+ *     starved;</li>
+ * <li>then tasks are taken in the order in which they arrived.</li>
+ * </ol></p>
+ */
+final class BuildQueueExecutor implements Executor {
+  // The maximum number of active tasks. O means unlimited.
+  private final int maxActiveTasks;
+
+  // The maximum number of tasks waiting for a free slot. 0 means tasks are never queued.
+  private final int maxQueuedTasks;
+
+  // Projects no bigger than this many bytes are built ahead of bigger projects.
+  private final long smallProjectBytes;
+
+  // After waiting this long, a big project is given the same priority as a small project.
+  private final long maxPriorityWaitMillis;
+
+  // Logging support
+  private static final Logger LOG = Logger.getLogger(BuildQueueExecutor.class.getName());
+
+  // All of the fields below are guarded by lock.
+  private final Object lock = new Object();
+
+  private final List<QueuedTask> queue = new ArrayList<QueuedTask>();
+  private final Map<String, Integer> activeTaskCountPerUser = new HashMap<String, Integer>();
+  private int activeTaskCount = 0;
+  private int completedTaskCount = 0;
+  private long nextSequenceNumber = 0;
+
+  // Statistics about the time tasks spent waiting in the queue.
+  private int dequeuedTaskCount = 0;
+  private long totalQueueWaitMillis = 0;
+  private long maximumQueueWaitMillis = 0;
+
+  /**
+   * Creates a BuildQueueExecutor.
+   *
+   * @param maxActiveTasks the maximum number of active tasks, 0 means unlimited
+   * @param maxQueuedTasks the maximum number of tasks waiting to become active
+   * @param smallProjectBytes the size under which a project is built ahead of larger ones
+   * @param maxPriorityWaitMillis the time after which a large project is no longer held back
+   */
+  BuildQueueExecutor(int maxActiveTasks, int maxQueuedTasks, long smallProjectBytes,
+      long maxPriorityWaitMillis) {
+    this.maxActiveTasks = maxActiveTasks;
+    this.maxQueuedTasks = maxQueuedTasks;
+    this.smallProjectBytes = smallProjectBytes;
+    this.maxPriorityWaitMillis = maxPriorityWaitMillis;
+  }
+
+  @Override
+  public void execute(Runnable runnable) {
+    execute(runnable, "", 0);
+  }
+
+  /**
+   * Executes the given task now if there is a free slot, otherwise queues it.
+   *
+   * @param runnable the build task
+   * @param userName the user requesting the build, used for fairness between users
+   * @param projectSize the size of the project source, used to prioritize small projects
+   * @return 0 if the task was started immediately, otherwise its 1-based position in the queue
+   * @throws RejectedExecutionException if the executor and its queue are both full
+   */
+  int execute(Runnable runnable, String userName, long projectSize) {
+    synchronized (lock) {
+      QueuedTask task = new QueuedTask(runnable, userName == null ? "" : userName, projectSize,
+          nextSequenceNumber++, System.currentTimeMillis());
+      // Check whether the executor is below maximum capacity.
+      if (maxActiveTasks == 0 || activeTaskCount < maxActiveTasks) {
+        start(task);
+        return 0;
+      }
+      if (queue.size() >= maxQueuedTasks) {
+        // If the executor and the queue are at maximum capacity, reject the task.
+        throw new RejectedExecutionException();
+      }
+      queue.add(task);
+      int position = getQueuePosition(task);
+      LOG.info("Build for " + task.userName + " queued at position " + position
+          + " of " + queue.size());
+      return position;
+    }
+  }
+
+  /*
+   * Starts the given task on a new thread. Must be called with lock held.
+   */
+  private void start(final QueuedTask task) {
+    activeTaskCount++;
+    Integer userCount = activeTaskCountPerUser.get(task.userName);
+    activeTaskCountPerUser.put(task.userName, userCount == null ? 1 : userCount + 1);
+
+    long waitMillis = System.currentTimeMillis() - task.enqueueTimeMillis;
+    dequeuedTaskCount++;
+    totalQueueWaitMillis += waitMillis;
+    maximumQueueWaitMillis = Math.max(maximumQueueWaitMillis, waitMillis);
+
+    // Create a new thread for the task.
+    Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          task.runnable.run();
+        } finally {
+          finished(task);
+        }
+      }
+    });
+    thread.start();
+  }
+
+  private void finished(QueuedTask task) {
+    synchronized (lock) {
+      activeTaskCount--;
+      completedTaskCount++;
+      int userCount = activeTaskCountPerUser.get(task.userName) - 1;
+      if (userCount == 0) {
+        activeTaskCountPerUser.remove(task.userName);
+      } else {
+        activeTaskCountPerUser.put(task.userName, userCount);
+      }
+
+      // Fill the free slot from the queue.
+      if (!queue.isEmpty()) {
+        QueuedTask next = queue.get(0);
+        long now = System.currentTimeMillis();
+        for (QueuedTask candidate : queue) {
+          if (compare(candidate, next, now) < 0) {
+            next = candidate;
+          }
+        }
+        queue.remove(next);
+        start(next);
+      }
+    }
+  }
+
+  /*
+   * Returns the 1-based position at which the given queued task would currently be dequeued.
+   * Must be called with lock held.
+   */
+  private int getQueuePosition(QueuedTask task) {
+    long now = System.currentTimeMillis();
+    int position = 1;
+    for (QueuedTask other : queue) {
+      if (other != task && compare(other, task, now) < 0) {
+        position++;
+      }
+    }
+    return position;
+  }
+
+  /*
+   * Orders queued tasks by the number of builds their user already has running, then by
+   * priority, then by arrival. Must be called with lock held.
+   */
+  private int compare(QueuedTask a, QueuedTask b, long now) {
+    int aUserCount = getActiveTaskCountForUser(a.userName);
+    int bUserCount = getActiveTaskCountForUser(b.userName);
+    if (aUserCount != bUserCount) {
+      return aUserCount < bUserCount ? -1 : 1;
+    }
+    boolean aPriority = hasPriority(a, now);
+    boolean bPriority = hasPriority(b, now);
+    if (aPriority != bPriority) {
+      return aPriority ? -1 : 1;
+    }
+    return a.sequenceNumber < b.sequenceNumber ? -1 : (a.sequenceNumber == b.sequenceNumber ? 0 : 1);
+  }
+
+  private boolean hasPriority(QueuedTask task, long now) {
+    return task.projectSize <= smallProjectBytes
+        || now - task.enqueueTimeMillis >= maxPriorityWaitMillis;
+  }
+
+  private int getActiveTaskCountForUser(String userName) {
+    Integer count = activeTaskCountPerUser.get(userName);
+    return count == null ? 0 : count;
+  }
+
+  public int getMaxActiveTasks() {
+    return maxActiveTasks;
+  }
+
+  public int getMaxQueuedTasks() {
+    return maxQueuedTasks;
+  }
+
+  public int getActiveTaskCount() {
+    synchronized (lock) {
+      return activeTaskCount;
+    }
+  }
+
+  public int getCompletedTaskCount() {
+    synchronized (lock) {
+      return completedTaskCount;
+    }
+  }
+
+  public int getQueuedTaskCount() {
+    synchronized (lock) {
+      return queue.size();
+    }
+  }
+
+  /**
+   * Returns how long the task that has been queued longest has been waiting, in milliseconds.
+   */
+  public long getOldestQueuedTaskWaitMillis() {
+    synchronized (lock) {
+      long oldest = 0;
+      long now = System.currentTimeMillis();
+      for (QueuedTask task : queue) {
+        oldest = Math.max(oldest, now - task.enqueueTimeMillis);
+      }
+      return oldest;
+    }
+  }
+
+  /**
+   * Returns the average time tasks spent queued before starting, in milliseconds.
+   */
+  public long getAverageQueueWaitMillis() {
+    synchronized (lock) {
+      return dequeuedTaskCount == 0 ? 0 : totalQueueWaitMillis / dequeuedTaskCount;
+    }
+  }
+
+  /**
+   * Returns the longest time any task spent queued before starting, in milliseconds.
+   */
+  public long getMaximumQueueWaitMillis() {
+    synchronized (lock) {
+      return maximumQueueWaitMillis;
+    }
+  }
+
+  private static class QueuedTask {
+    final Runnable runnable;
+    final String userName;
+    final long projectSize;
+    final long sequenceNumber;
+    final long enqueueTimeMillis;
+
+    QueuedTask(Runnable runnable, String userName, long projectSize, long sequenceNumber,
+        long enqueueTimeMillis) {
+      this.runnable = runnable;
+      this.userName = userName;
+      this.projectSize = projectSize;
+      this.sequenceNumber = sequenceNumber;
+      this.enqueueTimeMillis = enqueueTimeMillis;
+    }
+  }
+}
@@ -79,6 +79,26 @@ public class BuildServer {
       usage = "Maximum number of builds that can run in parallel. O means unlimited.")
     int maxSimultaneousBuilds = 0;  // The default is unlimited.
 
+    @Option(name = "--maxQueuedBuilds",
+      usage = "Maximum number of builds that can wait for a free build slot. 0 means builds are never queued.")
+    int maxQueuedBuilds = 100;
+
+    @Option(name = "--smallProjectSizeKb",
+      usage = "Projects no bigger than this, in KB, are taken from the build queue before bigger ones.")
+    int smallProjectSizeKb = 1024;
+
+    @Option(name = "--maxQueuePriorityWaitSecs",
+      usage = "Seconds after which a queued big project gets the same priority as a small one.")
+    int maxQueuePriorityWaitSecs = 60;
+
+    @Option(name = "--maxSimultaneousKawaOrDx",
+      usage = "Maximum number of Kawa or DX invocations that can run in parallel, across all builds. 0 means one per processor.")
+    int maxSimultaneousKawaOrDx = 0;
+
+    @Option(name = "--inProcessDx",
+      usage = "Run DX inside the build server process with resident workers, instead of in child processes.")
+    boolean inProcessDx = false;
+
     @Option(name = "--port",
       usage = "The port number to bind to on the local machine.")
     int port = 9990;
@@ -95,6 +115,14 @@ public class BuildServer {
             usage = "the directory to cache the pre-dexed libraries")
     String dexCacheDir = null;
 
+    @Option(name = "--incrementalBuildDir",
+            usage = "the directory to keep the compiled classes of each project's screens in, so that rebuilds only compile changed screens")
+    String incrementalBuildDir = null;
+
+    @Option(name = "--incrementalBuildMaxMb",
+            usage = "the size, in MB, the incremental build directory may take; the classes of the projects built least recently are deleted beyond it")
+    int incrementalBuildMaxMb = 1024;
+
   }
 
   private static final CommandLineOptions commandLineOptions = new CommandLineOptions();
@@ -130,7 +158,7 @@ public class BuildServer {
   // NOTE(lizlooney) - the buildExecutor must be created after the command line options are
   // processed in main(). If it is created here, the number of simultaneous builds will always be
   // the default value, even if the --maxSimultaneousBuilds option is on the command line.
-  private static NonQueuingExecutor buildExecutor;
+  private static BuildQueueExecutor buildExecutor;
 
   // The input zip file. It will be deleted in cleanUp.
   private File inputZip;
@@ -164,7 +192,12 @@ public class BuildServer {
     ShutdownState shut = getShutdownState();
     if (shut == ShutdownState.UP) {
       LOG.info("Healthcheck: UP");
-      return Response.ok("ok", MediaType.TEXT_PLAIN_TYPE).build();
+      // The load headers let the App Inventor server send builds to the least loaded server.
+      return Response.ok("ok", MediaType.TEXT_PLAIN_TYPE)
+        .header("X-Build-Active-Tasks", buildExecutor.getActiveTaskCount())
+        .header("X-Build-Queued-Tasks", buildExecutor.getQueuedTaskCount())
+        .header("X-Build-Max-Tasks", buildExecutor.getMaxActiveTasks())
+        .build();
     } else if (shut == ShutdownState.DOWN) {
       LOG.info("Healthcheck: DOWN");
       return Response.status(Response.Status.FORBIDDEN).type(MediaType.TEXT_PLAIN_TYPE).entity("Build Server is shutdown").build();
@@ -219,6 +252,7 @@ public class BuildServer {
     variables.put("rejected-async-build-requests", rejectedAsyncBuildRequests.get() + "");
     variables.put("successful-async-build-requests", successfulBuildRequests.get() + "");
     variables.put("failed-async-build-requests", failedBuildRequests.get() + "");
+    variables.put("tracked-build-jobs", BuildJob.count() + "");
 
     // Build tasks
     int max = buildExecutor.getMaxActiveTasks();
@@ -232,6 +266,14 @@ public class BuildServer {
     variables.put("maximum-simultaneous-build-tasks-occurred", maximumActiveBuildTasks + "");
     variables.put("active-build-tasks", buildExecutor.getActiveTaskCount() + "");
 
+    // Build queue
+    variables.put("maximum-queued-build-tasks-allowed", buildExecutor.getMaxQueuedTasks() + "");
+    variables.put("queued-build-tasks", buildExecutor.getQueuedTaskCount() + "");
+    variables.put("oldest-queued-build-task-wait-in-ms",
+        buildExecutor.getOldestQueuedTaskWaitMillis() + "");
+    variables.put("average-build-queue-wait-in-ms", buildExecutor.getAverageQueueWaitMillis() + "");
+    variables.put("maximum-build-queue-wait-in-ms", buildExecutor.getMaximumQueueWaitMillis() + "");
+
     StringBuilder html = new StringBuilder();
     html.append("<html><body><tt>");
     for (Map.Entry<String, String> variable : variables.entrySet()) {
@@ -273,6 +315,28 @@ public class BuildServer {
     }
   }
 
+  /**
+   * Report the progress of an asynchronous build, in percent. The job id is the one returned by
+   * build-all-from-zip-async. The state of the job (QUEUED, BUILDING or DONE) is returned in the
+   * X-Build-State header.
+   *
+   * @param jobId  the id of the build job
+   * @return the progress, or NOT_FOUND (404) if the job is unknown or finished long ago
+   */
+  @GET
+  @Path("build-status")
+  @Produces(MediaType.TEXT_PLAIN)
+  public Response buildStatus(@QueryParam("jobId") String jobId) {
+    BuildJob job = BuildJob.get(jobId);
+    if (job == null) {
+      return Response.status(Response.Status.NOT_FOUND).type(MediaType.TEXT_PLAIN_TYPE)
+        .entity("Unknown build job.").build();
+    }
+    return Response.ok("" + job.getProgress(), MediaType.TEXT_PLAIN_TYPE)
+      .header("X-Build-State", job.getState())
+      .build();
+  }
+
   /**
    * Build an APK file from the input zip file. The zip file needs to be a variant of the same
    * App Inventor source zip that's generated by the Download Source command.  The differences are
@@ -298,7 +362,7 @@ public class BuildServer {
         .entity("Entry point unavailable unless debugging.").build();
 
     try {
-      build(userName, zipFile);
+      build(userName, zipFile, null);
       String attachedFilename = outputApk.getName();
       FileInputStream outputApkDeleteOnClose = new DeleteFileOnCloseFileInputStream(outputApk);
       // Set the outputApk field to null so that it won't be deleted in cleanUp().
@@ -341,7 +405,7 @@ public class BuildServer {
         .entity("Entry point unavailable unless debugging.").build();
 
     try {
-      buildAndCreateZip(userName, inputZipFile);
+      buildAndCreateZip(userName, inputZipFile, null);
       String attachedFilename = outputZip.getName();
       FileInputStream outputZipDeleteOnClose = new DeleteFileOnCloseFileInputStream(outputZip);
       // Set the outputZip field to null so that it won't be deleted in cleanUp().
@@ -374,6 +438,13 @@ public class BuildServer {
    * The status code returned here will be seen by the server in YoungAndroidProjectService.build
    * as connection.getResponseCode().
    *
+   * If all build slots are busy, the build is queued and the position in the queue is returned in
+   * the X-Build-Queue-Position header. Only when the queue is full as well is the request rejected
+   * with SERVICE_UNAVAILABLE.
+   *
+   * An accepted build gets a job id, which is returned in the X-Build-Job-Id header and as the
+   * content of the response. The progress of the build can then be polled with build-status.
+   *
    * @param userName  The user name to be used in making the CN entry in the generated keystore.
    * @param gitBuildVersion  The value of GitBuildId.getVersion() sent from
    *     YoungAndroidProjectService.build.
@@ -395,7 +466,8 @@ public class BuildServer {
     inputZip.deleteOnExit(); // In case build server is killed before cleanUp executes.
     String requesting_host = (new URL(callbackUrlStr)).getHost();
 
-    //for the request for update part, the file should be empty
+    // Older App Inventor servers poll for progress by posting an empty file. Without a job id we
+    // can't tell which build they mean, so they get no progress; build-status replaces this.
     if (inputZip.length() == 0L) {
       cleanUp();
     } else {
@@ -442,14 +514,16 @@ public class BuildServer {
         }
       }
 
+      final BuildJob job = BuildJob.create();
       Runnable buildTask = new Runnable() {
           @Override
           public void run() {
             int count = buildCount.incrementAndGet();
+            job.started();
             try {
-              LOG.info("START NEW BUILD " + count);
+              LOG.info("START NEW BUILD " + count + " (job " + job.getId() + ")");
               checkMemory();
-              buildAndCreateZip(userName, inputZipFile);
+              buildAndCreateZip(userName, inputZipFile, job);
               // Send zip back to the callbackUrl
               LOG.info("CallbackURL: " + callbackUrlStr);
               URL callbackUrl = new URL(callbackUrlStr);
@@ -483,17 +557,20 @@ public class BuildServer {
               LOG.severe("Exception: " + e.getMessage()+ " and the length is of inputZip is "+ inputZip.length());
             } finally {
               cleanUp();
+              job.finished();
               checkMemory();
               LOG.info("BUILD " + count + " FINISHED");
             }
           }
         };
+      int queuePosition;
       try {
-        buildExecutor.execute(buildTask);
+        queuePosition = buildExecutor.execute(buildTask, userName, inputZipFile.length());
       } catch (RejectedExecutionException e) {
         // This request was rejected because all threads in the build
-        // executor are busy.
+        // executor are busy and the build queue is full.
         rejectedAsyncBuildRequests.incrementAndGet();
+        job.remove();
         cleanUp();
         // Here, we use SERVICE_UNAVAILABLE (response code 503), which
         // means (according to rfc2616, section 10) "The server is
@@ -503,14 +580,17 @@ public class BuildServer {
         // alleviated after some delay."
         return Response.status(Response.Status.SERVICE_UNAVAILABLE).type(MediaType.TEXT_PLAIN_TYPE).entity("The build server is currently at maximum capacity.").build();
       }
+      return Response.ok().type(MediaType.TEXT_PLAIN_TYPE)
+        .header("X-Build-Queue-Position", queuePosition)
+        .header("X-Build-Job-Id", job.getId())
+        .entity(job.getId()).build();
     }
-    return Response.ok().type(MediaType.TEXT_PLAIN_TYPE)
-      .entity("" + projectBuilder.getProgress()).build();
+    return Response.ok().type(MediaType.TEXT_PLAIN_TYPE).entity("0").build();
   }
 
-  private void buildAndCreateZip(String userName, File inputZipFile)
+  private void buildAndCreateZip(String userName, File inputZipFile, BuildJob job)
     throws IOException, JSONException {
-    Result buildResult = build(userName, inputZipFile);
+    Result buildResult = build(userName, inputZipFile, job);
     boolean buildSucceeded = buildResult.succeeded();
     outputZip = File.createTempFile(inputZipFile.getName(), ".zip");
     outputZip.deleteOnExit();  // In case build server is killed before cleanUp executes.
@@ -548,7 +628,7 @@ public class BuildServer {
     return buildOutputJsonObj.toString();
   }
 
-  private Result build(String userName, File zipFile) throws IOException {
+  private Result build(String userName, File zipFile, BuildJob job) throws IOException {
     outputDir = Files.createTempDir();
     // We call outputDir.deleteOnExit() here, in case build server is killed before cleanUp
     // executes. However, it is likely that the directory won't be empty and therefore, won't
@@ -556,7 +636,7 @@ public class BuildServer {
     // is happening, so we should be careful about that.
     outputDir.deleteOnExit();
     Result buildResult = projectBuilder.build(userName, new ZipFile(zipFile), outputDir, false,
-      commandLineOptions.childProcessRamMb, commandLineOptions.dexCacheDir);
+      commandLineOptions.childProcessRamMb, commandLineOptions.dexCacheDir, job);
     String buildOutput = buildResult.getOutput();
     LOG.info("Build output: " + buildOutput);
     String buildError = buildResult.getError();
@@ -612,7 +692,20 @@ public class BuildServer {
     }
 
     // Now that the command line options have been processed, we can create the buildExecutor.
-    buildExecutor = new NonQueuingExecutor(commandLineOptions.maxSimultaneousBuilds);
+    buildExecutor = new BuildQueueExecutor(commandLineOptions.maxSimultaneousBuilds,
+      commandLineOptions.maxQueuedBuilds, commandLineOptions.smallProjectSizeKb * 1024L,
+      commandLineOptions.maxQueuePriorityWaitSecs * 1000L);
+
+    int maxSimultaneousKawaOrDx = commandLineOptions.maxSimultaneousKawaOrDx;
+    if (maxSimultaneousKawaOrDx == 0) {
+      maxSimultaneousKawaOrDx = Runtime.getRuntime().availableProcessors();
+    }
+    Compiler.setMaxSimultaneousKawaOrDx(maxSimultaneousKawaOrDx);
+    Compiler.setIncrementalBuildDir(commandLineOptions.incrementalBuildDir,
+        commandLineOptions.incrementalBuildMaxMb * 1024L * 1024L);
+    if (commandLineOptions.inProcessDx) {
+      Compiler.setInProcessDxWorkers(maxSimultaneousKawaOrDx);
+    }
 
     int port = commandLineOptions.port;
     SelectorThread threadSelector = GrizzlyServerFactory.create("http://localhost:" + port + "/");
@@ -624,7 +717,10 @@ public class BuildServer {
       LOG.info("Maximum simultanous builds = unlimited!");
     } else {
       LOG.info("Maximum simultanous builds = " + commandLineOptions.maxSimultaneousBuilds);
+      LOG.info("Maximum queued builds = " + commandLineOptions.maxQueuedBuilds);
     }
+    LOG.info("Maximum simultanous Kawa or DX invocations = " + maxSimultaneousKawaOrDx
+      + (commandLineOptions.inProcessDx ? " (DX in process)" : ""));
     LOG.info("Visit: http://" + hostAddress + ":" + port +
       "/buildserver/health for server health");
     LOG.info("Visit: http://" + hostAddress + ":" + port +
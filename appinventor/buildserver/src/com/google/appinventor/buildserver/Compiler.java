@@ -41,6 +41,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -55,10 +56,24 @@ import javax.imageio.ImageIO;
  * @author lizlooney@google.com (Liz Looney)
  */
 public final class Compiler {
-  public static int currentProgress = 10;
+  // Kawa and DX processes can use a lot of memory. We only launch a limited number of Kawa or DX
+  // processes at a time. See setMaxSimultaneousKawaOrDx.
+  private static volatile Semaphore kawaOrDxPermits = new Semaphore(1, true);
 
-  // Kawa and DX processes can use a lot of memory. We only launch one Kawa or DX process at a time.
-  private static final Object SYNC_KAWA_OR_DX = new Object();
+  // If not null, DX is run inside the build server process by one of these workers.
+  private static volatile DexWorkerPool dexWorkerPool = null;
+
+  // If not null, the classes compiled for each screen are kept here between builds, so that
+  // screens whose YAIL did not change are not compiled again.
+  private static volatile String incrementalBuildDir = null;
+
+  // The size the classes kept in incrementalBuildDir may take, in bytes.
+  private static volatile long incrementalBuildMaxBytes = 0;
+
+  // The hashes of resources that are part of the toolchain fingerprint. Resources don't change
+  // while the build server is running, so each one is hashed only once.
+  private static final ConcurrentMap<String, String> resourceHashes =
+      new ConcurrentHashMap<String, String>();
 
   private static final String SWLIST_ACTIVITY_CLASS =
       "com.google.appinventor.components.runtime.SWListActivity";
@@ -209,6 +224,7 @@ public final class Compiler {
   private Set<String> assetsNeeded; // Set of component assets
   private File libsDir; // The directory that will contain any native libraries for packaging
   private String dexCacheDir;
+  private final BuildJob job;
   private boolean hasSecondDex = false; // True if classes2.dex should be added to the APK
 
 
@@ -549,6 +565,7 @@ public final class Compiler {
       
 	  //add UploadServices and DataBaseService
 	  out.write("<service android:name=\"edu.mit.media.funf.storage.NameValueDatabaseService\"></service> \n");
+	  out.write("<service android:name=\"com.google.appinventor.components.runtime.util.BatchedDatabaseService\"></service> \n");
 	  out.write("<service android:name=\"com.google.appinventor.components.runtime.util.HttpsUploadService\"></service> \n");
 	  if(componentTypes.contains("Dropbox")){
 	    out.write("<service android:name=\"com.google.appinventor.components.runtime.DropboxUploadService\"></service> \n");	    
@@ -598,6 +615,7 @@ public final class Compiler {
 
 	  //add UploadServices and DataBaseService
 	  out.write("<service android:name=\"edu.mit.media.funf.storage.NameValueDatabaseService\"></service> \n");
+	  out.write("<service android:name=\"com.google.appinventor.components.runtime.util.BatchedDatabaseService\"></service> \n");
 	  out.write("<service android:name=\"com.google.appinventor.components.runtime.util.HttpsUploadService\"></service> \n");
 	  if(componentTypes.contains("Dropbox")){
 	    out.write("<service android:name=\"com.google.appinventor.components.runtime.DropboxUploadService\"></service> \n");	    
@@ -680,6 +698,7 @@ public final class Compiler {
    * @param userErrors stream to write user-visible error messages
    * @param keystoreFilePath
    * @param childProcessRam   maximum RAM for child processes, in MBs.
+   * @param job  the job whose progress is updated, or {@code null}
    * @return  {@code true} if the compilation succeeds, {@code false} otherwise
    * @throws JSONException
    * @throws IOException
@@ -687,12 +706,13 @@ public final class Compiler {
   public static boolean compile(Project project, Set<String> componentTypes,
                                 PrintStream out, PrintStream err, PrintStream userErrors,
                                 boolean isForCompanion, String keystoreFilePath,
-                                int childProcessRam, String dexCacheDir) throws IOException, JSONException {
+                                int childProcessRam, String dexCacheDir, BuildJob job)
+      throws IOException, JSONException {
     long start = System.currentTimeMillis();
 
     // Create a new compiler instance for the compilation
     Compiler compiler = new Compiler(project, componentTypes, out, err, userErrors, isForCompanion,
-                                     childProcessRam, dexCacheDir);
+                                     childProcessRam, dexCacheDir, job);
 
     // Get names of component-required libraries and assets.
     compiler.generateLibraryNames();
@@ -716,7 +736,7 @@ public final class Compiler {
     if (!compiler.prepareApplicationIcon(new File(drawableDir, "ya.png"))) {
       return false;
     }
-    setProgress(10);
+    compiler.setProgress(10);
 
     // Create anim directory and animation xml files
     out.println("________Creating animation xml");
@@ -738,7 +758,7 @@ public final class Compiler {
     if (permissionsNeeded == null) {
       return false;
     }
-    setProgress(15);
+    compiler.setProgress(15);
 
     // Generate AndroidManifest.xml
     out.println("________Generating manifest file");
@@ -746,7 +766,7 @@ public final class Compiler {
     if (!compiler.writeAndroidManifest(manifestFile, permissionsNeeded)) {
       return false;
     }
-    setProgress(20);
+    compiler.setProgress(20);
 
     // Insert native libraries
     out.println("________Attaching native libraries");
@@ -766,7 +786,7 @@ public final class Compiler {
     if (!compiler.generateClasses(classesDir)) {
       return false;
     }
-    setProgress(35);
+    compiler.setProgress(35);
 
     // Invoke dx on class files
     out.println("________Invoking DX");
@@ -790,7 +810,7 @@ public final class Compiler {
     if (!compiler.runDx(classesDir, dexedClassesDir, false)) {
       return false;
     }
-    setProgress(85);
+    compiler.setProgress(85);
 
     // Invoke aapt to package everything up
     out.println("________Invoking AAPT");
@@ -800,7 +820,7 @@ public final class Compiler {
     if (!compiler.runAaptPackage(manifestFile, resDir, tmpPackageName)) {
       return false;
     }
-    setProgress(90);
+    compiler.setProgress(90);
 
     // Seal the apk with ApkBuilder
     out.println("________Invoking ApkBuilder");
@@ -809,7 +829,7 @@ public final class Compiler {
     if (!compiler.runApkBuilder(apkAbsolutePath, tmpPackageName, dexedClassesDir)) {
       return false;
     }
-    setProgress(95);
+    compiler.setProgress(95);
 
     // Sign the apk file
     out.println("________Signing the apk file");
@@ -823,7 +843,7 @@ public final class Compiler {
       return false;
     }
 
-    setProgress(100);
+    compiler.setProgress(100);
 
     out.println("Build finished in " +
         ((System.currentTimeMillis() - start) / 1000.0) + " seconds");
@@ -968,11 +988,12 @@ public final class Compiler {
    * @param err  stderr stream for compiler messages
    * @param userErrors stream to write user-visible error messages
    * @param childProcessMaxRam  maximum RAM for child processes, in MBs.
+   * @param job  the job whose progress is updated, or {@code null}
    */
   @VisibleForTesting
   Compiler(Project project, Set<String> componentTypes, PrintStream out, PrintStream err,
            PrintStream userErrors, boolean isForCompanion,
-           int childProcessMaxRam, String dexCacheDir) {
+           int childProcessMaxRam, String dexCacheDir, BuildJob job) {
     this.project = project;
     this.componentTypes = componentTypes;
     this.out = out;
@@ -981,6 +1002,7 @@ public final class Compiler {
     this.isForCompanion = isForCompanion;
     this.childProcessRamMb = childProcessMaxRam;
     this.dexCacheDir = dexCacheDir;
+    this.job = job;
   }
 
   /*
@@ -1049,58 +1071,50 @@ public final class Compiler {
 
       System.out.println("Libraries Classpath = " + classpath);
 
-      String yailRuntime = getResource(YAIL_RUNTIME);
-      List<String> kawaCommandArgs = Lists.newArrayList();
-      int mx = childProcessRamMb - 200;
-      Collections.addAll(kawaCommandArgs,
-          System.getProperty("java.home") + "/bin/java",
-          "-mx" + mx + "M",
-          "-cp", classpath,
-          "kawa.repl",
-          "-f", yailRuntime,
-          "-d", classesDir.getAbsolutePath(),
-          "-P", Signatures.getPackageName(project.getMainClass()) + ".",
-          "-C");
-      // TODO(lizlooney) - we are currently using (and have always used) absolute paths for the
-      // source file names. The resulting .class files contain references to the source file names,
-      // including the name of the tmp directory that contains them. We may be able to avoid that
-      // by using source file names that are relative to the project root and using the project
-      // root as the working directory for the Kawa compiler process.
-      kawaCommandArgs.addAll(sourceFileNames);
-      kawaCommandArgs.add(yailRuntime);
-      String[] kawaCommandLine = kawaCommandArgs.toArray(new String[kawaCommandArgs.size()]);
-
-      long start = System.currentTimeMillis();
-      // Capture Kawa compiler stderr. The ODE server parses out the warnings and errors and adds
-      // them to the protocol buffer for logging purposes. (See
-      // buildserver/ProjectBuilder.processCompilerOutout.
-      ByteArrayOutputStream kawaOutputStream = new ByteArrayOutputStream();
-      boolean kawaSuccess;
-      synchronized (SYNC_KAWA_OR_DX) {
-        kawaSuccess = Execution.execute(null, kawaCommandLine,
-            System.out, new PrintStream(kawaOutputStream));
-      }
-      if (!kawaSuccess) {
-        LOG.log(Level.SEVERE, "Kawa compile has failed.");
+      if (incrementalBuildDir == null) {
+        return compileWithKawa(classesDir, classpath, sourceFileNames, classFileNames, true);
       }
-      String kawaOutput = kawaOutputStream.toString();
-      out.print(kawaOutput);
-      String kawaCompileTimeMessage = "Kawa compile time: " +
-          ((System.currentTimeMillis() - start) / 1000.0) + " seconds";
-      out.println(kawaCompileTimeMessage);
-      LOG.info(kawaCompileTimeMessage);
-
-      // Check that all of the class files were created.
-      // If they weren't, return with an error.
-      for (String classFileName : classFileNames) {
-        File classFile = new File(classFileName);
-        if (!classFile.exists()) {
-          LOG.log(Level.INFO, "Can't find class file: " + classFileName);
-          String screenName = classFileName.substring(classFileName.lastIndexOf('/') + 1,
-              classFileName.lastIndexOf('.'));
-          userErrors.print(String.format(COMPILATION_ERROR, screenName));
+
+      // Reuse the classes of screens whose YAIL did not change since the last build.
+      IncrementalBuildStore store = new IncrementalBuildStore(new File(incrementalBuildDir),
+          project.getMainClass(), getToolchainFingerprint());
+      store.evictOtherStores(incrementalBuildMaxBytes);
+      synchronized (store.getLock()) {
+        List<String> sourceFileNamesToCompile = Lists.newArrayList();
+        List<String> classFileNamesToCompile = Lists.newArrayList();
+        List<Project.SourceDescriptor> sourcesToCompile = Lists.newArrayList();
+        List<String> yailHashesToCompile = Lists.newArrayList();
+        List<String> screenNames = Lists.newArrayList();
+        for (int i = 0; i < sources.size(); i++) {
+          Project.SourceDescriptor source = sources.get(i);
+          String yailHash = IncrementalBuildStore.hashFile(source.getFile());
+          screenNames.add(source.getQualifiedName());
+          if (store.restoreScreen(source.getQualifiedName(), yailHash, classesDir)) {
+            out.println("Reusing classes of " + source.getQualifiedName());
+          } else {
+            sourceFileNamesToCompile.add(sourceFileNames.get(i));
+            classFileNamesToCompile.add(classFileNames.get(i));
+            sourcesToCompile.add(source);
+            yailHashesToCompile.add(yailHash);
+          }
+        }
+        store.retainScreens(screenNames);
+        boolean runtimeRestored = store.restoreRuntime(classesDir);
+        if (sourcesToCompile.isEmpty() && runtimeRestored) {
+          out.println("All classes reused, skipping Kawa compile");
+          return true;
+        }
+        if (!compileWithKawa(classesDir, classpath, sourceFileNamesToCompile,
+            classFileNamesToCompile, !runtimeRestored)) {
           return false;
         }
+        for (int i = 0; i < sourcesToCompile.size(); i++) {
+          store.saveScreen(sourcesToCompile.get(i).getQualifiedName(), yailHashesToCompile.get(i),
+              classesDir);
+        }
+        if (!runtimeRestored) {
+          store.saveRuntime(classesDir, screenNames);
+        }
       }
     } catch (IOException e) {
       e.printStackTrace();
@@ -1111,6 +1125,99 @@ public final class Compiler {
     return true;
   }
 
+  /*
+   * Runs the Kawa compiler on the given source files. The YAIL runtime is always loaded, but it
+   * is only compiled into classesDir if compileRuntime is true. Returns false if not able to
+   * create a class file for every source file.
+   */
+  private boolean compileWithKawa(File classesDir, String classpath, List<String> sourceFileNames,
+      List<String> classFileNames, boolean compileRuntime) {
+    String yailRuntime = getResource(YAIL_RUNTIME);
+    List<String> kawaCommandArgs = Lists.newArrayList();
+    int mx = childProcessRamMb - 200;
+    Collections.addAll(kawaCommandArgs,
+        System.getProperty("java.home") + "/bin/java",
+        "-mx" + mx + "M",
+        "-cp", classpath,
+        "kawa.repl",
+        "-f", yailRuntime,
+        "-d", classesDir.getAbsolutePath(),
+        "-P", Signatures.getPackageName(project.getMainClass()) + ".",
+        "-C");
+    // TODO(lizlooney) - we are currently using (and have always used) absolute paths for the
+    // source file names. The resulting .class files contain references to the source file names,
+    // including the name of the tmp directory that contains them. We may be able to avoid that
+    // by using source file names that are relative to the project root and using the project
+    // root as the working directory for the Kawa compiler process.
+    kawaCommandArgs.addAll(sourceFileNames);
+    if (compileRuntime) {
+      kawaCommandArgs.add(yailRuntime);
+    }
+    String[] kawaCommandLine = kawaCommandArgs.toArray(new String[kawaCommandArgs.size()]);
+
+    long start = System.currentTimeMillis();
+    // Capture Kawa compiler stderr. The ODE server parses out the warnings and errors and adds
+    // them to the protocol buffer for logging purposes. (See
+    // buildserver/ProjectBuilder.processCompilerOutout.
+    ByteArrayOutputStream kawaOutputStream = new ByteArrayOutputStream();
+    boolean kawaSuccess;
+    Semaphore permits = kawaOrDxPermits;
+    permits.acquireUninterruptibly();
+    try {
+      kawaSuccess = Execution.execute(null, kawaCommandLine,
+          System.out, new PrintStream(kawaOutputStream));
+    } finally {
+      permits.release();
+    }
+    if (!kawaSuccess) {
+      LOG.log(Level.SEVERE, "Kawa compile has failed.");
+    }
+    String kawaOutput = kawaOutputStream.toString();
+    out.print(kawaOutput);
+    String kawaCompileTimeMessage = "Kawa compile time: " +
+        ((System.currentTimeMillis() - start) / 1000.0) + " seconds";
+    out.println(kawaCompileTimeMessage);
+    LOG.info(kawaCompileTimeMessage);
+
+    // Check that all of the class files were created.
+    // If they weren't, return with an error.
+    for (String classFileName : classFileNames) {
+      File classFile = new File(classFileName);
+      if (!classFile.exists()) {
+        LOG.log(Level.INFO, "Can't find class file: " + classFileName);
+        String screenName = classFileName.substring(classFileName.lastIndexOf('/') + 1,
+            classFileName.lastIndexOf('.'));
+        userErrors.print(String.format(COMPILATION_ERROR, screenName));
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /*
+   * Returns a fingerprint of everything besides the YAIL that the compiled classes depend on.
+   */
+  private String getToolchainFingerprint() throws IOException {
+    StringBuilder fingerprint = new StringBuilder();
+    for (String resource : new String[] { YAIL_RUNTIME, KAWA_RUNTIME, ACRA_RUNTIME,
+        SIMPLE_ANDROID_RUNTIME_JAR, ANDROID_SUPPORT_V4_JAR, ANDROID_RUNTIME }) {
+      fingerprint.append(getResourceHash(resource)).append('\n');
+    }
+    for (String library : Sets.newTreeSet(librariesNeeded)) {
+      fingerprint.append(getResourceHash(RUNTIME_FILES_DIR + library)).append('\n');
+    }
+    return fingerprint.toString();
+  }
+
+  private static String getResourceHash(String resourcePath) throws IOException {
+    String hash = resourceHashes.get(resourcePath);
+    if (hash == null) {
+      hash = IncrementalBuildStore.hashFile(new File(getResource(resourcePath)));
+      resourceHashes.put(resourcePath, hash);
+    }
+    return hash;
+  }
+
   private boolean runJarSigner(String apkAbsolutePath, String keystoreAbsolutePath) {
     // TODO(user): maybe make a command line flag for the jarsigner location
     String javaHome = System.getProperty("java.home");
@@ -1275,6 +1382,7 @@ public final class Compiler {
     dexTask.setExecutable(getResource(DX_JAR));
     dexTask.setOutput(dexedClassesDir + File.separator + "classes.dex");
     dexTask.setChildProcessRamMb(childProcessRamMb);
+    dexTask.setWorkerPool(dexWorkerPool);
     if (dexCacheDir == null) {
       dexTask.setDisableDexMerger(true);
     } else {
@@ -1286,7 +1394,9 @@ public final class Compiler {
     // Using System.err and System.out on purpose. Don't want to pollute build messages with
     // tools output
     boolean dxSuccess;
-    synchronized (SYNC_KAWA_OR_DX) {
+    Semaphore permits = kawaOrDxPermits;
+    permits.acquireUninterruptibly();
+    try {
       setProgress(50);
       dxSuccess = dexTask.execute(inputList);
       if (dxSuccess && (class2List.size() > 0)) {
@@ -1296,23 +1406,20 @@ public final class Compiler {
         dxSuccess = dexTask.execute(class2List);
         setProgress(75);
         hasSecondDex = true;
-      } else if (!dxSuccess) {
-        // If we get into this block of code, it means that the Dexer
-        // returned an error. It *might* be because of overflowing the
-        // the fixed table of methods, but we cannot know that for
-        // sure so we try Dexing again, but this time we put all
-        // support libraries into classes2.dex. If this second pass
-        // fails, we return the error to the user.
-        LOG.info("DX execution failed, trying with fewer libraries.");
-        if (secondTry) {        // Already tried the more conservative approach!
-          LOG.warning("YAIL compiler - DX execution failed (secondTry!).");
-          err.println("YAIL compiler - DX execution failed.");
-          userErrors.print(String.format(ERROR_IN_STAGE, "DX"));
-          return false;
-        } else {
-          return runDx(classesDir, dexedClassesDir, true);
-        }
       }
+    } finally {
+      permits.release();
+    }
+    if (!dxSuccess && !secondTry) {
+      // If we get into this block of code, it means that the Dexer
+      // returned an error. It *might* be because of overflowing the
+      // the fixed table of methods, but we cannot know that for
+      // sure so we try Dexing again, but this time we put all
+      // support libraries into classes2.dex. If this second pass
+      // fails, we return the error to the user.
+      // Note that the permit is released first, so the second pass does not wait on itself.
+      LOG.info("DX execution failed, trying with fewer libraries.");
+      return runDx(classesDir, dexedClassesDir, true);
     }
     if (!dxSuccess) {
       LOG.warning("YAIL compiler - DX execution failed.");
@@ -1619,19 +1726,44 @@ public final class Compiler {
     return dir;
   }
 
-  private static int setProgress(int increments) {
-    Compiler.currentProgress = increments;
-    LOG.info("The current progress is "
-              + Compiler.currentProgress + "%");
-    return Compiler.currentProgress;
+  /**
+   * Sets the number of Kawa or DX invocations that may run at the same time, across all builds.
+   * Must be called before any build starts.
+   *
+   * @param max  the maximum number of simultaneous Kawa or DX invocations, at least 1
+   */
+  static void setMaxSimultaneousKawaOrDx(int max) {
+    kawaOrDxPermits = new Semaphore(Math.max(1, max), true);
   }
 
-  public static int getProgress() {
-    if (Compiler.currentProgress==100) {
-      Compiler.currentProgress = 10;
-      return 100;
-    } else {
-      return Compiler.currentProgress;
+  /**
+   * Enables incremental builds. The classes compiled for each screen are kept in the given
+   * directory, so that rebuilding a project only compiles the screens whose YAIL changed.
+   * Must be called before any build starts.
+   *
+   * @param dir  the directory to keep compiled classes in, or null to always compile everything
+   * @param maxBytes  the size the kept classes may take; the classes of the projects built least
+   *     recently are deleted beyond it
+   */
+  static void setIncrementalBuildDir(String dir, long maxBytes) {
+    incrementalBuildDir = dir;
+    incrementalBuildMaxBytes = maxBytes;
+  }
+
+  /**
+   * Makes DX run inside the build server process, using a pool of resident workers instead of
+   * launching a child process for every invocation. Must be called before any build starts.
+   *
+   * @param workers  the number of workers, or 0 to launch child processes
+   */
+  static void setInProcessDxWorkers(int workers) {
+    dexWorkerPool = workers > 0 ? new DexWorkerPool(new File(getResource(DX_JAR)), workers) : null;
+  }
+
+  private void setProgress(int progress) {
+    LOG.info("The current progress is " + progress + "%");
+    if (job != null) {
+      job.setProgress(progress);
     }
   }
 }
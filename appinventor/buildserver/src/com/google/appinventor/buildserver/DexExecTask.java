@@ -20,13 +20,18 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.HashMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
 import com.google.common.hash.HashCode;
 import com.google.common.hash.HashFunction;
 import com.google.common.hash.Hashing;
@@ -44,10 +49,25 @@ public class DexExecTask  {
     private boolean mNoLocals = false;
     private int mChildProcessRamMb = 1024;
     private boolean mDisableDexMerger = false;
-    private static Map<String, String> alreadyChecked = new HashMap<String, String>();
+    private DexWorkerPool mWorkerPool = null;
+    private static Map<String, String> alreadyChecked = new ConcurrentHashMap<String, String>();
 
     private static Object semaphore = new Object(); // Used to protect dex cache creation
 
+    // How long a failed merge of pre-dexed libraries is not tried again
+    private static final long MERGE_FAILURE_EXPIRATION_MILLIS = 60 * 60 * 1000;
+
+    // How many merged sets of pre-dexed libraries are kept in the cache. Projects that use
+    // different extensions each have their own set.
+    private static final int MAX_MERGED_LIBRARIES = 50;
+
+    // Merged libraries used this recently are never removed, since a build may be about to read
+    // them.
+    private static final long MERGED_LIBRARIES_MIN_IDLE_MILLIS = 60 * 60 * 1000;
+
+    // Protects the last use times of the merged libraries while they are being evicted
+    private static final Object mergedLibrariesLock = new Object();
+
 
     /**
      * Sets the value of the "executable" attribute.
@@ -93,6 +113,14 @@ public class DexExecTask  {
         mDisableDexMerger = disable;
     }
 
+    /**
+     * Sets the pool used to run dx inside this process. If not set, dx is run in a child process.
+     * @param workerPool the pool, or null.
+     */
+    public void setWorkerPool(DexWorkerPool workerPool) {
+        mWorkerPool = workerPool;
+    }
+
     private boolean preDexLibraries(List<File> inputs) {
         if (mDisableDexMerger || inputs.size() == 1) {
             // only one input, no need to put a pre-dexed version, even if this path is
@@ -100,45 +128,172 @@ public class DexExecTask  {
             return true;
         }
 
-        synchronized(semaphore) {
-
-            final int count = inputs.size();
-            boolean allSuccessful = true;
-            for (int i = 0 ; i < count; i++) {
-                File input = inputs.get(i);
-                if (input.isFile()) {
-                    // check if this libs needs to be pre-dexed
-                    String fileName = getDexFileName(input);
-                    File dexedLib = new File(mDexedLibs, fileName);
-                    String dexedLibPath = dexedLib.getAbsolutePath();
+        final int count = inputs.size();
+        boolean allSuccessful = true;
+        List<File> dexedLibs = new ArrayList<File>();
+        for (int i = 0 ; i < count; i++) {
+            File input = inputs.get(i);
+            if (input.isFile()) {
+                // check if this libs needs to be pre-dexed
+                String fileName = getDexFileName(input);
+                File dexedLib = new File(mDexedLibs, fileName);
+
+                if (!dexedLib.isFile()) {
+                    synchronized (semaphore) {
+                        // Another build may have pre-dexed it while we were waiting.
+                        if (!dexedLib.isFile()) {
+                            System.out.println(
+                                String.format("Pre-Dexing %1$s -> %2$s",
+                                  input.getAbsolutePath(), fileName));
+
+                            boolean dexSuccess =
+                                runDxIntoCache(Collections.singleton(input), dexedLib);
+                            allSuccessful = allSuccessful && dexSuccess;
+                        }
+                    }
+                } else {
+                    System.out.println(
+                        String.format("Using Pre-Dexed %1$s <- %2$s",
+                          fileName, input.getAbsolutePath()));
+                }
 
-                    if (dexedLib.isFile() == false/*||
-                                                    dexedLib.lastModified() < input.lastModified()*/) {
+                // replace the input with the pre-dex libs.
+                inputs.set(i, dexedLib);
+                dexedLibs.add(dexedLib);
+            }
+        }
 
-                        System.out.println(
-                            String.format("Pre-Dexing %1$s -> %2$s",
-                              input.getAbsolutePath(), fileName));
+        // Most projects use the same libraries, so also cache the result of merging the
+        // pre-dexed libraries together. Then each build only has to merge its own classes
+        // with a single dex file.
+        if (allSuccessful && dexedLibs.size() > 1) {
+            File mergedLibs = getMergedLibraries(dexedLibs);
+            if (mergedLibs != null) {
+                inputs.removeAll(dexedLibs);
+                inputs.add(mergedLibs);
+            }
+        }
+        return allSuccessful;
+    }
 
-                        if (dexedLib.isFile()) {
-                            dexedLib.delete();
+    /**
+     * Returns the cached dex file containing all of the given pre-dexed libraries, creating it
+     * if necessary. The names of pre-dexed libraries contain the hash of their content, so the
+     * cached file is named after the hash of those names.
+     *
+     * @return the merged dex file, or null if the libraries do not fit into one dex file
+     */
+    private File getMergedLibraries(List<File> dexedLibs) {
+        List<String> names = new ArrayList<String>();
+        for (File dexedLib : dexedLibs) {
+            names.add(dexedLib.getName());
+        }
+        Collections.sort(names);
+        String hashed = Hashing.md5().hashBytes(
+            Joiner.on(',').join(names).getBytes(Charsets.UTF_8)).toString();
+        File mergedLibs = new File(mDexedLibs, "dex-merged-" + hashed + ".jar");
+        // Remembers that the merge failed, so that it is not retried by every build. The failure
+        // may have been transient (out of memory, a full disk), so the merge is tried again once
+        // the marker has expired.
+        File mergeFailed = new File(mDexedLibs, "dex-merged-" + hashed + ".failed");
+
+        if (!mergedLibs.isFile() && !hasRecentlyFailed(mergeFailed)) {
+            synchronized (semaphore) {
+                if (!mergedLibs.isFile() && !hasRecentlyFailed(mergeFailed)) {
+                    System.out.println(String.format("Merging %1$d Pre-Dexed libraries -> %2$s",
+                        dexedLibs.size(), mergedLibs.getName()));
+                    if (runDxIntoCache(dexedLibs, mergedLibs)) {
+                        mergeFailed.delete();
+                    } else if (!Thread.currentThread().isInterrupted()) {
+                        try {
+                            // Also refreshes the time of an expired marker.
+                            Files.write(mergeFailed.toPath(), new byte[0]);
+                        } catch (IOException e) {
+                            e.printStackTrace();
                         }
-
-                        boolean dexSuccess = runDx(input, dexedLibPath, false /*showInput*/);
-                        allSuccessful = allSuccessful && dexSuccess;
-                    } else {
-                        System.out.println(
-                            String.format("Using Pre-Dexed %1$s <- %2$s",
-                              fileName, input.getAbsolutePath()));
                     }
+                    evictMergedLibraries();
+                }
+            }
+        }
+        synchronized (mergedLibrariesLock) {
+            // Records the use, so that the merged libraries used least recently are evicted first.
+            if (mergedLibs.isFile() && mergedLibs.setLastModified(System.currentTimeMillis())) {
+                return mergedLibs;
+            }
+        }
+        return null;
+    }
 
-                    // replace the input with the pre-dex libs.
-                    inputs.set(i, dexedLib);
+    /**
+     * Removes the expired failure markers from the cache, and the merged libraries used least
+     * recently once there are more than {@link #MAX_MERGED_LIBRARIES} of them.
+     */
+    private void evictMergedLibraries() {
+        synchronized (mergedLibrariesLock) {
+            File[] files = new File(mDexedLibs).listFiles();
+            if (files == null) {
+                return;
+            }
+            List<File> mergedLibraries = new ArrayList<File>();
+            for (File file : files) {
+                String name = file.getName();
+                if (!name.startsWith("dex-merged-")) {
+                    continue;
+                }
+                if (name.endsWith(".failed")) {
+                    if (!hasRecentlyFailed(file)) {
+                        file.delete();
+                    }
+                } else if (name.endsWith(".jar")) {
+                    mergedLibraries.add(file);
+                }
+            }
+            if (mergedLibraries.size() <= MAX_MERGED_LIBRARIES) {
+                return;
+            }
+            Collections.sort(mergedLibraries, new Comparator<File>() {
+                @Override
+                public int compare(File file1, File file2) {
+                    long lastModified1 = file1.lastModified();
+                    long lastModified2 = file2.lastModified();
+                    return lastModified1 < lastModified2 ? -1
+                        : (lastModified1 == lastModified2 ? 0 : 1);
+                }
+            });
+            long now = System.currentTimeMillis();
+            int excess = mergedLibraries.size() - MAX_MERGED_LIBRARIES;
+            for (int i = 0; i < excess; i++) {
+                File mergedLibrary = mergedLibraries.get(i);
+                if (now - mergedLibrary.lastModified() < MERGED_LIBRARIES_MIN_IDLE_MILLIS) {
+                    break;
                 }
+                System.out.println("Evicting Pre-Dexed libraries " + mergedLibrary.getName());
+                mergedLibrary.delete();
             }
-            return allSuccessful;
         }
     }
 
+    private static boolean hasRecentlyFailed(File marker) {
+        // lastModified() is 0 if the marker does not exist.
+        return System.currentTimeMillis() - marker.lastModified() < MERGE_FAILURE_EXPIRATION_MILLIS;
+    }
+
+    /**
+     * Runs dx and moves its output into the cache only once it is complete, so that other
+     * builds never see a partially written file.
+     */
+    private boolean runDxIntoCache(Collection<File> inputs, File cachedFile) {
+        // dx decides from the extension whether to write a jar, so keep the name's suffix.
+        File tmpFile = new File(mDexedLibs, "tmp-" + UUID.randomUUID() + "-" + cachedFile.getName());
+        boolean dxSuccess = runDx(inputs, tmpFile.getAbsolutePath(), false /*showInput*/);
+        if (dxSuccess && tmpFile.renameTo(cachedFile)) {
+            return true;
+        }
+        tmpFile.delete();
+        return false;
+    }
+
     private String getDexFileName(File inputFile) {
         // get the filename
         String name = inputFile.getName();
@@ -180,20 +335,11 @@ public class DexExecTask  {
         return runDx(paths, mOutput, mVerbose /*showInputs*/);
     }
 
-    private boolean runDx(File input, String output, boolean showInputs) {
-        return runDx(Collections.singleton(input), output, showInputs);
-    }
-
     private boolean runDx(Collection<File> inputs, String output, boolean showInputs) {
         int mx = mChildProcessRamMb - 200;
 
         List<String> commandLineList = new ArrayList<String>();
-        commandLineList.add(System.getProperty("java.home") + "/bin/java");
-        commandLineList.add("-mx" + mx + "M");
-        commandLineList.add("-jar");
-        commandLineList.add(mExecutable);
 
-        commandLineList.add("--dex");
         commandLineList.add("--positions=lines");
 
         if (mNoLocals) {
@@ -216,6 +362,16 @@ public class DexExecTask  {
             commandLineList.add(absPath);
         }
 
+        if (mWorkerPool != null) {
+            DexWorkerPool.Result result = mWorkerPool.run(commandLineList, mChildProcessRamMb);
+            if (result != DexWorkerPool.Result.NOT_RUN) {
+                return result == DexWorkerPool.Result.SUCCEEDED;
+            }
+        }
+        // If dx could not run in process, or its worker crashed, it runs in a child process.
+        commandLineList.addAll(0, Arrays.asList(System.getProperty("java.home") + "/bin/java",
+            "-mx" + mx + "M", "-jar", mExecutable, "--dex"));
+
         // Convert command line to an array
         String[] dxCommandLine = new String[commandLineList.size()];
         commandLineList.toArray(dxCommandLine);
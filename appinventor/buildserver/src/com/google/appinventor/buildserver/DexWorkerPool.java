@@ -0,0 +1,190 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver;
+
+import java.io.File;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A pool of dx instances that run inside the build server process.
+ *
+ * <p>The dx tool keeps its state in static fields, so each worker loads dx.jar in its own class
+ * loader, and a worker runs only one dx invocation at a time. Workers stay loaded between builds,
+ * which saves the JVM startup and lets the JIT compiled dx code be reused. dx resets most of its
+ * static fields itself at the start of a run; the ones it doesn't are reset by the worker.</p>
+ *
+ * <p>A worker is thrown away and replaced by a fresh one after it fails with an exception (for
+ * example an OutOfMemoryError) and after it has run a certain number of times, so that any state
+ * leaked by dx does not accumulate.</p>
+ *
+ * <p>The pool only runs dx when it can, and callers run dx in a child process otherwise, or when
+ * a worker crashes. If the dx.jar in use does not have the classes and fields the workers rely
+ * on, the pool disables itself. A run in which dx itself reports a failure is not repeated, since
+ * a child process would fail the same way.</p>
+ */
+final class DexWorkerPool {
+  // Logging support
+  private static final Logger LOG = Logger.getLogger(DexWorkerPool.class.getName());
+
+  private static final String DEXER_MAIN_CLASS = "com.android.dx.command.dexer.Main";
+  private static final String DEXER_ARGUMENTS_CLASS = DEXER_MAIN_CLASS + "$Arguments";
+
+  // The number of dx invocations after which a worker is replaced.
+  private static final int MAX_RUNS_PER_WORKER = 100;
+
+  private final URL dxJarUrl;
+  private final BlockingQueue<DexWorker> idleWorkers;
+
+  /**
+   * The outcome of {@link #run(List, int)}.
+   */
+  enum Result {
+    /** dx ran and succeeded. */
+    SUCCEEDED,
+    /** dx ran and reported a failure, for example because of a bad input. */
+    FAILED,
+    /** dx could not run in process, or its worker crashed; it should run in a child process. */
+    NOT_RUN
+  }
+
+  // Set when dx.jar can't be run in process, for example because a dx version renamed the
+  // static fields that the workers reset.
+  private volatile boolean disabled = false;
+
+  /**
+   * Creates a DexWorkerPool. The workers load dx.jar lazily, on their first use.
+   *
+   * @param dxJar  the dx.jar file
+   * @param size  the number of workers
+   */
+  DexWorkerPool(File dxJar, int size) {
+    try {
+      dxJarUrl = dxJar.toURI().toURL();
+    } catch (MalformedURLException e) {
+      throw new IllegalArgumentException(e);
+    }
+    idleWorkers = new ArrayBlockingQueue<DexWorker>(size);
+    for (int i = 0; i < size; i++) {
+      idleWorkers.add(new DexWorker());
+    }
+  }
+
+  /**
+   * Runs dx with the given arguments, waiting for an idle worker if necessary.
+   *
+   * <p>dx is not run if the pool is disabled or if the build server does not have the given
+   * amount of memory to spare, which is what a dx child process would be allowed to use.</p>
+   *
+   * @param dxArgs  the dexer arguments, for example --output=classes.dex followed by the inputs
+   * @param ramMb  the memory dx may need, in MBs
+   * @return  whether dx succeeded, failed, or could not run in process
+   */
+  Result run(List<String> dxArgs, int ramMb) {
+    if (disabled) {
+      return Result.NOT_RUN;
+    }
+    Runtime runtime = Runtime.getRuntime();
+    long spareMb =
+        (runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory())) / (1024 * 1024);
+    if (spareMb < ramMb) {
+      LOG.info("Not enough memory for in-process dx: " + spareMb + "MB spare, " + ramMb
+          + "MB needed");
+      return Result.NOT_RUN;
+    }
+    DexWorker worker;
+    try {
+      worker = idleWorkers.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return Result.NOT_RUN;
+    }
+    try {
+      worker.load();
+    } catch (ReflectiveOperationException e) {
+      LOG.log(Level.WARNING, "____In-process dx is not supported by this dx.jar: ", e);
+      disabled = true;
+      idleWorkers.add(worker);
+      return Result.NOT_RUN;
+    }
+    boolean healthy = false;
+    try {
+      int exitCode = worker.run(dxArgs.toArray(new String[dxArgs.size()]));
+      healthy = true;
+      return exitCode == 0 ? Result.SUCCEEDED : Result.FAILED;
+    } catch (Throwable t) {
+      // An OutOfMemoryError or an exception escaping dx, which doesn't tell about the input.
+      LOG.log(Level.WARNING, "____In-process dx crashed: ", t);
+      return Result.NOT_RUN;
+    } finally {
+      if (!healthy || worker.runCount >= MAX_RUNS_PER_WORKER) {
+        LOG.info("Replacing dx worker after " + worker.runCount + " runs");
+        worker = new DexWorker();
+      }
+      idleWorkers.add(worker);
+    }
+  }
+
+  private class DexWorker {
+    private Method parse;
+    private Method run;
+    private Constructor<?> argumentsConstructor;
+    private Field outputDex;
+    private Field dexOutputArrays;
+    private int runCount = 0;
+
+    int run(String[] args) throws Exception {
+      runCount++;
+      // Otherwise dx would try to write the dex file of the previous run again.
+      outputDex.set(null, null);
+      ((List<?>) dexOutputArrays.get(null)).clear();
+      try {
+        Object arguments = argumentsConstructor.newInstance();
+        parse.invoke(arguments, (Object) args);
+        return (Integer) run.invoke(null, arguments);
+      } catch (InvocationTargetException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof Exception) {
+          throw (Exception) cause;
+        } else if (cause instanceof Error) {
+          throw (Error) cause;
+        }
+        throw e;
+      }
+    }
+
+    // Does nothing if dx is already loaded.
+    void load() throws ReflectiveOperationException {
+      if (run != null) {
+        return;
+      }
+      // The parent is the bootstrap class loader, so dx does not see the build server classes.
+      ClassLoader classLoader = new URLClassLoader(new URL[] { dxJarUrl }, null);
+      Class<?> mainClass = classLoader.loadClass(DEXER_MAIN_CLASS);
+      Class<?> argumentsClass = classLoader.loadClass(DEXER_ARGUMENTS_CLASS);
+      argumentsConstructor = argumentsClass.getDeclaredConstructor();
+      argumentsConstructor.setAccessible(true);
+      parse = argumentsClass.getMethod("parse", String[].class);
+      outputDex = mainClass.getDeclaredField("outputDex");
+      outputDex.setAccessible(true);
+      dexOutputArrays = mainClass.getDeclaredField("dexOutputArrays");
+      dexOutputArrays.setAccessible(true);
+      // Set last, since it marks dx as loaded.
+      run = mainClass.getMethod("run", argumentsClass);
+    }
+  }
+}
@@ -14,6 +14,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.PrintStream;
 import java.io.PrintWriter;
 import java.util.logging.Level;
@@ -127,6 +128,8 @@ public final class Execution {
    * @param out  standard output stream to redirect to
    * @param err  standard error stream to redirect to
    * @return  the exit code of the process
+   * @throws InterruptedIOException if the calling thread is interrupted, in which case the
+   *     process is destroyed
    */
   public static int execute(File workingDir, String[] command, StringBuffer out,
       StringBuffer err) throws IOException {
@@ -139,7 +142,10 @@ public final class Execution {
       outThread.join();
       errThread.join();
     } catch (InterruptedException e) {
+      // Don't leave the process running if nobody is waiting for it anymore.
+      process.destroy();
       Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while executing " + command[0]);
     }
     return process.exitValue();
   }
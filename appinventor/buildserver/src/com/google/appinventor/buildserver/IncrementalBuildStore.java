@@ -0,0 +1,329 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * On-disk store of the classes compiled for each screen of a project, kept between builds so
+ * that a rebuild only runs Kawa on the screens whose YAIL changed.
+ *
+ * <p>The store of a project lives in a directory named after the hash of the project's main
+ * class, which includes the user name. It holds the compiled classes of each screen, keyed by
+ * the hash of the screen's YAIL, and the compiled YAIL runtime. Everything in the store is
+ * discarded when the toolchain fingerprint (the YAIL runtime, the Kawa and component jars and
+ * the component libraries) changes.</p>
+ *
+ * <p>Only the classes compiled from the latest YAIL of each screen are kept, and the classes of
+ * screens removed from the project are deleted. When all stores together grow beyond a size
+ * limit, the stores of the projects that were built least recently are deleted.</p>
+ *
+ * <p>Callers must hold {@link #getLock()} while using the store, so that two builds of the same
+ * project do not update it at the same time.</p>
+ */
+final class IncrementalBuildStore {
+  // Logging support
+  private static final Logger LOG = Logger.getLogger(IncrementalBuildStore.class.getName());
+
+  private static final String FINGERPRINT_FILE_NAME = "fingerprint";
+  private static final String SCREENS_DIR_NAME = "screens";
+  private static final String RUNTIME_DIR_NAME = "runtime";
+  private static final String CLASS_EXTENSION = ".class";
+
+  // Measuring the stores reads all of their directories, so it is done at most this often.
+  private static final long EVICTION_INTERVAL_MILLIS = 10 * 60 * 1000;
+  private static final AtomicLong lastEviction = new AtomicLong();
+
+  // Projects share a fixed number of locks, so that the locks don't grow with the number of
+  // projects ever built. Unrelated projects that share a lock only wait for each other.
+  private static final Object[] locks = new Object[64];
+  static {
+    for (int i = 0; i < locks.length; i++) {
+      locks[i] = new Object();
+    }
+  }
+
+  private final File projectDir;
+  private final String fingerprint;
+
+  /**
+   * Creates the store of a project.
+   *
+   * @param rootDir  the directory containing the stores of all projects
+   * @param mainClass  the qualified name of the project's main class
+   * @param fingerprint  identifies the toolchain the stored classes were compiled with
+   */
+  IncrementalBuildStore(File rootDir, String mainClass, String fingerprint) {
+    this.projectDir = new File(rootDir, hash(mainClass));
+    this.fingerprint = fingerprint;
+  }
+
+  /**
+   * Returns the object to synchronize on while using this store.
+   */
+  Object getLock() {
+    return getLock(projectDir);
+  }
+
+  private static Object getLock(File projectDir) {
+    int hash = projectDir.getAbsolutePath().hashCode();
+    return locks[(hash & Integer.MAX_VALUE) % locks.length];
+  }
+
+  /**
+   * Deletes the stored classes of the screens that are no longer part of the project, and
+   * records that the store was just used.
+   *
+   * @param screenQualifiedNames  the qualified names of the classes of all screens of the project
+   */
+  void retainScreens(Collection<String> screenQualifiedNames) {
+    File[] screenDirs = new File(projectDir, SCREENS_DIR_NAME).listFiles();
+    if (screenDirs != null) {
+      for (File screenDir : screenDirs) {
+        if (!screenQualifiedNames.contains(screenDir.getName())) {
+          FileUtils.deleteQuietly(screenDir);
+        }
+      }
+    }
+    if (projectDir.isDirectory()) {
+      projectDir.setLastModified(System.currentTimeMillis());
+    }
+  }
+
+  /**
+   * Deletes the stores of the least recently built other projects, until all stores together
+   * take at most the given number of bytes. Does nothing if this was done recently. Must not be
+   * called while holding the lock of a store.
+   */
+  void evictOtherStores(long maxBytes) {
+    long now = System.currentTimeMillis();
+    long last = lastEviction.get();
+    if (now - last < EVICTION_INTERVAL_MILLIS || !lastEviction.compareAndSet(last, now)) {
+      return;
+    }
+    evictStores(projectDir.getParentFile(), maxBytes, projectDir);
+  }
+
+  /*
+   * Deletes the least recently used stores in rootDir, except keepDir, until all stores
+   * together take at most maxBytes.
+   */
+  static void evictStores(File rootDir, long maxBytes, File keepDir) {
+    File[] projectDirs = rootDir.listFiles();
+    if (projectDirs == null) {
+      return;
+    }
+    long[] sizes = new long[projectDirs.length];
+    long totalSize = 0;
+    for (int i = 0; i < projectDirs.length; i++) {
+      sizes[i] = FileUtils.sizeOf(projectDirs[i]);
+      totalSize += sizes[i];
+    }
+    Integer[] order = new Integer[projectDirs.length];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    final long[] lastUsed = new long[projectDirs.length];
+    for (int i = 0; i < projectDirs.length; i++) {
+      lastUsed[i] = projectDirs[i].lastModified();
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        return lastUsed[a] < lastUsed[b] ? -1 : lastUsed[a] > lastUsed[b] ? 1 : 0;
+      }
+    });
+    for (int i = 0; i < order.length && totalSize > maxBytes; i++) {
+      File projectDir = projectDirs[order[i]];
+      if (projectDir.equals(keepDir)) {
+        continue;
+      }
+      synchronized (getLock(projectDir)) {
+        FileUtils.deleteQuietly(projectDir);
+      }
+      LOG.info("Evicted the incremental build store " + projectDir);
+      totalSize -= sizes[order[i]];
+    }
+  }
+
+  /**
+   * Copies the stored classes of the given screen into the classes directory, if they were
+   * compiled from the same YAIL.
+   *
+   * @param qualifiedName  the qualified name of the screen's class
+   * @param yailHash  the hash of the screen's YAIL
+   * @param classesDir  the directory the compiled classes go into
+   * @return {@code true} if the classes were restored, {@code false} if the screen needs to be
+   *     compiled
+   */
+  boolean restoreScreen(String qualifiedName, String yailHash, File classesDir) {
+    return restore(getScreenDir(qualifiedName, yailHash), classesDir);
+  }
+
+  /**
+   * Stores the classes of the given screen, replacing the ones compiled from any earlier YAIL.
+   */
+  void saveScreen(String qualifiedName, String yailHash, File classesDir) {
+    final String classPath = getClassPath(qualifiedName);
+    File screenDir = getScreenDir(qualifiedName, yailHash);
+    File[] staleDirs = screenDir.getParentFile().listFiles();
+    if (staleDirs != null) {
+      for (File staleDir : staleDirs) {
+        FileUtils.deleteQuietly(staleDir);
+      }
+    }
+    save(screenDir, classesDir, new ClassFilter() {
+      @Override
+      public boolean accept(String relativePath) {
+        return isClassOf(relativePath, classPath);
+      }
+    });
+  }
+
+  /**
+   * Copies the stored classes of the YAIL runtime into the classes directory.
+   *
+   * @return {@code true} if the classes were restored, {@code false} if the runtime needs to be
+   *     compiled
+   */
+  boolean restoreRuntime(File classesDir) {
+    return restore(new File(projectDir, RUNTIME_DIR_NAME), classesDir);
+  }
+
+  /**
+   * Stores the classes of the YAIL runtime, which are all classes that don't belong to one of
+   * the given screens.
+   */
+  void saveRuntime(File classesDir, final Collection<String> screenQualifiedNames) {
+    save(new File(projectDir, RUNTIME_DIR_NAME), classesDir, new ClassFilter() {
+      @Override
+      public boolean accept(String relativePath) {
+        for (String qualifiedName : screenQualifiedNames) {
+          if (isClassOf(relativePath, getClassPath(qualifiedName))) {
+            return false;
+          }
+        }
+        return true;
+      }
+    });
+  }
+
+  /**
+   * Returns the hash of the given file's content, used to key the stored classes.
+   */
+  static String hashFile(File file) throws IOException {
+    return Files.hash(file, Hashing.md5()).toString();
+  }
+
+  private boolean restore(File storedDir, File classesDir) {
+    if (!isFingerprintCurrent() || !storedDir.isDirectory()) {
+      return false;
+    }
+    try {
+      FileUtils.copyDirectory(storedDir, classesDir);
+      return true;
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Unable to restore classes from " + storedDir, e);
+      return false;
+    }
+  }
+
+  private void save(File storedDir, File classesDir, ClassFilter filter) {
+    // Write into a temporary directory first, so that a failed save never leaves an incomplete
+    // set of classes behind.
+    File tmpDir = new File(projectDir, "tmp-" + UUID.randomUUID());
+    try {
+      writeFingerprintIfNecessary();
+      copyClasses(classesDir, "", tmpDir, filter);
+      FileUtils.deleteDirectory(storedDir);
+      Files.createParentDirs(storedDir);
+      if (!tmpDir.renameTo(storedDir)) {
+        throw new IOException("Unable to rename " + tmpDir + " to " + storedDir);
+      }
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Unable to store classes in " + storedDir, e);
+    } finally {
+      FileUtils.deleteQuietly(tmpDir);
+    }
+  }
+
+  private static void copyClasses(File dir, String relativeDir, File toDir, ClassFilter filter)
+      throws IOException {
+    File[] files = dir.listFiles();
+    if (files == null) {
+      return;
+    }
+    for (File file : files) {
+      String relativePath = relativeDir + file.getName();
+      if (file.isDirectory()) {
+        copyClasses(file, relativePath + "/", toDir, filter);
+      } else if (relativePath.endsWith(CLASS_EXTENSION) && filter.accept(relativePath)) {
+        File toFile = new File(toDir, relativePath);
+        Files.createParentDirs(toFile);
+        Files.copy(file, toFile);
+      }
+    }
+  }
+
+  private boolean isFingerprintCurrent() {
+    File fingerprintFile = new File(projectDir, FINGERPRINT_FILE_NAME);
+    try {
+      return fingerprintFile.isFile()
+          && Files.toString(fingerprintFile, Charsets.UTF_8).equals(fingerprint);
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  private void writeFingerprintIfNecessary() throws IOException {
+    if (!isFingerprintCurrent()) {
+      // Classes compiled with another toolchain can't be reused.
+      FileUtils.deleteDirectory(projectDir);
+      File fingerprintFile = new File(projectDir, FINGERPRINT_FILE_NAME);
+      Files.createParentDirs(fingerprintFile);
+      Files.write(fingerprint, fingerprintFile, Charsets.UTF_8);
+    }
+  }
+
+  private File getScreenDir(String qualifiedName, String yailHash) {
+    return new File(new File(new File(projectDir, SCREENS_DIR_NAME), qualifiedName), yailHash);
+  }
+
+  private static String getClassPath(String qualifiedName) {
+    return qualifiedName.replace('.', '/');
+  }
+
+  /*
+   * Kawa compiles a screen into a class named after the screen plus nested classes.
+   */
+  private static boolean isClassOf(String relativePath, String classPath) {
+    return relativePath.equals(classPath + CLASS_EXTENSION)
+        || relativePath.startsWith(classPath + "$");
+  }
+
+  private static String hash(String s) {
+    return Hashing.md5().hashBytes(s.getBytes(Charsets.UTF_8)).toString();
+  }
+
+  private interface ClassFilter {
+    boolean accept(String relativePath);
+  }
+}
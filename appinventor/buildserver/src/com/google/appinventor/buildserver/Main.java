@@ -84,7 +84,8 @@ public final class Main {
                                          commandLineOptions.outputDir,
                                          commandLineOptions.isForCompanion,
                                          commandLineOptions.childProcessRamMb,
-                                         commandLineOptions.dexCacheDir);
+                                         commandLineOptions.dexCacheDir,
+                                         null);
     System.exit(result.getResult());
   }
 
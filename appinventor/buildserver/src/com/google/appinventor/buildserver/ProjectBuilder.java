@@ -29,6 +29,14 @@ import java.util.Collection;
 import java.util.Enumeration;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -53,6 +61,24 @@ public final class ProjectBuilder {
 
   private static final int MAX_COMPILER_MESSAGE_LENGTH = 160;
 
+  // Maximum time allowed for generating the YAIL of all the forms of a project, counted from when
+  // the build starts.
+  private static final long YAIL_GENERATION_TIMEOUT_MILLIS = 120 * 1000;
+
+  // Threads used to generate the YAIL for the forms of a project in parallel. The pool is shared
+  // by all builds so that the number of YailGenerator processes is bounded by the number of
+  // processors, regardless of how many builds are running.
+  private static final ExecutorService yailGenerationExecutor = Executors.newFixedThreadPool(
+      Runtime.getRuntime().availableProcessors(),
+      new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "YailGenerator");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+
   // Project folder prefixes
   // TODO(user): These constants are (or should be) also defined in
   // appengine/src/com/google/appinventor/server/project/youngandroid/YoungAndroidProjectService
@@ -113,7 +139,8 @@ public final class ProjectBuilder {
   }
 
   Result build(String userName, ZipFile inputZip, File outputDir, boolean isForCompanion,
-               int childProcessRam, String dexCachePath) {
+               int childProcessRam, String dexCachePath, BuildJob job) {
+    long yailDeadlineMillis = System.currentTimeMillis() + YAIL_GENERATION_TIMEOUT_MILLIS;
     try {
       // Download project files into a temporary directory
       File projectRoot = createNewTempDir();
@@ -128,7 +155,7 @@ public final class ProjectBuilder {
         }
 
         try {
-          genYailFilesIfNecessary(sourceFiles);
+          genYailFilesIfNecessary(sourceFiles, yailDeadlineMillis);
         } catch (YailGenerationException e) {
           // Note that we're using a special result code here for the case of a Yail gen error.
           return new Result(Result.YAIL_GENERATION_ERROR, "", e.getMessage(), e.getFormName());
@@ -163,7 +190,7 @@ public final class ProjectBuilder {
         // Invoke YoungAndroid compiler
         boolean success =
             Compiler.compile(project, componentTypes, console, console, userErrors, isForCompanion,
-                             keyStorePath, childProcessRam, dexCachePath);
+                             keyStorePath, childProcessRam, dexCachePath, job);
         console.close();
         userErrors.close();
 
@@ -202,7 +229,7 @@ public final class ProjectBuilder {
     }
   }
 
-  private void genYailFilesIfNecessary(List<String> sourceFiles)
+  private void genYailFilesIfNecessary(List<String> sourceFiles, long deadlineMillis)
       throws IOException, YailGenerationException {
     // Filter out the files that aren't really source files (i.e. that don't end in .scm or .yail)
     Collection<String> formAndYailSourceFiles = Collections2.filter(
@@ -213,17 +240,60 @@ public final class ProjectBuilder {
             return input.endsWith(FORM_PROPERTIES_EXTENSION) || input.endsWith(YAIL_EXTENSION);
           }
         });
-    for (String sourceFile : formAndYailSourceFiles) {
-      if (sourceFile.endsWith(FORM_PROPERTIES_EXTENSION)) {
-        String rootPath = sourceFile.substring(0, sourceFile.length()
-                                                  - FORM_PROPERTIES_EXTENSION.length());
-        String yailFilePath = rootPath + YAIL_EXTENSION;
-        // Note: Famous last words: The following contains() makes this method O(n**2) but n should
-        // be pretty small.
-        if (!sourceFiles.contains(yailFilePath)) {
-          generateYail(rootPath);
+    Set<String> existingFiles = Sets.newHashSet(formAndYailSourceFiles);
+    List<Future<File>> generatedYailFiles = Lists.newArrayList();
+    List<String> formNames = Lists.newArrayList();
+    try {
+      for (String sourceFile : formAndYailSourceFiles) {
+        if (sourceFile.endsWith(FORM_PROPERTIES_EXTENSION)) {
+          final String rootPath = sourceFile.substring(0, sourceFile.length()
+                                                          - FORM_PROPERTIES_EXTENSION.length());
+          String yailFilePath = rootPath + YAIL_EXTENSION;
+          if (!existingFiles.contains(yailFilePath)) {
+            // Generate the YAIL of all forms in parallel.
+            generatedYailFiles.add(yailGenerationExecutor.submit(new Callable<File>() {
+              @Override
+              public File call() throws IOException, YailGenerationException {
+                return generateYail(rootPath);
+              }
+            }));
+            formNames.add(PathUtil.trimOffExtension(PathUtil.basename(sourceFile)));
+          }
         }
       }
+      for (int i = 0; i < generatedYailFiles.size(); i++) {
+        waitForYail(generatedYailFiles.get(i), formNames.get(i), deadlineMillis);
+      }
+    } finally {
+      // If one form failed, there is no point in finishing the others.
+      for (Future<File> generatedYailFile : generatedYailFiles) {
+        generatedYailFile.cancel(true);
+      }
+    }
+  }
+
+  private static File waitForYail(Future<File> generatedYailFile, String formName,
+      long deadlineMillis) throws IOException, YailGenerationException {
+    try {
+      // A form that is already done is returned even if the deadline has passed.
+      long remainingMillis = Math.max(deadlineMillis - System.currentTimeMillis(), 0);
+      return generatedYailFile.get(remainingMillis, TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      throw new YailGenerationException("Timed out generating code for " + formName + ".",
+          formName);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while generating code for " + formName, e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof YailGenerationException) {
+        throw (YailGenerationException) cause;
+      } else if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new RuntimeException(cause);
     }
   }
 
@@ -413,7 +483,7 @@ public final class ProjectBuilder {
     return new Project(projectRoot.getAbsolutePath() + "/" + PROJECT_PROPERTIES_FILE_NAME);
   }
 
-  private File generateYail(String rootName) throws IOException, YailGenerationException {
+  private static File generateYail(String rootName) throws IOException, YailGenerationException {
     String formPropertiesPath = rootName + FORM_PROPERTIES_EXTENSION;
     String codeblocksSourcePath = rootName + CODEBLOCKS_SOURCE_EXTENSION;
     String yailPath = rootName + YAIL_EXTENSION;
@@ -469,8 +539,4 @@ public final class ProjectBuilder {
       return formName;
     }
   }
-
-  public int getProgress() {
-    return Compiler.getProgress();
-  }
 }
@@ -0,0 +1,49 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests BuildJob class.
+ */
+public class BuildJobTest extends TestCase {
+
+  public void testJobsHaveTheirOwnProgress() {
+    BuildJob job1 = BuildJob.create();
+    BuildJob job2 = BuildJob.create();
+    assertFalse(job1.getId().equals(job2.getId()));
+    job1.started();
+    job1.setProgress(35);
+    assertSame(job1, BuildJob.get(job1.getId()));
+    assertEquals(35, BuildJob.get(job1.getId()).getProgress());
+    assertEquals(BuildJob.State.BUILDING, job1.getState());
+    assertEquals(0, BuildJob.get(job2.getId()).getProgress());
+    assertEquals(BuildJob.State.QUEUED, job2.getState());
+    job1.remove();
+    job2.remove();
+  }
+
+  public void testUnknownJob() {
+    assertNull(BuildJob.get("no-such-job"));
+    assertNull(BuildJob.get(null));
+  }
+
+  public void testFinishedJobsExpire() {
+    BuildJob running = BuildJob.create();
+    BuildJob finished = BuildJob.create();
+    finished.finished();
+    assertEquals(100, finished.getProgress());
+    assertEquals(BuildJob.State.DONE, finished.getState());
+
+    long later = System.currentTimeMillis() + BuildJob.RETENTION_MILLIS + 1000;
+    BuildJob.expire(later);
+    assertNull(BuildJob.get(finished.getId()));
+    assertSame(running, BuildJob.get(running.getId()));
+    running.remove();
+    assertNull(BuildJob.get(running.getId()));
+  }
+}
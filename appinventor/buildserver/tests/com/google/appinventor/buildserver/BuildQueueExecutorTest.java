@@ -0,0 +1,167 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests BuildQueueExecutor class.
+ */
+public class BuildQueueExecutorTest extends TestCase {
+  private static final long SMALL_PROJECT_BYTES = 1000;
+  private static final long MAX_PRIORITY_WAIT_MILLIS = 60000;
+
+  public void testAdditionalTaskIsRejected() throws Exception {
+    // Create the BuildQueueExecutor with capacity 10 and no queue.
+    int maxCapacity = 10;
+    BuildQueueExecutor executor = new BuildQueueExecutor(maxCapacity, 0,
+        SMALL_PROJECT_BYTES, MAX_PRIORITY_WAIT_MILLIS);
+
+    // Execute the maximum number of tasks, which will all wait until I notify them via the signal.
+    CountDownLatch signal = new CountDownLatch(1);
+    for (int i = 0; i < maxCapacity; i++) {
+      executor.execute(new TaskThatWaitsForSignal(signal));
+    }
+
+    // Now the executor should be at maximum capacity.
+    assertEquals(maxCapacity, executor.getActiveTaskCount());
+
+    // Try to execute another task. We expect it to be rejected.
+    try {
+      executor.execute(new TaskThatDoesNothing());
+      fail();
+    } catch (RejectedExecutionException e) {
+      // expected
+    }
+
+    // Notify the signal so the active tasks can complete.
+    signal.countDown();
+  }
+
+  public void testAdditionalTaskIsQueued() throws Exception {
+    BuildQueueExecutor executor = new BuildQueueExecutor(1, 2,
+        SMALL_PROJECT_BYTES, MAX_PRIORITY_WAIT_MILLIS);
+
+    CountDownLatch signal = new CountDownLatch(1);
+    assertEquals(0, executor.execute(new TaskThatWaitsForSignal(signal), "a", 0));
+    assertEquals(1, executor.execute(new TaskThatDoesNothing(), "b", 0));
+    assertEquals(2, executor.execute(new TaskThatDoesNothing(), "c", 0));
+    assertEquals(2, executor.getQueuedTaskCount());
+
+    // The queue is full now.
+    try {
+      executor.execute(new TaskThatDoesNothing(), "d", 0);
+      fail();
+    } catch (RejectedExecutionException e) {
+      // expected
+    }
+
+    // Once the active task completes, the queued tasks run.
+    signal.countDown();
+    waitForCompletedTasks(executor, 3);
+    assertEquals(0, executor.getQueuedTaskCount());
+  }
+
+  public void testQueueOrder() throws Exception {
+    BuildQueueExecutor executor = new BuildQueueExecutor(1, 10,
+        SMALL_PROJECT_BYTES, MAX_PRIORITY_WAIT_MILLIS);
+    List<String> order = Collections.synchronizedList(new ArrayList<String>());
+
+    CountDownLatch signal = new CountDownLatch(1);
+    executor.execute(new TaskThatWaitsForSignal(signal), "busy", 0);
+    // Big projects go after small projects, even if they arrived first.
+    executor.execute(new TaskThatRecords(order, "busy-big"), "busy", SMALL_PROJECT_BYTES + 1);
+    executor.execute(new TaskThatRecords(order, "idle-big"), "idle1", SMALL_PROJECT_BYTES + 1);
+    executor.execute(new TaskThatRecords(order, "idle-small-1"), "idle2", SMALL_PROJECT_BYTES);
+    executor.execute(new TaskThatRecords(order, "idle-small-2"), "idle3", 0);
+
+    signal.countDown();
+    waitForCompletedTasks(executor, 5);
+    assertEquals(4, order.size());
+    // Once the busy user's first build completes, that user is no longer busy, so its big
+    // project is ordered with the other big project by arrival.
+    assertEquals("idle-small-1", order.get(0));
+    assertEquals("idle-small-2", order.get(1));
+    assertEquals("busy-big", order.get(2));
+    assertEquals("idle-big", order.get(3));
+  }
+
+  public void testFairnessBetweenUsers() throws Exception {
+    BuildQueueExecutor executor = new BuildQueueExecutor(2, 10,
+        SMALL_PROJECT_BYTES, MAX_PRIORITY_WAIT_MILLIS);
+    List<String> order = Collections.synchronizedList(new ArrayList<String>());
+
+    CountDownLatch signalA = new CountDownLatch(1);
+    CountDownLatch signalB = new CountDownLatch(1);
+    executor.execute(new TaskThatWaitsForSignal(signalA), "a", 0);
+    executor.execute(new TaskThatWaitsForSignal(signalB), "b", 0);
+    executor.execute(new TaskThatRecords(order, "a"), "a", 0);
+    executor.execute(new TaskThatRecords(order, "c"), "c", 0);
+
+    // When user b's build finishes, user a still has a build running, so user c goes first.
+    signalB.countDown();
+    for (int i = 0; i < 500 && order.isEmpty(); i++) {
+      Thread.sleep(10);
+    }
+    assertEquals("c", order.get(0));
+
+    signalA.countDown();
+    waitForCompletedTasks(executor, 4);
+    assertEquals("a", order.get(1));
+  }
+
+  private static void waitForCompletedTasks(BuildQueueExecutor executor, int count)
+      throws InterruptedException {
+    for (int i = 0; i < 500 && executor.getCompletedTaskCount() < count; i++) {
+      Thread.sleep(10);
+    }
+    assertEquals(count, executor.getCompletedTaskCount());
+  }
+
+  private static class TaskThatWaitsForSignal implements Runnable {
+    private final CountDownLatch signal;
+    private TaskThatWaitsForSignal(CountDownLatch signal) {
+      this.signal = signal;
+    }
+
+    @Override
+    public void run() {
+      try {
+        // Wait for the signal.
+        signal.await(10, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        // ignored
+      }
+    }
+  }
+
+  private static class TaskThatRecords implements Runnable {
+    private final List<String> order;
+    private final String name;
+    private TaskThatRecords(List<String> order, String name) {
+      this.order = order;
+      this.name = name;
+    }
+
+    @Override
+    public void run() {
+      order.add(name);
+    }
+  }
+
+  private static class TaskThatDoesNothing implements Runnable {
+    @Override
+    public void run() {
+    }
+  }
+}
@@ -21,12 +21,12 @@ public class CompilerTest extends TestCase {
   public void testGeneratePermissions() throws Exception {
     Set<String> noComponents = Sets.newHashSet();
     Compiler compiler = new Compiler(null, noComponents, System.out, System.err, System.err, false,
-                                     2048, null);
+                                     2048, null, null);
     assertTrue("Permissions for no components not empty. (It should be empty!)",
         compiler.generatePermissions().isEmpty());
 
     Set<String> componentTypes = Sets.newHashSet("LocationSensor");
-    compiler = new Compiler(null, componentTypes, System.out, System.err, System.err, false, 2048, null);
+    compiler = new Compiler(null, componentTypes, System.out, System.err, System.err, false, 2048, null, null);
     Set<String> permissions = compiler.generatePermissions();
     assertEquals(4, permissions.size());
     assertTrue(permissions.contains(
@@ -0,0 +1,141 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests IncrementalBuildStore class.
+ */
+public class IncrementalBuildStoreTest extends TestCase {
+  private static final String MAIN_CLASS = "appinventor.ai_test.HelloPurr.Screen1";
+  private static final String SCREEN2 = "appinventor.ai_test.HelloPurr.Screen2";
+
+  private File rootDir;
+  private File classesDir;
+
+  @Override
+  protected void setUp() throws Exception {
+    rootDir = Files.createTempDir();
+    classesDir = Files.createTempDir();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    FileUtils.deleteDirectory(rootDir);
+    FileUtils.deleteDirectory(classesDir);
+  }
+
+  public void testRestoreScreen() throws Exception {
+    IncrementalBuildStore store = new IncrementalBuildStore(rootDir, MAIN_CLASS, "toolchain");
+    writeClass("appinventor/ai_test/HelloPurr/Screen1.class");
+    writeClass("appinventor/ai_test/HelloPurr/Screen1$frame.class");
+    writeClass("appinventor/ai_test/HelloPurr/Screen2.class");
+    writeClass("com/google/youngandroid/runtime.class");
+    store.saveScreen(MAIN_CLASS, "hash1", classesDir);
+    store.saveRuntime(classesDir, ImmutableList.of(MAIN_CLASS, SCREEN2));
+
+    FileUtils.cleanDirectory(classesDir);
+    assertTrue(store.restoreScreen(MAIN_CLASS, "hash1", classesDir));
+    assertTrue(store.restoreRuntime(classesDir));
+    assertTrue(new File(classesDir, "appinventor/ai_test/HelloPurr/Screen1.class").isFile());
+    assertTrue(new File(classesDir, "appinventor/ai_test/HelloPurr/Screen1$frame.class").isFile());
+    assertTrue(new File(classesDir, "com/google/youngandroid/runtime.class").isFile());
+    // Screen2 was never saved, and doesn't belong to the runtime.
+    assertFalse(new File(classesDir, "appinventor/ai_test/HelloPurr/Screen2.class").exists());
+  }
+
+  public void testChangedYailIsNotRestored() throws Exception {
+    IncrementalBuildStore store = new IncrementalBuildStore(rootDir, MAIN_CLASS, "toolchain");
+    writeClass("appinventor/ai_test/HelloPurr/Screen1.class");
+    store.saveScreen(MAIN_CLASS, "hash1", classesDir);
+    store.saveScreen(MAIN_CLASS, "hash2", classesDir);
+
+    assertFalse(store.restoreScreen(MAIN_CLASS, "hash1", classesDir));
+    assertTrue(store.restoreScreen(MAIN_CLASS, "hash2", classesDir));
+  }
+
+  public void testChangedToolchainIsNotRestored() throws Exception {
+    IncrementalBuildStore store = new IncrementalBuildStore(rootDir, MAIN_CLASS, "toolchain");
+    writeClass("appinventor/ai_test/HelloPurr/Screen1.class");
+    store.saveScreen(MAIN_CLASS, "hash1", classesDir);
+
+    store = new IncrementalBuildStore(rootDir, MAIN_CLASS, "new toolchain");
+    assertFalse(store.restoreScreen(MAIN_CLASS, "hash1", classesDir));
+  }
+
+  public void testProjectsAreSeparate() throws Exception {
+    IncrementalBuildStore store = new IncrementalBuildStore(rootDir, MAIN_CLASS, "toolchain");
+    writeClass("appinventor/ai_test/HelloPurr/Screen1.class");
+    store.saveScreen(MAIN_CLASS, "hash1", classesDir);
+
+    store = new IncrementalBuildStore(rootDir, "appinventor.ai_other.HelloPurr.Screen1",
+        "toolchain");
+    assertFalse(store.restoreScreen(MAIN_CLASS, "hash1", classesDir));
+  }
+
+  public void testRemovedScreensAreDeleted() throws Exception {
+    IncrementalBuildStore store = new IncrementalBuildStore(rootDir, MAIN_CLASS, "toolchain");
+    writeClass("appinventor/ai_test/HelloPurr/Screen1.class");
+    writeClass("appinventor/ai_test/HelloPurr/Screen2.class");
+    store.saveScreen(MAIN_CLASS, "hash1", classesDir);
+    store.saveScreen(SCREEN2, "hash2", classesDir);
+
+    store.retainScreens(ImmutableList.of(MAIN_CLASS));
+    assertTrue(store.restoreScreen(MAIN_CLASS, "hash1", classesDir));
+    assertFalse(store.restoreScreen(SCREEN2, "hash2", classesDir));
+  }
+
+  public void testLeastRecentlyUsedStoresAreEvicted() throws Exception {
+    writeClass("appinventor/ai_test/HelloPurr/Screen1.class");
+    String[] mainClasses = {
+        "appinventor.ai_a.HelloPurr.Screen1",
+        "appinventor.ai_b.HelloPurr.Screen1",
+        "appinventor.ai_c.HelloPurr.Screen1"
+    };
+    IncrementalBuildStore[] stores = new IncrementalBuildStore[mainClasses.length];
+    File[] projectDirs = new File[mainClasses.length];
+    List<File> seen = new ArrayList<File>();
+    for (int i = 0; i < mainClasses.length; i++) {
+      stores[i] = new IncrementalBuildStore(rootDir, mainClasses[i], "toolchain");
+      stores[i].saveScreen(MAIN_CLASS, "hash1", classesDir);
+      for (File projectDir : rootDir.listFiles()) {
+        if (!seen.contains(projectDir)) {
+          projectDirs[i] = projectDir;
+          seen.add(projectDir);
+        }
+      }
+    }
+    long storeSize = FileUtils.sizeOf(projectDirs[0]);
+    // Store 2 was used first, then store 1, then store 0, but store 2 is being built again.
+    long now = System.currentTimeMillis();
+    projectDirs[0].setLastModified(now - 10000);
+    projectDirs[1].setLastModified(now - 20000);
+    projectDirs[2].setLastModified(now - 30000);
+
+    IncrementalBuildStore.evictStores(rootDir, storeSize * 2, projectDirs[2]);
+    assertTrue(stores[0].restoreScreen(MAIN_CLASS, "hash1", classesDir));
+    assertFalse(stores[1].restoreScreen(MAIN_CLASS, "hash1", classesDir));
+    assertTrue(stores[2].restoreScreen(MAIN_CLASS, "hash1", classesDir));
+  }
+
+  private void writeClass(String relativePath) throws IOException {
+    File file = new File(classesDir, relativePath);
+    Files.createParentDirs(file);
+    Files.write(relativePath, file, Charsets.UTF_8);
+  }
+}
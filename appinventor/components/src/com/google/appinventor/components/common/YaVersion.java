@@ -449,8 +449,25 @@ public class YaVersion {
   // - CLOCK_COMPONENT_VERSION was incremented to 3
   // For YOUNG_ANDROID_VERSION 179 (mit-cml/master YaVersion 150):
   // - IMAGE_COMPONENT_VERSION was incremented to 3
-
-  public static final int YOUNG_ANDROID_VERSION = 179;
+  // For YOUNG_ANDROID_VERSION 180:
+  // - LINKED_DATA_COMPONENT_VERSION was incremented to 4.
+  // For YOUNG_ANDROID_VERSION 181:
+  // - LINKED_DATA_COMPONENT_VERSION was incremented to 5.
+  // For YOUNG_ANDROID_VERSION 182:
+  // - LINKED_DATA_COMPONENT_VERSION was incremented to 6.
+  // For YOUNG_ANDROID_VERSION 183:
+  // - LINKED_DATA_COMPONENT_VERSION was incremented to 7.
+  // For YOUNG_ANDROID_VERSION 184:
+  // - LINKED_DATA_COMPONENT_VERSION was incremented to 8.
+  // - LINKED_DATA_LISTPICKER_COMPONENT_VERSION was incremented to 4.
+  // For YOUNG_ANDROID_VERSION 185:
+  // - SENSORDB_COMPONENT_VERSION was incremented to 2.
+  // For YOUNG_ANDROID_VERSION 186:
+  // - CANVAS_COMPONENT_VERSION was incremented to 11.
+  // For YOUNG_ANDROID_VERSION 187:
+  // - WEB_COMPONENT_VERSION was incremented to 5.
+
+  public static final int YOUNG_ANDROID_VERSION = 187;
 
   // ............................... Blocks Language Version Number ...............................
 
@@ -653,7 +670,9 @@ public class YaVersion {
   // - DrawCircle has new fourth parameter (for isFilled), due to Evan Thomas
   // For CANVAS_COMPONENT_VERSION 10:
   // - The default value of the TextAlignment property was changed to Component.ALIGNMENT_CENTER
-  public static final int CANVAS_COMPONENT_VERSION = 10;
+  // For CANVAS_COMPONENT_VERSION 11:
+  // - The FrameRate property was added.
+  public static final int CANVAS_COMPONENT_VERSION = 11;
 
   // For CHECKBOX_COMPONENT_VERSION 2:
   // - The Value property was renamed to Checked.
@@ -1071,7 +1090,10 @@ public class YaVersion {
   // - PUT and DELETE Actions added (PutText, PutTextWithEncoding, PutFile, and Delete).
   // For WEB_COMPONENT_VERSION 4:
   // - Added method XMLTextDecode
-  public static final int WEB_COMPONENT_VERSION = 4;
+  // For WEB_COMPONENT_VERSION 5:
+  // - The PendingRequests, ActiveCalls, QueuedCalls, CompletedCalls and RejectedCalls
+  //   properties were added.
+  public static final int WEB_COMPONENT_VERSION = 5;
 
   // For WEBVIEWER_COMPONENT_VERSION 2:
   // - The CanGoForward and CanGoBack methods were added
@@ -1090,7 +1112,20 @@ public class YaVersion {
   // - Renamed SemanticWeb component to LinkedData component
   // For LINKED_DATA_COMPONENT_VERSION 3:
   // - Removed BaseURL property eclipsed by FormID on Linked Data Form
-  public static final int LINKED_DATA_COMPONENT_VERSION = 3;
+  // For LINKED_DATA_COMPONENT_VERSION 4:
+  // - ExecuteLocalSPARQLQuery method was added
+  // For LINKED_DATA_COMPONENT_VERSION 5:
+  // - LocalStore property was added
+  // For LINKED_DATA_COMPONENT_VERSION 6:
+  // - SyncDataToWeb method was added
+  // - SyncProgress, FinishedSyncingDataToWeb and FailedToSyncDataToWeb events were added
+  // - PendingDataCount and UpdateBatchSize properties were added
+  // For LINKED_DATA_COMPONENT_VERSION 7:
+  // - ExecutePagedSPARQLQuery and RetrieveNextResultsPage methods were added
+  // - RetrievedResultsPage event was added
+  // For LINKED_DATA_COMPONENT_VERSION 8:
+  // - CacheDuration, CacheSize, CacheHits and CacheMisses properties were added
+  public static final int LINKED_DATA_COMPONENT_VERSION = 8;
 
   public static final int LD_COMPONENT_VERSION = 1;
   // For MEDIASTORE_COMPONENT_VERSION 1:
@@ -1139,7 +1174,9 @@ public class YaVersion {
   // - Renamed SemanticWebListPicker to LinkedDataListPicker
   // For LINKED_DATA_LISTPICKER_COMPONENT_VERSION_3:
   // - Added RelationToObject property
-  public static final int LINKED_DATA_LISTPICKER_COMPONENT_VERSION = 3;
+  // For LINKED_DATA_LISTPICKER_COMPONENT_VERSION_4:
+  // - Added CacheDuration, CacheHits and CacheMisses properties
+  public static final int LINKED_DATA_LISTPICKER_COMPONENT_VERSION = 4;
 
   // For SEMANTIC_FORM_COMPONENT_VERSION 1:
   // - Initial version.
@@ -1161,7 +1198,10 @@ public class YaVersion {
   
   public static final int SMSLOGHISTORY_COMPONENT_VERSION = 1;
 
-  public static final int  SENSORDB_COMPONENT_VERSION = 1;
+  // For SENSORDB_COMPONENT_VERSION 2:
+  // - SetWriteBuffer method was added
+  // - WriteBufferSize and WriteBufferInterval properties were added
+  public static final int  SENSORDB_COMPONENT_VERSION = 2;
     
   public static final int CONTACTINFO_COMPONENT_VERSION = 1;	
 
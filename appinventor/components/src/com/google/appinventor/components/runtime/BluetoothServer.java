@@ -114,7 +114,7 @@ public final class BluetoothServer extends BluetoothConnectionBase {
       return;
     }
 
-    AsynchUtil.runAsynchronously(new Runnable() {
+    AsynchUtil.runInNewThread(new Runnable() {
       public void run() {
         Object acceptedBluetoothSocket = null;
 
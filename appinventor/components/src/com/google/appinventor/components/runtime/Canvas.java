@@ -24,8 +24,11 @@ import com.google.appinventor.components.runtime.collect.Sets;
 import com.google.appinventor.components.runtime.util.BoundingBox;
 import com.google.appinventor.components.runtime.util.ErrorMessages;
 import com.google.appinventor.components.runtime.util.FileUtil;
+import com.google.appinventor.components.runtime.util.JellybeanUtil;
 import com.google.appinventor.components.runtime.util.MediaUtil;
 import com.google.appinventor.components.runtime.util.PaintUtil;
+import com.google.appinventor.components.runtime.util.SdkLevel;
+import com.google.appinventor.components.runtime.util.SpatialGrid;
 
 import android.app.Activity;
 import android.content.Context;
@@ -36,6 +39,8 @@ import android.graphics.PorterDuff;
 import android.graphics.Rect;
 import android.graphics.RectF;
 import android.graphics.drawable.BitmapDrawable;
+import android.os.Handler;
+import android.os.SystemClock;
 import android.text.TextUtils;
 import android.util.Log;
 import android.view.GestureDetector;
@@ -47,9 +52,15 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -95,7 +106,8 @@ import java.util.Set;
 @SimpleObject
 @UsesPermissions(permissionNames = "android.permission.INTERNET," +
                  "android.permission.WRITE_EXTERNAL_STORAGE")
-public final class Canvas extends AndroidViewComponent implements ComponentContainer {
+public final class Canvas extends AndroidViewComponent implements ComponentContainer,
+    OnDestroyListener {
   private static final String LOG_TAG = "Canvas";
 
   private final Activity context;
@@ -111,6 +123,7 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
   private int backgroundColor;
   private String backgroundImagePath = "";
   private int textAlignment;
+  private int frameRate = DEFAULT_FRAME_RATE;
 
   // Default values
   private static final int MIN_WIDTH_HEIGHT = 1;
@@ -119,17 +132,52 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
   private static final int DEFAULT_BACKGROUND_COLOR = Component.COLOR_WHITE;
   private static final int DEFAULT_TEXTALIGNMENT = Component.ALIGNMENT_CENTER;
   private static final int FLING_INTERVAL = 1000;  // ms
+  private static final int DEFAULT_FRAME_RATE = 0;  // sprites use their own timers
+  private static final int MAX_FRAME_RATE = 120;
+
+  // The width and height of the cells of spriteIndex, about the size of a
+  // typical sprite.
+  private static final int SPRITE_INDEX_CELL_SIZE = 64;
 
   // Keep track of enclosed sprites.  This list should always be
   // sorted by increasing sprite.Z().
   private final List<Sprite> sprites;
 
+  // The position of each sprite in sprites, used to put sprites found through
+  // spriteIndex in the same order.
+  private final Map<Sprite, Integer> spriteOrder;
+
+  // Grid of the bounding boxes of the sprites, so that collisions and
+  // touches only need to be checked against nearby sprites.  It is updated
+  // whenever a sprite registers a change.
+  private final SpatialGrid<Sprite> spriteIndex;
+
+  private final Comparator<Sprite> zOrder = new Comparator<Sprite>() {
+    @Override
+    public int compare(Sprite sprite1, Sprite sprite2) {
+      return spriteOrder.get(sprite1) - spriteOrder.get(sprite2);
+    }
+  };
+
   // Handle touches and drags
   private final MotionEventParser motionEventParser;
 
   // Handle fling events
   private final GestureDetector mGestureDetector;
 
+  // Move the sprites once per frame when FrameRate is non-zero
+  private final FrameScheduler frameScheduler;
+
+  // The region of the view, in device pixels, that each sprite was last
+  // drawn on, so that only that region needs to be redrawn when the sprite
+  // changes.
+  private final Map<Sprite, Rect> spriteRects = new HashMap<Sprite, Rect>();
+
+  // While a frame is being processed, the region of the view that needs to
+  // be redrawn at its end.
+  private boolean inFrame;
+  private final Rect frameDirty = new Rect();
+
   // The canvas has built-in detectors that trigger on touch, drag, touchDown,
   // TouchUp and Fling gestures.  It also maintains a set of additional gesture detectors
   // that can respond to motion events. These detectors
@@ -203,10 +251,11 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
     private static final int HALF_FINGER_HEIGHT = FINGER_HEIGHT / 2;
 
     /**
-     * The set of sprites encountered in a touch or drag sequence.  Checks are
-     * only made for sprites at the endpoints of each drag.
+     * The set of sprites encountered in a touch or drag sequence, in the
+     * order they were encountered.  Checks are only made for sprites at the
+     * endpoints of each drag.
      */
-    private final List<Sprite> draggedSprites = new ArrayList<Sprite>();
+    private final Set<Sprite> draggedSprites = new LinkedHashSet<Sprite>();
 
     // startX and startY hold the coordinates of where a touch/drag started
     private static final int UNSET = -1;
@@ -251,7 +300,7 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
           lastY = y;
           drag = false;
           isDrag = false;
-          for (Sprite sprite : sprites) {
+          for (Sprite sprite : spritesNear(rect)) {
             if (sprite.Enabled() && sprite.Visible() && sprite.intersectsWith(rect)) {
               draggedSprites.add(sprite);
               sprite.TouchDown(startX, startY);
@@ -278,7 +327,7 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
 
           // Update draggedSprites by adding any that are currently being
           // touched.
-          for (Sprite sprite : sprites) {
+          for (Sprite sprite : spritesNear(rect)) {
             if (!draggedSprites.contains(sprite)
                 && sprite.Enabled() && sprite.Visible()
                 && sprite.intersectsWith(rect)) {
@@ -342,6 +391,78 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
     }
   }
 
+  /**
+   * Moves all sprites of the Canvas together, once per frame, instead of
+   * each sprite moving on its own timer.  On devices that support it, frames
+   * are started by the display's {@link android.view.Choreographer}, so that
+   * sprites move in step with the screen refresh; otherwise a
+   * {@link Handler} is used.  A frame is only run once 1000 / FrameRate
+   * milliseconds have passed since the previous one.
+   */
+  class FrameScheduler implements Runnable {
+    // Frames may run this many ms early, so that a rate that divides the
+    // display refresh rate is not thrown off by jitter.
+    private static final int FRAME_SLACK = 4;
+
+    private final Handler handler = new Handler();
+    private boolean running = false;
+    // Whether a call of run() is pending
+    private boolean scheduled = false;
+    private long lastFrameTime;
+
+    void start() {
+      if (running) {
+        return;
+      }
+      running = true;
+      lastFrameTime = SystemClock.uptimeMillis();
+      schedule();
+    }
+
+    void stop() {
+      running = false;
+      if (!usesChoreographer()) {
+        handler.removeCallbacks(this);
+        scheduled = false;
+      }
+      // A pending frame callback finds running false and does nothing.
+    }
+
+    private boolean usesChoreographer() {
+      return SdkLevel.getLevel() >= SdkLevel.LEVEL_JELLYBEAN;
+    }
+
+    private void schedule() {
+      if (scheduled) {
+        return;
+      }
+      scheduled = true;
+      if (usesChoreographer()) {
+        JellybeanUtil.postFrameCallback(this);
+      } else {
+        handler.postDelayed(this, 1000 / frameRate);
+      }
+    }
+
+    @Override
+    public void run() {
+      scheduled = false;
+      if (!running) {
+        return;
+      }
+      long now = SystemClock.uptimeMillis();
+      long elapsed = now - lastFrameTime;
+      if (elapsed + FRAME_SLACK >= 1000 / frameRate) {
+        lastFrameTime = now;
+        runFrame(elapsed);
+      }
+      // The frame may have stopped the scheduler, e.g. by setting FrameRate.
+      if (running) {
+        schedule();
+      }
+    }
+  }
+
   /**
    * Panel for drawing and manipulating sprites.
    *
@@ -361,10 +482,13 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
     // to null whenever the canvas size or backgroundDrawable changes.
     private Bitmap scaledBackgroundBitmap;
 
-    // completeCache is created if the user calls getPixelColor().  It is set
-    // back to null whenever the view is redrawn.  If available, it is used
-    // when the Canvas is saved to a file.
-    private Bitmap completeCache;
+    // pixel is a one pixel bitmap on which getPixelColor() composites the
+    // layers of the view at the requested point, through pixelCanvas.
+    private Bitmap pixel;
+    private android.graphics.Canvas pixelCanvas;
+
+    // Reused by onDraw() to hold the region being redrawn
+    private final Rect clipBounds = new Rect();
 
     public CanvasView(Context context) {
       super(context);
@@ -398,8 +522,6 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
 
     @Override
     public void onDraw(android.graphics.Canvas canvas0) {
-      completeCache = null;
-
       // This will draw the background image and color, if present.
       super.onDraw(canvas0);
 
@@ -409,8 +531,13 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
 
       // sprites is sorted by Z level, so sprites with low Z values will be
       // drawn first, potentially being hidden by Sprites with higher Z values.
+      // Sprites outside the region being redrawn are skipped.
+      boolean clipped = canvas0.getClipBounds(clipBounds);
       for (Sprite sprite : sprites) {
-        sprite.onDraw(canvas0);
+        Rect rect = spriteRects.get(sprite);
+        if (!clipped || rect == null || Rect.intersects(clipBounds, rect)) {
+          sprite.onDraw(canvas0);
+        }
       }
       drawn = true;
     }
@@ -598,7 +725,9 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
       canvas.rotate(-angle, x, y);
       canvas.drawText(text, x, y, paint);
       canvas.restore();
-      invalidate();
+      // The rotated text lies within its length of the origin.
+      float reach = paint.measureText(text) + paint.getFontSpacing();
+      invalidateDrawing(x - reach, y - reach, x + reach, y + reach);
     }
 
     // This intentionally ignores sprites.
@@ -650,37 +779,46 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
         return Component.COLOR_NONE;
       }
 
-      // If the cache isn't available, try to avoid rebuilding it.
-      if (completeCache == null) {
-        // If there are no visible sprites, just call getBackgroundPixelColor().
-        boolean anySpritesVisible = false;
-        for (Sprite sprite : sprites) {
-          if (sprite.Visible()) {
-            anySpritesVisible = true;
-            break;
-          }
+      // Find the visible sprites that may have been drawn on (x, y).  Sprites
+      // are placed in density-independent pixels, while (x, y) is in device
+      // pixels.
+      float density = $form().deviceDensity();
+      BoundingBox point = new BoundingBox(x / density, y / density, x / density, y / density);
+      List<Sprite> spritesAtPoint = new ArrayList<Sprite>();
+      for (Sprite sprite : spritesNear(point)) {
+        if (sprite.Visible() && drawnBox(sprite).intersectDestructively(point)) {
+          spritesAtPoint.add(sprite);
         }
-        if (!anySpritesVisible) {
-          return getBackgroundPixelColor(x, y);
-        }
-
-        // TODO(user): If needed for efficiency, check whether there are any
-        // sprites overlapping (x, y).  If not, we can just call getBackgroundPixelColor().
-        // If so, maybe we can just draw those sprites instead of building a full
-        // cache of the view.
+      }
 
-        completeCache = buildCache();
+      // If there are none, just call getBackgroundPixelColor().
+      if (spritesAtPoint.isEmpty()) {
+        return getBackgroundPixelColor(x, y);
       }
 
-      // Check the complete cache.
+      // Otherwise draw the background, the drawing layer and those sprites
+      // at (x, y) only, rather than building a cache of the whole view.
+      if (pixel == null) {
+        pixel = Bitmap.createBitmap(1, 1, Bitmap.Config.ARGB_8888);
+        pixelCanvas = new android.graphics.Canvas(pixel);
+      }
+      pixel.eraseColor(Color.TRANSPARENT);
+      pixelCanvas.save();
       try {
-        return completeCache.getPixel(x, y);
-      } catch (IllegalArgumentException e) {
-        // This should never occur, since we have checked bounds.
-        Log.e(LOG_TAG,
-            String.format("Returning COLOR_NONE (exception) from getPixelColor."));
-        return Component.COLOR_NONE;
+        pixelCanvas.translate(-x, -y);
+        Drawable background = getBackground();
+        if (background != null) {
+          background.setBounds(0, 0, getWidth(), getHeight());
+          background.draw(pixelCanvas);
+        }
+        pixelCanvas.drawBitmap(bitmap, 0, 0, null);
+        for (Sprite sprite : spritesAtPoint) {
+          sprite.onDraw(pixelCanvas);
+        }
+      } finally {
+        pixelCanvas.restore();
       }
+      return pixel.getPixel(0, 0);
     }
   }
 
@@ -703,8 +841,13 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
     FontSize(Component.FONT_DEFAULT_SIZE);
 
     sprites = new LinkedList<Sprite>();
+    spriteOrder = new HashMap<Sprite, Integer>();
+    spriteIndex = new SpatialGrid<Sprite>(SPRITE_INDEX_CELL_SIZE);
     motionEventParser = new MotionEventParser();
     mGestureDetector = new GestureDetector(context, new FlingGestureListener());
+    frameScheduler = new FrameScheduler();
+
+    container.$form().registerForOnDestroy(this);
   }
 
   @Override
@@ -755,15 +898,16 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
     // ordered by creation time.  While we don't wish to guarantee
     // this behavior going forward, it does provide consistency
     // with how things worked before Z layering was added.
-    for (int i = 0; i < sprites.size(); i++) {
-      if (sprites.get(i).Z() > sprite.Z()) {
-        sprites.add(i, sprite);
-        return;
+    int i = 0;
+    for (Sprite other : sprites) {
+      if (other.Z() > sprite.Z()) {
+        break;
       }
+      i++;
     }
-
-    // Add to end if it has the highest Z value.
-    sprites.add(sprite);
+    // This adds to the end if it has the highest Z value.
+    sprites.add(i, sprite);
+    updateSpriteOrder();
   }
 
   /**
@@ -773,6 +917,54 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
    */
   void removeSprite(Sprite sprite) {
     sprites.remove(sprite);
+    spriteIndex.remove(sprite);
+    Rect rect = spriteRects.remove(sprite);
+    if (rect != null) {
+      view.invalidate(rect);
+    }
+    updateSpriteOrder();
+  }
+
+  private void updateSpriteOrder() {
+    spriteOrder.clear();
+    int i = 0;
+    for (Sprite sprite : sprites) {
+      spriteOrder.put(sprite, i++);
+    }
+  }
+
+  /**
+   * Records the current bounds of a sprite, so that it is found by
+   * collision, touch and pixel checks near its new location, and the region
+   * it is drawn on is known.  This is called for every change of a sprite,
+   * including those made before the sprite is initialized.
+   *
+   * @param sprite the sprite whose location or size may have changed
+   */
+  void updateSpriteIndex(Sprite sprite) {
+    if (spriteOrder.containsKey(sprite)) {
+      // The drawn region holds the bounding box with a border of 1 used to
+      // check collisions.
+      spriteIndex.put(sprite, drawnBox(sprite));
+      spriteRects.put(sprite, drawnBounds(sprite));
+    }
+  }
+
+  /**
+   * Returns the sprites whose bounding boxes may intersect the given
+   * rectangle, ordered by increasing Z value like {@link #sprites}.
+   *
+   * @param rect the rectangle
+   * @return the sprites near the rectangle
+   */
+  private List<Sprite> spritesNear(BoundingBox rect) {
+    return sortByZ(spriteIndex.query(rect));
+  }
+
+  private List<Sprite> sortByZ(Collection<Sprite> candidates) {
+    List<Sprite> result = new ArrayList<Sprite>(candidates);
+    Collections.sort(result, zOrder);
+    return result;
   }
 
   /**
@@ -784,6 +976,7 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
   void changeSpriteLayer(Sprite sprite) {
     removeSprite(sprite);
     addSprite(sprite);
+    updateSpriteIndex(sprite);
     view.invalidate();
   }
 
@@ -826,10 +1019,111 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
    * @param sprite the sprite whose location, size, or appearance has changed
    */
   void registerChange(Sprite sprite) {
-    view.invalidate();
+    Rect before = spriteRects.get(sprite);
+    updateSpriteIndex(sprite);
+    Rect after = spriteRects.get(sprite);
+    if (after == null) {
+      // The sprite is not on this Canvas.
+      view.invalidate();
+    } else {
+      // Redraw where the sprite was and where it is now.
+      Rect dirty = new Rect(after);
+      if (before != null) {
+        dirty.union(before);
+      }
+      invalidateRect(dirty);
+    }
     findSpriteCollisions(sprite);
   }
 
+  /**
+   * Redraws a region of the view, at the end of the current frame if one is
+   * being processed.
+   *
+   * @param dirty the region, in device pixels
+   */
+  private void invalidateRect(Rect dirty) {
+    if (inFrame) {
+      frameDirty.union(dirty);
+    } else {
+      view.invalidate(dirty);
+    }
+  }
+
+  /**
+   * Redraws the region of the view changed by a drawing call, given in
+   * device pixels, allowing for the width of the lines and anti-aliasing.
+   */
+  private void invalidateDrawing(float left, float top, float right, float bottom) {
+    float border = paint.getStrokeWidth() / 2 + 2;
+    invalidateRect(new Rect((int) Math.floor(left - border), (int) Math.floor(top - border),
+        (int) Math.ceil(right + border), (int) Math.ceil(bottom + border)));
+  }
+
+  /**
+   * Moves all sprites by the time that has passed since the previous frame,
+   * then checks the moved sprites for collisions and edges, and finally
+   * redraws the part of the view they covered before and after moving.
+   *
+   * @param elapsed the number of milliseconds since the previous frame
+   */
+  private void runFrame(long elapsed) {
+    List<Sprite> moved = new ArrayList<Sprite>();
+    // Event handlers may add or remove sprites, so iterate over a copy.
+    for (Sprite sprite : new ArrayList<Sprite>(sprites)) {
+      if (sprite.advanceFrame(elapsed)) {
+        moved.add(sprite);
+      }
+    }
+    if (moved.isEmpty()) {
+      return;
+    }
+    inFrame = true;
+    frameDirty.setEmpty();
+    try {
+      for (Sprite sprite : moved) {
+        // This raises EdgeReached and the collision events, and calls
+        // registerChange(Sprite) above.
+        sprite.registerChange();
+      }
+    } finally {
+      inFrame = false;
+    }
+    if (!frameDirty.isEmpty()) {
+      view.invalidate(frameDirty);
+    }
+  }
+
+  /**
+   * Returns the region of the Canvas that a sprite may draw on.  This is
+   * larger than the bounding box, so that it also holds sprites drawn
+   * rotated.
+   *
+   * @param sprite the sprite
+   * @return the region the sprite may cover
+   */
+  private static BoundingBox drawnBox(Sprite sprite) {
+    int border = Math.max(sprite.Width(), sprite.Height()) / 2 + 1;
+    return sprite.getBoundingBox(border);
+  }
+
+  /**
+   * Returns the region of the view, in device pixels, that a sprite may
+   * have drawn on.  This is larger than the bounding box, so that it also
+   * holds sprites drawn rotated.
+   *
+   * @param sprite the sprite
+   * @return the region the sprite may cover
+   */
+  private Rect drawnBounds(Sprite sprite) {
+    float density = $form().deviceDensity();
+    BoundingBox box = drawnBox(sprite);
+    return new Rect((int) Math.floor(box.getLeft() * density),
+        (int) Math.floor(box.getTop() * density),
+        (int) Math.ceil((box.getRight() + 1) * density),
+        (int) Math.ceil((box.getBottom() + 1) * density));
+  }
+
 
   // Methods for detecting collisions
 
@@ -846,10 +1140,17 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
    * and
    * {@link com.google.appinventor.components.runtime.Sprite#Enabled()}.
    *
+   * Only the sprites near the moved sprite and those it was colliding with
+   * are examined.
+   *
    * @param movedSprite the sprite that has just changed position
    */
   protected void findSpriteCollisions(Sprite movedSprite) {
-    for (Sprite sprite : sprites) {
+    Set<Sprite> candidates = spriteIndex.query(movedSprite.getBoundingBox(1));
+    candidates.addAll(movedSprite.registeredCollisions());
+    // Ignore sprites that have been removed from this Canvas.
+    candidates.retainAll(spriteOrder.keySet());
+    for (Sprite sprite : sortByZ(candidates)) {
       if (sprite != movedSprite) {
         // Check whether we already raised an event for their collision.
         if (movedSprite.CollidingWith(sprite)) {
@@ -1114,6 +1415,48 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
   }
 
 
+  /**
+   * Returns the number of frames per second in which the sprites are moved,
+   * or 0 if each sprite is moved by its own timer.
+   *
+   * @return the frame rate
+   */
+  @SimpleProperty(description = "The number of times per second that all " +
+      "sprites on the canvas are moved together, or 0 to move each sprite on its " +
+      "own timer.  Sprites still move Speed pixels every Interval milliseconds, " +
+      "but their moves, collisions and redrawing are handled once per frame, " +
+      "which keeps animations smooth when there are many sprites.",
+      category = PropertyCategory.BEHAVIOR)
+  public int FrameRate() {
+    return frameRate;
+  }
+
+  /**
+   * Specifies the number of frames per second in which the sprites are
+   * moved, or 0 to move each sprite by its own timer.
+   *
+   * @param rate the frame rate, at most 120
+   */
+  @DesignerProperty(editorType = PropertyTypeConstants.PROPERTY_TYPE_NON_NEGATIVE_INTEGER,
+      defaultValue = DEFAULT_FRAME_RATE + "")
+  @SimpleProperty
+  public void FrameRate(int rate) {
+    rate = Math.max(0, Math.min(rate, MAX_FRAME_RATE));
+    boolean scheduled = rate > 0;
+    if (scheduled != (frameRate > 0)) {
+      for (Sprite sprite : sprites) {
+        sprite.frameScheduled(scheduled);
+      }
+    }
+    frameRate = rate;
+    if (scheduled) {
+      frameScheduler.start();
+    } else {
+      frameScheduler.stop();
+    }
+  }
+
+
   // Methods supporting event handling
 
   /**
@@ -1228,7 +1571,7 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
     float correctedX = x * $form().deviceDensity();
     float correctedY = y * $form().deviceDensity();
     view.canvas.drawPoint(correctedX, correctedY, paint);
-    view.invalidate();
+    invalidateDrawing(correctedX, correctedY, correctedX, correctedY);
   }
 
  /**
@@ -1247,7 +1590,8 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
     Paint p = new Paint(paint);
     p.setStyle(fill ? Paint.Style.FILL : Paint.Style.STROKE);
     view.canvas.drawCircle(correctedX, correctedY, correctedR, p);
-    view.invalidate();
+    invalidateDrawing(correctedX - correctedR, correctedY - correctedR,
+        correctedX + correctedR, correctedY + correctedR);
   }
 
   /**
@@ -1265,7 +1609,8 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
     float correctedX2 = x2 * $form().deviceDensity();
     float correctedY2 = y2 * $form().deviceDensity();
     view.canvas.drawLine(correctedX1, correctedY1, correctedX2, correctedY2, paint);
-    view.invalidate();
+    invalidateDrawing(Math.min(correctedX1, correctedX2), Math.min(correctedY1, correctedY2),
+        Math.max(correctedX1, correctedX2), Math.max(correctedY1, correctedY2));
   }
 
   /**
@@ -1284,7 +1629,12 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
     float correctedX = x * fontScalingFactor;
     float correctedY = y * fontScalingFactor;
     view.canvas.drawText(text, correctedX, correctedY, paint);
-    view.invalidate();
+    // Depending on TextAlignment, the text extends up to its width on
+    // either side of x.
+    float width = paint.measureText(text);
+    Paint.FontMetrics metrics = paint.getFontMetrics();
+    invalidateDrawing(correctedX - width, correctedY + metrics.top,
+        correctedX + width, correctedY + metrics.bottom);
   }
 
   /**
@@ -1338,7 +1688,7 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
     int correctedX = (int) (x * $form().deviceDensity());
     int correctedY = (int) (y * $form().deviceDensity());
     view.canvas.drawPoint(correctedX, correctedY, pixelPaint);
-    view.invalidate();
+    view.invalidate(correctedX, correctedY, correctedX + 1, correctedY + 1);
   }
 
   /**
@@ -1426,7 +1776,7 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
       boolean success = false;
       FileOutputStream fos = new FileOutputStream(file);
       // Don't cache, in order to save memory.  It seems unlikely to be used again soon.
-      Bitmap bitmap = (view.completeCache == null ? view.buildCache() : view.completeCache);
+      Bitmap bitmap = view.buildCache();
       try {
         success = bitmap.compress(format,
             100,  // quality: ignored for png
@@ -1477,7 +1827,7 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
 
       boolean spriteHandledFling = false;
 
-      for (Sprite sprite : sprites) {
+      for (Sprite sprite : spritesNear(rect)) {
         if (sprite.Enabled() && sprite.Visible() &&
             sprite.intersectsWith(rect)) {
           sprite.Flung(x, y, speed, heading, vx, vy);
@@ -1488,5 +1838,11 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
       return true;
     }
   }
-}
 
+  // OnDestroyListener implementation
+
+  @Override
+  public void onDestroy() {
+    frameScheduler.stop();
+  }
+}
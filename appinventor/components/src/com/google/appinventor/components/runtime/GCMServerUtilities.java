@@ -39,6 +39,9 @@ public final class GCMServerUtilities {
 
     private static final int MAX_ATTEMPTS = 5;
     private static final int BACKOFF_MILLI_SECONDS = 2000;
+    // Time after which a post to the server fails, so that the calls making
+    // them, retries included, do not hold a thread of the pool indefinitely.
+    static final int POST_TIMEOUT_MILLIS = 15000;
     private static final Random random = new Random();
     
     private static final String TAG = "GCMServerUtilities";
@@ -186,6 +189,8 @@ public final class GCMServerUtilities {
         try {
             conn = (HttpURLConnection) url.openConnection();
             Log.v(TAG, "After open the Http URL connection");
+            conn.setConnectTimeout(POST_TIMEOUT_MILLIS);
+            conn.setReadTimeout(POST_TIMEOUT_MILLIS);
             conn.setDoOutput(true);
             conn.setUseCaches(false);
             conn.setFixedLengthStreamingMode(bytes.length);
@@ -607,6 +607,17 @@ public class GameClient extends AndroidNonvisibleComponent
       }});
   }
 
+  /*
+   * Runs a request to the game server asynchronously, or signals a
+   * WebServiceError if too many requests of this component are already
+   * waiting.
+   */
+  private void runAsynchronously(String functionName, Runnable request) {
+    if (!AsynchUtil.runAsynchronously(this, AsynchUtil.PRIORITY_NORMAL, request)) {
+      WebServiceError(functionName, "Too many requests are waiting to be sent to the server.");
+    }
+  }
+
   //----------------------------------------------------------------
   // Functions
 
@@ -620,7 +631,7 @@ public class GameClient extends AndroidNonvisibleComponent
                 "InstancesInvited lists. This procedure can be called " +
                 "before setting the InstanceId.")
   public void GetInstanceLists() {
-    AsynchUtil.runAsynchronously(new Runnable() {
+    runAsynchronously("GetInstanceLists", new Runnable() {
         public void run() { postGetInstanceLists(); }});
   }
 
@@ -704,7 +715,7 @@ public class GameClient extends AndroidNonvisibleComponent
   @SimpleFunction(
       description = "Retrieves messages of the specified type.")
   public void GetMessages(final String type, final int count) {
-    AsynchUtil.runAsynchronously(new Runnable() {
+    runAsynchronously("GetMessages", new Runnable() {
       public void run() { postGetMessages(type, count); }});
   }
 
@@ -773,7 +784,7 @@ public class GameClient extends AndroidNonvisibleComponent
   @SimpleFunction(
       description = "Invites a player to this game instance.")
   public void Invite(final String playerEmail) {
-    AsynchUtil.runAsynchronously(new Runnable() {
+    runAsynchronously("Invite", new Runnable() {
       public void run() { postInvite(playerEmail); }});
   }
 
@@ -829,7 +840,7 @@ public class GameClient extends AndroidNonvisibleComponent
    */
   @SimpleFunction(description = "Leaves the current instance.")
   public void LeaveInstance() {
-    AsynchUtil.runAsynchronously(new Runnable() {
+    runAsynchronously("LeaveInstance", new Runnable() {
       public void run() {
         postLeaveInstance();
       }
@@ -880,7 +891,7 @@ public class GameClient extends AndroidNonvisibleComponent
   @SimpleFunction(description = "Asks the server to create a new " +
                 "instance of this game.")
   public void MakeNewInstance(final String instanceId, final boolean makePublic) {
-    AsynchUtil.runAsynchronously(new Runnable() {
+    runAsynchronously("MakeNewInstance", new Runnable() {
       public void run() { postMakeNewInstance(instanceId, makePublic); }});
   }
 
@@ -927,7 +938,7 @@ public class GameClient extends AndroidNonvisibleComponent
                 "recipients in the recipients list. The message will " +
                 "consist of the contents list.")
   public void SendMessage(final String type, final YailList recipients, final YailList contents) {
-    AsynchUtil.runAsynchronously(new Runnable() {
+    runAsynchronously("SendMessage", new Runnable() {
       public void run() { postNewMessage(type, recipients, contents); }});
   }
 
@@ -975,7 +986,7 @@ public class GameClient extends AndroidNonvisibleComponent
   @SimpleFunction(description = "Sends the specified command to " +
                 "the game server.")
   public void ServerCommand(final String command, final YailList arguments) {
-    AsynchUtil.runAsynchronously(new Runnable() {
+    runAsynchronously("ServerCommand", new Runnable() {
       public void run() { postServerCommand(command, arguments); }});
   }
 
@@ -1018,7 +1029,7 @@ public class GameClient extends AndroidNonvisibleComponent
   @SimpleFunction(description = "Sets InstanceId and joins the " +
                 "specified instance.")
   public void SetInstance(final String instanceId) {
-    AsynchUtil.runAsynchronously(new Runnable() {
+    runAsynchronously("SetInstance", new Runnable() {
       public void run() {
         if (instanceId.equals("")) {
           Log.d(LOG_TAG, "Instance id set to empty string.");
@@ -1071,7 +1082,7 @@ public class GameClient extends AndroidNonvisibleComponent
                 "leader to playerId. Only the current leader may " +
                 "successfully set a new leader.")
   public void SetLeader(final String playerEmail) {
-    AsynchUtil.runAsynchronously(new Runnable() {
+    runAsynchronously("SetLeader", new Runnable() {
       public void run() { postSetLeader(playerEmail); }});
   }
 
@@ -283,7 +283,7 @@ public final class GoogleCloudMessaging extends AndroidNonvisibleComponent
         mBoundGCMIntentService.setServerURL(SERVER_URL);
         mBoundGCMIntentService.setPhoneNumber(phoneNumber);
 
-        AsynchUtil.runAsynchronously(new Runnable() {
+        runAsynchronously("Register", new Runnable() {
             public void run() {
                 try {
                     final String regId = GCMRegistrar.getRegistrationId(form);                    
@@ -328,7 +328,7 @@ public final class GoogleCloudMessaging extends AndroidNonvisibleComponent
     @SimpleFunction(description = "Removes the GCM authorization from this running app instance")
     public void UnRegister() { 
         
-        AsynchUtil.runAsynchronously(new Runnable() {
+        runAsynchronously("UnRegister", new Runnable() {
             public void run() {
                 final String regId = GCMRegistrar.getRegistrationId(form);     
                 try {
@@ -589,7 +589,7 @@ public final class GoogleCloudMessaging extends AndroidNonvisibleComponent
     public void SendMessageToServer(final String text) {
       try {
         final URL url = new URL(SERVER_URL);
-        AsynchUtil.runAsynchronously(new Runnable() {
+        runAsynchronously("SendMessageToServer", new Runnable() {
           @Override
           public void run() {
             // Convert text to bytes using the encoding.
@@ -613,6 +613,8 @@ public final class GoogleCloudMessaging extends AndroidNonvisibleComponent
               HttpURLConnection connection = (HttpURLConnection) url.openConnection();
               if (connection != null) {
                 try {
+                  connection.setConnectTimeout(GCMServerUtilities.POST_TIMEOUT_MILLIS);
+                  connection.setReadTimeout(GCMServerUtilities.POST_TIMEOUT_MILLIS);
                   connection.setRequestMethod("POST");
                   if (requestData != null) {
                     connection.setDoOutput(true); // This makes it something other than a HTTP GET.
@@ -655,6 +657,20 @@ public final class GoogleCloudMessaging extends AndroidNonvisibleComponent
       }
     }
     
+    /*
+     * Runs a call asynchronously, or dispatches an error if too many calls of
+     * this component are already waiting.
+     *
+     * @param functionName the name of the function, used when dispatching errors
+     * @param call the call to run
+     */
+    private void runAsynchronously(String functionName, Runnable call) {
+      if (!AsynchUtil.runAsynchronously(this, AsynchUtil.PRIORITY_NORMAL, call)) {
+        form.dispatchErrorOccurredEvent(this, functionName,
+            ErrorMessages.ERROR_TOO_MANY_PENDING_CALLS);
+      }
+    }
+
     private static String getResponseContent(HttpURLConnection connection) throws IOException {
       // Use the content encoding to convert bytes to characters.
       String encoding = connection.getContentEncoding();
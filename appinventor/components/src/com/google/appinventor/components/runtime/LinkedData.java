@@ -9,6 +9,8 @@ import java.net.URISyntaxException;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import android.util.Log;
 
@@ -25,14 +27,23 @@ import com.google.appinventor.components.common.ComponentCategory;
 import com.google.appinventor.components.common.PropertyTypeConstants;
 import com.google.appinventor.components.common.YaVersion;
 import com.google.appinventor.components.runtime.util.AsynchUtil;
+import com.google.appinventor.components.runtime.util.ErrorMessages;
 import com.google.appinventor.components.runtime.util.RdfUtil;
+import com.google.appinventor.components.runtime.util.SQLiteGraph;
+import com.google.appinventor.components.runtime.util.SparqlResultCache;
+import com.google.appinventor.components.runtime.util.UpdateJournal;
 import com.google.appinventor.components.runtime.util.YailList;
+import com.hp.hpl.jena.query.Query;
+import com.hp.hpl.jena.query.QueryExecution;
+import com.hp.hpl.jena.query.QueryExecutionFactory;
+import com.hp.hpl.jena.query.QueryFactory;
 import com.hp.hpl.jena.query.ResultSet;
 import com.hp.hpl.jena.query.ResultSetFactory;
 import com.hp.hpl.jena.query.ResultSetFormatter;
 import com.hp.hpl.jena.query.ResultSetRewindable;
 import com.hp.hpl.jena.rdf.model.Model;
 import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.shared.Lock;
 
 @DesignerComponent(version = YaVersion.LINKED_DATA_COMPONENT_VERSION,
     description = "Non-visible component that communicates with a SPARQL-powered triple store",
@@ -45,7 +56,7 @@ import com.hp.hpl.jena.rdf.model.ModelFactory;
     "slf4j-android.jar," + "jena-iri.jar," + "jena-core.jar," +
     "jena-arq.jar")
 public class LinkedData extends AndroidNonvisibleComponent implements
-		Component {
+		Component, OnDestroyListener {
 
   /* constants for convenience */
   private static final String LOG_TAG = "LinkedData";
@@ -56,21 +67,157 @@ public class LinkedData extends AndroidNonvisibleComponent implements
   private static final String GEO_NS = "http://www.w3.org/2003/01/geo/wgs84_pos#";
   private static final String SKOS_NS = "http://www.w3.org/2004/02/skos/core#";
 
-  private final Model model;
+  /* retries of a batch sent by SyncDataToWeb, waiting twice as long each time */
+  private static final int SYNC_MAX_ATTEMPTS = 5;
+  private static final long SYNC_INITIAL_BACKOFF_MS = 1000;
+
+  private volatile Model model;
+
+  /** statements added to the model that have not been synced to the endpoint **/
+  private volatile UpdateJournal journal;
+
+  /** true while SyncDataToWeb is running **/
+  private final AtomicBoolean syncing = new AtomicBoolean(false);
+
+  /** maximum number of statements sent by SyncDataToWeb in one update **/
+  private int updateBatchSize = 500;
+
+  /** results of SELECT queries on the endpoint kept on the device **/
+  private final SparqlResultCache cache;
+
+  /** SELECT query whose results are being read page by page, or null **/
+  private volatile ResultPager pager;
+
+  /**
+   * Position of a paged SELECT query in its results. Pages are requested
+   * from the endpoint with LIMIT and OFFSET, so that only one page of the
+   * results is held in memory at a time.
+   */
+  private static final class ResultPager {
+    final String endpoint;
+    final Query query;
+    final int pageSize;
+    // offset just past the last result the query asks for, or Query.NOLIMIT
+    final long end;
+    // Guarded by this
+    long offset;
+    boolean hasMore = true;
+
+    ResultPager(String endpoint, Query query, int pageSize) {
+      this.endpoint = endpoint;
+      this.query = query;
+      this.pageSize = pageSize;
+      // Without an order, an endpoint may return overlapping or missing
+      // results between pages.
+      if ( !query.hasOrderBy() ) {
+        for ( String var : query.getResultVars() ) {
+          query.addOrderBy( var, Query.ORDER_DEFAULT );
+        }
+      }
+      offset = query.hasOffset() ? query.getOffset() : 0;
+      end = query.hasLimit() ? offset + query.getLimit() : Query.NOLIMIT;
+    }
+  }
 
   /** endpointURL stores the URI of a SPARQL endpoint **/
   private String endpointURL;
 
+  /** name of the on-device store requested with LocalStore, or empty if in memory **/
+  private String localStore = "";
+
+  /** name of the on-device store holding the model, or empty if in memory **/
+  private String openStore = "";
+
+  /** counted down once the store requested last has been opened, or failed to open **/
+  private volatile CountDownLatch storeOpening = new CountDownLatch(0);
+
   public LinkedData(ComponentContainer container) {
 	  super(container.$form());
 	  endpointURL = "http://dbpedia.org/sparql";
-    model = ModelFactory.createDefaultModel();
+    model = createModel(ModelFactory.createDefaultModel());
+    journal = new UpdateJournal(ModelFactory.createDefaultModel());
+    model.register(journal);
+    cache = new SparqlResultCache(form, 0);
+    form.registerForOnDestroy(this);
+  }
+
+  private static Model createModel(Model model) {
     model.setNsPrefix("rdf", RDF_NS);
     model.setNsPrefix("rdfs", RDFS_NS);
     model.setNsPrefix("owl", OWL_NS);
     model.setNsPrefix("sioc", SIOC_NS);
     model.setNsPrefix("geo", GEO_NS);
     model.setNsPrefix("skos", SKOS_NS);
+    return model;
+  }
+
+  /**
+   * Locks the model for writing and returns it. Statements added to an
+   * on-device store are written in a single transaction. While a store is
+   * being opened, the statements go into memory and are copied into the store
+   * once it is open, so that a write never waits for the store.
+   */
+  private Model beginWrite() {
+    Model model = lockModel(Lock.WRITE);
+    if (model.supportsTransactions()) {
+      model.begin();
+    }
+    return model;
+  }
+
+  /**
+   * Unlocks a model locked by {@link #beginWrite()}. The statements are kept
+   * only if the write succeeded; otherwise the transaction is aborted, so
+   * that a store never keeps part of a failed write.
+   */
+  private static void endWrite(Model model, boolean success) {
+    try {
+      if (model.supportsTransactions()) {
+        if (success) {
+          model.commit();
+        } else {
+          model.abort();
+        }
+      }
+    } finally {
+      model.leaveCriticalSection();
+    }
+  }
+
+  /**
+   * Locks the model for reading and returns it. If a store is being opened,
+   * waits for it first, so that the data in the store is read. Callers on the
+   * UI thread wait as well, since they return what they read.
+   */
+  private Model beginRead() {
+    try {
+      storeOpening.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    return lockModel(Lock.READ);
+  }
+
+  /**
+   * Unlocks a model locked by {@link #beginRead()}.
+   */
+  private static void endRead(Model model) {
+    model.leaveCriticalSection();
+  }
+
+  /*
+   * Locks the current model. The model may be replaced by another store while
+   * waiting for the lock, in which case the new model is locked instead.
+   */
+  private Model lockModel(boolean readLockRequested) {
+    while (true) {
+      Model model = this.model;
+      model.enterCriticalSection(readLockRequested);
+      if (model == this.model) {
+        return model;
+      }
+      model.leaveCriticalSection();
+    }
   }
 
   /**
@@ -101,6 +248,276 @@ public class LinkedData extends AndroidNonvisibleComponent implements
 	  endpointURL = url;
   }
 
+  /**
+   * Returns the name of the on-device store that holds the data of this
+   * component.
+   * @return
+   */
+  @SimpleProperty(category = PropertyCategory.LINKED_DATA,
+      description = "<p>Name of an on-device store that keeps the data of this "
+          + "component between runs of the app. Data added to the component is "
+          + "written to the store as it is added, and is available again, without "
+          + "being read from a file, the next time the app starts. If empty, the "
+          + "data is only kept in memory.</p>")
+  public String LocalStore() {
+    return localStore;
+  }
+
+  /**
+   * Specifies the name of the on-device store that holds the data of this
+   * component. Changing the store replaces the data of the component with
+   * the data in the new store.
+   * @param name
+   */
+  @DesignerProperty(editorType = PropertyTypeConstants.PROPERTY_TYPE_STRING,
+      defaultValue = "")
+  @SimpleProperty
+  public void LocalStore(String name) {
+    final String storeName = name.trim();
+    final CountDownLatch opening;
+    synchronized (this) {
+      if (storeName.equals(localStore)) {
+        return;
+      }
+      localStore = storeName;
+      // Until the store is open, data is kept in memory, and copied into the
+      // store once it is open.
+      useStore("", ModelFactory.createDefaultModel(),
+          new UpdateJournal(ModelFactory.createDefaultModel()));
+      if (storeName.length() == 0) {
+        storeOpening = new CountDownLatch(0);
+        return;
+      }
+      opening = new CountDownLatch(1);
+      storeOpening = opening;
+    }
+    // The database is opened in the background, since it may have to be
+    // created.
+    AsynchUtil.runAsynchronously(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          Model newModel;
+          UpdateJournal newJournal;
+          try {
+            // The journal lives in the same database, so that statements are
+            // journaled in the same transaction that stores them.
+            SQLiteGraph store = new SQLiteGraph(form, "linkeddata_" + storeName + ".db");
+            newModel = ModelFactory.createModelForGraph(store);
+            newJournal = new UpdateJournal(
+                ModelFactory.createModelForGraph(store.openSiblingGraph("journal")));
+          } catch(Exception e) {
+            Log.w(LOG_TAG, "Unable to open local store " + storeName, e);
+            synchronized (LinkedData.this) {
+              if (storeName.equals(localStore)) {
+                // The data stays in memory.
+                localStore = "";
+              }
+            }
+            return;
+          }
+          synchronized (LinkedData.this) {
+            if (storeName.equals(localStore)) {
+              moveToStore(storeName, newModel, newJournal);
+            } else {
+              // Another store was asked for while this one was being opened.
+              newJournal.close();
+              newModel.close();
+            }
+          }
+        } finally {
+          opening.countDown();
+        }
+      }
+    });
+  }
+
+  /*
+   * Replaces the model and the journal with the ones of the given store. The
+   * old ones are closed in the background once no read or write of them is in
+   * progress, since that may take as long as a query. Must be called while
+   * synchronized on this.
+   */
+  private void useStore(String name, Model newModel, UpdateJournal newJournal) {
+    newModel.register(newJournal);
+    final Model oldModel = model;
+    final UpdateJournal oldJournal = journal;
+    // The journal is replaced first, so that a reader locking the new model
+    // also sees its journal.
+    journal = newJournal;
+    model = createModel(newModel);
+    openStore = name;
+    AsynchUtil.runAsynchronously(new Runnable() {
+      @Override
+      public void run() {
+        oldModel.enterCriticalSection(Lock.WRITE);
+        try {
+          oldModel.unregister(oldJournal);
+          oldJournal.close();
+          oldModel.close();
+        } finally {
+          oldModel.leaveCriticalSection();
+        }
+      }
+    });
+  }
+
+  /*
+   * Replaces the in-memory model used while the given store was being opened
+   * with that store, after copying into the store the statements added
+   * meanwhile, and into its journal the ones still to be sent. Must be called
+   * while synchronized on this.
+   */
+  private void moveToStore(String name, Model newModel, UpdateJournal newJournal) {
+    Model memory = model;
+    memory.enterCriticalSection(Lock.WRITE);
+    try {
+      if (!memory.isEmpty()) {
+        if (newModel.supportsTransactions()) {
+          newModel.begin();
+        }
+        try {
+          newModel.add(memory);
+        } catch (RuntimeException e) {
+          if (newModel.supportsTransactions()) {
+            newModel.abort();
+          }
+          throw e;
+        }
+        if (newModel.supportsTransactions()) {
+          newModel.commit();
+        }
+        newJournal.addAll(journal);
+      }
+      useStore(name, newModel, newJournal);
+    } finally {
+      memory.leaveCriticalSection();
+    }
+  }
+
+  /**
+   * Returns the maximum number of statements sent to the endpoint in one
+   * update by {@link #SyncDataToWeb(String, boolean)}.
+   * @return
+   */
+  @SimpleProperty(category = PropertyCategory.LINKED_DATA,
+      description = "<p>Maximum number of statements sent to the endpoint in one "
+          + "update by SyncDataToWeb. Statements about the same subject are always "
+          + "sent together. If 0, all pending statements are sent in one update.</p>")
+  public int UpdateBatchSize() {
+    return updateBatchSize;
+  }
+
+  /**
+   * Specifies the maximum number of statements sent to the endpoint in one
+   * update by {@link #SyncDataToWeb(String, boolean)}.
+   * @param size
+   */
+  @DesignerProperty(editorType = PropertyTypeConstants.PROPERTY_TYPE_NON_NEGATIVE_INTEGER,
+      defaultValue = "500")
+  @SimpleProperty
+  public void UpdateBatchSize(int size) {
+    updateBatchSize = size;
+  }
+
+  /**
+   * Returns the number of statements added to this component that have not
+   * yet been sent to the endpoint by {@link #SyncDataToWeb(String, boolean)}.
+   * @return
+   */
+  @SimpleProperty(category = PropertyCategory.LINKED_DATA,
+      description = "<p>Number of statements added to this component that have "
+          + "not yet been sent to the endpoint by SyncDataToWeb.</p>")
+  public int PendingDataCount() {
+    Model model = beginRead();
+    try {
+      return journal.size();
+    } finally {
+      endRead(model);
+    }
+  }
+
+  /**
+   * Returns the number of seconds for which the results of a query sent by
+   * {@link #ExecuteSPARQLQuery(String)} are reused.
+   * @return
+   */
+  @SimpleProperty(category = PropertyCategory.LINKED_DATA,
+      description = "<p>Number of seconds for which the results of a query sent "
+          + "by ExecuteSPARQLQuery are kept on the device and reused when the same "
+          + "query is sent to the same endpoint again, even after the app restarts. "
+          + "If 0, every query is sent to the endpoint.</p>")
+  public int CacheDuration() {
+    return (int) (cache.getTtlMillis() / 1000);
+  }
+
+  /**
+   * Specifies the number of seconds for which the results of a query sent by
+   * {@link #ExecuteSPARQLQuery(String)} are reused.
+   * @param seconds
+   */
+  @DesignerProperty(editorType = PropertyTypeConstants.PROPERTY_TYPE_NON_NEGATIVE_INTEGER,
+      defaultValue = "0")
+  @SimpleProperty
+  public void CacheDuration(int seconds) {
+    cache.setTtlMillis(seconds * 1000L);
+  }
+
+  /**
+   * Returns the maximum size, in kilobytes, of the query results kept on the
+   * device.
+   * @return
+   */
+  @SimpleProperty(category = PropertyCategory.LINKED_DATA,
+      description = "<p>Maximum size, in kilobytes, of the query results kept on "
+          + "the device by all the Linked Data components of the app. When it is "
+          + "exceeded, the least recently used results are removed.</p>")
+  public int CacheSize() {
+    return (int) (cache.getMaxBytes() / 1024);
+  }
+
+  /**
+   * Specifies the maximum size, in kilobytes, of the query results kept on
+   * the device.
+   * @param kilobytes
+   */
+  @DesignerProperty(editorType = PropertyTypeConstants.PROPERTY_TYPE_NON_NEGATIVE_INTEGER,
+      defaultValue = "1024")
+  @SimpleProperty
+  public void CacheSize(int kilobytes) {
+    cache.setMaxBytes(kilobytes * 1024L);
+  }
+
+  /**
+   * Returns the number of queries answered from the results kept on the
+   * device.
+   * @return
+   */
+  @SimpleProperty(category = PropertyCategory.LINKED_DATA,
+      description = "<p>Number of queries sent by this component that were "
+          + "answered from results kept on the device.</p>")
+  public int CacheHits() {
+    return cache.getHits();
+  }
+
+  /**
+   * Returns the number of queries that were sent to the endpoint because no
+   * results were kept on the device.
+   * @return
+   */
+  @SimpleProperty(category = PropertyCategory.LINKED_DATA,
+      description = "<p>Number of queries sent by this component to the endpoint "
+          + "because no results for them were kept on the device.</p>")
+  public int CacheMisses() {
+    return cache.getMisses();
+  }
+
+  @Override
+  public void onDestroy() {
+    journal.close();
+    model.close();
+  }
+
   /**
    * Execute a SPARQL query on the set EndpointURL of this Linked Data component.
    * Currently only supports SELECT queries, and converts all integer types into Long
@@ -112,12 +529,30 @@ public class LinkedData extends AndroidNonvisibleComponent implements
     final Runnable call = new Runnable() {
       public void run() { executeQuery(query); }
     };
-    AsynchUtil.runAsynchronously(call);
+    runAsynchronously("ExecuteSPARQLQuery", AsynchUtil.PRIORITY_NORMAL, call);
+  }
+
+  /*
+   * Runs a call asynchronously on behalf of this component, or dispatches an
+   * error if too many of its calls are already waiting.
+   *
+   * @param functionName the name of the function, used when dispatching errors
+   * @param priority the priority of the call, see {@link AsynchUtil}
+   * @param call the call to run
+   * @return true if the call will run, false if it was refused
+   */
+  private boolean runAsynchronously(String functionName, int priority, Runnable call) {
+    if (AsynchUtil.runAsynchronously(this, priority, call)) {
+      return true;
+    }
+    form.dispatchErrorOccurredEvent(this, functionName,
+        ErrorMessages.ERROR_TOO_MANY_PENDING_CALLS);
+    return false;
   }
 
   private void executeQuery(String queryText) {
     try {
-      ResultSet results = RdfUtil.executeSELECT( endpointURL, queryText );
+      ResultSet results = RdfUtil.executeSELECT( endpointURL, queryText, cache );
       if ( results == null ) {
         form.runOnUiThread(new Runnable() {
           public void run() {
@@ -147,6 +582,199 @@ public class LinkedData extends AndroidNonvisibleComponent implements
     }
   }
 
+  /**
+   * Execute a SPARQL query on the data held by this Linked Data component,
+   * i.e. the data added by the ReadData and AddData methods, without
+   * contacting the EndpointURL. SELECT, ASK, CONSTRUCT and DESCRIBE queries
+   * are supported. The prefixes rdf, rdfs, owl, sioc, geo and skos, and any
+   * prefixes declared in data read into the component, may be used without
+   * being declared in the query.
+   * @param query Query text to execute
+   */
+  @SimpleFunction
+  public void ExecuteLocalSPARQLQuery(final String query) {
+    final Runnable call = new Runnable() {
+      public void run() { executeLocalQuery(query); }
+    };
+    runAsynchronously("ExecuteLocalSPARQLQuery", AsynchUtil.PRIORITY_NORMAL, call);
+  }
+
+  private void executeLocalQuery(String queryText) {
+    String type = null;
+    String raw = null;
+    YailList solutions = null;
+    final Model model = beginRead();
+    try {
+      Query query = RdfUtil.parseQuery(queryText, model);
+      QueryExecution qe = QueryExecutionFactory.create(query, model);
+      try {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        if ( query.isSelectType() ) {
+          type = "SELECT";
+          ResultSetRewindable results = ResultSetFactory.copyResults( qe.execSelect() );
+          ResultSetFormatter.outputAsJSON( baos, results );
+          results.reset();
+          solutions = RdfUtil.resultSetAsYailList( results );
+        } else if ( query.isAskType() ) {
+          type = "ASK";
+          boolean result = qe.execAsk();
+          ResultSetFormatter.outputAsJSON( baos, result );
+          solutions = YailList.makeList( Arrays.asList( result ) );
+        } else if ( query.isConstructType() || query.isDescribeType() ) {
+          type = query.isConstructType() ? "CONSTRUCT" : "DESCRIBE";
+          Model result = query.isConstructType() ? qe.execConstruct() : qe.execDescribe();
+          result.write( baos, "TURTLE" );
+          solutions = RdfUtil.modelAsYailList( result );
+        }
+        raw = baos.toString();
+      } finally {
+        qe.close();
+      }
+    } catch ( Exception e ) {
+      Log.w(LOG_TAG, e);
+      form.dispatchErrorOccurredEvent(this, "ExecuteLocalSPARQLQuery",
+          ErrorMessages.ERROR_LINKED_DATA_INVALID_QUERY, e.getMessage());
+      return;
+    } finally {
+      endRead(model);
+    }
+    if ( type == null ) {
+      form.runOnUiThread(new Runnable() {
+        public void run() {
+          UnsupportedQueryType();
+        }
+      });
+      return;
+    }
+    final String resultType = type;
+    final String rawResults = raw;
+    final YailList resultList = solutions;
+    form.runOnUiThread(new Runnable() {
+      public void run() {
+        RetrievedRawResults(resultType, rawResults);
+        RetrievedResults(resultType, resultList);
+      }
+    });
+  }
+
+  /**
+   * Execute a SPARQL SELECT query on the set EndpointURL of this Linked Data
+   * component, retrieving its results one page at a time. The first page is
+   * retrieved immediately, and each following page when
+   * {@link #RetrieveNextResultsPage()} is called, so that only one page of
+   * the results is held in memory however many there are. A LIMIT or OFFSET
+   * in the query is respected. Pages are only consistent with each other if
+   * the results come in a fixed order, so a query without an ORDER BY is
+   * ordered by all of its variables.
+   * @param query Query text to execute
+   * @param pageSize Maximum number of results in a page
+   */
+  @SimpleFunction
+  public void ExecutePagedSPARQLQuery(final String query, final int pageSize) {
+    final String endpoint = endpointURL;
+    final Runnable call = new Runnable() {
+      public void run() {
+        Query parsed;
+        try {
+          parsed = QueryFactory.create( query );
+        } catch ( Exception e ) {
+          Log.w(LOG_TAG, e);
+          form.dispatchErrorOccurredEvent(LinkedData.this, "ExecutePagedSPARQLQuery",
+              ErrorMessages.ERROR_LINKED_DATA_INVALID_QUERY, e.getMessage());
+          return;
+        }
+        if ( !parsed.isSelectType() ) {
+          form.runOnUiThread(new Runnable() {
+            public void run() {
+              UnsupportedQueryType();
+            }
+          });
+          return;
+        }
+        ResultPager newPager = new ResultPager(endpoint, parsed, Math.max(pageSize, 1));
+        pager = newPager;
+        retrievePage("ExecutePagedSPARQLQuery", newPager);
+      }
+    };
+    runAsynchronously("ExecutePagedSPARQLQuery", AsynchUtil.PRIORITY_NORMAL, call);
+  }
+
+  /**
+   * Retrieves the next page of results of the last query executed with
+   * {@link #ExecutePagedSPARQLQuery(String, int)}.
+   */
+  @SimpleFunction
+  public void RetrieveNextResultsPage() {
+    final ResultPager current = pager;
+    if ( current == null ) {
+      Log.w(LOG_TAG, "No paged query has been executed.");
+      return;
+    }
+    final Runnable call = new Runnable() {
+      public void run() { retrievePage("RetrieveNextResultsPage", current); }
+    };
+    runAsynchronously("RetrieveNextResultsPage", AsynchUtil.PRIORITY_NORMAL, call);
+  }
+
+  private void retrievePage(String functionName, ResultPager pager) {
+    synchronized (pager) {
+      if ( !pager.hasMore ) {
+        Log.w(LOG_TAG, "All results of the paged query have been retrieved.");
+        return;
+      }
+      long limit = pager.pageSize;
+      if ( pager.end != Query.NOLIMIT ) {
+        limit = Math.min(limit, pager.end - pager.offset);
+      }
+      // Ask for one more result than the page holds to learn whether
+      // there is another page.
+      Query page = pager.query.cloneQuery();
+      page.setOffset( pager.offset );
+      page.setLimit( limit + 1 );
+      QueryExecution qe = RdfUtil.createSELECTExecution( pager.endpoint, page );
+      try {
+        ResultSet results = qe.execSelect();
+        final YailList variables = YailList.makeList( results.getResultVars() );
+        final YailList rows = RdfUtil.resultSetAsRows( results, (int) limit );
+        final int offset = (int) pager.offset;
+        pager.offset += rows.size();
+        pager.hasMore = results.hasNext()
+            && ( pager.end == Query.NOLIMIT || pager.offset < pager.end );
+        final boolean hasMore = pager.hasMore;
+        form.runOnUiThread(new Runnable() {
+          public void run() {
+            RetrievedResultsPage(variables, rows, offset, hasMore);
+          }
+        });
+      } catch ( Exception e ) {
+        // The page is retrieved again by the next call to
+        // RetrieveNextResultsPage, since the offset has not moved.
+        Log.w(LOG_TAG, e);
+        form.dispatchErrorOccurredEvent(this, functionName,
+            ErrorMessages.ERROR_LINKED_DATA_QUERY_FAILED, e.getMessage());
+      } finally {
+        qe.close();
+      }
+    }
+  }
+
+  /**
+   * This event is raised when a page of the results of a query executed
+   * with {@link #ExecutePagedSPARQLQuery(String, int)} has been received.
+   * @param variables The variables of the query
+   * @param rows A list of results, each a list of the values bound to the
+   * variables, in the same order; unbound variables are empty
+   * @param offset Position of the first result of the page in the results
+   * @param hasMore true if {@link #RetrieveNextResultsPage()} will retrieve
+   * another page
+   */
+  @SimpleEvent
+  public void RetrievedResultsPage(YailList variables, YailList rows, int offset,
+      boolean hasMore) {
+    EventDispatcher.dispatchEvent(this, "RetrievedResultsPage", variables, rows, offset,
+        hasMore);
+  }
+
   /**
    * This event is raised after a SPARQL engine finishes processing a query
    * and the client has received the results, but before those results have
@@ -195,7 +823,7 @@ public class LinkedData extends AndroidNonvisibleComponent implements
       } else if(path.endsWith(".ttl")) {
         type = "TURTLE";
       }
-      model.read(path, type);
+      load(path, type);
     } catch(Exception e) {
       Log.w(LOG_TAG, "Unable to read model.", e);
       return false;
@@ -218,7 +846,7 @@ public class LinkedData extends AndroidNonvisibleComponent implements
       } else if(path.endsWith(".ttl")) {
         type = "TURTLE";
       }
-      model.read(path, type);
+      load(path, type);
     } catch(Exception e) {
       Log.w(LOG_TAG, "Unable to read model.", e);
       return false;
@@ -226,6 +854,24 @@ public class LinkedData extends AndroidNonvisibleComponent implements
     return true;
   }
 
+  /*
+   * Reads the given file into the model. The statements read are not
+   * journaled, since they are not new data to send to the endpoint.
+   */
+  private void load(String path, String type) {
+    Model model = beginWrite();
+    UpdateJournal journal = this.journal;
+    model.unregister(journal);
+    boolean success = false;
+    try {
+      model.read(path, type);
+      success = true;
+    } finally {
+      model.register(journal);
+      endWrite(model, success);
+    }
+  }
+
   /**
    * Saves the model to the given path on the file system.
    * @param model Model reference created using {@link #OpenModel()}
@@ -244,7 +890,13 @@ public class LinkedData extends AndroidNonvisibleComponent implements
         type = "TURTLE";
       }
       FileOutputStream fos = new FileOutputStream(path);
-      model.write(fos, type);
+      Model model = beginRead();
+      try {
+        model.write(fos, type);
+      } finally {
+        endRead(model);
+        fos.close();
+      }
     } catch(Exception e) {
       Log.w(LOG_TAG, "Unable to write model.", e);
       return false;
@@ -268,7 +920,15 @@ public class LinkedData extends AndroidNonvisibleComponent implements
       Log.w(LOG_TAG, "Component does not implement LDComponent");
       return false;
     }
-    return RdfUtil.triplifyComponent((LDComponent)component, subject, model);
+    Model model = beginWrite();
+    boolean success = false;
+    try {
+      boolean triplified = RdfUtil.triplifyComponent((LDComponent)component, subject, model);
+      success = true;
+      return triplified;
+    } finally {
+      endWrite(model, success);
+    }
   }
 
   /**
@@ -279,11 +939,18 @@ public class LinkedData extends AndroidNonvisibleComponent implements
    */
   @SimpleFunction
   public boolean AddDataFromLinkedDataForm(LinkedDataForm form) {
+    Model model = beginWrite();
+    boolean success = false;
     try {
-      return RdfUtil.triplifyForm(form, RdfUtil.generateSubjectForForm(form), model);
+      boolean triplified =
+          RdfUtil.triplifyForm(form, RdfUtil.generateSubjectForForm(form), model);
+      success = true;
+      return triplified;
     } catch(Exception e) {
       Log.w(LOG_TAG, "Unable to triplify form due to exception.", e);
       return false;
+    } finally {
+      endWrite(model, success);
     }
   }
 
@@ -328,7 +995,7 @@ public class LinkedData extends AndroidNonvisibleComponent implements
           doPublishModel(uri, graph);
         }
       };
-      AsynchUtil.runAsynchronously(call);
+      runAsynchronously("WriteDataToWeb", AsynchUtil.PRIORITY_NORMAL, call);
     } catch (URISyntaxException e) {
       Log.w(LOG_TAG, "Unable to generate RDF Graph Store URL.", e);
       FailedToWriteDataToWeb(graph, "Invalid endpoint URI. See log for details.");
@@ -372,7 +1039,7 @@ public class LinkedData extends AndroidNonvisibleComponent implements
         	doInsertData(Url, certificateName, securityToken, filePath);
         }
       };
-      AsynchUtil.runAsynchronously(call);
+      runAsynchronously("HttpsPostFileToWeb", AsynchUtil.PRIORITY_NORMAL, call);
     } catch (Exception e) {
     	Log.e(LOG_TAG, "Unable to https post file to web." + e.getLocalizedMessage());
       form.runOnUiThread(new Runnable() {
@@ -434,7 +1101,7 @@ public class LinkedData extends AndroidNonvisibleComponent implements
         	}
         }
       };
-      AsynchUtil.runAsynchronously(call);
+      runAsynchronously("AddDataToWeb", AsynchUtil.PRIORITY_NORMAL, call);
     } catch (URISyntaxException e) {
       Log.w(LOG_TAG, "Unable to generate SPARQL Update URL.", e);
       FailedToAddDataToWeb(graph, "Invalid endpoint URI. See log for details.");
@@ -484,6 +1151,151 @@ public class LinkedData extends AndroidNonvisibleComponent implements
     EventDispatcher.dispatchEvent(this, "FinishedAddingDataToWeb", graph);
   }
 
+  /**
+   * Sends the statements added to this Linked Data component since they were
+   * last sent to the endpoint, in updates of at most {@link #UpdateBatchSize()}
+   * statements. A failed update is retried with increasing delays; if it
+   * still fails, the statements that were not sent are kept, and the next
+   * call resumes from there. Only additions are sent: statements read with
+   * ReadDataFromWeb or ReadDataFromLocal are not sent, and neither are
+   * removals of statements already sent. When the component uses a
+   * {@link #LocalStore()}, unsent statements are kept between runs of the app.
+   * @param graph Empty string for the default graph, otherwise a valid URI
+   * @param noResolveUpdate true if the component should attempt to resolve the
+   * update URL relative to {@link #EndpointURL()}, false will send the query
+   * directly to {@link #endpointURL()}.
+   */
+  @SimpleFunction
+  public void SyncDataToWeb(final String graph, boolean noResolveUpdate) {
+    final URI uri;
+    try {
+      URI part = new URI(null, null, "update", null, null);
+      URI base = URI.create(EndpointURL());
+      uri = noResolveUpdate ? base : base.resolve(part);
+    } catch (URISyntaxException e) {
+      Log.w(LOG_TAG, "Unable to generate SPARQL Update URL.", e);
+      FailedToSyncDataToWeb(graph, "Invalid endpoint URI. See log for details.");
+      return;
+    }
+    if (!syncing.compareAndSet(false, true)) {
+      FailedToSyncDataToWeb(graph, "Data is already being synced.");
+      return;
+    }
+    final boolean dydra = endpointURL.contains("dydra.com");
+    final int batchSize = updateBatchSize == 0 ? Integer.MAX_VALUE : updateBatchSize;
+    Runnable call = new Runnable() {
+      public void run() {
+        try {
+          doSyncModel(uri, graph, dydra, batchSize);
+        } finally {
+          syncing.set(false);
+        }
+      }
+    };
+    // Syncing is background work, so it yields to queries made meanwhile.
+    if (!runAsynchronously("SyncDataToWeb", AsynchUtil.PRIORITY_LOW, call)) {
+      syncing.set(false);
+    }
+  }
+
+  private void doSyncModel(URI uri, final String graph, boolean dydra, int batchSize) {
+    // The journal of the store requested last is synced. The model is not
+    // kept locked while sending, so that the app can add data meanwhile.
+    final Model model = beginRead();
+    final UpdateJournal journal;
+    try {
+      journal = this.journal;
+    } finally {
+      endRead(model);
+    }
+    String graphName = graph.length() == 0 ? null : graph;
+    int sent = 0;
+    try {
+      Model batch;
+      while ((batch = journal.nextBatch(batchSize, model)) != null) {
+        if (!sendBatch(uri, graphName, dydra, batch)) {
+          form.runOnUiThread(new Runnable() {
+            public void run() {
+              FailedToSyncDataToWeb(graph, "See log for details.");
+            }
+          });
+          return;
+        }
+        journal.commit(batch);
+        sent += batch.size();
+        final int sentCount = sent;
+        final int pendingCount = journal.size();
+        form.runOnUiThread(new Runnable() {
+          public void run() {
+            SyncProgress(graph, sentCount, pendingCount);
+          }
+        });
+      }
+      form.runOnUiThread(new Runnable() {
+        public void run() {
+          FinishedSyncingDataToWeb(graph);
+        }
+      });
+    } catch(final Exception e) {
+      form.runOnUiThread(new Runnable() {
+        public void run() {
+          Log.w(LOG_TAG, "Unable to sync data to graph.", e);
+          FailedToSyncDataToWeb(graph, e.getLocalizedMessage());
+        }
+      });
+    }
+  }
+
+  /**
+   * Sends a batch of statements to the endpoint, retrying with exponential
+   * backoff. Returns true if the batch was inserted.
+   */
+  private static boolean sendBatch(URI uri, String graph, boolean dydra, Model batch) {
+    long backoff = SYNC_INITIAL_BACKOFF_MS;
+    for (int attempt = 1; ; attempt++) {
+      try {
+        if (dydra ? RdfUtil.insertDataToDydra(uri, batch, graph)
+            : RdfUtil.insertDataToVirtuoso(uri, batch, graph)) {
+          return true;
+        }
+      } catch(Exception e) {
+        Log.w(LOG_TAG, "Unable to send batch to graph.", e);
+      }
+      if (attempt == SYNC_MAX_ATTEMPTS) {
+        return false;
+      }
+      try {
+        Thread.sleep(backoff);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+      backoff *= 2;
+    }
+  }
+
+  /**
+   * Reports that a batch of statements was sent to the endpoint by
+   * {@link #SyncDataToWeb(String, boolean)}.
+   * @param graph Graph the statements were sent to
+   * @param sent Number of statements sent so far by this sync
+   * @param pending Number of statements still to be sent
+   */
+  @SimpleEvent
+  public void SyncProgress(String graph, int sent, int pending) {
+    EventDispatcher.dispatchEvent(this, "SyncProgress", graph, sent, pending);
+  }
+
+  @SimpleEvent
+  public void FailedToSyncDataToWeb(String graph, String error) {
+    EventDispatcher.dispatchEvent(this, "FailedToSyncDataToWeb", graph, error);
+  }
+
+  @SimpleEvent
+  public void FinishedSyncingDataToWeb(String graph) {
+    EventDispatcher.dispatchEvent(this, "FinishedSyncingDataToWeb", graph);
+  }
+
   /**
    * Attempts to feed the statements contained within this Linked Data
    * component into the endpoint (most likely CSPARQL).
@@ -496,7 +1308,7 @@ public class LinkedData extends AndroidNonvisibleComponent implements
         doFeedModel(uri);
       }
     };
-    AsynchUtil.runAsynchronously(call);
+    runAsynchronously("FeedDataToWeb", AsynchUtil.PRIORITY_NORMAL, call);
   }
 
   private void doFeedModel(final URI uri) {
@@ -589,7 +1401,7 @@ public class LinkedData extends AndroidNonvisibleComponent implements
           doDeleteModel(uri, graph);
         }
       };
-      AsynchUtil.runAsynchronously(call);
+      runAsynchronously("DeleteDataFromWeb", AsynchUtil.PRIORITY_NORMAL, call);
     } catch (URISyntaxException e) {
       Log.w(LOG_TAG, "Unable to generate SPARQL Update URL.", e);
       FailedToDeleteDataFromWeb(graph, "Invalid endpoint URI. See log for details.");
@@ -637,7 +1449,14 @@ public class LinkedData extends AndroidNonvisibleComponent implements
   @SimpleFunction
   public void DeleteDataFromLocal() {
     try {
-      model.removeAll();
+      Model model = beginWrite();
+      boolean success = false;
+      try {
+        model.removeAll();
+        success = true;
+      } finally {
+        endWrite(model, success);
+      }
       FinishedDeletingDataFromLocal();
     } catch (Exception e) {
       Log.w(LOG_TAG, "Unable to delete data from model", e);
@@ -663,7 +1482,12 @@ public class LinkedData extends AndroidNonvisibleComponent implements
   @SimpleFunction
   public String ToString() {
     ByteArrayOutputStream out = new ByteArrayOutputStream();
-    model.write(out, "TTL");
+    Model model = beginRead();
+    try {
+      model.write(out, "TTL");
+    } finally {
+      endRead(model);
+    }
     return out.toString();
   }
   
@@ -20,6 +20,7 @@ import com.google.appinventor.components.runtime.SWListActivity.LabeledUri;
 import com.google.appinventor.components.runtime.util.AsynchUtil;
 import com.google.appinventor.components.runtime.util.RdfUtil;
 import com.google.appinventor.components.runtime.util.RdfUtil.Solution;
+import com.google.appinventor.components.runtime.util.SparqlResultCache;
 import com.hp.hpl.jena.query.ResultSet;
 
 import android.app.Activity;
@@ -57,6 +58,7 @@ public class LinkedDataListPicker extends Picker implements ActivityResultListen
   private String relationUri;
   private List<LabeledUri> items;
   private final Form form;
+  private final SparqlResultCache cache;
   private volatile boolean initialized = false;
 
   public LinkedDataListPicker(ComponentContainer container) {
@@ -71,6 +73,7 @@ public class LinkedDataListPicker extends Picker implements ActivityResultListen
     relationUri = "http://www.w3.org/1999/02/22-rdf-syntax-ns#type";
     items = new ArrayList<LabeledUri>();
     form = container.$form();
+    cache = new SparqlResultCache(form, 3600 * 1000L);
   }
 
   // ActivityResultListener implementation
@@ -193,6 +196,36 @@ public class LinkedDataListPicker extends Picker implements ActivityResultListen
     relationUri = uri;
   }
 
+  @SimpleProperty(category = PropertyCategory.LINKED_DATA,
+      description = "<p>Number of seconds for which the items found at the "
+          + "Endpoint URL are kept on the device and shown again without querying "
+          + "the endpoint, even after the app restarts. If 0, the endpoint is "
+          + "queried every time the items are needed.</p>")
+  public int CacheDuration() {
+    return (int) (cache.getTtlMillis() / 1000);
+  }
+
+  @DesignerProperty(editorType = PropertyTypeConstants.PROPERTY_TYPE_NON_NEGATIVE_INTEGER,
+      defaultValue = "3600")
+  @SimpleProperty
+  public void CacheDuration(int seconds) {
+    cache.setTtlMillis(seconds * 1000L);
+  }
+
+  @SimpleProperty(category = PropertyCategory.LINKED_DATA,
+      description = "<p>Number of times the items were found among the results "
+          + "kept on the device.</p>")
+  public int CacheHits() {
+    return cache.getHits();
+  }
+
+  @SimpleProperty(category = PropertyCategory.LINKED_DATA,
+      description = "<p>Number of times the items were queried from the endpoint "
+          + "because no results for them were kept on the device.</p>")
+  public int CacheMisses() {
+    return cache.getMisses();
+  }
+
   private void populateItemsList(final String endpoint, final String conceptUri) {
     Log.d(LOG_TAG, "Populating item list for semantic list picker");
     final String query = "PREFIX dc: <http://purl.org/dc/terms/> " +
@@ -210,7 +243,7 @@ public class LinkedDataListPicker extends Picker implements ActivityResultListen
     Log.d(LOG_TAG, "The Query is " + query);
     Collection<Solution> solutions = null;
     try {
-      ResultSet results = RdfUtil.executeSELECT(endpoint, query);
+      ResultSet results = RdfUtil.executeSELECT(endpoint, query, cache);
       Log.d(LOG_TAG, "Received results; parsing JSON to collection.");
       solutions = RdfUtil.resultSetAsCollection(results);
     } catch(final Exception e) {
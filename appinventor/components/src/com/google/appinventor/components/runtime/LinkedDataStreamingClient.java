@@ -232,7 +232,7 @@ public final class LinkedDataStreamingClient extends AndroidNonvisibleComponent
         mBoundGCMIntentService.setSenderID(SENDER_ID);
         mBoundGCMIntentService.setServerURL(SERVER_URL);
 
-        AsynchUtil.runAsynchronously(new Runnable() {
+        runAsynchronously("Register", new Runnable() {
             public void run() {
                 try {
                     final String regId = GCMRegistrar.getRegistrationId(form);                    
@@ -277,7 +277,7 @@ public final class LinkedDataStreamingClient extends AndroidNonvisibleComponent
     @SimpleFunction(description = "Removes the GCM authorization from this running app instance")
     public void UnRegister() { 
         
-        AsynchUtil.runAsynchronously(new Runnable() {
+        runAsynchronously("UnRegister", new Runnable() {
             public void run() {
                 final String regId = GCMRegistrar.getRegistrationId(form);     
                 try {
@@ -545,7 +545,7 @@ public final class LinkedDataStreamingClient extends AndroidNonvisibleComponent
     public void SendMessageToServer(final String text) {
       try {
         final URL url = new URL(SERVER_URL);
-        AsynchUtil.runAsynchronously(new Runnable() {
+        runAsynchronously("SendMessageToServer", new Runnable() {
           @Override
           public void run() {
             // Convert text to bytes using the encoding.
@@ -569,6 +569,8 @@ public final class LinkedDataStreamingClient extends AndroidNonvisibleComponent
               HttpURLConnection connection = (HttpURLConnection) url.openConnection();
               if (connection != null) {
                 try {
+                  connection.setConnectTimeout(GCMServerUtilities.POST_TIMEOUT_MILLIS);
+                  connection.setReadTimeout(GCMServerUtilities.POST_TIMEOUT_MILLIS);
                   connection.setRequestMethod("POST");
                   if (requestData != null) {
                     connection.setDoOutput(true); // This makes it something other than a HTTP GET.
@@ -625,7 +627,7 @@ public final class LinkedDataStreamingClient extends AndroidNonvisibleComponent
     public void SubscribeToQuery(final String querytext, final String streamName, final String window, final String step) {
       try {
         final URL url = new URL(SERVER_URL);
-        AsynchUtil.runAsynchronously(new Runnable() {
+        runAsynchronously("SubscribeToQuery", new Runnable() {
           @Override
           public void run() {
             // Convert text to bytes using the encoding.
@@ -658,6 +660,8 @@ public final class LinkedDataStreamingClient extends AndroidNonvisibleComponent
               HttpURLConnection connection = (HttpURLConnection) url.openConnection();
               if (connection != null) {
                 try {
+                  connection.setConnectTimeout(GCMServerUtilities.POST_TIMEOUT_MILLIS);
+                  connection.setReadTimeout(GCMServerUtilities.POST_TIMEOUT_MILLIS);
                   connection.setRequestMethod("POST");
                   if (requestData != null) {
                     connection.setDoOutput(true); // This makes it something other than a HTTP GET.
@@ -700,6 +704,20 @@ public final class LinkedDataStreamingClient extends AndroidNonvisibleComponent
       }
     }
     
+    /*
+     * Runs a call asynchronously, or dispatches an error if too many calls of
+     * this component are already waiting.
+     *
+     * @param functionName the name of the function, used when dispatching errors
+     * @param call the call to run
+     */
+    private void runAsynchronously(String functionName, Runnable call) {
+      if (!AsynchUtil.runAsynchronously(this, AsynchUtil.PRIORITY_NORMAL, call)) {
+        form.dispatchErrorOccurredEvent(this, functionName,
+            ErrorMessages.ERROR_TOO_MANY_PENDING_CALLS);
+      }
+    }
+
     private static String getResponseContent(HttpURLConnection connection) throws IOException {
       // Use the content encoding to convert bytes to characters.
       String encoding = connection.getContentEncoding();
@@ -449,6 +449,32 @@ OnDestroyListener, OnResumeListener, OnStopListener{
     return mPipeline.getArchivePeriod();
   }
 
+  // buffering of sensor samples
+
+  @SimpleFunction(description = "Set how many sensor samples are collected before they are "
+      + "written to the sensor db together, and the longest time in seconds a sample may wait "
+      + "before it is written")
+  public void SetWriteBuffer(int size, int interval) {
+    if (mPipeline != null) {
+      mPipeline.setFlushSize(size);
+      mPipeline.setFlushInterval(interval);
+    } else {
+      Log.v(TAG, "Funf was killed by the system. In normal case, should not be here...");
+    }
+  }
+
+  @SimpleProperty(description = "Number of sensor samples that are written to the sensor db "
+      + "together", category = PropertyCategory.BEHAVIOR)
+  public int WriteBufferSize() {
+    return mPipeline.getFlushSize();
+  }
+
+  @SimpleProperty(description = "Longest time in seconds a sensor sample waits before it is "
+      + "written to the sensor db", category = PropertyCategory.BEHAVIOR)
+  public int WriteBufferInterval() {
+    return mPipeline.getFlushInterval();
+  }
+
   // schedule export task
 
   @SimpleFunction(description = "Enable export db schedule task with specified period in seconds")
@@ -14,10 +14,12 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.os.Bundle;
+import android.os.Handler;
 import android.util.Log;
 import android.util.Pair;
 
 import com.google.appinventor.components.runtime.errors.YailRuntimeError;
+import com.google.appinventor.components.runtime.util.BatchedDatabaseService;
 import com.google.appinventor.components.runtime.util.JsonUtil;
 import com.google.appinventor.components.runtime.util.SensorDbUtil;
 import com.google.gson.JsonElement;
@@ -71,6 +73,10 @@ public class SensorDBPipeline implements Pipeline, DataListener{
   private static final int CLEAR_BACKUP = 86400;
   private static final String TAG = "SensorDBPipeline";
   protected static final String ACTIVE_SENSORS = "active.sensors";
+  protected static final String FLUSH_SIZE = "flush.size";
+  protected static final String FLUSH_INTERVAL = "flush.interval";
+  private static final int DEFAULT_FLUSH_SIZE = 50; // samples written to the sensor db together
+  private static final int DEFAULT_FLUSH_INTERVAL = 30; // seconds a sample may wait to be written
   private Map<String, Integer> activeSensors = new HashMap<String, Integer>();
   private Map<String, String> sensorMapping = SensorDbUtil.sensorMap;
 
@@ -91,6 +97,24 @@ public class SensorDBPipeline implements Pipeline, DataListener{
 
   private String format = "csv";
 
+  /*
+   * Samples received since the last flush, kept column by column and written to the sensor db
+   * in one batch when the buffer is full or flushInterval seconds after the first of them
+   * arrived. Guarded by the pipeline.
+   */
+  private int flushSize;
+  private int flushInterval;
+  private long[] bufferedTimestamps;
+  private String[] bufferedNames;
+  private String[] bufferedValues;
+  private int bufferedCount = 0;
+  private Handler handler;
+  private final Runnable flushTask = new Runnable() {
+    public void run() {
+      flush();
+    }
+  };
+
     private FunfManager funfManager;
     @Override
     public void onCreate(FunfManager manager) {
@@ -106,6 +130,7 @@ public class SensorDBPipeline implements Pipeline, DataListener{
       scheduleClearBackupEnabled = false;
       hideSensitiveData = false;
       sharedPreferences = manager.getSharedPreferences("sensorDBPipeline", Context.MODE_PRIVATE);
+      handler = new Handler(manager.getMainLooper());
 
       initActions();
 
@@ -157,6 +182,12 @@ public class SensorDBPipeline implements Pipeline, DataListener{
       }
     }
 
+    Object flushSizePref = getPreference(FLUSH_SIZE);
+    Object flushIntervalPref = getPreference(FLUSH_INTERVAL);
+    setFlushSize(flushSizePref.equals("") ? DEFAULT_FLUSH_SIZE : (Integer) flushSizePref);
+    flushInterval = flushIntervalPref.equals("") ? DEFAULT_FLUSH_INTERVAL
+        : (Integer) flushIntervalPref;
+
     String jsonArrayStr = (String)getPreference(ACTIVE_SENSORS);
     Log.i(TAG, "ACTIVE sensor:" + jsonArrayStr);
     if (!jsonArrayStr.isEmpty()){
@@ -182,7 +213,7 @@ public class SensorDBPipeline implements Pipeline, DataListener{
 
   @Override
   public void onDestroy() {
-    // TODO Auto-generated method stub
+    flush();
     Log.i(TAG, "SesorDBPipeline" + this + "got killed at:" + System.currentTimeMillis());
   }
 
@@ -306,9 +337,38 @@ public class SensorDBPipeline implements Pipeline, DataListener{
     this.hideSensitiveData = newVal;
   }
 
+  public synchronized int getFlushSize() {
+    return this.flushSize;
+  }
+
+  /*
+   * The buffered samples are written before the buffer is resized.
+   */
+  public synchronized void setFlushSize(int size) {
+    size = Math.max(size, 1);
+    if (bufferedCount > 0) {
+      flush();
+    }
+    this.flushSize = size;
+    bufferedTimestamps = new long[size];
+    bufferedNames = new String[size];
+    bufferedValues = new String[size];
+    savePreference(FLUSH_SIZE, size);
+  }
+
+  public synchronized int getFlushInterval() {
+    return this.flushInterval;
+  }
+
+  public synchronized void setFlushInterval(int seconds) {
+    this.flushInterval = Math.max(seconds, 0);
+    savePreference(FLUSH_INTERVAL, this.flushInterval);
+  }
+
 
   private void archive(){
-    Intent i = new Intent(funfManager, NameValueDatabaseService.class);
+    flush();
+    Intent i = new Intent(funfManager, BatchedDatabaseService.class);
     Log.i(TAG, "archiving data...at: " + System.currentTimeMillis());
     i.setAction(DatabaseService.ACTION_ARCHIVE);
     i.putExtra(DatabaseService.DATABASE_NAME_KEY, SensorDbUtil.DB_NAME);
@@ -317,11 +377,12 @@ public class SensorDBPipeline implements Pipeline, DataListener{
 
   public void export(String format) {
     Log.i(TAG, "exporting data...at: " + System.currentTimeMillis());
+    flush();
 
     Bundle b = new Bundle();
     b.putString(NameValueDatabaseService.DATABASE_NAME_KEY, SensorDbUtil.DB_NAME);
     b.putString(NameValueDatabaseService.EXPORT_KEY, format);
-    Intent i = new Intent(funfManager, NameValueDatabaseService.class);
+    Intent i = new Intent(funfManager, BatchedDatabaseService.class);
     i.setAction(DatabaseService.ACTION_EXPORT);
     i.putExtras(b);
     funfManager.startService(i);
@@ -329,7 +390,8 @@ public class SensorDBPipeline implements Pipeline, DataListener{
   }
 
   public void clearBackup(){
-    Intent i = new Intent(funfManager, NameValueDatabaseService.class);
+    flush();
+    Intent i = new Intent(funfManager, BatchedDatabaseService.class);
     Log.i(TAG, "clear data backup....at " +  System.currentTimeMillis());
     i.setAction(DatabaseService.ACTION_CLEAR_BACKUP);
     i.putExtra(DatabaseService.DATABASE_NAME_KEY, SensorDbUtil.DB_NAME);
@@ -345,9 +407,9 @@ public class SensorDBPipeline implements Pipeline, DataListener{
 
   @Override
   public void onDataReceived(IJsonObject completeProbeUri, IJsonObject data) {
-    // TODO Auto-generated method stub
-    Log.i(TAG, "Data received: " + completeProbeUri + ": " + data.toString());
-
+    if (Log.isLoggable(TAG, Log.VERBOSE)) {
+      Log.v(TAG, "Data received: " + completeProbeUri + ": " + data.toString());
+    }
 
     final JsonObject dataObject = data.getAsJsonObject();
     dataObject.add("probe",
@@ -357,18 +419,50 @@ public class SensorDBPipeline implements Pipeline, DataListener{
     final long timestamp = data.get(BaseProbeKeys.TIMESTAMP).getAsLong();
     final String probeName = completeProbeUri.get("@type").getAsString();
 
+    synchronized (this) {
+      bufferedTimestamps[bufferedCount] = timestamp;
+      bufferedNames[bufferedCount] = probeName;
+      bufferedValues[bufferedCount] = dataObject.toString();
+      bufferedCount++;
+      if (bufferedCount == flushSize) {
+        flush();
+      } else if (bufferedCount == 1) {
+        handler.postDelayed(flushTask, flushInterval * 1000L);
+      }
+    }
+  }
+
+  /*
+   * Write the buffered samples to the sensor db with one call to the database service, which
+   * inserts them in a single transaction.
+   */
+  public synchronized void flush() {
+    handler.removeCallbacks(flushTask);
+    if (bufferedCount == 0) {
+      return;
+    }
+    long[] timestamps = new long[bufferedCount];
+    String[] names = new String[bufferedCount];
+    String[] values = new String[bufferedCount];
+    System.arraycopy(bufferedTimestamps, 0, timestamps, 0, bufferedCount);
+    System.arraycopy(bufferedNames, 0, names, 0, bufferedCount);
+    System.arraycopy(bufferedValues, 0, values, 0, bufferedCount);
+    for (int i = 0; i < bufferedCount; i++) {
+      bufferedNames[i] = null;
+      bufferedValues[i] = null;
+    }
+    bufferedCount = 0;
+
     Bundle b = new Bundle();
     b.putString(NameValueDatabaseService.DATABASE_NAME_KEY,
         SensorDbUtil.DB_NAME);
-    b.putLong(NameValueDatabaseService.TIMESTAMP_KEY, timestamp);
-    b.putString(NameValueDatabaseService.NAME_KEY, probeName);
-    b.putString(NameValueDatabaseService.VALUE_KEY, dataObject.toString());
-    Intent i = new Intent(funfManager,  NameValueDatabaseService.class);
+    b.putLongArray(BatchedDatabaseService.TIMESTAMPS_KEY, timestamps);
+    b.putStringArray(BatchedDatabaseService.NAMES_KEY, names);
+    b.putStringArray(BatchedDatabaseService.VALUES_KEY, values);
+    Intent i = new Intent(funfManager, BatchedDatabaseService.class);
     i.setAction(DatabaseService.ACTION_RECORD);
     i.putExtras(b);
     funfManager.startService(i);
-
-
   }
 
   /*
@@ -45,6 +45,10 @@ public abstract class Sprite extends VisibleComponent
   private static final boolean DEFAULT_VISIBLE = true;
   private static final double DEFAULT_Z = 1.0;
 
+  // The most moves made in one frame of the Canvas frame scheduler.  A sprite
+  // that falls further behind skips the missed moves.
+  private static final int MAX_MOVES_PER_FRAME = 4;
+
   protected final Canvas canvas;              // enclosing Canvas
   private final TimerInternal timerInternal;  // timer to control movement
   private final Handler androidUIHandler;     // for posting actions
@@ -59,6 +63,10 @@ public abstract class Sprite extends VisibleComponent
   // all components has taken place.  This was added to fix bug 2262218.
   protected boolean initialized = false;
 
+  // Time in ms accumulated towards the next move while the Canvas frame
+  // scheduler moves this sprite.
+  private long frameTime = 0;
+
   // Properties: These are protected, instead of private, both so they
   // can be used by subclasses and tests.
   protected int interval;      // number of milliseconds until next move
@@ -114,6 +122,7 @@ public abstract class Sprite extends VisibleComponent
 
     // Set in motion.
     timerInternal = new TimerInternal(this, DEFAULT_ENABLED, DEFAULT_INTERVAL, handler);
+    timerInternal.Suspended(canvas.FrameRate() > 0);
 
     this.form = container.$form();
 
@@ -588,6 +597,16 @@ public abstract class Sprite extends VisibleComponent
     return registeredCollisions.contains(other);
   }
 
+  /**
+   * Returns the sprites this sprite has been registered as colliding with.
+   * Modifying the returned value does not affect the sprite.
+   *
+   * @return the sprites this sprite is colliding with
+   */
+  Set<Sprite> registeredCollisions() {
+    return new HashSet<Sprite>(registeredCollisions);
+  }
+
   /**
    * Moves the sprite back in bounds if part of it extends out of bounds,
    * having no effect otherwise. If the sprite is too wide to fit on the
@@ -663,7 +682,9 @@ public abstract class Sprite extends VisibleComponent
     // This was added to fix bug 2262218, where Ball.CollidedWith() was called
     // before all components had been constructed.
     if (!initialized) {
-      // During REPL, components are not initalized, but we still want to repaint the canvas.
+      // During REPL, components are not initalized, but we still want to repaint the canvas
+      // and to be found by touches.
+      canvas.updateSpriteIndex(this);
       canvas.getView().invalidate();
       return;
     }
@@ -922,6 +943,51 @@ public abstract class Sprite extends VisibleComponent
     }
   }
 
+  // Support for the Canvas frame scheduler
+
+  /**
+   * Indicates whether this sprite is moved by the frame scheduler of its
+   * Canvas instead of its own timer.
+   *
+   * @param scheduled {@code true} if the Canvas moves this sprite
+   */
+  void frameScheduled(boolean scheduled) {
+    timerInternal.Suspended(scheduled);
+    frameTime = 0;
+  }
+
+  /**
+   * Moves this sprite once for every {@link #Interval()} milliseconds that
+   * have passed, as its timer would have, without registering the change.
+   * The Canvas calls {@link #registerChange()} once all sprites have moved.
+   *
+   * @param elapsed the number of milliseconds since the previous frame
+   * @return {@code true} if the sprite moved, {@code false} otherwise
+   */
+  boolean advanceFrame(long elapsed) {
+    if (!initialized || !Enabled() || speed == 0) {
+      frameTime = 0;
+      return false;
+    }
+    int interval = Interval();
+    if (interval == 0) {
+      // The timer would move the sprite as often as possible.
+      updateCoordinates();
+      return true;
+    }
+    frameTime += elapsed;
+    int moves = 0;
+    while (frameTime >= interval && moves < MAX_MOVES_PER_FRAME) {
+      updateCoordinates();
+      frameTime -= interval;
+      moves++;
+    }
+    if (frameTime >= interval) {
+      frameTime = 0;
+    }
+    return moves > 0;
+  }
+
   // Component implementation
 
   @Override
@@ -323,6 +323,57 @@ public class Web extends AndroidNonvisibleComponent implements Component {
     this.responseFileName = responseFileName;
   }
 
+  /**
+   * Returns the number of requests that have been made but have not yet
+   * finished.
+   */
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR,
+      description = "The number of requests that have been made but have not yet finished. " +
+      "If too many requests are waiting, further requests fail with an error.")
+  public int PendingRequests() {
+    return AsynchUtil.getPendingCount(this);
+  }
+
+  /**
+   * Returns the number of background calls of the app that are running.
+   */
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR,
+      description = "The number of background calls of the whole app, including requests " +
+      "of this component, that are running.")
+  public int ActiveCalls() {
+    return AsynchUtil.getActiveCount();
+  }
+
+  /**
+   * Returns the number of background calls of the app that are waiting to run.
+   */
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR,
+      description = "The number of background calls of the whole app, including requests " +
+      "of this component, that are waiting to run.")
+  public int QueuedCalls() {
+    return AsynchUtil.getQueuedCount();
+  }
+
+  /**
+   * Returns the number of background calls of the app that have finished.
+   */
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR,
+      description = "The number of background calls of the whole app that have finished " +
+      "since the app started.")
+  public long CompletedCalls() {
+    return AsynchUtil.getCompletedCount();
+  }
+
+  /**
+   * Returns the number of background calls of the app that were refused.
+   */
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR,
+      description = "The number of background calls of the whole app that were refused " +
+      "because too many were waiting, since the app started.")
+  public long RejectedCalls() {
+    return AsynchUtil.getRejectedCount();
+  }
+
   @SimpleFunction(description = "Clears all cookies for this Web component.")
   public void ClearCookies() {
     if (cookieHandler != null) {
@@ -351,7 +402,7 @@ public class Web extends AndroidNonvisibleComponent implements Component {
       return;
     }
 
-    AsynchUtil.runAsynchronously(new Runnable() {
+    runAsynchronously("Get", new Runnable() {
       @Override
       public void run() {
         try {
@@ -422,7 +473,7 @@ public class Web extends AndroidNonvisibleComponent implements Component {
       return;
     }
 
-    AsynchUtil.runAsynchronously(new Runnable() {
+    runAsynchronously("PostFile", new Runnable() {
       @Override
       public void run() {
         try {
@@ -492,7 +543,7 @@ public class Web extends AndroidNonvisibleComponent implements Component {
       return;
     }
 
-    AsynchUtil.runAsynchronously(new Runnable() {
+    runAsynchronously("PutFile", new Runnable() {
       @Override
       public void run() {
         try {
@@ -526,7 +577,7 @@ public class Web extends AndroidNonvisibleComponent implements Component {
       return;
     }
 
-    AsynchUtil.runAsynchronously(new Runnable() {
+    runAsynchronously("Delete", new Runnable() {
       @Override
       public void run() {
         try {
@@ -567,7 +618,7 @@ public class Web extends AndroidNonvisibleComponent implements Component {
       return;
     }
 
-    AsynchUtil.runAsynchronously(new Runnable() {
+    runAsynchronously(functionName, new Runnable() {
       @Override
       public void run() {
         // Convert text to bytes using the encoding.
@@ -597,6 +648,20 @@ public class Web extends AndroidNonvisibleComponent implements Component {
     });
   }
 
+  /*
+   * Runs a request asynchronously, or dispatches an error if too many
+   * requests of this component are already waiting.
+   *
+   * @param functionName the name of the function, used when dispatching errors
+   * @param request the request to run
+   */
+  private void runAsynchronously(String functionName, Runnable request) {
+    if (!AsynchUtil.runAsynchronously(this, AsynchUtil.PRIORITY_NORMAL, request)) {
+      form.dispatchErrorOccurredEvent(this, functionName,
+          ErrorMessages.ERROR_TOO_MANY_PENDING_CALLS);
+    }
+  }
+
 
   /**
    * Event indicating that a request has finished.
@@ -8,22 +8,98 @@ package com.google.appinventor.components.runtime.util;
 
 import android.os.Handler;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+
 /**
  * Utilities for handling asynchronous calls.
  *
+ * <p>Calls are run by a shared pool of at most {@link #MAX_THREADS} threads,
+ * which are started as needed and stop after being idle for a while.  Calls
+ * with a higher priority run first; calls of the same priority run in the
+ * order they were made.</p>
+ *
+ * <p>A call may be made on behalf of an owner, typically the component
+ * making it.  At most {@link #MAX_RUNNING_PER_OWNER} calls of an owner run at
+ * the same time, so that one component cannot take all threads, and at most
+ * {@link #MAX_PENDING_PER_OWNER} calls of an owner wait to run.  Further calls
+ * are refused, and the owner should report an error, e.g.
+ * {@link ErrorMessages#ERROR_TOO_MANY_PENDING_CALLS}.</p>
+ *
+ * <p>Calls without an owner are never refused, but at most
+ * {@link #MAX_RUNNING_UNOWNED} of them run at the same time, and the others
+ * wait.  The remaining threads are left to the calls of owners.</p>
+ *
  * @author markf@google.com (Mark Friedman)
  */
 
 public class AsynchUtil {
 
+  /** Priority of calls whose results the user is waiting for. */
+  public static final int PRIORITY_HIGH = 1;
+  /** Priority of calls that are not given a priority. */
+  public static final int PRIORITY_NORMAL = 0;
+  /** Priority of background work, such as synchronizing data. */
+  public static final int PRIORITY_LOW = -1;
+
+  /** The largest number of threads running calls. */
+  public static final int MAX_THREADS = 8;
+  /** The largest number of calls of an owner that run at the same time. */
+  public static final int MAX_RUNNING_PER_OWNER = 4;
+  /** The largest number of calls of an owner waiting to run. */
+  public static final int MAX_PENDING_PER_OWNER = 64;
+  /** The largest number of calls without an owner that run at the same time. */
+  public static final int MAX_RUNNING_UNOWNED = 4;
+
+  // Time after which an idle thread stops
+  private static final long KEEP_ALIVE = 30000;  // ms
+
+  private static final Object lock = new Object();
+
+  // The following fields are guarded by lock.
+
+  // Calls that can run as soon as a thread is available
+  private static final PriorityQueue<Call> ready = new PriorityQueue<Call>();
+  // Owners with calls that are running or waiting
+  private static final Map<Object, Owner> owners = new HashMap<Object, Owner>();
+  // Calls without an owner, whose waiting calls are never refused
+  private static final Owner unowned = new Owner(null, MAX_RUNNING_UNOWNED);
+  private static int threads = 0;
+  private static int idleThreads = 0;
+  private static long sequence = 0;
+
+  // Counters
+  private static int active = 0;
+  private static int queued = 0;
+  private static long completed = 0;
+  private static long rejected = 0;
+
   /**
    * Make an asynchronous call in a separate thread.
    * @param call a {@link Runnable} to run in the thread.
    */
   public static void runAsynchronously(final Runnable call) {
-    Thread thread = new Thread(call);
-    thread.start();
+    submit(null, PRIORITY_NORMAL, call);
+  }
+
+  /**
+   * Make an asynchronous call in a separate thread on behalf of an owner,
+   * unless too many calls of the owner are already waiting to run.
+   * @param owner the object making the call, usually a component
+   * @param priority one of {@link #PRIORITY_HIGH}, {@link #PRIORITY_NORMAL}
+   * or {@link #PRIORITY_LOW}
+   * @param call a {@link Runnable} to run in the thread.
+   * @return {@code true} if the call will be made, {@code false} if it was
+   * refused
+   */
+  public static boolean runAsynchronously(Object owner, int priority, final Runnable call) {
+    if (owner == null) {
+      throw new IllegalArgumentException("owner must not be null");
+    }
+    return submit(owner, priority, call);
   }
+
   /**
    * Make an asynchronous call in a separate thread, with a callback that's run on the current
    * Android UI thread.
@@ -46,7 +122,204 @@ public class AsynchUtil {
         }
       }
     };
-    Thread thread = new Thread(runnable);
+    submit(null, PRIORITY_NORMAL, runnable);
+  }
+
+  /**
+   * Make an asynchronous call in a thread of its own, outside of the shared
+   * pool.  This is meant for calls that may block indefinitely, such as
+   * waiting for a connection, which would otherwise hold on to one of the
+   * pool's threads.
+   * @param call a {@link Runnable} to run in the thread.
+   */
+  public static void runInNewThread(final Runnable call) {
+    Thread thread = new Thread(call);
     thread.start();
   }
+
+  /**
+   * Returns the number of calls of an owner that are running or waiting.
+   */
+  public static int getPendingCount(Object owner) {
+    synchronized (lock) {
+      Owner o = owners.get(owner);
+      return o == null ? 0 : o.running + o.waiting.size();
+    }
+  }
+
+  /**
+   * Returns the number of calls that are running.
+   */
+  public static int getActiveCount() {
+    synchronized (lock) {
+      return active;
+    }
+  }
+
+  /**
+   * Returns the number of calls waiting to run.
+   */
+  public static int getQueuedCount() {
+    synchronized (lock) {
+      return queued;
+    }
+  }
+
+  /**
+   * Returns the number of calls that have finished since the app started.
+   */
+  public static long getCompletedCount() {
+    synchronized (lock) {
+      return completed;
+    }
+  }
+
+  /**
+   * Returns the number of calls that were refused since the app started.
+   */
+  public static long getRejectedCount() {
+    synchronized (lock) {
+      return rejected;
+    }
+  }
+
+  private static boolean submit(Object ownerKey, int priority, Runnable runnable) {
+    synchronized (lock) {
+      Owner owner = unowned;
+      if (ownerKey != null) {
+        owner = owners.get(ownerKey);
+        if (owner == null) {
+          owner = new Owner(ownerKey, MAX_RUNNING_PER_OWNER);
+          owners.put(ownerKey, owner);
+        }
+      }
+      Call call = new Call(owner, priority, sequence++, runnable);
+      if (owner.running >= owner.maxRunning) {
+        if (owner != unowned && owner.waiting.size() >= MAX_PENDING_PER_OWNER) {
+          rejected++;
+          return false;
+        }
+        owner.waiting.add(call);
+      } else {
+        admit(call);
+      }
+      queued++;
+      return true;
+    }
+  }
+
+  // Requires lock to be held
+  private static void admit(Call call) {
+    call.owner.running++;
+    ready.add(call);
+    if (idleThreads > 0) {
+      lock.notify();
+    }
+    if (ready.size() > idleThreads && threads < MAX_THREADS) {
+      threads++;
+      Thread thread = new Thread(new Worker(), "AsynchUtil-" + threads);
+      thread.start();
+    }
+  }
+
+  // Requires lock to be held
+  private static void finish(Call call) {
+    active--;
+    completed++;
+    Owner owner = call.owner;
+    owner.running--;
+    Call next = owner.waiting.poll();
+    if (next != null) {
+      admit(next);
+    } else if (owner.running == 0 && owner != unowned) {
+      owners.remove(owner.key);
+    }
+  }
+
+  /**
+   * Takes calls from the ready queue and runs them, stopping when it has
+   * been idle for {@link #KEEP_ALIVE} ms.
+   */
+  private static final class Worker implements Runnable {
+    @Override
+    public void run() {
+      try {
+        while (true) {
+          Call call;
+          synchronized (lock) {
+            long idleSince = System.currentTimeMillis();
+            while (ready.isEmpty()) {
+              long remaining = idleSince + KEEP_ALIVE - System.currentTimeMillis();
+              if (remaining <= 0) {
+                return;
+              }
+              idleThreads++;
+              try {
+                lock.wait(remaining);
+              } catch (InterruptedException e) {
+                return;
+              } finally {
+                idleThreads--;
+              }
+            }
+            call = ready.poll();
+            queued--;
+            active++;
+          }
+          try {
+            call.runnable.run();
+          } finally {
+            synchronized (lock) {
+              finish(call);
+            }
+          }
+        }
+      } finally {
+        synchronized (lock) {
+          threads--;
+          // If this thread is stopping because a call threw an exception,
+          // make sure that the remaining calls still get a thread.
+          if (!ready.isEmpty() && idleThreads == 0) {
+            threads++;
+            new Thread(new Worker(), "AsynchUtil-" + threads).start();
+          }
+        }
+      }
+    }
+  }
+
+  private static final class Owner {
+    final Object key;
+    final int maxRunning;
+    int running = 0;
+    // Calls waiting for one of the owner's running calls to finish
+    final PriorityQueue<Call> waiting = new PriorityQueue<Call>();
+
+    Owner(Object key, int maxRunning) {
+      this.key = key;
+      this.maxRunning = maxRunning;
+    }
+  }
+
+  private static final class Call implements Comparable<Call> {
+    final Owner owner;
+    final int priority;
+    final long sequence;
+    final Runnable runnable;
+
+    Call(Owner owner, int priority, long sequence, Runnable runnable) {
+      this.owner = owner;
+      this.priority = priority;
+      this.sequence = sequence;
+      this.runnable = runnable;
+    }
+
+    @Override
+    public int compareTo(Call other) {
+      if (priority != other.priority) {
+        return priority > other.priority ? -1 : 1;
+      }
+      return sequence < other.sequence ? -1 : sequence > other.sequence ? 1 : 0;
+    }
+  }
 }
@@ -0,0 +1,62 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the MIT License https://raw.github.com/mit-cml/app-inventor/master/mitlicense.txt
+package com.google.appinventor.components.runtime.util;
+
+import android.content.Intent;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import edu.mit.media.funf.storage.NameValueDatabaseHelper;
+import edu.mit.media.funf.storage.NameValueDatabaseService;
+
+/**
+ * Database service of the sensor db that records a batch of samples per
+ * intent, so that buffered samples cost one service call and one SQLite
+ * transaction rather than one of each per sample.
+ *
+ * A batch is sent as parallel arrays of timestamps, names and values
+ * (see {@link #TIMESTAMPS_KEY}, {@link #NAMES_KEY} and {@link #VALUES_KEY}).
+ * Intents with a single sample, and the archive, export and clear backup
+ * actions, are handled as by {@link NameValueDatabaseService}. Since all of
+ * them are handled in order on the service's thread, a batch sent before an
+ * archive is always written to the archived database.
+ */
+public class BatchedDatabaseService extends NameValueDatabaseService {
+  public static final String TIMESTAMPS_KEY = "TIMESTAMPS";
+  public static final String NAMES_KEY = "NAMES";
+  public static final String VALUES_KEY = "VALUES";
+
+  @Override
+  protected void updateDatabase(SQLiteDatabase db, Intent intent) throws SQLException {
+    long[] timestamps = intent.getLongArrayExtra(TIMESTAMPS_KEY);
+    if (timestamps == null) {
+      super.updateDatabase(db, intent);
+      return;
+    }
+    String[] names = intent.getStringArrayExtra(NAMES_KEY);
+    String[] values = intent.getStringArrayExtra(VALUES_KEY);
+    if (names == null || values == null || names.length != timestamps.length
+        || values.length != timestamps.length) {
+      throw new SQLException("Batch of samples is incomplete.");
+    }
+    // DatabaseService has already begun a transaction for this intent.
+    SQLiteStatement insert = db.compileStatement("INSERT INTO "
+        + NameValueDatabaseHelper.DATA_TABLE.name + " ("
+        + NameValueDatabaseHelper.COLUMN_NAME + ", "
+        + NameValueDatabaseHelper.COLUMN_VALUE + ", "
+        + NameValueDatabaseHelper.COLUMN_TIMESTAMP + ") VALUES (?, ?, ?)");
+    try {
+      for (int i = 0; i < timestamps.length; i++) {
+        insert.bindString(1, names[i]);
+        insert.bindString(2, values[i]);
+        insert.bindLong(3, timestamps[i]);
+        insert.executeInsert();
+      }
+    } finally {
+      insert.close();
+    }
+  }
+}
@@ -225,7 +225,14 @@ public final class ErrorMessages {
   // Image errors
   public static final int ERROR_IMAGE_CANNOT_ROTATE = 3001;
 
-  // Start the next group of errors at 3100
+  // Asynchronous call errors
+  public static final int ERROR_TOO_MANY_PENDING_CALLS = 3101;
+
+  // LinkedData errors
+  public static final int ERROR_LINKED_DATA_INVALID_QUERY = 3201;
+  public static final int ERROR_LINKED_DATA_QUERY_FAILED = 3202;
+
+  // Start the next group of errors at 3300
 
   public static final int ERROR_GOOGLE_MAP_NOT_INSTALLED = 12010;
   public static final int ERROR_GOOGLE_PLAY_NOT_INSTALLED = 12011;
@@ -574,6 +581,14 @@ public final class ErrorMessages {
     // Image errors
     errorMessages.put(ERROR_IMAGE_CANNOT_ROTATE,
         "The version of Android on this device does not support image rotation.");
+    // Asynchronous call errors
+    errorMessages.put(ERROR_TOO_MANY_PENDING_CALLS,
+        "Too many calls are waiting to run. Wait for some of them to finish before making more.");
+    // LinkedData errors
+    errorMessages.put(ERROR_LINKED_DATA_INVALID_QUERY,
+        "The SPARQL query could not be parsed: %s");
+    errorMessages.put(ERROR_LINKED_DATA_QUERY_FAILED,
+        "The SPARQL query could not be executed: %s");
   }
 
   private ErrorMessages() {
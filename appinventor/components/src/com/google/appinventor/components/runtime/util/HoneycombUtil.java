@@ -5,6 +5,7 @@
 // http://www.apache.org/licenses/LICENSE-2.0
 package com.google.appinventor.components.runtime.util;
 
+import android.database.sqlite.SQLiteDatabase;
 import android.view.View;
 import android.view.ViewGroup;
 
@@ -36,4 +37,8 @@ public class HoneycombUtil {
     view.setRotation((float) rotationAngle);
   }
 
+  public static void enableWriteAheadLogging(SQLiteDatabase db) {
+    db.enableWriteAheadLogging();
+  }
+
 }
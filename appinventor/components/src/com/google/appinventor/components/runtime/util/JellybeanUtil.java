@@ -8,6 +8,7 @@ package com.google.appinventor.components.runtime.util;
 import android.graphics.Point;
 import android.util.DisplayMetrics;
 import android.util.Log;
+import android.view.Choreographer;
 import android.view.Display;
 
 /**
@@ -23,4 +24,16 @@ public class JellybeanUtil {
     display.getRealSize(outSize);
   }
 
+  /**
+   * Runs the given callback when the next display frame begins.
+   */
+  public static void postFrameCallback(final Runnable callback) {
+    Choreographer.getInstance().postFrameCallback(new Choreographer.FrameCallback() {
+      @Override
+      public void doFrame(long frameTimeNanos) {
+        callback.run();
+      }
+    });
+  }
+
 }
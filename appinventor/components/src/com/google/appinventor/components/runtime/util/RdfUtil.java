@@ -1,5 +1,6 @@
 package com.google.appinventor.components.runtime.util;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.BufferedInputStream;
 import java.io.DataOutputStream;
@@ -36,6 +37,7 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -54,16 +56,21 @@ import com.google.appinventor.components.runtime.LDComponent;
 import com.google.appinventor.components.runtime.LinkedDataForm;
 import com.hp.hpl.jena.datatypes.xsd.XSDDatatype;
 import com.hp.hpl.jena.query.Query;
+import com.hp.hpl.jena.query.QueryExecution;
 import com.hp.hpl.jena.query.QueryExecutionFactory;
 import com.hp.hpl.jena.query.QueryFactory;
 import com.hp.hpl.jena.query.QuerySolution;
 import com.hp.hpl.jena.query.ResultSet;
+import com.hp.hpl.jena.query.ResultSetFactory;
+import com.hp.hpl.jena.query.ResultSetFormatter;
 import com.hp.hpl.jena.query.Syntax;
 import com.hp.hpl.jena.rdf.model.Literal;
 import com.hp.hpl.jena.rdf.model.Model;
 import com.hp.hpl.jena.rdf.model.Property;
 import com.hp.hpl.jena.rdf.model.RDFNode;
 import com.hp.hpl.jena.rdf.model.Resource;
+import com.hp.hpl.jena.rdf.model.Statement;
+import com.hp.hpl.jena.rdf.model.StmtIterator;
 import com.hp.hpl.jena.shared.PrefixMapping;
 import com.hp.hpl.jena.sparql.core.Prologue;
 import com.hp.hpl.jena.sparql.engine.http.QueryEngineHTTP;
@@ -89,27 +96,40 @@ public final class RdfUtil {
     protected VariableBinding(String var, Resource value) {
       super(2);
       add(var);
-      if(value.isURIResource()) {
-        add(value.getURI());
-      } else {
-        add(value.getId().toString());
-      }
+      add(bindingValue(value));
     }
 
     protected VariableBinding(String var, Literal value) {
       super(2);
       add(var);
-      if(value.getDatatype() == null) {
-        add(value.getLexicalForm());
-      } else if(value.getDatatype().equals(XSDDatatype.XSDinteger)) {
-        add(Long.parseLong(value.getLexicalForm()));
-      } else if(value.getDatatype().equals(XSDDatatype.XSDdouble)) {
-        add(value.getDouble());
-      } else if(value.getDatatype().equals(XSDDatatype.XSDdecimal)) {
-        add(Double.parseDouble(value.getLexicalForm()));
-      } else {
-        add(value.getLexicalForm());
-      }
+      add(bindingValue(value));
+    }
+  }
+
+  /**
+   * Converts the value bound to a variable into an object that can be passed
+   * to other App Inventor components: the URI or blank node id of a
+   * resource, a Long or Double for numeric literals, and the lexical form of
+   * other literals.
+   * @param value
+   * @return
+   */
+  public static Object bindingValue(RDFNode value) {
+    if(value.isResource()) {
+      Resource resource = value.asResource();
+      return resource.isURIResource() ? resource.getURI() : resource.getId().toString();
+    }
+    Literal literal = value.asLiteral();
+    if(literal.getDatatype() == null) {
+      return literal.getLexicalForm();
+    } else if(literal.getDatatype().equals(XSDDatatype.XSDinteger)) {
+      return Long.parseLong(literal.getLexicalForm());
+    } else if(literal.getDatatype().equals(XSDDatatype.XSDdouble)) {
+      return literal.getDouble();
+    } else if(literal.getDatatype().equals(XSDDatatype.XSDdecimal)) {
+      return Double.parseDouble(literal.getLexicalForm());
+    } else {
+      return literal.getLexicalForm();
     }
   }
 
@@ -125,15 +145,17 @@ public final class RdfUtil {
     }
 
     protected Solution(Solution old) {
-      backingMap = new HashMap<String, VariableBinding>(old.backingMap);
+      backingMap = new LinkedHashMap<String, VariableBinding>(old.backingMap);
     }
 
-    protected Solution(QuerySolution solution) {
-      backingMap = new HashMap<String, VariableBinding>();
-      Iterator<String> i = solution.varNames();
-      while(i.hasNext()) {
-        String var = i.next();
+    protected Solution(QuerySolution solution, List<String> vars) {
+      // Kept in the order of the query's variables.
+      backingMap = new LinkedHashMap<String, VariableBinding>();
+      for(String var : vars) {
         RDFNode node = solution.get(var);
+        if(node == null) {
+          continue;
+        }
         if(node.isLiteral()) {
           backingMap.put(var, new VariableBinding(var, node.asLiteral()));
         } else {
@@ -252,8 +274,7 @@ public final class RdfUtil {
   }
 
   private static ResultSet executeSELECTQuery(String endpoint, Query query) {
-    QueryEngineHTTP qe = QueryExecutionFactory.createServiceRequest(endpoint, query);
-    qe.setSelectContentType("application/sparql-results+json");
+    QueryExecution qe = createSELECTExecution(endpoint, query);
     if(!query.isSelectType()) {
       Log.d(LOG_TAG, "Cannot execute query that is not SELECT");
       return null;
@@ -262,6 +283,20 @@ public final class RdfUtil {
     return qe.execSelect();
   }
 
+  /**
+   * Creates an execution of a SPARQL SELECT query on the specified endpoint.
+   * The results of the execution are read from the connection as they are
+   * consumed, and the execution must be closed once they have been read.
+   * @param endpoint
+   * @param query
+   * @return
+   */
+  public static QueryExecution createSELECTExecution(String endpoint, Query query) {
+    QueryEngineHTTP qe = QueryExecutionFactory.createServiceRequest(endpoint, query);
+    qe.setSelectContentType("application/sparql-results+json");
+    return qe;
+  }
+
   /**
    * Executes a SPARQL SELECT query on the specified endpoint.
    * @param endpoint
@@ -275,9 +310,47 @@ public final class RdfUtil {
 
   public static ResultSet executeSELECT(String endpoint, String queryText,
       PrefixMapping prefixes) {
-    Query query = QueryFactory.parse(new Query(new Prologue(prefixes)),
+    return executeSELECTQuery(endpoint, parseQuery(queryText, prefixes));
+  }
+
+  /**
+   * Executes a SPARQL SELECT query on the specified endpoint, using the
+   * results cached for the same endpoint and query if there are any. The
+   * results are read in full so that they can be cached.
+   * @param endpoint
+   * @param queryText
+   * @param cache
+   * @return
+   */
+  public static ResultSet executeSELECT(String endpoint, String queryText,
+      SparqlResultCache cache) {
+    Query query = QueryFactory.create(queryText);
+    if(!cache.isEnabled() || !query.isSelectType()) {
+      return executeSELECTQuery(endpoint, query);
+    }
+    byte[] json = cache.get(endpoint, query);
+    if(json == null) {
+      ResultSet results = executeSELECTQuery(endpoint, query);
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      ResultSetFormatter.outputAsJSON(baos, results);
+      json = baos.toByteArray();
+      cache.put(endpoint, query, json);
+    } else {
+      Log.d(LOG_TAG, "Using cached results of SPARQL select query");
+    }
+    return ResultSetFactory.fromJSON(new ByteArrayInputStream(json));
+  }
+
+  /**
+   * Parses a SPARQL query in which the given prefixes may be used without
+   * being declared.
+   * @param queryText
+   * @param prefixes
+   * @return
+   */
+  public static Query parseQuery(String queryText, PrefixMapping prefixes) {
+    return QueryFactory.parse(new Query(new Prologue(prefixes)),
         queryText, "", Syntax.syntaxSPARQL_11);
-    return executeSELECTQuery(endpoint, query);
   }
 
   /**
@@ -288,8 +361,9 @@ public final class RdfUtil {
    */
   public static Collection<Solution> resultSetAsCollection(ResultSet results) {
     List<Solution> list = new LinkedList<Solution>();
+    List<String> vars = results.getResultVars();
     while(results.hasNext()) {
-      list.add(new Solution(results.next()));
+      list.add(new Solution(results.next(), vars));
     }
     return list;
   }
@@ -974,19 +1048,81 @@ public final class RdfUtil {
     return success;
   }
   
+  /**
+   * Converts a ResultSet from a SELECT query into a list of solutions, each
+   * a list of (variable, value) lists. Solutions are converted as they are
+   * read from the result set.
+   * @param results
+   * @return
+   */
   public static YailList resultSetAsYailList(ResultSet results) {
-    final Collection<Solution> solutions = RdfUtil.resultSetAsCollection( results );
+    final List<String> vars = results.getResultVars();
     final List<YailList> list = new ArrayList<YailList>();
-    for ( Solution i : solutions ) {
-      List<YailList> solution = new ArrayList<YailList>();
-      for ( VariableBinding j : i ) {
-        solution.add( YailList.makeList( j ) );
+    while ( results.hasNext() ) {
+      QuerySolution solution = results.next();
+      List<YailList> bindings = new ArrayList<YailList>();
+      for ( String var : vars ) {
+        RDFNode value = solution.get( var );
+        if ( value != null ) {
+          bindings.add( YailList.makeList( new Object[] { var, bindingValue( value ) } ) );
+        }
       }
-      list.add( YailList.makeList( solution ) );
+      list.add( YailList.makeList( bindings ) );
     }
     return YailList.makeList( list );
   }
+
+  /**
+   * Reads at most maxRows solutions of a SELECT query into a list of rows,
+   * each a list of the values bound to the variables of the result set, in
+   * the order of {@link ResultSet#getResultVars()}. Unbound variables have
+   * the empty string as their value. Reading stops after maxRows solutions,
+   * so the rest of the results can be checked with
+   * {@link ResultSet#hasNext()}.
+   * @param results
+   * @param maxRows
+   * @return
+   */
+  public static YailList resultSetAsRows(ResultSet results, int maxRows) {
+    final List<String> vars = results.getResultVars();
+    final List<YailList> rows = new ArrayList<YailList>();
+    while ( rows.size() < maxRows && results.hasNext() ) {
+      QuerySolution solution = results.next();
+      Object[] row = new Object[vars.size()];
+      for ( int i = 0; i < row.length; i++ ) {
+        RDFNode value = solution.get( vars.get( i ) );
+        row[i] = value == null ? "" : bindingValue( value );
+      }
+      rows.add( YailList.makeList( row ) );
+    }
+    return YailList.makeList( rows );
+  }
   
+  /**
+   * Converts the statements of a model, e.g. the result of a CONSTRUCT
+   * query, into a list of (subject, predicate, object) lists that can be
+   * passed to other App Inventor components.
+   * @param model
+   * @return
+   */
+  public static YailList modelAsYailList(Model model) {
+    final List<YailList> list = new ArrayList<YailList>();
+    StmtIterator it = model.listStatements();
+    try {
+      while ( it.hasNext() ) {
+        Statement stmt = it.next();
+        RDFNode object = stmt.getObject();
+        list.add( YailList.makeList( new Object[] {
+            stmt.getSubject().toString(),
+            stmt.getPredicate().getURI(),
+            object.isLiteral() ? object.asLiteral().getLexicalForm() : object.toString() } ) );
+      }
+    } finally {
+      it.close();
+    }
+    return YailList.makeList( list );
+  }
+
   /**
    * Performs a POST to a remote CSPARQL Engine feed
    * @param uri URI for the endpoint
@@ -0,0 +1,360 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime.util;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+
+import com.hp.hpl.jena.datatypes.TypeMapper;
+import com.hp.hpl.jena.graph.GraphEvents;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.TransactionHandler;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.graph.TripleMatch;
+import com.hp.hpl.jena.graph.impl.GraphBase;
+import com.hp.hpl.jena.graph.impl.TransactionHandlerBase;
+import com.hp.hpl.jena.rdf.model.AnonId;
+import com.hp.hpl.jena.shared.PrefixMapping;
+import com.hp.hpl.jena.shared.impl.PrefixMappingImpl;
+import com.hp.hpl.jena.util.iterator.ExtendedIterator;
+import com.hp.hpl.jena.util.iterator.NiceIterator;
+
+/**
+ * A Jena graph stored in an SQLite database on the device, so that the data
+ * of a LinkedData component survives restarts of the app without being
+ * parsed again.
+ *
+ * Triples are kept in a single table with indexes on (subject, predicate,
+ * object), (predicate, object, subject) and (object, subject, predicate), so
+ * that every triple pattern is answered by an index range scan. Finds are
+ * lazy: they read rows from a cursor as the iterator advances. Namespace
+ * prefixes are stored as well.
+ *
+ * Every add and delete is its own SQLite transaction unless it happens
+ * inside a transaction of the graph's {@link TransactionHandler}, which
+ * should be used when adding many triples at once.
+ */
+public final class SQLiteGraph extends GraphBase {
+
+  private static final int DATABASE_VERSION = 1;
+  private static final String TRIPLES = "triples";
+  private static final String PREFIXES = "prefixes";
+  private static final String[] COLUMNS = { "s", "p", "o" };
+
+  // Prefixes of the encoded forms of nodes
+  private static final char URI = '<';
+  private static final char BLANK = '_';
+  private static final char LITERAL = '"';
+  // Neither language tags nor datatype URIs contain spaces.
+  private static final char SEPARATOR = ' ';
+
+  // null if the database belongs to another graph
+  private final SQLiteOpenHelper helper;
+  private final SQLiteDatabase db;
+  private final String table;
+
+  // Guarded by itself
+  private final SQLiteStatement insert;
+
+  /**
+   * Opens the graph stored in the given database of the app, creating it if
+   * necessary.
+   * @param context Context of the app
+   * @param name Name of the database
+   */
+  public SQLiteGraph(Context context, String name) {
+    helper = new SQLiteOpenHelper(context, name, null, DATABASE_VERSION) {
+      @Override
+      public void onCreate(SQLiteDatabase db) {
+        createTriplesTable(db, TRIPLES);
+        db.execSQL("CREATE TABLE " + PREFIXES + " (prefix TEXT PRIMARY KEY, uri TEXT NOT NULL)");
+      }
+
+      @Override
+      public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+      }
+    };
+    db = helper.getWritableDatabase();
+    if (SdkLevel.getLevel() >= SdkLevel.LEVEL_HONEYCOMB) {
+      // Lets finds on other threads proceed while triples are being written.
+      HoneycombUtil.enableWriteAheadLogging(db);
+    }
+    table = TRIPLES;
+    insert = compileInsert();
+  }
+
+  private SQLiteGraph(SQLiteGraph parent, String table) {
+    helper = null;
+    db = parent.db;
+    this.table = table;
+    createTriplesTable(db, table);
+    insert = compileInsert();
+  }
+
+  /**
+   * Opens another graph stored in the same database as this one. Since both
+   * graphs share the database connection, a transaction of this graph also
+   * covers the changes made to the other graph while it is open. The other
+   * graph must be closed before this one.
+   * @param name Name of the other graph
+   */
+  public SQLiteGraph openSiblingGraph(String name) {
+    return new SQLiteGraph(this, TRIPLES + "_" + name);
+  }
+
+  private static void createTriplesTable(SQLiteDatabase db, String table) {
+    db.execSQL("CREATE TABLE IF NOT EXISTS " + table + " (s TEXT NOT NULL, p TEXT NOT NULL, "
+        + "o TEXT NOT NULL, PRIMARY KEY (s, p, o))");
+    db.execSQL("CREATE INDEX IF NOT EXISTS " + table + "_pos ON " + table + " (p, o, s)");
+    db.execSQL("CREATE INDEX IF NOT EXISTS " + table + "_osp ON " + table + " (o, s, p)");
+  }
+
+  private SQLiteStatement compileInsert() {
+    return db.compileStatement("INSERT OR IGNORE INTO " + table + " (s, p, o) VALUES (?, ?, ?)");
+  }
+
+  @Override
+  protected ExtendedIterator<Triple> graphBaseFind(TripleMatch m) {
+    StringBuilder where = new StringBuilder();
+    String[] args = selection(m.getMatchSubject(), m.getMatchPredicate(), m.getMatchObject(),
+        where);
+    Cursor cursor = db.query(table, COLUMNS, where.length() == 0 ? null : where.toString(),
+        args, null, null, null);
+    return new CursorIterator(cursor);
+  }
+
+  @Override
+  protected boolean graphBaseContains(Triple t) {
+    if (!t.isConcrete()) {
+      return super.graphBaseContains(t);
+    }
+    StringBuilder where = new StringBuilder();
+    String[] args = selection(t.getSubject(), t.getPredicate(), t.getObject(), where);
+    Cursor cursor = db.query(table, COLUMNS, where.toString(), args, null, null, null, "1");
+    try {
+      return cursor.moveToFirst();
+    } finally {
+      cursor.close();
+    }
+  }
+
+  @Override
+  protected int graphBaseSize() {
+    return (int) DatabaseUtils.queryNumEntries(db, table);
+  }
+
+  @Override
+  public void performAdd(Triple t) {
+    synchronized (insert) {
+      insert.bindString(1, encode(t.getSubject()));
+      insert.bindString(2, encode(t.getPredicate()));
+      insert.bindString(3, encode(t.getObject()));
+      insert.execute();
+    }
+  }
+
+  @Override
+  public void performDelete(Triple t) {
+    StringBuilder where = new StringBuilder();
+    String[] args = selection(t.getSubject(), t.getPredicate(), t.getObject(), where);
+    db.delete(table, where.toString(), args);
+  }
+
+  @Override
+  public void clear() {
+    db.delete(table, null, null);
+    getEventManager().notifyEvent(this, GraphEvents.removeAll);
+  }
+
+  @Override
+  public TransactionHandler getTransactionHandler() {
+    return new TransactionHandlerBase() {
+      @Override
+      public boolean transactionsSupported() {
+        return true;
+      }
+
+      @Override
+      public void begin() {
+        db.beginTransaction();
+      }
+
+      @Override
+      public void commit() {
+        db.setTransactionSuccessful();
+        db.endTransaction();
+      }
+
+      @Override
+      public void abort() {
+        db.endTransaction();
+      }
+    };
+  }
+
+  @Override
+  protected PrefixMapping createPrefixMapping() {
+    return new StoredPrefixMapping();
+  }
+
+  @Override
+  public void close() {
+    insert.close();
+    if (helper != null) {
+      helper.close();
+    }
+    super.close();
+  }
+
+  /**
+   * Builds the WHERE clause matching the given nodes, where null or a
+   * variable matches anything, and returns its arguments.
+   */
+  private static String[] selection(Node s, Node p, Node o, StringBuilder where) {
+    Node[] nodes = { s, p, o };
+    String[] args = new String[3];
+    int count = 0;
+    for (int i = 0; i < nodes.length; i++) {
+      if (nodes[i] != null && nodes[i].isConcrete()) {
+        if (count > 0) {
+          where.append(" AND ");
+        }
+        where.append(COLUMNS[i]).append(" = ?");
+        args[count++] = encode(nodes[i]);
+      }
+    }
+    if (count == 0) {
+      return null;
+    }
+    String[] result = new String[count];
+    System.arraycopy(args, 0, result, 0, count);
+    return result;
+  }
+
+  /**
+   * Encodes a node as a string. Literals are encoded as their language and
+   * datatype followed by the lexical form, which may contain any character.
+   */
+  static String encode(Node node) {
+    if (node.isURI()) {
+      return URI + node.getURI();
+    } else if (node.isBlank()) {
+      return BLANK + node.getBlankNodeLabel();
+    } else if (node.isLiteral()) {
+      String datatype = node.getLiteralDatatypeURI();
+      return LITERAL + node.getLiteralLanguage() + SEPARATOR
+          + (datatype == null ? "" : datatype) + SEPARATOR + node.getLiteralLexicalForm();
+    }
+    throw new IllegalArgumentException("Cannot store node " + node);
+  }
+
+  /**
+   * Decodes a node encoded by {@link #encode(Node)}.
+   */
+  static Node decode(String s) {
+    String value = s.substring(1);
+    switch (s.charAt(0)) {
+      case URI:
+        return Node.createURI(value);
+      case BLANK:
+        return Node.createAnon(new AnonId(value));
+      default:
+        int langEnd = value.indexOf(SEPARATOR);
+        int datatypeEnd = value.indexOf(SEPARATOR, langEnd + 1);
+        String lang = value.substring(0, langEnd);
+        String datatype = value.substring(langEnd + 1, datatypeEnd);
+        return Node.createLiteral(value.substring(datatypeEnd + 1), lang,
+            datatype.length() == 0 ? null : TypeMapper.getInstance().getSafeTypeByName(datatype));
+    }
+  }
+
+  /**
+   * Prefix mapping that writes its prefixes to the database.
+   */
+  private final class StoredPrefixMapping extends PrefixMappingImpl {
+    StoredPrefixMapping() {
+      Cursor cursor = db.query(PREFIXES, new String[] { "prefix", "uri" }, null, null, null,
+          null, null);
+      try {
+        while (cursor.moveToNext()) {
+          super.setNsPrefix(cursor.getString(0), cursor.getString(1));
+        }
+      } finally {
+        cursor.close();
+      }
+    }
+
+    @Override
+    public PrefixMapping setNsPrefix(String prefix, String uri) {
+      super.setNsPrefix(prefix, uri);
+      db.execSQL("INSERT OR REPLACE INTO " + PREFIXES + " (prefix, uri) VALUES (?, ?)",
+          new Object[] { prefix, uri });
+      return this;
+    }
+
+    @Override
+    public PrefixMapping removeNsPrefix(String prefix) {
+      super.removeNsPrefix(prefix);
+      db.delete(PREFIXES, "prefix = ?", new String[] { prefix });
+      return this;
+    }
+  }
+
+  /**
+   * Iterates over the triples read by a cursor, closing it once all of them
+   * have been read.
+   */
+  private final class CursorIterator extends NiceIterator<Triple> {
+    private final Cursor cursor;
+    private boolean advanced = false;
+    private boolean hasNext = false;
+    private Triple current = null;
+
+    CursorIterator(Cursor cursor) {
+      this.cursor = cursor;
+    }
+
+    @Override
+    public boolean hasNext() {
+      if (!advanced) {
+        hasNext = !cursor.isClosed() && cursor.moveToNext();
+        advanced = true;
+        if (!hasNext) {
+          close();
+        }
+      }
+      return hasNext;
+    }
+
+    @Override
+    public Triple next() {
+      ensureHasNext();
+      advanced = false;
+      current = Triple.create(decode(cursor.getString(0)), decode(cursor.getString(1)),
+          decode(cursor.getString(2)));
+      return current;
+    }
+
+    @Override
+    public void remove() {
+      if (current == null) {
+        throw new IllegalStateException();
+      }
+      delete(current);
+      current = null;
+    }
+
+    @Override
+    public void close() {
+      cursor.close();
+    }
+  }
+}
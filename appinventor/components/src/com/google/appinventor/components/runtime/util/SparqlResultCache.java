@@ -0,0 +1,346 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.hp.hpl.jena.query.Query;
+
+/**
+ * Caches the results of SPARQL SELECT queries on the device, so that
+ * repeating a query, e.g. looking up the labels shown by a list picker each
+ * time a screen opens, does not go to the network.
+ *
+ * Results are kept as SPARQL JSON in files under the app's cache directory,
+ * keyed by the endpoint and the query as serialized by Jena, so that queries
+ * differing only in whitespace or formatting share an entry. The files are
+ * shared by all components of the app and survive restarts; when they
+ * exceed the byte budget, the least recently used ones are deleted. Each
+ * component has its own cache object, with its own time to live and
+ * hit and miss counters.
+ */
+public final class SparqlResultCache {
+
+  private static final String LOG_TAG = SparqlResultCache.class.getSimpleName();
+  private static final String DIRECTORY = "sparql";
+  private static final String SUFFIX = ".json";
+
+  /** default byte budget of the cache **/
+  public static final long DEFAULT_MAX_BYTES = 1024 * 1024;
+
+  // Guarded by SparqlResultCache.class
+  private static Store store;
+
+  private final Store shared;
+  private volatile long ttlMillis;
+  private volatile int hits = 0;
+  private volatile int misses = 0;
+
+  /**
+   * Creates a cache object for a component.
+   * @param context Context of the app
+   * @param ttlMillis Time after which a cached result is not used, or 0 to
+   * bypass the cache
+   */
+  public SparqlResultCache(Context context, long ttlMillis) {
+    this.shared = getStore(context);
+    this.ttlMillis = ttlMillis;
+  }
+
+  private static synchronized Store getStore(Context context) {
+    if (store == null) {
+      final Store newStore = new Store(new File(context.getCacheDir(), DIRECTORY));
+      // Listing the files of the cache touches the disk, so it is not done
+      // on the UI thread, which creates the components.
+      AsynchUtil.runAsynchronously(new Runnable() {
+        @Override
+        public void run() {
+          newStore.load();
+        }
+      });
+      store = newStore;
+    }
+    return store;
+  }
+
+  public void setTtlMillis(long ttlMillis) {
+    this.ttlMillis = ttlMillis;
+  }
+
+  public long getTtlMillis() {
+    return ttlMillis;
+  }
+
+  /**
+   * Sets the byte budget of the cache, which is shared by all components of
+   * the app.
+   */
+  public void setMaxBytes(long maxBytes) {
+    shared.setMaxBytes(maxBytes);
+  }
+
+  public long getMaxBytes() {
+    return shared.getMaxBytes();
+  }
+
+  public int getHits() {
+    return hits;
+  }
+
+  public int getMisses() {
+    return misses;
+  }
+
+  /**
+   * Returns true if results should be looked up and stored in the cache.
+   */
+  public boolean isEnabled() {
+    return ttlMillis > 0;
+  }
+
+  /**
+   * Returns the cached results of a query in SPARQL JSON, or null if there
+   * are none or they are older than the time to live.
+   */
+  public byte[] get(String endpoint, Query query) {
+    byte[] results = shared.get(key(endpoint, query), ttlMillis);
+    synchronized (this) {
+      if (results == null) {
+        misses++;
+      } else {
+        hits++;
+      }
+    }
+    return results;
+  }
+
+  /**
+   * Stores the results of a query in SPARQL JSON.
+   */
+  public void put(String endpoint, Query query, byte[] results) {
+    shared.put(key(endpoint, query), results);
+  }
+
+  private static String key(String endpoint, Query query) {
+    try {
+      MessageDigest md5 = MessageDigest.getInstance("MD5");
+      md5.update(endpoint.getBytes("UTF-8"));
+      md5.update((byte) 0);
+      md5.update(query.serialize().getBytes("UTF-8"));
+      StringBuilder sb = new StringBuilder();
+      for (byte b : md5.digest()) {
+        sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+        sb.append(Character.forDigit(b & 0xf, 16));
+      }
+      return sb.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * The files of the cache, in least recently used order. Until the files
+   * written earlier have been loaded, they are not found, but results can
+   * already be stored.
+   */
+  private static final class Store {
+    private final File dir;
+    // Guarded by this
+    private final LinkedHashMap<String, Entry> entries =
+        new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private long bytes = 0;
+    private long maxBytes = DEFAULT_MAX_BYTES;
+
+    private static final class Entry {
+      final long created;
+      final long size;
+
+      Entry(long created, long size) {
+        this.created = created;
+        this.size = size;
+      }
+    }
+
+    Store(File dir) {
+      this.dir = dir;
+    }
+
+    /**
+     * Loads the files written earlier, ordered by the time they were written,
+     * before the results stored since the store was created.
+     */
+    void load() {
+      if (!dir.isDirectory() && !dir.mkdirs()) {
+        Log.w(LOG_TAG, "Unable to create cache directory " + dir);
+      }
+      File[] files = dir.listFiles();
+      if (files == null) {
+        files = new File[0];
+      }
+      List<File> list = new ArrayList<File>();
+      for (File file : files) {
+        if (file.getName().endsWith(SUFFIX)) {
+          list.add(file);
+        } else {
+          // left behind by a write that did not finish
+          file.delete();
+        }
+      }
+      Collections.sort(list, new Comparator<File>() {
+        @Override
+        public int compare(File a, File b) {
+          long diff = a.lastModified() - b.lastModified();
+          return diff < 0 ? -1 : diff > 0 ? 1 : 0;
+        }
+      });
+      synchronized (this) {
+        LinkedHashMap<String, Entry> stored = new LinkedHashMap<String, Entry>(entries);
+        entries.clear();
+        for (File file : list) {
+          String name = file.getName();
+          String key = name.substring(0, name.length() - SUFFIX.length());
+          if (!stored.containsKey(key)) {
+            entries.put(key, new Entry(file.lastModified(), file.length()));
+            bytes += file.length();
+          }
+        }
+        entries.putAll(stored);
+        evict();
+      }
+    }
+
+    synchronized void setMaxBytes(long maxBytes) {
+      this.maxBytes = maxBytes;
+      evict();
+    }
+
+    synchronized long getMaxBytes() {
+      return maxBytes;
+    }
+
+    byte[] get(String key, long ttlMillis) {
+      synchronized (this) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+          return null;
+        }
+        if (System.currentTimeMillis() - entry.created > ttlMillis) {
+          remove(key);
+          return null;
+        }
+      }
+      File file = file(key);
+      InputStream in = null;
+      try {
+        in = new FileInputStream(file);
+        byte[] data = new byte[(int) file.length()];
+        int read = 0;
+        while (read < data.length) {
+          int n = in.read(data, read, data.length - read);
+          if (n < 0) {
+            throw new IOException("Unexpected end of " + file);
+          }
+          read += n;
+        }
+        return data;
+      } catch (IOException e) {
+        Log.w(LOG_TAG, "Unable to read cached results.", e);
+        synchronized (this) {
+          remove(key);
+        }
+        return null;
+      } finally {
+        close(in);
+      }
+    }
+
+    void put(String key, byte[] data) {
+      if (data.length > getMaxBytes()) {
+        return;
+      }
+      // Write to a temporary file first, so that readers never see a
+      // partially written entry.
+      File tmp = new File(dir, key + ".tmp" + Thread.currentThread().getId());
+      OutputStream out = null;
+      try {
+        out = new FileOutputStream(tmp);
+        out.write(data);
+      } catch (IOException e) {
+        Log.w(LOG_TAG, "Unable to cache results.", e);
+        close(out);
+        tmp.delete();
+        return;
+      }
+      close(out);
+      synchronized (this) {
+        remove(key);
+        if (!tmp.renameTo(file(key))) {
+          tmp.delete();
+          return;
+        }
+        entries.put(key, new Entry(System.currentTimeMillis(), data.length));
+        bytes += data.length;
+        evict();
+      }
+    }
+
+    // Requires this to be locked
+    private void remove(String key) {
+      Entry entry = entries.remove(key);
+      if (entry != null) {
+        bytes -= entry.size;
+        file(key).delete();
+      }
+    }
+
+    // Requires this to be locked
+    private void evict() {
+      Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+      while (bytes > maxBytes && it.hasNext()) {
+        Map.Entry<String, Entry> eldest = it.next();
+        it.remove();
+        bytes -= eldest.getValue().size;
+        file(eldest.getKey()).delete();
+      }
+    }
+
+    private File file(String key) {
+      return new File(dir, key + SUFFIX);
+    }
+
+    private static void close(Closeable c) {
+      if (c != null) {
+        try {
+          c.close();
+        } catch (IOException e) {
+          // ignored
+        }
+      }
+    }
+  }
+}
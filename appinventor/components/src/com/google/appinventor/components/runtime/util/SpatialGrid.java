@@ -0,0 +1,195 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime.util;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Uniform grid of square cells used to find the items whose bounding boxes
+ * may intersect a given bounding box without examining every item.
+ *
+ * <p>Each item is recorded in every cell its bounding box overlaps, and is
+ * moved between cells when {@link #put(Object, BoundingBox)} is called with
+ * a new bounding box.  A query returns the items recorded in the cells the
+ * queried box overlaps, which is a superset of the items that actually
+ * intersect it, so callers still need to perform the exact test.</p>
+ *
+ * <p>Items whose bounding boxes span more than {@link #MAX_CELLS} cells are
+ * kept apart and returned by every query, so that a huge item does not
+ * fill the grid.</p>
+ *
+ * @param <T> the type of the items
+ */
+public final class SpatialGrid<T> {
+  /**
+   * The largest number of cells an item is recorded in.
+   */
+  public static final int MAX_CELLS = 64;
+
+  private final double cellSize;
+
+  // Items by cell, where the key holds the column in its upper and the row
+  // in its lower 32 bits.  Empty cells are removed.
+  private final Map<Long, Set<T>> cells = new HashMap<Long, Set<T>>();
+
+  // Range of cells covered by each item, as {left, top, right, bottom}
+  // (inclusive), or null for items that are too big for the grid.
+  private final Map<T, int[]> ranges = new HashMap<T, int[]>();
+
+  private final Set<T> oversized = new HashSet<T>();
+
+  /**
+   * Creates an empty grid.
+   *
+   * @param cellSize the width and height of a cell
+   */
+  public SpatialGrid(double cellSize) {
+    if (!(cellSize > 0)) {
+      throw new IllegalArgumentException("Cell size must be positive: " + cellSize);
+    }
+    this.cellSize = cellSize;
+  }
+
+  /**
+   * Adds an item to the grid, or moves it if it was already present.
+   *
+   * @param item the item
+   * @param box the bounding box of the item
+   */
+  public void put(T item, BoundingBox box) {
+    int[] range = range(box);
+    if (range != null && (long) (range[2] - range[0] + 1) * (range[3] - range[1] + 1)
+        > MAX_CELLS) {
+      range = null;
+    }
+    if (ranges.containsKey(item)) {
+      int[] old = ranges.get(item);
+      if (old == null ? range == null : range != null && Arrays.equals(old, range)) {
+        return;
+      }
+      remove(item);
+    }
+    ranges.put(item, range);
+    if (range == null) {
+      oversized.add(item);
+      return;
+    }
+    for (int column = range[0]; column <= range[2]; column++) {
+      for (int row = range[1]; row <= range[3]; row++) {
+        Long key = key(column, row);
+        Set<T> cell = cells.get(key);
+        if (cell == null) {
+          cell = new HashSet<T>();
+          cells.put(key, cell);
+        }
+        cell.add(item);
+      }
+    }
+  }
+
+  /**
+   * Removes an item from the grid.  Does nothing if it is not present.
+   *
+   * @param item the item
+   */
+  public void remove(T item) {
+    if (!ranges.containsKey(item)) {
+      return;
+    }
+    int[] range = ranges.remove(item);
+    if (range == null) {
+      oversized.remove(item);
+      return;
+    }
+    for (int column = range[0]; column <= range[2]; column++) {
+      for (int row = range[1]; row <= range[3]; row++) {
+        Long key = key(column, row);
+        Set<T> cell = cells.get(key);
+        if (cell != null) {
+          cell.remove(item);
+          if (cell.isEmpty()) {
+            cells.remove(key);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the items that may intersect the given bounding box.  Modifying
+   * the returned set does not affect the grid.
+   *
+   * @param box the bounding box
+   * @return the candidate items, in no particular order
+   */
+  public Set<T> query(BoundingBox box) {
+    Set<T> result = new HashSet<T>(oversized);
+    int[] range = range(box);
+    if (range == null
+        || (long) (range[2] - range[0] + 1) * (range[3] - range[1] + 1) > cells.size()) {
+      // Scanning the occupied cells is cheaper than visiting every cell of
+      // the range.
+      for (Map.Entry<T, int[]> entry : ranges.entrySet()) {
+        int[] r = entry.getValue();
+        if (r != null && (range == null || overlaps(r, range))) {
+          result.add(entry.getKey());
+        }
+      }
+      return result;
+    }
+    for (int column = range[0]; column <= range[2]; column++) {
+      for (int row = range[1]; row <= range[3]; row++) {
+        Set<T> cell = cells.get(key(column, row));
+        if (cell != null) {
+          result.addAll(cell);
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns the number of items in the grid.
+   *
+   * @return the number of items
+   */
+  public int size() {
+    return ranges.size();
+  }
+
+  // Returns the cells covered by a box, or null if its coordinates are not
+  // finite or too large to be numbered.
+  private int[] range(BoundingBox box) {
+    double[] coordinates = { box.getLeft(), box.getTop(), box.getRight(), box.getBottom() };
+    int[] range = new int[4];
+    for (int i = 0; i < coordinates.length; i++) {
+      double cell = Math.floor(coordinates[i] / cellSize);
+      if (Double.isNaN(cell) || cell < Integer.MIN_VALUE || cell > Integer.MAX_VALUE) {
+        return null;
+      }
+      range[i] = (int) cell;
+    }
+    if (range[2] < range[0] || range[3] < range[1]) {
+      // An empty box still occupies the cell of its top left corner.
+      range[2] = range[0];
+      range[3] = range[1];
+    }
+    return range;
+  }
+
+  private static boolean overlaps(int[] r1, int[] r2) {
+    return r1[0] <= r2[2] && r2[0] <= r1[2] && r1[1] <= r2[3] && r2[1] <= r1[3];
+  }
+
+  private static Long key(int column, int row) {
+    return ((long) column << 32) | (row & 0xffffffffL);
+  }
+}
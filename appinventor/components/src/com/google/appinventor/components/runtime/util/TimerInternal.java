@@ -25,6 +25,10 @@ public final class TimerInternal implements Runnable {
   // Interval between timer events in ms
   private int interval;  // set in constructor
 
+  // Indicates whether timer events are withheld while the timer is enabled,
+  // because someone else calls the component's alarm() method
+  private boolean suspended = false;
+
   // Component that should be called by timer
   private AlarmHandler component;
 
@@ -80,7 +84,7 @@ public final class TimerInternal implements Runnable {
    */
   public void Interval(int interval) {
     this.interval = interval;
-    if (enabled) {
+    if (enabled && !suspended) {
       handler.removeCallbacks(this);
       handler.postDelayed(this, interval);
     }
@@ -108,20 +112,53 @@ public final class TimerInternal implements Runnable {
 
     this.enabled = enabled;
 
-    if (enabled) {
+    if (enabled && !suspended) {
       handler.postDelayed(this, interval);
     }
   }
 
+  /**
+   * Suspended getter.
+   *
+   * @return  {@code true} if timer events are withheld while the timer is
+   *          enabled
+   */
+  public boolean Suspended() {
+    return suspended;
+  }
+
+  /**
+   * Suspended setter: withholds or resumes timer events without changing
+   * whether the timer is enabled.  This is used while the component's
+   * {@link AlarmHandler#alarm()} method is called by someone else, such as
+   * the frame scheduler of a Canvas.
+   *
+   * @param suspended  {@code true} withholds timer events, {@code false}
+   *                   resumes them
+   */
+  public void Suspended(boolean suspended) {
+    if (suspended == this.suspended) {
+      return;
+    }
+    this.suspended = suspended;
+    if (enabled) {
+      if (suspended) {
+        handler.removeCallbacks(this);
+      } else {
+        handler.postDelayed(this, interval);
+      }
+    }
+  }
+
   // Runnable implementation
 
   public void run() {
-    if (enabled) {
+    if (enabled && !suspended) {
       component.alarm();
 
       // During the call to component.alarm, the enabled field may have changed.
       // We need to make sure that enabled is still true before we call handler.postDelayed.
-      if (enabled) {
+      if (enabled && !suspended) {
         handler.postDelayed(this, interval);
       }
     }
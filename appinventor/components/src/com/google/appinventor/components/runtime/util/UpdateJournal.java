@@ -0,0 +1,216 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime.util;
+
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Set;
+
+import com.hp.hpl.jena.graph.GraphEvents;
+
+import com.hp.hpl.jena.rdf.listeners.StatementListener;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.RDFNode;
+import com.hp.hpl.jena.rdf.model.ResIterator;
+import com.hp.hpl.jena.rdf.model.Resource;
+import com.hp.hpl.jena.rdf.model.Statement;
+import com.hp.hpl.jena.rdf.model.StmtIterator;
+import com.hp.hpl.jena.shared.Lock;
+import com.hp.hpl.jena.shared.PrefixMapping;
+
+/**
+ * Records the statements added to a model that have not yet been sent to a
+ * remote triple store, so that they can be sent in batches, and sending can
+ * resume where it stopped after a failure or a restart of the app.
+ *
+ * The journal is registered as a listener of the model it tracks. The
+ * pending statements are kept in a model of their own, which may be backed
+ * by an on-device store to survive restarts.
+ *
+ * Only additions are sent. Removing a statement that is still pending drops
+ * it from the journal, but the removal of a statement that was already sent
+ * is not sent. Statements loaded into the model from elsewhere should be
+ * added while the journal is unregistered, so that they are not sent as new.
+ */
+public final class UpdateJournal extends StatementListener {
+
+  private final Model pending;
+
+  /**
+   * Creates a journal.
+   * @param pending Model holding the pending statements
+   */
+  public UpdateJournal(Model pending) {
+    this.pending = pending;
+  }
+
+  @Override
+  public void addedStatement(Statement s) {
+    pending.enterCriticalSection(Lock.WRITE);
+    try {
+      pending.add(s);
+    } finally {
+      pending.leaveCriticalSection();
+    }
+  }
+
+  @Override
+  public void removedStatement(Statement s) {
+    pending.enterCriticalSection(Lock.WRITE);
+    try {
+      pending.remove(s);
+    } finally {
+      pending.leaveCriticalSection();
+    }
+  }
+
+  @Override
+  public void notifyEvent(Model model, Object event) {
+    // Model.removeAll() clears the graph without reporting each statement.
+    if (GraphEvents.removeAll.equals(event)) {
+      pending.enterCriticalSection(Lock.WRITE);
+      try {
+        pending.removeAll();
+      } finally {
+        pending.leaveCriticalSection();
+      }
+    }
+  }
+
+  /**
+   * Adds to this journal the statements pending in another one, so that they
+   * are still sent once the model they were added to has been copied.
+   */
+  public void addAll(UpdateJournal other) {
+    other.pending.enterCriticalSection(Lock.READ);
+    pending.enterCriticalSection(Lock.WRITE);
+    try {
+      if (pending.supportsTransactions()) {
+        pending.begin();
+      }
+      pending.add(other.pending);
+      if (pending.supportsTransactions()) {
+        pending.commit();
+      }
+    } finally {
+      pending.leaveCriticalSection();
+      other.pending.leaveCriticalSection();
+    }
+  }
+
+  /**
+   * Returns the number of statements waiting to be sent.
+   */
+  public int size() {
+    pending.enterCriticalSection(Lock.READ);
+    try {
+      return (int) pending.size();
+    } finally {
+      pending.leaveCriticalSection();
+    }
+  }
+
+  /**
+   * Returns the next batch of statements to send, or null if there are none.
+   * The statements about a subject are kept in the same batch, together with
+   * the statements about the blank nodes they refer to and the statements
+   * referring to those blank nodes. A blank node is only meaningful within
+   * one request, so it must not be split across requests. A batch may
+   * therefore exceed the given size by one such group of statements.
+   * @param maxStatements Size of a batch
+   * @param prefixes Prefixes used when the batch is serialized
+   */
+  public Model nextBatch(int maxStatements, PrefixMapping prefixes) {
+    Model batch = ModelFactory.createDefaultModel();
+    batch.setNsPrefixes(prefixes);
+    pending.enterCriticalSection(Lock.READ);
+    try {
+      Set<Resource> visited = new HashSet<Resource>();
+      ResIterator subjects = pending.listSubjects();
+      try {
+        while (subjects.hasNext() && batch.size() < maxStatements) {
+          Resource subject = subjects.next();
+          if (visited.add(subject)) {
+            addConnected(subject, visited, batch);
+          }
+        }
+      } finally {
+        subjects.close();
+      }
+    } finally {
+      pending.leaveCriticalSection();
+    }
+    return batch.isEmpty() ? null : batch;
+  }
+
+  /*
+   * Adds to the batch the statements about the given subject, and follows
+   * blank nodes in both directions: to the statements about the blank nodes
+   * the subject refers to, and to the statements of other subjects that
+   * refer to the same blank nodes. Must be called with pending locked.
+   */
+  private void addConnected(Resource subject, Set<Resource> visited, Model batch) {
+    LinkedList<Resource> toVisit = new LinkedList<Resource>();
+    toVisit.add(subject);
+    while (!toVisit.isEmpty()) {
+      Resource resource = toVisit.remove();
+      StmtIterator statements = pending.listStatements(resource, null, (RDFNode) null);
+      try {
+        while (statements.hasNext()) {
+          Statement statement = statements.next();
+          batch.add(statement);
+          RDFNode object = statement.getObject();
+          if (object.isAnon() && visited.add(object.asResource())) {
+            toVisit.add(object.asResource());
+          }
+        }
+      } finally {
+        statements.close();
+      }
+      if (resource.isAnon()) {
+        StmtIterator referrers = pending.listStatements(null, null, resource);
+        try {
+          while (referrers.hasNext()) {
+            Resource referrer = referrers.next().getSubject();
+            if (visited.add(referrer)) {
+              toVisit.add(referrer);
+            }
+          }
+        } finally {
+          referrers.close();
+        }
+      }
+    }
+  }
+
+  /**
+   * Removes a batch returned by {@link #nextBatch(int, PrefixMapping)} once
+   * it has been sent.
+   */
+  public void commit(Model batch) {
+    pending.enterCriticalSection(Lock.WRITE);
+    try {
+      if (pending.supportsTransactions()) {
+        pending.begin();
+      }
+      pending.remove(batch);
+      if (pending.supportsTransactions()) {
+        pending.commit();
+      }
+    } finally {
+      pending.leaveCriticalSection();
+    }
+  }
+
+  /**
+   * Closes the model holding the pending statements.
+   */
+  public void close() {
+    pending.close();
+  }
+}
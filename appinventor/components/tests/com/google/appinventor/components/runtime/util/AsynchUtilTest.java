@@ -0,0 +1,166 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests AsynchUtil class.
+ *
+ */
+public class AsynchUtilTest extends TestCase {
+  private static final long TIMEOUT = 10;  // seconds
+
+  public void testRunsCall() throws Exception {
+    final CountDownLatch done = new CountDownLatch(1);
+    AsynchUtil.runAsynchronously(new Runnable() {
+      public void run() {
+        done.countDown();
+      }
+    });
+    assertTrue(done.await(TIMEOUT, TimeUnit.SECONDS));
+  }
+
+  public void testOwnerRunningLimit() throws Exception {
+    final Object owner = new Object();
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(AsynchUtil.MAX_RUNNING_PER_OWNER + 2);
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicInteger maxRunning = new AtomicInteger();
+    for (int i = 0; i < AsynchUtil.MAX_RUNNING_PER_OWNER + 2; i++) {
+      assertTrue(AsynchUtil.runAsynchronously(owner, AsynchUtil.PRIORITY_NORMAL, new Runnable() {
+        public void run() {
+          int now = running.incrementAndGet();
+          synchronized (maxRunning) {
+            maxRunning.set(Math.max(maxRunning.get(), now));
+          }
+          try {
+            release.await(TIMEOUT, TimeUnit.SECONDS);
+          } catch (InterruptedException e) {
+            // done
+          }
+          running.decrementAndGet();
+          done.countDown();
+        }
+      }));
+    }
+    assertEquals(AsynchUtil.MAX_RUNNING_PER_OWNER + 2, AsynchUtil.getPendingCount(owner));
+    release.countDown();
+    assertTrue(done.await(TIMEOUT, TimeUnit.SECONDS));
+    assertTrue(maxRunning.get() <= AsynchUtil.MAX_RUNNING_PER_OWNER);
+  }
+
+  public void testRejectsWhenOwnerQueueIsFull() throws Exception {
+    Object owner = new Object();
+    final CountDownLatch release = new CountDownLatch(1);
+    Runnable block = new Runnable() {
+      public void run() {
+        try {
+          release.await(TIMEOUT, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          // done
+        }
+      }
+    };
+    long rejected = AsynchUtil.getRejectedCount();
+    int limit = AsynchUtil.MAX_RUNNING_PER_OWNER + AsynchUtil.MAX_PENDING_PER_OWNER;
+    for (int i = 0; i < limit; i++) {
+      assertTrue(AsynchUtil.runAsynchronously(owner, AsynchUtil.PRIORITY_NORMAL, block));
+    }
+    assertFalse(AsynchUtil.runAsynchronously(owner, AsynchUtil.PRIORITY_NORMAL, block));
+    assertEquals(rejected + 1, AsynchUtil.getRejectedCount());
+    // Calls without an owner are never refused.
+    final CountDownLatch done = new CountDownLatch(1);
+    AsynchUtil.runAsynchronously(new Runnable() {
+      public void run() {
+        done.countDown();
+      }
+    });
+    assertTrue(done.await(TIMEOUT, TimeUnit.SECONDS));
+    release.countDown();
+    long deadline = System.currentTimeMillis() + TIMEOUT * 1000;
+    while (AsynchUtil.getPendingCount(owner) > 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(0, AsynchUtil.getPendingCount(owner));
+  }
+
+  public void testUnownedCallsLeaveThreadsForOwners() throws Exception {
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountDownLatch unownedDone = new CountDownLatch(AsynchUtil.MAX_THREADS);
+    for (int i = 0; i < AsynchUtil.MAX_THREADS; i++) {
+      AsynchUtil.runAsynchronously(new Runnable() {
+        public void run() {
+          try {
+            release.await(TIMEOUT, TimeUnit.SECONDS);
+          } catch (InterruptedException e) {
+            // done
+          }
+          unownedDone.countDown();
+        }
+      });
+    }
+    // The blocked calls without an owner would take every thread of the
+    // pool, but the call of an owner still runs.
+    final CountDownLatch ownedDone = new CountDownLatch(1);
+    assertTrue(AsynchUtil.runAsynchronously(new Object(), AsynchUtil.PRIORITY_NORMAL,
+        new Runnable() {
+          public void run() {
+            ownedDone.countDown();
+          }
+        }));
+    try {
+      assertTrue(ownedDone.await(TIMEOUT, TimeUnit.SECONDS));
+    } finally {
+      release.countDown();
+    }
+    assertTrue(unownedDone.await(TIMEOUT, TimeUnit.SECONDS));
+  }
+
+  public void testWaitingCallsRunByPriority() throws Exception {
+    Object owner = new Object();
+    final CountDownLatch release = new CountDownLatch(1);
+    Runnable block = new Runnable() {
+      public void run() {
+        try {
+          release.await(TIMEOUT, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          // done
+        }
+      }
+    };
+    for (int i = 0; i < AsynchUtil.MAX_RUNNING_PER_OWNER; i++) {
+      AsynchUtil.runAsynchronously(owner, AsynchUtil.PRIORITY_NORMAL, block);
+    }
+    final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+    final CountDownLatch done = new CountDownLatch(3);
+    AsynchUtil.runAsynchronously(owner, AsynchUtil.PRIORITY_LOW, record("low", order, done));
+    AsynchUtil.runAsynchronously(owner, AsynchUtil.PRIORITY_NORMAL, record("normal", order, done));
+    AsynchUtil.runAsynchronously(owner, AsynchUtil.PRIORITY_HIGH, record("high", order, done));
+    release.countDown();
+    assertTrue(done.await(TIMEOUT, TimeUnit.SECONDS));
+    // The waiting calls are admitted in priority order as the blocking calls finish.
+    assertEquals("high", order.get(0));
+  }
+
+  private static Runnable record(final String name, final List<String> order,
+                                 final CountDownLatch done) {
+    return new Runnable() {
+      public void run() {
+        order.add(name);
+        done.countDown();
+      }
+    };
+  }
+}
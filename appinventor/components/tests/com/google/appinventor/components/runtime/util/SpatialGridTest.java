@@ -0,0 +1,87 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime.util;
+
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests SpatialGrid class.
+ *
+ */
+public class SpatialGridTest extends TestCase {
+  private SpatialGrid<String> grid;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    grid = new SpatialGrid<String>(10);
+  }
+
+  public void testQueryFindsNearbyItems() {
+    grid.put("a", new BoundingBox(0, 0, 5, 5));
+    grid.put("b", new BoundingBox(100, 100, 105, 105));
+    Set<String> result = grid.query(new BoundingBox(3, 3, 4, 4));
+    assertTrue(result.contains("a"));
+    assertFalse(result.contains("b"));
+    assertEquals(2, grid.size());
+  }
+
+  public void testItemSpanningCells() {
+    grid.put("a", new BoundingBox(5, 5, 25, 15));
+    assertTrue(grid.query(new BoundingBox(22, 12, 22, 12)).contains("a"));
+    assertTrue(grid.query(new BoundingBox(0, 0, 1, 1)).contains("a"));
+    assertFalse(grid.query(new BoundingBox(35, 5, 36, 6)).contains("a"));
+  }
+
+  public void testNegativeCoordinates() {
+    grid.put("a", new BoundingBox(-15, -15, -11, -11));
+    assertTrue(grid.query(new BoundingBox(-12, -12, -12, -12)).contains("a"));
+    assertFalse(grid.query(new BoundingBox(0, 0, 1, 1)).contains("a"));
+  }
+
+  public void testMove() {
+    grid.put("a", new BoundingBox(0, 0, 5, 5));
+    grid.put("a", new BoundingBox(50, 50, 55, 55));
+    assertFalse(grid.query(new BoundingBox(0, 0, 5, 5)).contains("a"));
+    assertTrue(grid.query(new BoundingBox(50, 50, 55, 55)).contains("a"));
+    assertEquals(1, grid.size());
+  }
+
+  public void testRemove() {
+    grid.put("a", new BoundingBox(0, 0, 5, 5));
+    grid.remove("a");
+    grid.remove("a");
+    assertTrue(grid.query(new BoundingBox(0, 0, 5, 5)).isEmpty());
+    assertEquals(0, grid.size());
+  }
+
+  public void testOversizedItemIsAlwaysReturned() {
+    grid.put("big", new BoundingBox(0, 0, 1000, 1000));
+    grid.put("nan", new BoundingBox(Double.NaN, 0, 5, 5));
+    Set<String> result = grid.query(new BoundingBox(-500, -500, -499, -499));
+    assertTrue(result.contains("big"));
+    assertTrue(result.contains("nan"));
+    grid.remove("big");
+    assertFalse(grid.query(new BoundingBox(0, 0, 1, 1)).contains("big"));
+  }
+
+  public void testLargeQuery() {
+    grid.put("a", new BoundingBox(0, 0, 5, 5));
+    grid.put("b", new BoundingBox(500, 500, 505, 505));
+    Set<String> result = grid.query(new BoundingBox(0, 0, 499, 499));
+    assertTrue(result.contains("a"));
+    assertFalse(result.contains("b"));
+  }
+
+  public void testQueryResultIsACopy() {
+    grid.put("a", new BoundingBox(0, 0, 5, 5));
+    grid.query(new BoundingBox(0, 0, 5, 5)).clear();
+    assertTrue(grid.query(new BoundingBox(0, 0, 5, 5)).contains("a"));
+  }
+}
@@ -0,0 +1,114 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime.util;
+
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.Property;
+import com.hp.hpl.jena.rdf.model.Resource;
+import com.hp.hpl.jena.rdf.model.Statement;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests UpdateJournal class.
+ *
+ */
+public class UpdateJournalTest extends TestCase {
+  private static final String NS = "http://example.org/";
+
+  private Model model;
+  private UpdateJournal journal;
+  private Property p;
+  private Property q;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    model = ModelFactory.createDefaultModel();
+    journal = new UpdateJournal(ModelFactory.createDefaultModel());
+    model.register(journal);
+    p = model.createProperty(NS, "p");
+    q = model.createProperty(NS, "q");
+  }
+
+  public void testBatchesHoldAllPendingStatements() {
+    for (int i = 0; i < 5; i++) {
+      model.add(model.createResource(NS + "s" + i), p, "v" + i);
+    }
+    assertEquals(5, journal.size());
+    int sent = 0;
+    Model batch;
+    while ((batch = journal.nextBatch(2, model)) != null) {
+      assertTrue(batch.size() <= 2);
+      sent += batch.size();
+      journal.commit(batch);
+    }
+    assertEquals(5, sent);
+    assertEquals(0, journal.size());
+  }
+
+  public void testBlankNodeStaysWithTheStatementReferringToIt() {
+    Resource blank = model.createResource();
+    Statement reference = model.createStatement(model.createResource(NS + "s"), p, blank);
+    Statement description = model.createStatement(blank, q, "x");
+    // Statements added in this order make the blank node a subject of its own.
+    model.add(description);
+    model.add(model.createResource(NS + "t"), p, "y");
+    model.add(reference);
+    assertBatchedTogether(reference, description);
+  }
+
+  public void testBlankNodeSharedBySubjectsKeepsThemTogether() {
+    Resource blank = model.createResource();
+    Statement first = model.createStatement(model.createResource(NS + "s"), p, blank);
+    Statement second = model.createStatement(model.createResource(NS + "t"), p, blank);
+    Statement description = model.createStatement(blank, q, "x");
+    model.add(first);
+    model.add(model.createResource(NS + "u"), p, "y");
+    model.add(second);
+    model.add(description);
+    assertBatchedTogether(first, second, description);
+  }
+
+  public void testRemoveAllDropsPendingStatements() {
+    model.add(model.createResource(NS + "s"), p, "x");
+    model.add(model.createResource(NS + "t"), p, "y");
+    assertEquals(2, journal.size());
+    model.removeAll();
+    assertEquals(0, journal.size());
+    assertNull(journal.nextBatch(10, model));
+  }
+
+  public void testAddAllKeepsPendingStatements() {
+    model.add(model.createResource(NS + "s"), p, "x");
+    UpdateJournal other = new UpdateJournal(ModelFactory.createDefaultModel());
+    other.addAll(journal);
+    assertEquals(1, other.size());
+    assertEquals(1, journal.size());
+  }
+
+  /*
+   * Sends the journal one batch at a time, and checks that the given
+   * statements are all in the same batch.
+   */
+  private void assertBatchedTogether(Statement... statements) {
+    boolean found = false;
+    Model batch;
+    while ((batch = journal.nextBatch(1, model)) != null) {
+      if (batch.contains(statements[0])) {
+        for (Statement statement : statements) {
+          assertTrue(batch.contains(statement));
+        }
+        found = true;
+      }
+      journal.commit(batch);
+    }
+    assertTrue(found);
+    assertEquals(0, journal.size());
+  }
+}